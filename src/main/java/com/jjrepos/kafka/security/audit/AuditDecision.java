@@ -0,0 +1,23 @@
+package com.jjrepos.kafka.security.audit;
+
+import java.util.Locale;
+
+public enum AuditDecision {
+    AUTHENTICATION_CACHED(100),
+    AUTHENTICATION_SUCCESS(100),
+    AUTHENTICATION_FAILURE(100),
+    AUTHENTICATION_THROTTLED(100),
+    AUTHORIZATION_ALLOWED(0),
+    AUTHORIZATION_DENIED(100);
+
+    /**
+     * Name used in the audit output and in the per decision configuration properties.
+     */
+    public final String config;
+    final int defaultSamplePercent;
+
+    AuditDecision(int defaultSamplePercent) {
+        this.config = name().toLowerCase(Locale.ROOT).replace('_', '.');
+        this.defaultSamplePercent = defaultSamplePercent;
+    }
+}
@@ -0,0 +1,275 @@
+package com.jjrepos.kafka.security.audit;
+
+import com.jjrepos.kafka.security.ldap.LdapProperty;
+import com.jjrepos.kafka.security.ldap.concurrency.TokenBucketRateLimiter;
+import com.jjrepos.kafka.security.utils.JmxUtils;
+import com.jjrepos.kafka.security.utils.PropertyUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Audit trail of authentication and authorization decisions, kept off the request threads.
+ * <p>
+ * Recording a decision samples it, applies the decision's rate limit and pushes a fixed-size record into a ring
+ * buffer; it never formats, logs or blocks. A daemon thread drains the ring in batches, formats the records as
+ * {@code key=value} lines and hands them to the sink, by default the {@code com.jjrepos.kafka.security.audit} logger.
+ * Records that do not fit into a full ring are counted and reported instead of slowing the caller down.
+ * <p>
+ * Principals and resources come from clients, so a value with spaces, {@code =}, quotes, backslashes or control
+ * characters is written in double quotes with those escaped, and cannot forge a field or a record.
+ */
+public final class AuditLog implements AuditLogMXBean, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(AuditLog.class);
+    private static final Logger AUDIT = LoggerFactory.getLogger("com.jjrepos.kafka.security.audit");
+
+    private static final AuditLog DISABLED = new AuditLog();
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long JOIN_MILLIS = 1000;
+
+    private final boolean enabled;
+    private final AuditRingBuffer buffer;
+    private final int batchSize;
+    private final AuditSink sink;
+    private final int[] samplePercent = new int[AuditDecision.values().length];
+    private final TokenBucketRateLimiter[] rateLimits = new TokenBucketRateLimiter[AuditDecision.values().length];
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final Thread consumer;
+    private ObjectName objectName;
+    private volatile boolean running;
+
+    private AuditLog() {
+        this.enabled = false;
+        this.buffer = null;
+        this.batchSize = 0;
+        this.sink = null;
+        this.consumer = null;
+    }
+
+    AuditLog(String name, int bufferSize, int batchSize, Map<AuditDecision, Integer> samplePercent,
+             Map<AuditDecision, Long> rateLimitPerSecond, AuditSink sink) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Expected a positive audit batch size, got " + batchSize);
+        }
+        this.enabled = true;
+        this.buffer = new AuditRingBuffer(bufferSize);
+        this.batchSize = batchSize;
+        this.sink = Objects.requireNonNull(sink);
+        for (final AuditDecision decision : AuditDecision.values()) {
+            final int percent = samplePercent.getOrDefault(decision, decision.defaultSamplePercent);
+            if (percent < 0 || percent > 100) {
+                throw new IllegalArgumentException("Expected a sample percentage between 0 and 100 for " + decision.config);
+            }
+            this.samplePercent[decision.ordinal()] = percent;
+            final long rate = rateLimitPerSecond.getOrDefault(decision, 0L);
+            if (rate > 0) {
+                rateLimits[decision.ordinal()] = new TokenBucketRateLimiter(rate, rate);
+            }
+        }
+        this.running = true;
+        this.consumer = new Thread(this::consume, name + "-audit");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    public static AuditLog disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Creates the audit log described by the {@code ldap.audit.*} properties, registering its metrics under the name.
+     */
+    public static AuditLog create(String name, Map<String, ?> configs) {
+        if (!PropertyUtils.getBooleanProperty(configs, LdapProperty.AUDIT_ENABLED.config, false)) {
+            LOG.info("Audit log of {} disabled.", name);
+            return DISABLED;
+        }
+        final Map<AuditDecision, Integer> samplePercent = new EnumMap<>(AuditDecision.class);
+        final Map<AuditDecision, Long> rateLimits = new EnumMap<>(AuditDecision.class);
+        for (final AuditDecision decision : AuditDecision.values()) {
+            samplePercent.put(decision, PropertyUtils.getIntProperty(configs,
+                    LdapProperty.AUDIT_SAMPLE_PERCENT.config + "." + decision.config, decision.defaultSamplePercent));
+            rateLimits.put(decision, PropertyUtils.getLongProperty(configs,
+                    LdapProperty.AUDIT_RATE_LIMIT_PER_SECOND.config + "." + decision.config, 0));
+        }
+        final AuditLog auditLog = new AuditLog(name,
+                PropertyUtils.getIntProperty(configs, LdapProperty.AUDIT_BUFFER_SIZE.config, 8192),
+                PropertyUtils.getIntProperty(configs, LdapProperty.AUDIT_BATCH_SIZE.config, 256),
+                samplePercent, rateLimits, records -> records.forEach(AUDIT::info));
+        auditLog.objectName = JmxUtils.register("AuditLog", name, auditLog);
+        LOG.info("Audit log of {} writing to {}", name, AUDIT.getName());
+        LOG.debug("Audit log of {} sampling {}, rate limits {}", name, samplePercent, rateLimits);
+        return auditLog;
+    }
+
+    public void authentication(AuditDecision decision, String principal) {
+        record(decision, principal, 0, 0, null);
+    }
+
+    /**
+     * @param resource the first denied resource, if any, so a denial can be traced without listing every action
+     */
+    public void authorization(String principal, int allowed, int denied, String resource) {
+        record(denied > 0 ? AuditDecision.AUTHORIZATION_DENIED : AuditDecision.AUTHORIZATION_ALLOWED,
+                principal, allowed, denied, resource);
+    }
+
+    private void record(AuditDecision decision, String principal, int allowed, int denied, String resource) {
+        if (!enabled) return;
+        final int percent = samplePercent[decision.ordinal()];
+        if (percent < 100 && (percent == 0 || ThreadLocalRandom.current().nextInt(100) >= percent)) {
+            sampledOut.increment();
+            return;
+        }
+        final TokenBucketRateLimiter rateLimit = rateLimits[decision.ordinal()];
+        if (rateLimit != null && !rateLimit.tryAcquire(decision.config)) {
+            rateLimited.increment();
+            return;
+        }
+        if (buffer.offer(System.currentTimeMillis(), decision, principal, allowed, denied, resource)) {
+            recorded.increment();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    private void consume() {
+        final List<String> batch = new ArrayList<>(batchSize);
+        final StringBuilder line = new StringBuilder(128);
+        long reportedDrops = 0;
+        while (running || buffer.size() > 0) {
+            buffer.drain(batchSize, (time, decision, principal, allowed, denied, resource) -> {
+                line.setLength(0);
+                line.append("time=").append(Instant.ofEpochMilli(time))
+                        .append(" decision=").append(decision.config)
+                        .append(" principal=");
+                appendValue(line, principal);
+                if (decision == AuditDecision.AUTHORIZATION_ALLOWED || decision == AuditDecision.AUTHORIZATION_DENIED) {
+                    line.append(" allowed=").append(allowed).append(" denied=").append(denied);
+                    if (resource != null) appendValue(line.append(" resource="), resource);
+                }
+                batch.add(line.toString());
+            });
+            final long drops = dropped.sum();
+            if (drops > reportedDrops) {
+                batch.add("time=" + Instant.now() + " decision=overflow dropped=" + (drops - reportedDrops));
+                reportedDrops = drops;
+            }
+            if (batch.isEmpty()) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            try {
+                sink.write(batch);
+            } catch (final RuntimeException e) {
+                LOG.warn("Writing {} audit records failed", batch.size(), e);
+            }
+            batch.clear();
+        }
+    }
+
+    static void appendValue(StringBuilder line, String value) {
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        if (isPlain(value)) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    line.append('\\').append(c);
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if (Character.isISOControl(c) || Character.getType(c) == Character.LINE_SEPARATOR
+                            || Character.getType(c) == Character.PARAGRAPH_SEPARATOR) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+            }
+        }
+        line.append('"');
+    }
+
+    private static boolean isPlain(String value) {
+        if (value.isEmpty()) return false;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c <= ' ' || c == '=' || c == '"' || c == '\\' || Character.isISOControl(c) || Character.isWhitespace(c)
+                    || Character.isSpaceChar(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops the consumer once the records already in the ring have been written.
+     */
+    @Override
+    public void close() {
+        if (!enabled) return;
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(JOIN_MILLIS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        JmxUtils.unregister(objectName);
+    }
+
+    @Override
+    public long getRecorded() {
+        return recorded.sum();
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getSampledOut() {
+        return sampledOut.sum();
+    }
+
+    @Override
+    public long getRateLimited() {
+        return rateLimited.sum();
+    }
+
+    @Override
+    public int getBacklog() {
+        return enabled ? buffer.size() : 0;
+    }
+}
@@ -0,0 +1,13 @@
+package com.jjrepos.kafka.security.audit;
+
+public interface AuditLogMXBean {
+    long getRecorded();
+
+    long getDropped();
+
+    long getSampledOut();
+
+    long getRateLimited();
+
+    int getBacklog();
+}
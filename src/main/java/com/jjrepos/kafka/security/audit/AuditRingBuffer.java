@@ -0,0 +1,105 @@
+package com.jjrepos.kafka.security.audit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded multi-producer, single-consumer ring of fixed-size audit records.
+ * <p>
+ * Records live in preallocated parallel arrays, publishing one costs a CAS on the tail and a volatile write of the
+ * slot's sequence, and nothing is allocated. Each slot's sequence tells producers and the consumer whose turn it is:
+ * a producer may claim slot {@code t & mask} when its sequence is {@code t}, the consumer may read it once the
+ * sequence is {@code t + 1}, and hands it back for the next lap by setting it to {@code t + capacity}.
+ * A full ring rejects the record instead of waiting for the consumer.
+ */
+final class AuditRingBuffer {
+
+    @FunctionalInterface
+    interface RecordHandler {
+        void handle(long timeMillis, AuditDecision decision, String principal, int allowed, int denied, String resource);
+    }
+
+    private static final AuditDecision[] DECISIONS = AuditDecision.values();
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final long[] times;
+    private final byte[] decisions;
+    private final String[] principals;
+    private final String[] resources;
+    private final int[] allowed;
+    private final int[] denied;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    AuditRingBuffer(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Expected a power of two capacity, got " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.sequences = new AtomicLongArray(capacity);
+        for (int slot = 0; slot < capacity; slot++) {
+            sequences.set(slot, slot);
+        }
+        this.times = new long[capacity];
+        this.decisions = new byte[capacity];
+        this.principals = new String[capacity];
+        this.resources = new String[capacity];
+        this.allowed = new int[capacity];
+        this.denied = new int[capacity];
+    }
+
+    /**
+     * @return false when the ring is full and the record was not stored
+     */
+    boolean offer(long timeMillis, AuditDecision decision, String principal, int allowedCount, int deniedCount,
+                  String resource) {
+        while (true) {
+            final long sequence = tail.get();
+            final int slot = (int) (sequence & mask);
+            final long available = sequences.get(slot);
+            if (available < sequence) {
+                return false;
+            }
+            if (available == sequence && tail.compareAndSet(sequence, sequence + 1)) {
+                times[slot] = timeMillis;
+                decisions[slot] = (byte) decision.ordinal();
+                principals[slot] = principal;
+                resources[slot] = resource;
+                allowed[slot] = allowedCount;
+                denied[slot] = deniedCount;
+                sequences.set(slot, sequence + 1);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Hands up to {@code max} records to the handler, in the order they were claimed. Only one thread may drain.
+     *
+     * @return the number of records drained
+     */
+    int drain(int max, RecordHandler handler) {
+        int drained = 0;
+        while (drained < max) {
+            final int slot = (int) (head & mask);
+            if (sequences.get(slot) != head + 1) {
+                break;
+            }
+            handler.handle(times[slot], DECISIONS[decisions[slot]], principals[slot], allowed[slot], denied[slot],
+                    resources[slot]);
+            principals[slot] = null;
+            resources[slot] = null;
+            sequences.set(slot, head + capacity);
+            head++;
+            drained++;
+        }
+        return drained;
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+}
@@ -0,0 +1,11 @@
+package com.jjrepos.kafka.security.audit;
+
+import java.util.List;
+
+/**
+ * Receives formatted audit records, one batch at a time, on the audit log's consumer thread.
+ */
+@FunctionalInterface
+public interface AuditSink {
+    void write(List<String> records);
+}
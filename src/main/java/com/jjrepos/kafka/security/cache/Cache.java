@@ -4,6 +4,10 @@ import java.time.Duration;
 import java.util.Optional;
 
 public interface Cache {
+    static Cache inMemory() {
+        return new InMemoryCache();
+    }
+
     <T> T get(String key);
 
     <T> void put(String key, T cacheable, Duration validity);
@@ -14,4 +18,39 @@ public interface Cache {
 
     <T> Optional<T> getIfValid(String key);
 
+    /**
+     * Returns the entry for the key while it is valid, or null.
+     */
+    Cacheable getEntryIfValid(String key);
+
+    /**
+     * Counter advanced after every change that can make a valid entry held elsewhere wrong: an invalidation or a put
+     * replacing a value with a different one. Reading it never writes shared memory, see {@link NearCache}.
+     */
+    long generation();
+
+    void invalidate(String key);
+
+    /**
+     * Sets how the validity passed to {@link #put(String, Object, Duration)} is turned into the validity of the entry.
+     */
+    void ttlPolicy(TtlPolicy ttlPolicy);
+
+    /**
+     * Shares this cache with peers: local puts of {@link com.jjrepos.kafka.security.ldap.authorizer.PermissionProfile}s
+     * are published on the channel, and updates received from peers are applied locally without being published
+     * again. Invalidations stay local.
+     */
+    void attach(CacheChannel channel);
+
+    void detach(CacheChannel channel);
+
+    /**
+     * Registers a listener called, on the reclaimer thread, for every entry removed because it expired.
+     * Entries replaced by a put or removed by an invalidation are not reported.
+     */
+    void addExpiryListener(ExpiryListener listener);
+
+    void removeExpiryListener(ExpiryListener listener);
+
 }
@@ -0,0 +1,30 @@
+package com.jjrepos.kafka.security.cache;
+
+import org.apache.kafka.common.Configurable;
+
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Transport that shares cache updates between brokers, so a principal resolved on one broker
+ * does not have to be resolved again against LDAP by every other broker.
+ * Implementations are configured with the plugin configs and must deliver updates published by one
+ * broker to the subscribers of every other broker; delivering a broker its own updates is harmless.
+ * A transport sends {@link CacheUpdate#encode()} and hands its peers' subscribers {@link CacheUpdate#decode(byte[])},
+ * dropping messages that do not decode.
+ * Only groups are shared: logins are remembered per broker in {@link LoginCache}, never published.
+ */
+public interface CacheChannel extends Configurable, AutoCloseable {
+
+    void publish(CacheUpdate update);
+
+    void subscribe(Consumer<CacheUpdate> subscriber);
+
+    @Override
+    default void configure(Map<String, ?> configs) {
+    }
+
+    @Override
+    default void close() {
+    }
+}
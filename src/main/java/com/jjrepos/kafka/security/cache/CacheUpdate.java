@@ -0,0 +1,119 @@
+package com.jjrepos.kafka.security.cache;
+
+import com.jjrepos.kafka.security.ldap.authorizer.PermissionProfile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * A profile cached by one broker, as carried to its peers by a {@link CacheChannel}: the user, the names of the
+ * user's kafka groups and when the entry expires. Expiry is absolute wall clock time so that a peer keeps the entry
+ * only for what is left of its validity.
+ * <p>
+ * {@link #encode()} and {@link #decode(byte[])} are the wire format of every channel: a version byte, the origin,
+ * the key, the expiry and the group names. Group names rather than profile bits keep brokers running different
+ * releases compatible.
+ */
+public final class CacheUpdate {
+    private static final byte VERSION = 1;
+
+    private final String origin;
+    private final String key;
+    private final Set<String> groups;
+    private final long expiresAtMillis;
+
+    private CacheUpdate(String origin, String key, Set<String> groups, long expiresAtMillis) {
+        this.origin = Objects.requireNonNull(origin);
+        this.key = Objects.requireNonNull(key);
+        this.groups = Set.copyOf(groups);
+        this.expiresAtMillis = expiresAtMillis;
+    }
+
+    public static CacheUpdate put(String origin, String key, PermissionProfile profile, long expiresAtMillis) {
+        return new CacheUpdate(origin, key, profile.groupNames(), expiresAtMillis);
+    }
+
+    public String origin() {
+        return origin;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    public Set<String> groups() {
+        return groups;
+    }
+
+    /**
+     * @return the shared profile of the groups, ignoring groups this broker does not know
+     */
+    public PermissionProfile profile() {
+        return PermissionProfile.of(groups);
+    }
+
+    public long expiresAtMillis() {
+        return expiresAtMillis;
+    }
+
+    public byte[] encode() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeUTF(origin);
+            out.writeUTF(key);
+            out.writeLong(expiresAtMillis);
+            out.writeShort(groups.size());
+            for (String group : groups) {
+                out.writeUTF(group);
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException when the bytes are not an update of a known version
+     */
+    public static CacheUpdate decode(byte[] encoded) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+            final byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported cache update version " + version);
+            }
+            final String origin = in.readUTF();
+            final String key = in.readUTF();
+            final long expiresAtMillis = in.readLong();
+            final int count = in.readUnsignedShort();
+            final Set<String> groups = new LinkedHashSet<>(count);
+            for (int i = 0; i < count; i++) {
+                groups.add(in.readUTF());
+            }
+            if (in.available() > 0) {
+                throw new IllegalArgumentException("Unexpected " + in.available() + " bytes after the cache update");
+            }
+            return new CacheUpdate(origin, key, groups, expiresAtMillis);
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Truncated cache update", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", CacheUpdate.class.getSimpleName() + "[", "]")
+                .add("origin=" + origin)
+                .add("key=" + key)
+                .add("groups=" + groups)
+                .add("expiresAtMillis=" + expiresAtMillis)
+                .toString();
+    }
+}
@@ -9,4 +9,14 @@ public interface Cacheable {
     Duration validity();
 
     <T> T get();
+
+    /**
+     * Consecutive refreshes that stored an unchanged value when positive, consecutive changes when negative,
+     * zero for a value cached for the first time.
+     */
+    int stability();
+
+    long createdAtMillis();
+
+    long expiresAtMillis();
 }
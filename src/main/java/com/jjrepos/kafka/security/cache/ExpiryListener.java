@@ -0,0 +1,9 @@
+package com.jjrepos.kafka.security.cache;
+
+/**
+ * Notified when the cache reclaims an expired entry.
+ */
+@FunctionalInterface
+public interface ExpiryListener {
+    void expired(String key, Object value);
+}
@@ -1,19 +1,67 @@
 package com.jjrepos.kafka.security.cache;
 
+import com.jjrepos.kafka.security.jfr.CacheEvictEvent;
+import com.jjrepos.kafka.security.jfr.CacheHitEvent;
+import com.jjrepos.kafka.security.jfr.CacheMissEvent;
+import com.jjrepos.kafka.security.ldap.authorizer.PermissionProfile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.ref.WeakReference;
+import java.time.Clock;
 import java.time.Duration;
-import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 final class InMemoryCache implements Cache {
     private static final Logger LOG = LoggerFactory.getLogger(InMemoryCache.class);
 
     private static final Duration ONE_DAY = Duration.ofDays(1);
-    private final ConcurrentHashMap<String, Cacheable> cache = new ConcurrentHashMap<>();
+    private static final int MAX_STABILITY = 64;
+    private static final long TICK_MILLIS = 1000;
+    private static final ScheduledExecutorService RECLAIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "auth-cache-reclaimer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ConcurrentHashMap<String, Value<?>> cache = new ConcurrentHashMap<>();
+    private final List<ExpiryListener> expiryListeners = new CopyOnWriteArrayList<>();
+    private final String origin = UUID.randomUUID().toString();
+    private final Clock clock;
+    private final TimingWheel wheel;
+    private final AtomicLong generation = new AtomicLong();
+    private volatile CacheChannel channel;
+    private volatile TtlPolicy ttlPolicy = TtlPolicy.FIXED;
+
+    InMemoryCache() {
+        this(Clock.systemDefaultZone());
+    }
+
+    InMemoryCache(Clock clock) {
+        this(clock, true);
+    }
+
+    /**
+     * @param reclaimInBackground whether a shared daemon thread drives {@link #reclaimExpired()} every tick, tests
+     *                            driving a simulated clock call it themselves
+     */
+    InMemoryCache(Clock clock, boolean reclaimInBackground) {
+        this.clock = clock;
+        this.wheel = new TimingWheel(TICK_MILLIS, clock.millis());
+        if (reclaimInBackground) {
+            scheduleReclaimer(this);
+        }
+    }
 
     public <T> T get(String key) {
         Cacheable value = cache.get(key);
@@ -25,8 +73,16 @@ final class InMemoryCache implements Cache {
         Objects.requireNonNull(key);
         Objects.requireNonNull(cacheable);
         Objects.requireNonNull(validity);
-        Cacheable value = new Value<>(cacheable, validity, LocalDateTime.now());
-        cache.put(key, value);
+        Cacheable value = cache.compute(key, (k, previous) -> {
+            var stability = stability(previous, cacheable);
+            return replace(k, previous,
+                    new Value<>(cacheable, clock.millis(), ttlPolicy.validity(validity, stability).toMillis(), stability));
+        });
+        if (value.stability() < 0) generation.incrementAndGet();
+        final CacheChannel current = channel;
+        if (current != null && cacheable instanceof PermissionProfile) {
+            current.publish(CacheUpdate.put(origin, key, (PermissionProfile) cacheable, value.expiresAtMillis()));
+        }
     }
 
     public <T> void put(String key, T cacheable) {
@@ -37,19 +93,195 @@ final class InMemoryCache implements Cache {
     public boolean isValid(String key) {
         Cacheable cacheable = cache.get(key);
         if (cacheable == null) return false;
-        var createdAt = cacheable.createdTime();
-        var expiresAt = createdAt.plus(cacheable.validity());
-        return createdAt.isBefore(expiresAt);
+        return clock.millis() < cacheable.expiresAtMillis();
     }
 
     public <T> Optional<T> getIfValid(String key) {
+        final Cacheable cacheable = getEntryIfValid(key);
+        return cacheable == null ? Optional.empty() : Optional.of(cacheable.get());
+    }
+
+    public Cacheable getEntryIfValid(String key) {
         Cacheable cacheable = cache.get(key);
         LOG.debug("In cache? :  {} ", cacheable != null);
-        if (cacheable == null) return Optional.empty();
-        var expiresAt = cacheable.createdTime().plus(cacheable.validity());
-        LOG.debug("Cache ExpiresAt: {} ", expiresAt);
-        var valid = LocalDateTime.now().isBefore(expiresAt);
+        if (cacheable == null) {
+            missed(key, false);
+            return null;
+        }
+        LOG.debug("Cache ExpiresAt: {} ", cacheable.expiresAtMillis());
+        var valid = clock.millis() < cacheable.expiresAtMillis();
         LOG.debug("Cached value valid? :  {} ", valid);
-        return valid ? Optional.of(cacheable.get()) : Optional.empty();
+        if (valid) {
+            final CacheHitEvent event = new CacheHitEvent();
+            if (event.isEnabled()) {
+                event.key = key;
+                event.commit();
+            }
+            return cacheable;
+        }
+        missed(key, true);
+        return null;
+    }
+
+    public long generation() {
+        return generation.get();
+    }
+
+    public void invalidate(String key) {
+        final Value<?> removed = cache.remove(key);
+        wheel.cancel(removed);
+        if (removed != null) {
+            generation.incrementAndGet();
+            evicted(CacheEvictEvent.INVALIDATED, 1);
+        }
+    }
+
+    Cacheable entry(String key) {
+        return cache.get(key);
+    }
+
+    public void ttlPolicy(TtlPolicy ttlPolicy) {
+        this.ttlPolicy = Objects.requireNonNull(ttlPolicy);
+    }
+
+    public void attach(CacheChannel channel) {
+        Objects.requireNonNull(channel);
+        this.channel = channel;
+        channel.subscribe(update -> {
+            if (this.channel == channel) apply(update);
+        });
+        LOG.info("Sharing cache {} over {}", origin, channel.getClass().getSimpleName());
+    }
+
+    public void detach(CacheChannel channel) {
+        if (this.channel == channel) {
+            this.channel = null;
+        }
+    }
+
+    public void addExpiryListener(ExpiryListener listener) {
+        expiryListeners.add(Objects.requireNonNull(listener));
+    }
+
+    public void removeExpiryListener(ExpiryListener listener) {
+        expiryListeners.remove(listener);
+    }
+
+    /**
+     * Advances the expiry wheel to the current time, removing the entries past their reclaim deadline.
+     *
+     * @return the number of entries removed
+     */
+    int reclaimExpired() {
+        final CacheEvictEvent event = new CacheEvictEvent();
+        event.begin();
+        int reclaimed = 0;
+        for (final TimingWheel.Node node : wheel.advance(clock.millis())) {
+            final Value<?> value = (Value<?>) node;
+            // an entry replaced while it was being reclaimed has already been cancelled, or is no longer mapped
+            if (!cache.remove(value.key, value)) continue;
+            reclaimed++;
+            for (final ExpiryListener listener : expiryListeners) {
+                try {
+                    listener.expired(value.key, value.get());
+                } catch (final RuntimeException e) {
+                    LOG.warn("Expiry listener failed for {}", value.key, e);
+                }
+            }
+        }
+        if (reclaimed > 0) {
+            LOG.debug("Reclaimed {} expired entries, {} remaining", reclaimed, wheel.size());
+            if (event.shouldCommit()) {
+                event.cause = CacheEvictEvent.EXPIRED;
+                event.entries = reclaimed;
+                event.remaining = wheel.size();
+                event.commit();
+            }
+        }
+        return reclaimed;
+    }
+
+    private static void missed(String key, boolean stale) {
+        final CacheMissEvent event = new CacheMissEvent();
+        if (event.isEnabled()) {
+            event.key = key;
+            event.stale = stale;
+            event.commit();
+        }
+    }
+
+    private void evicted(String cause, int entries) {
+        final CacheEvictEvent event = new CacheEvictEvent();
+        if (event.isEnabled()) {
+            event.cause = cause;
+            event.entries = entries;
+            event.remaining = wheel.size();
+            event.commit();
+        }
+    }
+
+    int size() {
+        return cache.size();
+    }
+
+    int scheduled() {
+        return wheel.size();
+    }
+
+    private Value<?> replace(String key, Value<?> previous, Value<?> value) {
+        wheel.cancel(previous);
+        value.key = key;
+        wheel.schedule(value);
+        return value;
+    }
+
+    /**
+     * Drives a cache's expiry wheel from the shared reclaimer thread. It only holds the cache weakly, and stops once
+     * the cache has been collected.
+     */
+    private static final class Reclaimer implements Runnable {
+        private final WeakReference<InMemoryCache> cache;
+        private volatile ScheduledFuture<?> task;
+
+        private Reclaimer(InMemoryCache cache) {
+            this.cache = new WeakReference<>(cache);
+        }
+
+        @Override
+        public void run() {
+            final InMemoryCache current = cache.get();
+            if (current == null) {
+                final ScheduledFuture<?> scheduled = task;
+                if (scheduled != null) scheduled.cancel(false);
+                return;
+            }
+            try {
+                current.reclaimExpired();
+            } catch (final RuntimeException e) {
+                LOG.warn("Reclaiming expired cache entries failed", e);
+            }
+        }
+    }
+
+    private static void scheduleReclaimer(InMemoryCache cache) {
+        final Reclaimer reclaimer = new Reclaimer(cache);
+        reclaimer.task = RECLAIMER.scheduleWithFixedDelay(reclaimer, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void apply(CacheUpdate update) {
+        if (origin.equals(update.origin())) return;
+        LOG.debug("Applying {}", update);
+        final long remaining = update.expiresAtMillis() - clock.millis();
+        if (remaining <= 0) return;
+        final PermissionProfile profile = update.profile();
+        final Value<?> value = cache.compute(update.key(), (key, previous) -> replace(key, previous,
+                new Value<>(profile, clock.millis(), remaining, stability(previous, profile))));
+        if (value.stability() < 0) generation.incrementAndGet();
+    }
+
+    private static int stability(Cacheable previous, Object value) {
+        if (previous == null) return 0;
+        if (previous.get().equals(value)) return Math.min(MAX_STABILITY, Math.max(0, previous.stability()) + 1);
+        return Math.max(-MAX_STABILITY, Math.min(0, previous.stability()) - 1);
     }
 }
@@ -0,0 +1,41 @@
+package com.jjrepos.kafka.security.cache;
+
+import com.jjrepos.kafka.security.utils.PasswordHashes;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Salted hashes of the passwords of recent successful binds, so a returning user presenting the same password is
+ * authenticated without another bind while the hash is valid.
+ * <p>
+ * Kept apart from {@link AuthCache} on purpose: the groups cached there, whether resolved by the authorizer, warmed
+ * up or received from a peer broker, say nothing about a password and never authenticate anyone. This cache is never
+ * attached to a {@link CacheChannel}.
+ */
+public final class LoginCache {
+    public static final LoginCache INSTANCE = new LoginCache();
+
+    private static final String SCHEME = "SSHA256";
+
+    private final Cache verifiers = Cache.inMemory();
+
+    /**
+     * @return whether the user's last successful bind, still valid, was with this password
+     */
+    public boolean matches(String user, String password) {
+        final Optional<String> verifier = verifiers.getIfValid(user);
+        return verifier.isPresent() && PasswordHashes.matches(verifier.get(), password);
+    }
+
+    /**
+     * Remembers the password of a successful bind.
+     */
+    public void put(String user, String password, Duration validity) {
+        verifiers.put(user, PasswordHashes.hash(SCHEME, password), validity);
+    }
+
+    public void invalidate(String user) {
+        verifiers.invalidate(user);
+    }
+}
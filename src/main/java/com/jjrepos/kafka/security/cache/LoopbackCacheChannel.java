@@ -0,0 +1,73 @@
+package com.jjrepos.kafka.security.cache;
+
+import com.jjrepos.kafka.security.ldap.LdapProperty;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * In-process {@link CacheChannel}: every channel configured with the same group name, see
+ * {@link LdapProperty#CACHE_CHANNEL_GROUP}, receives the updates published by the others.
+ * Meant for running several brokers, or several caches, in one JVM.
+ */
+public class LoopbackCacheChannel implements CacheChannel {
+
+    private static final String DEFAULT_GROUP = "default";
+    private static final Map<String, List<LoopbackCacheChannel>> GROUPS = new ConcurrentHashMap<>();
+
+    private final List<Consumer<CacheUpdate>> subscribers = new CopyOnWriteArrayList<>();
+    private String group = DEFAULT_GROUP;
+
+    public LoopbackCacheChannel() {
+        join();
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        final Object configured = configs.get(LdapProperty.CACHE_CHANNEL_GROUP.config);
+        final String newGroup = configured == null ? DEFAULT_GROUP : configured.toString();
+        if (!newGroup.equals(group)) {
+            leave();
+            group = newGroup;
+            join();
+        }
+    }
+
+    /**
+     * Passes the update through its wire format, as a transport between brokers would.
+     */
+    @Override
+    public void publish(CacheUpdate update) {
+        final byte[] message = update.encode();
+        for (LoopbackCacheChannel peer : GROUPS.getOrDefault(group, List.of())) {
+            if (peer != this) {
+                peer.subscribers.forEach(subscriber -> subscriber.accept(CacheUpdate.decode(message)));
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<CacheUpdate> subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    @Override
+    public void close() {
+        leave();
+        subscribers.clear();
+    }
+
+    private void join() {
+        GROUPS.computeIfAbsent(group, name -> new CopyOnWriteArrayList<>()).add(this);
+    }
+
+    private void leave() {
+        GROUPS.computeIfPresent(group, (name, members) -> {
+            members.remove(this);
+            return members.isEmpty() ? null : members;
+        });
+    }
+}
@@ -0,0 +1,76 @@
+package com.jjrepos.kafka.security.cache;
+
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * Small per-thread cache of valid entries in front of a shared {@link Cache}.
+ * <p>
+ * Each thread owns a direct-mapped table of {@code size} slots, so a hit costs a thread-local lookup, a string
+ * comparison and one volatile read of the shared cache's {@link Cache#generation() generation}, and writes nothing
+ * another thread can see. A slot is only trusted while the generation it was filled under is current and the entry
+ * has not expired, so an invalidation or a changed value reaches every thread on its next lookup.
+ * Misses fall through to the shared cache and refill the slot.
+ */
+public final class NearCache {
+
+    private static final class Slot {
+        String key;
+        Object value;
+        long expiresAtMillis;
+        long generation;
+    }
+
+    private final Cache cache;
+    private final int mask;
+    private final LongSupplier clock;
+    private final ThreadLocal<Slot[]> slots;
+
+    /**
+     * @param size slots per thread, rounded up to a power of two, 0 passes every lookup to the shared cache
+     */
+    public NearCache(Cache cache, int size) {
+        this(cache, size, System::currentTimeMillis);
+    }
+
+    NearCache(Cache cache, int size, LongSupplier clock) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Expected a near cache size of 0 or more, got " + size);
+        }
+        this.cache = Objects.requireNonNull(cache);
+        this.clock = clock;
+        final int capacity = size == 0 ? 0 : Integer.highestOneBit(size * 2 - 1);
+        this.mask = capacity - 1;
+        this.slots = ThreadLocal.withInitial(() -> {
+            final Slot[] table = new Slot[capacity];
+            for (int i = 0; i < capacity; i++) {
+                table[i] = new Slot();
+            }
+            return table;
+        });
+    }
+
+    /**
+     * Returns the value for the key while it is valid, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getIfValid(String key) {
+        if (mask < 0) {
+            final Cacheable entry = cache.getEntryIfValid(key);
+            return entry == null ? null : entry.get();
+        }
+        // read before the shared cache, so a slot filled while a change is being made is already outdated
+        final long generation = cache.generation();
+        final Slot slot = slots.get()[key.hashCode() & mask];
+        if (slot.generation == generation && key.equals(slot.key) && clock.getAsLong() < slot.expiresAtMillis) {
+            return (T) slot.value;
+        }
+        final Cacheable entry = cache.getEntryIfValid(key);
+        if (entry == null) return null;
+        slot.key = key;
+        slot.value = entry.get();
+        slot.expiresAtMillis = entry.expiresAtMillis();
+        slot.generation = generation;
+        return (T) slot.value;
+    }
+}
@@ -0,0 +1,161 @@
+package com.jjrepos.kafka.security.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel, as in Varghese and Lauck's "Hashed and Hierarchical Timing Wheels".
+ * <p>
+ * Level 0 has one slot per tick; every higher level has slots {@code SLOTS} times as wide as the level below.
+ * A node goes into the lowest level whose range covers its deadline, so scheduling and cancelling are O(1).
+ * When a level's hand completes a turn, the next slot of the level above is cascaded down. Each node is moved at
+ * most once per level, which keeps expiry O(1) amortized per node, and nothing ever scans all scheduled nodes.
+ * Nodes are intrusive list elements, the wheel allocates nothing per scheduled node.
+ */
+final class TimingWheel {
+
+    static final int SLOTS = 64;
+    static final int LEVELS = 4;
+
+    /**
+     * Element of a slot's circular doubly linked list; a node is scheduled while it is linked.
+     */
+    abstract static class Node {
+        Node prev;
+        Node next;
+
+        abstract long deadlineMillis();
+
+        final boolean scheduled() {
+            return next != null;
+        }
+    }
+
+    private static final class Sentinel extends Node {
+        Sentinel() {
+            prev = this;
+            next = this;
+        }
+
+        @Override
+        long deadlineMillis() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private final long tickMillis;
+    private final Sentinel[][] slots = new Sentinel[LEVELS][SLOTS];
+    private long currentTick;
+    private int size;
+
+    TimingWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = nowMillis / tickMillis;
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                slots[level][slot] = new Sentinel();
+            }
+        }
+    }
+
+    synchronized void schedule(Node node) {
+        if (node.scheduled()) {
+            unlink(node);
+        } else {
+            size++;
+        }
+        insert(node);
+    }
+
+    synchronized void cancel(Node node) {
+        if (node != null && node.scheduled()) {
+            unlink(node);
+            size--;
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Moves the wheel forward to the given time.
+     *
+     * @return the nodes whose deadline has passed, no longer scheduled
+     */
+    synchronized List<Node> advance(long nowMillis) {
+        final List<Node> expired = new ArrayList<>();
+        final long targetTick = nowMillis / tickMillis;
+        while (currentTick < targetTick) {
+            currentTick++;
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if (currentTick % span(level) == 0) {
+                    cascade(slots[level][slot(currentTick, level)]);
+                }
+            }
+            final Sentinel due = slots[0][slot(currentTick, 0)];
+            while (due.next != due) {
+                final Node node = due.next;
+                unlink(node);
+                if (tickOf(node) <= currentTick) {
+                    node.next = null;
+                    node.prev = null;
+                    size--;
+                    expired.add(node);
+                } else {
+                    insert(node);
+                }
+            }
+        }
+        return expired;
+    }
+
+    private void cascade(Sentinel slot) {
+        Node node = slot.next;
+        slot.next = slot;
+        slot.prev = slot;
+        while (node != slot) {
+            final Node next = node.next;
+            insert(node);
+            node = next;
+        }
+    }
+
+    private void insert(Node node) {
+        final long tick = Math.max(currentTick + 1, tickOf(node));
+        final long delta = tick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= span(level + 1)) {
+            level++;
+        }
+        // beyond the top level's range: park in the last slot to come round, it is re-inserted when cascaded
+        final long placement = delta >= span(LEVELS) ? currentTick + span(LEVELS) - span(LEVELS - 1) : tick;
+        link(slots[level][slot(placement, level)], node);
+    }
+
+    private long tickOf(Node node) {
+        return (node.deadlineMillis() + tickMillis - 1) / tickMillis;
+    }
+
+    private static long span(int level) {
+        return 1L << (6 * level);
+    }
+
+    private static int slot(long tick, int level) {
+        return (int) ((tick >>> (6 * level)) & (SLOTS - 1));
+    }
+
+    private static void link(Sentinel slot, Node node) {
+        node.prev = slot.prev;
+        node.next = slot;
+        slot.prev.next = node;
+        slot.prev = node;
+    }
+
+    private static void unlink(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.next = null;
+        node.prev = null;
+    }
+}
@@ -0,0 +1,74 @@
+package com.jjrepos.kafka.security.cache;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Turns the configured validity into the validity of one particular cache entry.
+ * <p>
+ * Jitter shortens each validity by a random fraction of up to {@code jitterPercent}, so entries that were cached
+ * together drift apart and do not all expire in the same second. Jitter only ever shortens, an entry never
+ * outlives the configured validity because of it.
+ * <p>
+ * In adaptive mode the validity also follows the entry's stability, which the cache tracks across refreshes of the
+ * same key: once a value came back unchanged {@link #STABLE_REFRESHES} times in a row the validity doubles with every
+ * further unchanged refresh, up to {@code maxStretch} times the configured validity, and a value that changed is
+ * kept for half as long per consecutive change, down to a quarter.
+ */
+public final class TtlPolicy {
+    public static final TtlPolicy FIXED = new TtlPolicy(0, false, 1);
+
+    static final int STABLE_REFRESHES = 3;
+    private static final int MAX_SHRINK_SHIFT = 2;
+
+    private final int jitterPercent;
+    private final boolean adaptive;
+    private final int maxStretch;
+    private final DoubleSupplier random;
+
+    public TtlPolicy(int jitterPercent, boolean adaptive, int maxStretch) {
+        this(jitterPercent, adaptive, maxStretch, () -> ThreadLocalRandom.current().nextDouble());
+    }
+
+    TtlPolicy(int jitterPercent, boolean adaptive, int maxStretch, Random random) {
+        this(jitterPercent, adaptive, maxStretch, random::nextDouble);
+    }
+
+    private TtlPolicy(int jitterPercent, boolean adaptive, int maxStretch, DoubleSupplier random) {
+        if (jitterPercent < 0 || jitterPercent > 100 || maxStretch < 1) {
+            throw new IllegalArgumentException("Expected jitter between 0 and 100 percent and a stretch of at least 1");
+        }
+        this.jitterPercent = jitterPercent;
+        this.adaptive = adaptive;
+        this.maxStretch = maxStretch;
+        this.random = random;
+    }
+
+    /**
+     * @param validity  the configured validity
+     * @param stability consecutive unchanged refreshes when positive, consecutive changes when negative
+     */
+    public Duration validity(Duration validity, int stability) {
+        long millis = validity.toMillis();
+        if (adaptive) {
+            millis = adapt(millis, stability);
+        }
+        if (jitterPercent > 0) {
+            millis -= (long) (millis * jitterPercent / 100.0 * random.getAsDouble());
+        }
+        return Duration.ofMillis(millis);
+    }
+
+    private long adapt(long millis, int stability) {
+        if (stability >= STABLE_REFRESHES) {
+            final int shift = Math.min(30, stability - STABLE_REFRESHES + 1);
+            return millis * Math.min(maxStretch, 1L << shift);
+        }
+        if (stability < 0) {
+            return millis >> Math.min(MAX_SHRINK_SHIFT, -stability);
+        }
+        return millis;
+    }
+}
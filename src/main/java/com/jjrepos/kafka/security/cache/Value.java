@@ -4,32 +4,48 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 
-public class Value<T> implements Cacheable {
+/**
+ * A cached value with its lifetime kept as epoch milliseconds, so an entry is one small object
+ * holding a reference to the (often shared) value. The entry is also its own node in the cache's
+ * expiry wheel, reclamation costs no allocation beyond the entry itself.
+ */
+public class Value<T> extends TimingWheel.Node implements Cacheable {
 
     private static final Logger LOG = LoggerFactory.getLogger(Value.class);
 
-    private final Duration duration;
-    private final LocalDateTime createdTime;
     private final T value;
+    private final long createdAtMillis;
+    private final long expiresAtMillis;
+    private final int stability;
+    String key;
 
     public Value(T value, Duration duration, LocalDateTime createdTime) {
+        this(value, createdTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(), duration.toMillis(), 0);
+    }
+
+    public Value(T value, long createdAtMillis, long validityMillis, int stability) {
         this.value = value;
-        this.duration = duration;
-        this.createdTime = createdTime;
-        LOG.debug("Cache createdAt: {}, ExpiresAt: {} ", createdTime, duration);
-        LOG.debug("Cache expiration: {} ", createdTime.plus(duration));
+        this.createdAtMillis = createdAtMillis;
+        this.expiresAtMillis = createdAtMillis + validityMillis;
+        this.stability = stability;
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Cache createdAt: {}, ExpiresAt: {} ", createdTime(), Duration.ofMillis(validityMillis));
+            LOG.debug("Cache expiration: {} ", createdTime().plus(validity()));
+        }
     }
 
     @Override
     public LocalDateTime createdTime() {
-        return createdTime;
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(createdAtMillis), ZoneId.systemDefault());
     }
 
     @Override
     public Duration validity() {
-        return duration;
+        return Duration.ofMillis(expiresAtMillis - createdAtMillis);
     }
 
     @Override
@@ -37,4 +53,28 @@ public class Value<T> implements Cacheable {
         return value;
     }
 
+    @Override
+    public int stability() {
+        return stability;
+    }
+
+    @Override
+    public long createdAtMillis() {
+        return createdAtMillis;
+    }
+
+    @Override
+    public long expiresAtMillis() {
+        return expiresAtMillis;
+    }
+
+    /**
+     * An expired entry is kept for one more validity period, so a refresh shortly after expiry still sees the
+     * previous value, and is reclaimed afterwards.
+     */
+    @Override
+    long deadlineMillis() {
+        return expiresAtMillis + (expiresAtMillis - createdAtMillis);
+    }
+
 }
@@ -0,0 +1,67 @@
+package com.jjrepos.kafka.security.directory;
+
+import com.jjrepos.kafka.security.ldap.LdapConfig;
+import com.jjrepos.kafka.security.ldap.LdapConnector;
+import com.jjrepos.kafka.security.ldap.nio.NioLdapClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public final class Directories {
+    private static final Logger LOG = LoggerFactory.getLogger(Directories.class);
+    // guarded by itself
+    private static final Map<LdapConfig, SharedDirectory> SHARED = new HashMap<>();
+
+    private Directories() {
+    }
+
+    /**
+     * Returns the directory of the broker for an equal config, creating it on first use; the default factory of both
+     * plugins. Kafka creates a callback handler per listener and mechanism and the authorizer separately, they all
+     * share one directory with its connections, limiter and metrics. The directory is closed when every plugin that
+     * asked for it has closed the returned instance.
+     */
+    public static Directory shared(LdapConfig config) {
+        synchronized (SHARED) {
+            SharedDirectory shared = SHARED.get(config);
+            if (shared == null) {
+                shared = new SharedDirectory(create(config), SHARED, () -> SHARED.remove(config));
+                SHARED.put(config, shared);
+                LOG.info("Created shared {} directory, {} in use", config.directoryMode(), SHARED.size());
+            }
+            return shared.lease();
+        }
+    }
+
+    /**
+     * Creates the directory selected by the config's {@link DirectoryMode}, answering for the config's
+     * {@link LocalPrincipals} locally.
+     */
+    public static Directory create(LdapConfig config) {
+        final Directory directory = directory(config);
+        return config.localPrincipals().isEmpty() ? directory : new LocalDirectory(config.localPrincipals(), directory);
+    }
+
+    private static Directory directory(LdapConfig config) {
+        switch (config.directoryMode()) {
+            case SNAPSHOT:
+                return new SnapshotDirectory(config.snapshotPath());
+            case TIERED:
+                return new TieredDirectory(new SnapshotDirectory(config.snapshotPath()), ldap(config));
+            default:
+                return ldap(config);
+        }
+    }
+
+    private static Directory ldap(LdapConfig config) {
+        return config.nioClient() ? new NioLdapClient(config) : new LdapConnector(config);
+    }
+
+    static int sharedCount() {
+        synchronized (SHARED) {
+            return SHARED.size();
+        }
+    }
+}
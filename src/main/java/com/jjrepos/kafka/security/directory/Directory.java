@@ -0,0 +1,14 @@
+package com.jjrepos.kafka.security.directory;
+
+import com.jjrepos.kafka.security.ldap.authenticator.UsernamePasswordAuthenticator;
+import com.jjrepos.kafka.security.ldap.authorizer.GroupsBuilder;
+
+/**
+ * A source of credentials and group memberships, serving both the authentication handler and the authorizer.
+ */
+public interface Directory extends UsernamePasswordAuthenticator, GroupsBuilder {
+
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,34 @@
+package com.jjrepos.kafka.security.directory;
+
+import com.jjrepos.kafka.security.ldap.LdapProperty;
+import com.jjrepos.kafka.security.utils.PropertyUtils;
+
+import java.util.Locale;
+import java.util.Map;
+
+public enum DirectoryMode {
+    /** Every lookup goes to LDAP. */
+    LDAP,
+    /** Every lookup is answered from the snapshot file, LDAP is never contacted. */
+    SNAPSHOT,
+    /** Users found in the snapshot are answered from it, everyone else from LDAP. */
+    TIERED;
+
+    public static DirectoryMode of(Map<String, ?> configs) {
+        final String mode = PropertyUtils.getStringProperty(configs, LdapProperty.DIRECTORY_MODE.config, LDAP.name());
+        try {
+            return valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid configuration property \"" + LdapProperty.DIRECTORY_MODE.config + "\".");
+        }
+    }
+
+    /**
+     * Reads an LDAP connection property, which is only required when this mode contacts LDAP.
+     */
+    public String ldapProperty(Map<String, ?> configs, LdapProperty property) {
+        return this == SNAPSHOT
+                ? PropertyUtils.getStringProperty(configs, property.config, "")
+                : PropertyUtils.getRequiredStringProperty(configs, property.config);
+    }
+}
@@ -0,0 +1,116 @@
+package com.jjrepos.kafka.security.directory;
+
+import com.jjrepos.kafka.security.ldap.LdapUtils;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable index of a directory snapshot, keyed by normalized username.
+ * <p>
+ * Users mostly share a handful of group combinations, so group names and group sets are interned while building:
+ * every distinct set of groups exists once and an entry costs little more than its map slot.
+ */
+final class DirectorySnapshot {
+    static final DirectorySnapshot EMPTY = new Builder().build();
+
+    static final class Entry {
+        final Set<String> groups;
+        final String passwordHash;
+
+        private Entry(Set<String> groups, String passwordHash) {
+            this.groups = groups;
+            this.passwordHash = passwordHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Entry)) return false;
+            final Entry that = (Entry) o;
+            return groups.equals(that.groups) && Objects.equals(passwordHash, that.passwordHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(groups, passwordHash);
+        }
+    }
+
+    private final Map<String, Entry> users;
+    private final int groupSets;
+
+    private DirectorySnapshot(Map<String, Entry> users, int groupSets) {
+        this.users = users;
+        this.groupSets = groupSets;
+    }
+
+    Entry get(String username) {
+        return users.get(LdapUtils.normalizeUsername(username));
+    }
+
+    int size() {
+        return users.size();
+    }
+
+    /**
+     * Snapshots are equal when they hold the same users with the same groups and password hashes.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof DirectorySnapshot && users.equals(((DirectorySnapshot) o).users);
+    }
+
+    @Override
+    public int hashCode() {
+        return users.hashCode();
+    }
+
+    int groupSets() {
+        return groupSets;
+    }
+
+    static final class Builder {
+        private final Map<String, Set<String>> groups = new HashMap<>();
+        private final Map<String, String> passwords = new HashMap<>();
+
+        /**
+         * @param groups group names or group DNs, stored as the upper case group name like LDAP lookups return them
+         */
+        Builder addGroups(String username, Collection<String> groups) {
+            final Set<String> userGroups = this.groups.computeIfAbsent(LdapUtils.normalizeUsername(username), user -> new HashSet<>());
+            for (final String group : groups) {
+                if (group.indexOf('=') >= 0) {
+                    LdapUtils.groupName(group).ifPresent(userGroups::add);
+                } else if (!group.isBlank()) {
+                    userGroups.add(group.trim().toUpperCase(Locale.ROOT));
+                }
+            }
+            return this;
+        }
+
+        Builder password(String username, String passwordHash) {
+            final String user = LdapUtils.normalizeUsername(username);
+            groups.computeIfAbsent(user, u -> new HashSet<>());
+            passwords.put(user, passwordHash);
+            return this;
+        }
+
+        DirectorySnapshot build() {
+            final Map<String, String> names = new HashMap<>();
+            final Map<Set<String>, Set<String>> sets = new HashMap<>();
+            final Map<String, Entry> users = new HashMap<>(groups.size() * 4 / 3 + 1);
+            groups.forEach((user, userGroups) -> {
+                final Set<String> interned = new HashSet<>(userGroups.size() * 2);
+                userGroups.forEach(group -> interned.add(names.computeIfAbsent(group, name -> name)));
+                users.put(user, new Entry(sets.computeIfAbsent(interned, Set::copyOf), passwords.get(user)));
+            });
+            return new DirectorySnapshot(users, sets.size());
+        }
+    }
+}
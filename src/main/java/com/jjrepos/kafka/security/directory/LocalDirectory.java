@@ -0,0 +1,71 @@
+package com.jjrepos.kafka.security.directory;
+
+import com.jjrepos.kafka.security.ldap.authorizer.Membership;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Answers for the {@link LocalPrincipals} without consulting the directory, and from the directory for everyone else.
+ * Unlike {@link TieredDirectory}, a local principal never falls back: a wrong password fails without a directory
+ * round trip.
+ */
+public final class LocalDirectory implements Directory {
+    private final LocalPrincipals local;
+    private final Directory directory;
+
+    public LocalDirectory(LocalPrincipals local, Directory directory) {
+        this.local = Objects.requireNonNull(local);
+        this.directory = Objects.requireNonNull(directory);
+    }
+
+    @Override
+    public boolean authenticate(String username, String password) {
+        return local.contains(username) ? local.authenticate(username, password) : directory.authenticate(username, password);
+    }
+
+    @Override
+    public boolean authenticate(String username, String password, Consumer<Membership> groupsRead) {
+        return local.contains(username)
+                ? local.authenticate(username, password)
+                : directory.authenticate(username, password, groupsRead);
+    }
+
+    @Override
+    public Set<String> groupsForUser(String user) {
+        return local.contains(user) ? local.groupsForUser(user) : directory.groupsForUser(user);
+    }
+
+    @Override
+    public Membership membershipForUser(String user) {
+        return local.contains(user) ? new Membership(local.groupsForUser(user), null) : directory.membershipForUser(user);
+    }
+
+    @Override
+    public String entryVersion(String user) {
+        return local.contains(user) ? null : directory.entryVersion(user);
+    }
+
+    @Override
+    public void membershipsForUsers(Collection<String> users, BiConsumer<String, Membership> memberships) {
+        final List<String> remote = new ArrayList<>();
+        for (final String user : users) {
+            if (local.contains(user)) {
+                memberships.accept(user, new Membership(local.groupsForUser(user), null));
+            } else {
+                remote.add(user);
+            }
+        }
+        if (!remote.isEmpty()) directory.membershipsForUsers(remote, memberships);
+    }
+
+    @Override
+    public void close() {
+        directory.close();
+    }
+}
@@ -0,0 +1,79 @@
+package com.jjrepos.kafka.security.directory;
+
+import com.jjrepos.kafka.security.ldap.LdapProperty;
+import com.jjrepos.kafka.security.utils.PasswordHashes;
+import com.jjrepos.kafka.security.utils.PropertyUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Principals verified by the broker itself, typically the brokers' own inter-broker principal and super users,
+ * configured with a salted password hash and their groups:
+ * <pre>
+ * ldap.local.principals=kafka_broker
+ * ldap.local.principal.kafka_broker.password={SSHA256}...
+ * ldap.local.principal.kafka_broker.groups=Kafka-admin_grp
+ * </pre>
+ * Checking a local principal is an in-memory lookup and a constant time hash comparison, it never reaches the
+ * directory, so replication keeps working while LDAP is unavailable.
+ */
+public final class LocalPrincipals {
+    public static final LocalPrincipals NONE = new LocalPrincipals(DirectorySnapshot.EMPTY);
+
+    private final DirectorySnapshot principals;
+
+    private LocalPrincipals(DirectorySnapshot principals) {
+        this.principals = principals;
+    }
+
+    public static LocalPrincipals of(Map<String, ?> configs) {
+        final List<String> names = PropertyUtils.getListProperty(configs, LdapProperty.LOCAL_PRINCIPALS.config);
+        if (names.isEmpty()) return NONE;
+        final DirectorySnapshot.Builder builder = new DirectorySnapshot.Builder();
+        for (final String name : names) {
+            final String prefix = LdapProperty.LOCAL_PRINCIPAL.config + "." + name + ".";
+            final String password = PropertyUtils.getRequiredStringProperty(configs, prefix + "password");
+            if (!PasswordHashes.isSupported(password)) {
+                throw new IllegalArgumentException("Invalid configuration property \"" + prefix + "password\", "
+                        + "expected a {SSHA}, {SSHA256} or {SSHA512} password hash.");
+            }
+            builder.password(name, password)
+                    .addGroups(name, PropertyUtils.getListProperty(configs, prefix + "groups"));
+        }
+        return new LocalPrincipals(builder.build());
+    }
+
+    public boolean isEmpty() {
+        return principals.size() == 0;
+    }
+
+    public int size() {
+        return principals.size();
+    }
+
+    public boolean contains(String user) {
+        return principals.get(user) != null;
+    }
+
+    public boolean authenticate(String username, String password) {
+        final DirectorySnapshot.Entry entry = principals.get(username);
+        return entry != null && PasswordHashes.matches(entry.passwordHash, password);
+    }
+
+    public Set<String> groupsForUser(String user) {
+        final DirectorySnapshot.Entry entry = principals.get(user);
+        return entry == null ? Set.of() : entry.groups;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof LocalPrincipals && principals.equals(((LocalPrincipals) o).principals);
+    }
+
+    @Override
+    public int hashCode() {
+        return principals.hashCode();
+    }
+}
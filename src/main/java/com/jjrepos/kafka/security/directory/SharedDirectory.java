@@ -0,0 +1,87 @@
+package com.jjrepos.kafka.security.directory;
+
+import com.jjrepos.kafka.security.ldap.authorizer.Membership;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * A directory shared by the plugin instances of a broker with the same {@link com.jjrepos.kafka.security.ldap.LdapConfig}.
+ * Every user holds its own {@link Lease}; the directory is closed when the last lease is.
+ * <p>
+ * Leases are counted under the registry's lock, so a directory is never handed out again once its last lease
+ * was released.
+ */
+final class SharedDirectory {
+    private final Directory directory;
+    private final Object lock;
+    private final Runnable unregister;
+    // guarded by lock
+    private int leases;
+
+    /**
+     * @param unregister removes the directory from the registry, called holding the lock when the last lease is released
+     */
+    SharedDirectory(Directory directory, Object lock, Runnable unregister) {
+        this.directory = directory;
+        this.lock = lock;
+        this.unregister = unregister;
+    }
+
+    Directory lease() {
+        synchronized (lock) {
+            leases++;
+        }
+        return new Lease();
+    }
+
+    private void release() {
+        synchronized (lock) {
+            if (--leases > 0) return;
+            unregister.run();
+        }
+        directory.close();
+    }
+
+    private final class Lease implements Directory {
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        @Override
+        public boolean authenticate(String username, String password) {
+            return directory.authenticate(username, password);
+        }
+
+        @Override
+        public boolean authenticate(String username, String password, Consumer<Membership> groupsRead) {
+            return directory.authenticate(username, password, groupsRead);
+        }
+
+        @Override
+        public Set<String> groupsForUser(String user) {
+            return directory.groupsForUser(user);
+        }
+
+        @Override
+        public Membership membershipForUser(String user) {
+            return directory.membershipForUser(user);
+        }
+
+        @Override
+        public String entryVersion(String user) {
+            return directory.entryVersion(user);
+        }
+
+        @Override
+        public void membershipsForUsers(Collection<String> users, BiConsumer<String, Membership> memberships) {
+            directory.membershipsForUsers(users, memberships);
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) release();
+        }
+    }
+}
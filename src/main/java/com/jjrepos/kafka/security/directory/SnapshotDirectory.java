@@ -0,0 +1,137 @@
+package com.jjrepos.kafka.security.directory;
+
+import com.jjrepos.kafka.security.utils.PasswordHashes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Directory answered from an LDIF or JSON snapshot file, see {@link SnapshotReader} for the formats.
+ * <p>
+ * The file is indexed in memory and watched: when it changes, a new index is built off to the side and swapped in
+ * atomically, so lookups never see a partially loaded snapshot and never wait for a reload. A snapshot that fails
+ * to load is logged and the previous one stays in use. Passwords are only accepted against salted hashes.
+ */
+public final class SnapshotDirectory implements Directory {
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotDirectory.class);
+    private static final long SETTLE_MILLIS = 100;
+
+    private final Path path;
+    private final WatchService watchService;
+    private volatile DirectorySnapshot snapshot;
+
+    public SnapshotDirectory(Path path) {
+        this(path, true);
+    }
+
+    SnapshotDirectory(Path path, boolean watch) {
+        this.path = Objects.requireNonNull(path).toAbsolutePath();
+        try {
+            this.snapshot = SnapshotReader.read(this.path);
+        } catch (final IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unable to load directory snapshot " + this.path, e);
+        }
+        LOG.info("Loaded directory snapshot {} with {} users", this.path, snapshot.size());
+        this.watchService = watch ? watch() : null;
+    }
+
+    @Override
+    public boolean authenticate(String username, String password) {
+        final DirectorySnapshot.Entry entry = snapshot.get(username);
+        return entry != null && PasswordHashes.matches(entry.passwordHash, password);
+    }
+
+    @Override
+    public Set<String> groupsForUser(String user) {
+        final DirectorySnapshot.Entry entry = snapshot.get(user);
+        return entry == null ? Set.of() : entry.groups;
+    }
+
+    public boolean contains(String user) {
+        return snapshot.get(user) != null;
+    }
+
+    public boolean hasCredentials(String user) {
+        final DirectorySnapshot.Entry entry = snapshot.get(user);
+        return entry != null && entry.passwordHash != null;
+    }
+
+    public int size() {
+        return snapshot.size();
+    }
+
+    /**
+     * Loads the snapshot file again and swaps it in.
+     *
+     * @return false when the file could not be loaded and the previous snapshot was kept
+     */
+    public boolean reload() {
+        try {
+            final DirectorySnapshot loaded = SnapshotReader.read(path);
+            snapshot = loaded;
+            LOG.info("Reloaded directory snapshot {} with {} users in {} distinct group sets",
+                    path, loaded.size(), loaded.groupSets());
+            return true;
+        } catch (final IOException | RuntimeException e) {
+            LOG.warn("Unable to reload directory snapshot {}, keeping the previous one", path, e);
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (watchService == null) return;
+        try {
+            watchService.close();
+        } catch (final IOException e) {
+            LOG.warn("Ignoring exception when closing the watch of {}", path, e);
+        }
+    }
+
+    private WatchService watch() {
+        try {
+            final WatchService service = path.getFileSystem().newWatchService();
+            path.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            final Thread thread = new Thread(() -> watch(service), "directory-snapshot-watch");
+            thread.setDaemon(true);
+            thread.start();
+            return service;
+        } catch (final IOException e) {
+            LOG.warn("Unable to watch directory snapshot {}, changes will not be reloaded", path, e);
+            return null;
+        }
+    }
+
+    private void watch(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                while (key != null) {
+                    for (final WatchEvent<?> event : key.pollEvents()) {
+                        changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                                || path.getFileName().equals(event.context());
+                    }
+                    key.reset();
+                    // writers often touch the file several times, let them settle before loading
+                    key = changed ? service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS) : null;
+                }
+                if (changed) reload();
+            }
+        } catch (final ClosedWatchServiceException e) {
+            LOG.debug("Stopped watching directory snapshot {}", path);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.jjrepos.kafka.security.directory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reads directory snapshots, JSON when the file name ends in {@code .json} and LDIF otherwise.
+ * <p>
+ * In LDIF, entries with {@code memberOf} or {@code userPassword} values are users named by their {@code cn}, and
+ * entries with {@code member} or {@code uniqueMember} values are groups adding their {@code cn} to each member.
+ * The JSON form is
+ * <pre>
+ * {"users": {"kafka_user": {"password": "{SSHA256}...", "groups": ["KAFKA-READ_GRP", "cn=Kafka-write_grp,ou=..."]}}}
+ * </pre>
+ * with both {@code password} and {@code groups} optional.
+ */
+final class SnapshotReader {
+
+    private SnapshotReader() {
+    }
+
+    static DirectorySnapshot read(Path path) throws IOException {
+        final String content = Files.readString(path, StandardCharsets.UTF_8);
+        return path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json") ? json(content) : ldif(content);
+    }
+
+    static DirectorySnapshot json(String content) {
+        final Object root = Json.parse(content);
+        if (!(root instanceof Map) || !(((Map<?, ?>) root).get("users") instanceof Map)) {
+            throw new IllegalArgumentException("Expected a \"users\" object in JSON snapshot");
+        }
+        final DirectorySnapshot.Builder builder = new DirectorySnapshot.Builder();
+        ((Map<?, ?>) ((Map<?, ?>) root).get("users")).forEach((name, value) -> {
+            if (!(value instanceof Map)) {
+                throw new IllegalArgumentException("Expected an object for user \"" + name + "\" in JSON snapshot");
+            }
+            final Map<?, ?> user = (Map<?, ?>) value;
+            final Object groups = user.containsKey("groups") ? user.get("groups") : List.of();
+            if (!(groups instanceof List)) {
+                throw new IllegalArgumentException("Expected an array of groups for user \"" + name + "\" in JSON snapshot");
+            }
+            final List<String> groupNames = new ArrayList<>();
+            ((List<?>) groups).forEach(group -> groupNames.add(String.valueOf(group)));
+            builder.addGroups(name.toString(), groupNames);
+            if (user.get("password") != null) {
+                builder.password(name.toString(), user.get("password").toString());
+            }
+        });
+        return builder.build();
+    }
+
+    static DirectorySnapshot ldif(String content) throws IOException {
+        final DirectorySnapshot.Builder builder = new DirectorySnapshot.Builder();
+        final BufferedReader reader = new BufferedReader(new StringReader(content));
+        final List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("#")) continue;
+            if (line.startsWith(" ") && !lines.isEmpty()) {
+                // folded line, RFC 2849
+                lines.set(lines.size() - 1, lines.get(lines.size() - 1) + line.substring(1));
+            } else if (line.isBlank()) {
+                entry(lines, builder);
+                lines.clear();
+            } else {
+                lines.add(line);
+            }
+        }
+        entry(lines, builder);
+        return builder.build();
+    }
+
+    private static void entry(List<String> lines, DirectorySnapshot.Builder builder) {
+        final Map<String, List<String>> attributes = new HashMap<>();
+        for (final String line : lines) {
+            final int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Invalid LDIF line \"" + line + "\"");
+            }
+            String name = line.substring(0, colon).toLowerCase(Locale.ROOT);
+            if (name.indexOf(';') > 0) name = name.substring(0, name.indexOf(';'));
+            final String value;
+            if (line.startsWith("::", colon)) {
+                value = new String(Base64.getDecoder().decode(line.substring(colon + 2).trim()), StandardCharsets.UTF_8);
+            } else if (line.startsWith(":<", colon)) {
+                continue;
+            } else {
+                value = line.substring(colon + 1).trim();
+            }
+            attributes.computeIfAbsent(name, n -> new ArrayList<>()).add(value);
+        }
+        final List<String> dn = attributes.get("dn");
+        if (dn == null) return;
+        final String name = first(attributes, "cn", rdnValue(dn.get(0)));
+        final List<String> memberOf = attributes.getOrDefault("memberof", List.of());
+        final List<String> password = attributes.getOrDefault("userpassword", List.of());
+        if (!memberOf.isEmpty() || !password.isEmpty()) {
+            builder.addGroups(name, memberOf);
+            if (!password.isEmpty()) builder.password(name, password.get(0));
+        }
+        final List<String> members = new ArrayList<>(attributes.getOrDefault("member", List.of()));
+        members.addAll(attributes.getOrDefault("uniquemember", List.of()));
+        for (final String member : members) {
+            builder.addGroups(rdnValue(member), List.of(name));
+        }
+    }
+
+    private static String first(Map<String, List<String>> attributes, String name, String defaultValue) {
+        final List<String> values = attributes.get(name);
+        return values == null || values.isEmpty() ? defaultValue : values.get(0);
+    }
+
+    private static String rdnValue(String dn) {
+        final String rdn = dn.split(",", 2)[0];
+        final int equals = rdn.indexOf('=');
+        return (equals < 0 ? rdn : rdn.substring(equals + 1)).trim();
+    }
+}
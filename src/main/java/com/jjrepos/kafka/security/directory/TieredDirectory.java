@@ -0,0 +1,73 @@
+package com.jjrepos.kafka.security.directory;
+
+import com.jjrepos.kafka.security.ldap.authorizer.Membership;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Answers from a snapshot for the users it knows and falls back to another directory, usually LDAP, for the rest.
+ * A user listed without a password hash in the snapshot still authenticates against the fallback.
+ */
+public final class TieredDirectory implements Directory {
+    private final SnapshotDirectory snapshot;
+    private final Directory fallback;
+
+    public TieredDirectory(SnapshotDirectory snapshot, Directory fallback) {
+        this.snapshot = Objects.requireNonNull(snapshot);
+        this.fallback = Objects.requireNonNull(fallback);
+    }
+
+    @Override
+    public boolean authenticate(String username, String password) {
+        return snapshot.hasCredentials(username)
+                ? snapshot.authenticate(username, password)
+                : fallback.authenticate(username, password);
+    }
+
+    @Override
+    public boolean authenticate(String username, String password, Consumer<Membership> groupsRead) {
+        return snapshot.hasCredentials(username)
+                ? snapshot.authenticate(username, password)
+                : fallback.authenticate(username, password, groupsRead);
+    }
+
+    @Override
+    public Set<String> groupsForUser(String user) {
+        return snapshot.contains(user) ? snapshot.groupsForUser(user) : fallback.groupsForUser(user);
+    }
+
+    @Override
+    public Membership membershipForUser(String user) {
+        return snapshot.contains(user) ? snapshot.membershipForUser(user) : fallback.membershipForUser(user);
+    }
+
+    @Override
+    public String entryVersion(String user) {
+        return snapshot.contains(user) ? snapshot.entryVersion(user) : fallback.entryVersion(user);
+    }
+
+    @Override
+    public void membershipsForUsers(Collection<String> users, BiConsumer<String, Membership> memberships) {
+        final List<String> missing = new ArrayList<>();
+        for (final String user : users) {
+            if (snapshot.contains(user)) {
+                memberships.accept(user, snapshot.membershipForUser(user));
+            } else {
+                missing.add(user);
+            }
+        }
+        if (!missing.isEmpty()) fallback.membershipsForUsers(missing, memberships);
+    }
+
+    @Override
+    public void close() {
+        snapshot.close();
+        fallback.close();
+    }
+}
@@ -0,0 +1,28 @@
+package com.jjrepos.kafka.security.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.jjrepos.kafka.security.Authorize")
+@Label("Authorize")
+@Description("Authorization of one batch of actions, including the group lookup on a cache miss")
+@Category({"Kafka", "LDAP Security"})
+@StackTrace(false)
+public final class AuthorizeEvent extends Event {
+    @Label("Principal")
+    public String principal;
+
+    @Label("Actions")
+    public int actions;
+
+    @Label("Denied")
+    public int denied;
+
+    @Label("Cached")
+    @Description("The principal's groups were found in the cache")
+    public boolean cached;
+}
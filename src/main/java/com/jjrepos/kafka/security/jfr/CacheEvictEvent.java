@@ -0,0 +1,28 @@
+package com.jjrepos.kafka.security.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.jjrepos.kafka.security.CacheEvict")
+@Label("Auth Cache Evict")
+@Description("Entries removed from the auth cache, one event per reclamation pass or invalidation")
+@Category({"Kafka", "LDAP Security", "Cache"})
+@StackTrace(false)
+public final class CacheEvictEvent extends Event {
+    public static final String EXPIRED = "expired";
+    public static final String INVALIDATED = "invalidated";
+
+    @Label("Cause")
+    public String cause;
+
+    @Label("Entries")
+    public int entries;
+
+    @Label("Remaining")
+    @Description("Entries still scheduled for reclamation")
+    public int remaining;
+}
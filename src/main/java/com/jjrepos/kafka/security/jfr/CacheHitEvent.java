@@ -0,0 +1,23 @@
+package com.jjrepos.kafka.security.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Disabled unless a recording enables it, there is one per request on a warm broker.
+ */
+@Name("com.jjrepos.kafka.security.CacheHit")
+@Label("Auth Cache Hit")
+@Description("Lookup that found a valid entry in the auth cache")
+@Category({"Kafka", "LDAP Security", "Cache"})
+@StackTrace(false)
+@Enabled(false)
+public final class CacheHitEvent extends Event {
+    @Label("Key")
+    public String key;
+}
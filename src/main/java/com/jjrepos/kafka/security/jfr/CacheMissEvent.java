@@ -0,0 +1,22 @@
+package com.jjrepos.kafka.security.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.jjrepos.kafka.security.CacheMiss")
+@Label("Auth Cache Miss")
+@Description("Lookup that found no valid entry in the auth cache")
+@Category({"Kafka", "LDAP Security", "Cache"})
+@StackTrace(false)
+public final class CacheMissEvent extends Event {
+    @Label("Key")
+    public String key;
+
+    @Label("Stale")
+    @Description("An expired entry was still cached")
+    public boolean stale;
+}
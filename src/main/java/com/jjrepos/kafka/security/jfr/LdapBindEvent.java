@@ -0,0 +1,21 @@
+package com.jjrepos.kafka.security.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.jjrepos.kafka.security.LdapBind")
+@Label("LDAP Authentication")
+@Description("Authentication of a user with a simple LDAP bind, including the wait for a concurrency permit")
+@Category({"Kafka", "LDAP Security"})
+@StackTrace(false)
+public final class LdapBindEvent extends Event {
+    @Label("User")
+    public String user;
+
+    @Label("Authenticated")
+    public boolean authenticated;
+}
@@ -0,0 +1,21 @@
+package com.jjrepos.kafka.security.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.jjrepos.kafka.security.LdapGroupSearch")
+@Label("LDAP Group Search")
+@Description("Bind as the service user and search of a user's groups, including the wait for a concurrency permit")
+@Category({"Kafka", "LDAP Security"})
+@StackTrace(false)
+public final class LdapGroupSearchEvent extends Event {
+    @Label("User")
+    public String user;
+
+    @Label("Groups")
+    public int groups;
+}
@@ -0,0 +1,28 @@
+package com.jjrepos.kafka.security.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.jjrepos.kafka.security.LdapPermitWait")
+@Label("LDAP Permit Wait")
+@Description("Time an LDAP operation waited for the adaptive concurrency limit, only recorded when it had to wait")
+@Category({"Kafka", "LDAP Security"})
+@StackTrace(false)
+public final class LdapPermitWaitEvent extends Event {
+    @Label("Limit")
+    public int limit;
+
+    @Label("Waiting")
+    @Description("Operations waiting for a permit, including this one")
+    public int waiting;
+
+    @Label("Priority")
+    public String priority;
+
+    @Label("Acquired")
+    public boolean acquired;
+}
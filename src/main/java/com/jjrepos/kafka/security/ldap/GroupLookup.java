@@ -0,0 +1,22 @@
+package com.jjrepos.kafka.security.ldap;
+
+import com.jjrepos.kafka.security.utils.PropertyUtils;
+
+import java.util.Locale;
+import java.util.Map;
+
+public enum GroupLookup {
+    /** Reads {@code memberOf} of the user's own entry, {@code CN=<user>,<search base>}, with a base object read. */
+    ENTRY,
+    /** Searches the subtree under the search base for entries whose {@code CN} is the user, for users not named by CN. */
+    SEARCH;
+
+    public static GroupLookup of(Map<String, ?> configs, GroupLookup defaultLookup) {
+        final String lookup = PropertyUtils.getStringProperty(configs, LdapProperty.GROUP_LOOKUP.config, defaultLookup.name());
+        try {
+            return valueOf(lookup.trim().toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid configuration property \"" + LdapProperty.GROUP_LOOKUP.config + "\".");
+        }
+    }
+}
@@ -1,38 +1,155 @@
 package com.jjrepos.kafka.security.ldap;
 
+import com.jjrepos.kafka.security.directory.DirectoryMode;
+import com.jjrepos.kafka.security.directory.LocalPrincipals;
+import com.jjrepos.kafka.security.utils.PropertyUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 public class LdapConfig {
     private static final Logger LOG = LoggerFactory.getLogger(LdapConfig.class);
+
+    /**
+     * The properties read into a config that the authorizer accepts at runtime, by building a directory from the new
+     * config and retiring the old one. The base and search DNs, the directory mode and snapshot, the local principals
+     * and the thread model are not among them, they need a restart; see {@link #reconfigured(Map)}.
+     */
+    public static final Set<String> RECONFIGURABLE_CONFIGS = Set.of(
+            LdapProperty.URL.config,
+            LdapProperty.USER.config,
+            LdapProperty.PASSWORD.config,
+            LdapProperty.REPLICA_URLS.config,
+            LdapProperty.GROUP_LOOKUP.config,
+            LdapProperty.GROUP_BATCH_SIZE.config,
+            LdapProperty.SEARCH_BASE_CACHE_SIZE.config,
+            LdapProperty.CONCURRENCY_LIMIT_INITIAL.config,
+            LdapProperty.CONCURRENCY_LIMIT_MIN.config,
+            LdapProperty.CONCURRENCY_LIMIT_MAX.config,
+            LdapProperty.CONCURRENCY_ACQUIRE_TIMEOUT_MILLIS.config,
+            LdapProperty.HEDGE_ENABLED.config,
+            LdapProperty.HEDGE_PERCENTILE.config,
+            LdapProperty.HEDGE_BUDGET_PERCENT.config,
+            LdapProperty.HEDGE_MIN_DELAY_MILLIS.config,
+            LdapProperty.CLIENT.config,
+            LdapProperty.NIO_SEARCH_CONNECTIONS.config,
+            LdapProperty.NIO_BIND_CONNECTIONS.config,
+            LdapProperty.NIO_TIMEOUT_MILLIS.config,
+            LdapProperty.NIO_PLAINTEXT.config);
     private final String url;
     private final String baseDn;
     private final String searchBase;
+    private final List<String> searchBases;
+    private final int searchBaseCacheSize;
     private final String bindUser;
     private final String bindUserPassword;
+    private final GroupLookup groupLookup;
+    private final int groupBatchSize;
+    private final int initialConcurrencyLimit;
+    private final int minConcurrencyLimit;
+    private final int maxConcurrencyLimit;
+    private final Duration concurrencyAcquireTimeout;
+    private final boolean virtualThreads;
+    private final DirectoryMode directoryMode;
+    private final Path snapshotPath;
+    private final LocalPrincipals localPrincipals;
+    private final List<String> replicaUrls;
+    private final boolean hedging;
+    private final int hedgePercentile;
+    private final int hedgeBudgetPercent;
+    private final Duration hedgeMinDelay;
+    private final boolean nioClient;
+    private final int nioSearchConnections;
+    private final int nioBindConnections;
+    private final Duration nioTimeout;
+    private final boolean nioPlaintext;
 
     public LdapConfig(final String url, final String baseDn, String searchBase, String bindUser, String bindUserPassword) {
-        this.url = url;
-        this.baseDn = baseDn;
-        this.searchBase = searchBase;
-        this.bindUser = bindUser;
-        this.bindUserPassword = bindUserPassword;
-        LOG.info("Initializing LdapConnection url: {}, baseDn: {}, searchBase: {}, bindUser: {}", url, baseDn, searchBase, bindUser);
+        this(builder(url, baseDn, searchBase).bindUser(bindUser, bindUserPassword));
     }
 
     public LdapConfig(String url, String baseDn, String searchBase) {
-        this.url = url;
-        this.baseDn = baseDn;
-        this.searchBase = searchBase;
-        this.bindUser = null;
-        this.bindUserPassword = null;
-        LOG.info("Initializing LdapConnection url: {}, baseDn: {}, searchBase: {}", url, baseDn, searchBase);
+        this(builder(url, baseDn, searchBase));
+    }
+
+    private LdapConfig(Builder builder) {
+        this.url = builder.url;
+        this.baseDn = builder.baseDn;
+        this.searchBase = builder.searchBase;
+        this.searchBases = searchBases(builder.searchBase);
+        this.searchBaseCacheSize = builder.searchBaseCacheSize;
+        this.bindUser = builder.bindUser;
+        this.bindUserPassword = builder.bindUserPassword;
+        this.groupLookup = builder.groupLookup;
+        this.groupBatchSize = builder.groupBatchSize;
+        this.initialConcurrencyLimit = builder.initialConcurrencyLimit;
+        this.minConcurrencyLimit = builder.minConcurrencyLimit;
+        this.maxConcurrencyLimit = builder.maxConcurrencyLimit;
+        this.concurrencyAcquireTimeout = builder.concurrencyAcquireTimeout;
+        this.virtualThreads = builder.virtualThreads;
+        this.directoryMode = builder.directoryMode;
+        this.snapshotPath = builder.snapshotPath;
+        this.localPrincipals = builder.localPrincipals;
+        this.nioClient = builder.nioClient;
+        this.nioSearchConnections = builder.nioSearchConnections;
+        this.nioBindConnections = builder.nioBindConnections;
+        this.nioTimeout = builder.nioTimeout;
+        this.nioPlaintext = builder.nioPlaintext;
+        this.replicaUrls = builder.replicaUrls;
+        this.hedging = builder.hedging;
+        this.hedgePercentile = builder.hedgePercentile;
+        this.hedgeBudgetPercent = builder.hedgeBudgetPercent;
+        this.hedgeMinDelay = builder.hedgeMinDelay;
+        if (bindUser == null) {
+            LOG.info("Initializing LdapConnection url: {}, baseDn: {}, searchBase: {}", url, baseDn, searchBase);
+        } else {
+            LOG.info("Initializing LdapConnection url: {}, baseDn: {}, searchBase: {}, bindUser: {}", url, baseDn, searchBase, bindUser);
+        }
+    }
+
+    /**
+     * Reads the {@link #RECONFIGURABLE_CONFIGS} from the configs into a new config and keeps this one's settings that
+     * need a restart, so changing one of those along with a reconfigurable setting does not apply it either.
+     */
+    public LdapConfig reconfigured(Map<String, ?> configs) {
+        return builder(directoryMode.ldapProperty(configs, LdapProperty.URL), baseDn, searchBase)
+                .bindUser(directoryMode.ldapProperty(configs, LdapProperty.USER),
+                        directoryMode.ldapProperty(configs, LdapProperty.PASSWORD))
+                .options(configs)
+                .directory(directoryMode, snapshotPath)
+                .localPrincipals(localPrincipals)
+                .virtualThreads(virtualThreads)
+                .build();
+    }
+
+    public static Builder builder(String url, String baseDn, String searchBase) {
+        return new Builder(url, baseDn, searchBase);
     }
 
     public String url() {
         return url + "/" + baseDn;
     }
 
+    /**
+     * The primary directory url followed by the replica urls, each including the base DN.
+     */
+    public List<String> urls() {
+        final List<String> urls = new ArrayList<>(1 + replicaUrls.size());
+        urls.add(url());
+        replicaUrls.forEach(replica -> urls.add(replica + "/" + baseDn));
+        return urls;
+    }
+
     public String baseDn() {
         return baseDn;
     }
@@ -41,6 +158,20 @@ public class LdapConfig {
         return this.searchBase;
     }
 
+    /**
+     * @return the search bases holding user entries, in the order configured
+     */
+    public List<String> searchBases() {
+        return searchBases;
+    }
+
+    /**
+     * @return how many users' search bases are remembered when there are several to choose from
+     */
+    public int searchBaseCacheSize() {
+        return searchBaseCacheSize;
+    }
+
     public String bindUser() {
         return bindUser;
     }
@@ -48,4 +179,334 @@ public class LdapConfig {
     public String bindUserPassword() {
         return bindUserPassword;
     }
+
+    public GroupLookup groupLookup() {
+        return groupLookup;
+    }
+
+    /**
+     * @return how many users one search reads the groups of when many users are looked up at once
+     */
+    public int groupBatchSize() {
+        return groupBatchSize;
+    }
+
+    public int initialConcurrencyLimit() {
+        return initialConcurrencyLimit;
+    }
+
+    public int minConcurrencyLimit() {
+        return minConcurrencyLimit;
+    }
+
+    public int maxConcurrencyLimit() {
+        return maxConcurrencyLimit;
+    }
+
+    public Duration concurrencyAcquireTimeout() {
+        return concurrencyAcquireTimeout;
+    }
+
+    public boolean virtualThreads() {
+        return virtualThreads;
+    }
+
+    public DirectoryMode directoryMode() {
+        return directoryMode;
+    }
+
+    public Path snapshotPath() {
+        return snapshotPath;
+    }
+
+    public LocalPrincipals localPrincipals() {
+        return localPrincipals;
+    }
+
+    public boolean hedging() {
+        return hedging;
+    }
+
+    public int hedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public int hedgeBudgetPercent() {
+        return hedgeBudgetPercent;
+    }
+
+    public Duration hedgeMinDelay() {
+        return hedgeMinDelay;
+    }
+
+    /**
+     * @return whether to use the pipelining {@code NioLdapClient} instead of JNDI
+     */
+    public boolean nioClient() {
+        return nioClient;
+    }
+
+    public int nioSearchConnections() {
+        return nioSearchConnections;
+    }
+
+    public int nioBindConnections() {
+        return nioBindConnections;
+    }
+
+    public Duration nioTimeout() {
+        return nioTimeout;
+    }
+
+    /**
+     * @return whether the NIO client may send the bind user's and users' passwords over a plain {@code ldap://} url
+     */
+    public boolean nioPlaintext() {
+        return nioPlaintext;
+    }
+
+    /**
+     * Configs are equal when they describe the same directory and client settings; urls and DNs are compared
+     * ignoring case and surrounding spaces, the way the directory compares them.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof LdapConfig)) return false;
+        final LdapConfig that = (LdapConfig) o;
+        return initialConcurrencyLimit == that.initialConcurrencyLimit
+                && minConcurrencyLimit == that.minConcurrencyLimit
+                && maxConcurrencyLimit == that.maxConcurrencyLimit
+                && virtualThreads == that.virtualThreads
+                && hedging == that.hedging
+                && hedgePercentile == that.hedgePercentile
+                && hedgeBudgetPercent == that.hedgeBudgetPercent
+                && searchBaseCacheSize == that.searchBaseCacheSize
+                && groupBatchSize == that.groupBatchSize
+                && nioClient == that.nioClient
+                && nioSearchConnections == that.nioSearchConnections
+                && nioBindConnections == that.nioBindConnections
+                && Objects.equals(nioTimeout, that.nioTimeout)
+                && nioPlaintext == that.nioPlaintext
+                && Objects.equals(normalize(url), normalize(that.url))
+                && Objects.equals(normalize(baseDn), normalize(that.baseDn))
+                && Objects.equals(normalize(searchBase), normalize(that.searchBase))
+                && Objects.equals(normalize(bindUser), normalize(that.bindUser))
+                && Objects.equals(bindUserPassword, that.bindUserPassword)
+                && Objects.equals(concurrencyAcquireTimeout, that.concurrencyAcquireTimeout)
+                && groupLookup == that.groupLookup
+                && directoryMode == that.directoryMode
+                && Objects.equals(normalize(snapshotPath), normalize(that.snapshotPath))
+                && Objects.equals(localPrincipals, that.localPrincipals)
+                && Objects.equals(normalize(replicaUrls), normalize(that.replicaUrls))
+                && Objects.equals(hedgeMinDelay, that.hedgeMinDelay);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(normalize(url), normalize(baseDn), normalize(searchBase), normalize(bindUser), directoryMode);
+    }
+
+    private static List<String> searchBases(String searchBase) {
+        if (searchBase == null) return List.of();
+        return Arrays.stream(searchBase.split(";"))
+                .map(String::trim)
+                .filter(base -> !base.isEmpty())
+                .collect(Collectors.toUnmodifiableList());
+    }
+
+    private static String normalize(String value) {
+        return value == null ? null : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static List<String> normalize(List<String> values) {
+        return values.stream().map(LdapConfig::normalize).collect(Collectors.toList());
+    }
+
+    private static Path normalize(Path path) {
+        return path == null ? null : path.toAbsolutePath().normalize();
+    }
+
+    public static final class Builder {
+        private final String url;
+        private final String baseDn;
+        private final String searchBase;
+        private String bindUser;
+        private String bindUserPassword;
+        private GroupLookup groupLookup = GroupLookup.ENTRY;
+        private int searchBaseCacheSize = 4096;
+        private int groupBatchSize = 100;
+        private int initialConcurrencyLimit = 10;
+        private int minConcurrencyLimit = 1;
+        private int maxConcurrencyLimit = 200;
+        private Duration concurrencyAcquireTimeout = Duration.ofSeconds(5);
+        private boolean virtualThreads;
+        private DirectoryMode directoryMode = DirectoryMode.LDAP;
+        private Path snapshotPath;
+        private LocalPrincipals localPrincipals = LocalPrincipals.NONE;
+        private List<String> replicaUrls = List.of();
+        private boolean hedging;
+        private int hedgePercentile = 95;
+        private int hedgeBudgetPercent = 10;
+        private Duration hedgeMinDelay = Duration.ofMillis(5);
+        private boolean nioClient;
+        private int nioSearchConnections = 2;
+        private int nioBindConnections = 8;
+        private Duration nioTimeout = Duration.ofSeconds(10);
+        private boolean nioPlaintext;
+
+        private Builder(String url, String baseDn, String searchBase) {
+            this.url = url;
+            this.baseDn = baseDn;
+            this.searchBase = searchBase;
+        }
+
+        public Builder bindUser(String bindUser, String bindUserPassword) {
+            this.bindUser = bindUser;
+            this.bindUserPassword = bindUserPassword;
+            return this;
+        }
+
+        public Builder groupLookup(GroupLookup groupLookup) {
+            this.groupLookup = Objects.requireNonNull(groupLookup);
+            return this;
+        }
+
+        public Builder groupBatchSize(int size) {
+            if (size < 1) {
+                throw new IllegalArgumentException("Invalid LDAP group batch size, expected at least 1 but got " + size);
+            }
+            this.groupBatchSize = size;
+            return this;
+        }
+
+        public Builder searchBaseCacheSize(int size) {
+            if (size < 0) {
+                throw new IllegalArgumentException("Invalid LDAP search base cache size, expected 0 or more but got " + size);
+            }
+            this.searchBaseCacheSize = size;
+            return this;
+        }
+
+        public Builder concurrencyLimit(int initial, int min, int max) {
+            if (min < 1 || min > initial || initial > max) {
+                throw new IllegalArgumentException("Invalid LDAP concurrency limits, expected 1 <= min <= initial <= max but got min: "
+                        + min + ", initial: " + initial + ", max: " + max);
+            }
+            this.initialConcurrencyLimit = initial;
+            this.minConcurrencyLimit = min;
+            this.maxConcurrencyLimit = max;
+            return this;
+        }
+
+        public Builder concurrencyAcquireTimeout(Duration timeout) {
+            this.concurrencyAcquireTimeout = timeout;
+            return this;
+        }
+
+        public Builder virtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        public Builder directory(DirectoryMode mode, Path snapshotPath) {
+            if (mode != DirectoryMode.LDAP && snapshotPath == null) {
+                throw new IllegalArgumentException("Missing required configuration property \""
+                        + LdapProperty.DIRECTORY_SNAPSHOT_PATH.config + "\".");
+            }
+            this.directoryMode = mode;
+            this.snapshotPath = snapshotPath;
+            return this;
+        }
+
+        public Builder localPrincipals(LocalPrincipals localPrincipals) {
+            this.localPrincipals = localPrincipals;
+            return this;
+        }
+
+        public Builder replicas(List<String> replicaUrls) {
+            this.replicaUrls = List.copyOf(replicaUrls);
+            return this;
+        }
+
+        public Builder hedging(boolean enabled, int percentile, int budgetPercent, Duration minDelay) {
+            if (percentile < 1 || percentile > 99) {
+                throw new IllegalArgumentException("Invalid LDAP hedging percentile, expected 1 to 99 but got " + percentile);
+            }
+            if (budgetPercent < 0 || budgetPercent > 100) {
+                throw new IllegalArgumentException("Invalid LDAP hedging budget, expected 0 to 100 percent but got " + budgetPercent);
+            }
+            this.hedging = enabled;
+            this.hedgePercentile = percentile;
+            this.hedgeBudgetPercent = budgetPercent;
+            this.hedgeMinDelay = minDelay;
+            return this;
+        }
+
+        /**
+         * Selects the NIO client, which pipelines searches over {@code searchConnections} connections bound as the
+         * bind user and authenticates users over up to {@code bindConnections} reused connections.
+         */
+        public Builder nioClient(boolean enabled, int searchConnections, int bindConnections, Duration timeout) {
+            if (searchConnections < 1 || bindConnections < 1) {
+                throw new IllegalArgumentException("Invalid LDAP NIO connections, expected at least 1 but got search: "
+                        + searchConnections + ", bind: " + bindConnections);
+            }
+            this.nioClient = enabled;
+            this.nioSearchConnections = searchConnections;
+            this.nioBindConnections = bindConnections;
+            this.nioTimeout = timeout;
+            return this;
+        }
+
+        /**
+         * Lets the NIO client, which has no TLS, send passwords in clear text over an {@code ldap://} url.
+         */
+        public Builder nioPlaintext(boolean allowed) {
+            this.nioPlaintext = allowed;
+            return this;
+        }
+
+        /**
+         * Applies the optional tuning properties from the plugin configs, leaving defaults for anything absent.
+         */
+        public Builder options(Map<String, ?> configs) {
+            groupLookup(GroupLookup.of(configs, groupLookup));
+            groupBatchSize(PropertyUtils.getIntProperty(configs, LdapProperty.GROUP_BATCH_SIZE.config, groupBatchSize));
+            searchBaseCacheSize(PropertyUtils.getIntProperty(configs, LdapProperty.SEARCH_BASE_CACHE_SIZE.config, searchBaseCacheSize));
+            concurrencyLimit(
+                    PropertyUtils.getIntProperty(configs, LdapProperty.CONCURRENCY_LIMIT_INITIAL.config, initialConcurrencyLimit),
+                    PropertyUtils.getIntProperty(configs, LdapProperty.CONCURRENCY_LIMIT_MIN.config, minConcurrencyLimit),
+                    PropertyUtils.getIntProperty(configs, LdapProperty.CONCURRENCY_LIMIT_MAX.config, maxConcurrencyLimit));
+            concurrencyAcquireTimeout(Duration.ofMillis(PropertyUtils.getLongProperty(configs,
+                    LdapProperty.CONCURRENCY_ACQUIRE_TIMEOUT_MILLIS.config, concurrencyAcquireTimeout.toMillis())));
+            virtualThreads(PropertyUtils.getBooleanProperty(configs, LdapProperty.VIRTUAL_THREADS.config, virtualThreads));
+            final String path = PropertyUtils.getStringProperty(configs, LdapProperty.DIRECTORY_SNAPSHOT_PATH.config, null);
+            directory(DirectoryMode.of(configs), path == null ? snapshotPath : Path.of(path));
+            final LocalPrincipals local = LocalPrincipals.of(configs);
+            if (!local.isEmpty()) localPrincipals(local);
+            final List<String> replicas = PropertyUtils.getListProperty(configs, LdapProperty.REPLICA_URLS.config);
+            if (!replicas.isEmpty()) replicas(replicas);
+            hedging(PropertyUtils.getBooleanProperty(configs, LdapProperty.HEDGE_ENABLED.config, hedging),
+                    PropertyUtils.getIntProperty(configs, LdapProperty.HEDGE_PERCENTILE.config, hedgePercentile),
+                    PropertyUtils.getIntProperty(configs, LdapProperty.HEDGE_BUDGET_PERCENT.config, hedgeBudgetPercent),
+                    Duration.ofMillis(PropertyUtils.getLongProperty(configs, LdapProperty.HEDGE_MIN_DELAY_MILLIS.config,
+                            hedgeMinDelay.toMillis())));
+            final String client = PropertyUtils.getStringProperty(configs, LdapProperty.CLIENT.config, nioClient ? "nio" : "jndi");
+            if (!"nio".equalsIgnoreCase(client.trim()) && !"jndi".equalsIgnoreCase(client.trim())) {
+                throw new IllegalArgumentException("Invalid configuration property \"" + LdapProperty.CLIENT.config + "\".");
+            }
+            nioClient("nio".equalsIgnoreCase(client.trim()),
+                    PropertyUtils.getIntProperty(configs, LdapProperty.NIO_SEARCH_CONNECTIONS.config, nioSearchConnections),
+                    PropertyUtils.getIntProperty(configs, LdapProperty.NIO_BIND_CONNECTIONS.config, nioBindConnections),
+                    Duration.ofMillis(PropertyUtils.getLongProperty(configs, LdapProperty.NIO_TIMEOUT_MILLIS.config,
+                            nioTimeout.toMillis())));
+            nioPlaintext(PropertyUtils.getBooleanProperty(configs, LdapProperty.NIO_PLAINTEXT.config, nioPlaintext));
+            return this;
+        }
+
+        public LdapConfig build() {
+            return new LdapConfig(this);
+        }
+    }
 }
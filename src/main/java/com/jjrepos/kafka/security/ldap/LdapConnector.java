@@ -1,83 +1,384 @@
 package com.jjrepos.kafka.security.ldap;
 
-import com.jjrepos.kafka.security.ldap.authenticator.UsernamePasswordAuthenticator;
-import com.jjrepos.kafka.security.ldap.authorizer.GroupsBuilder;
+import com.jjrepos.kafka.security.directory.Directory;
+import com.jjrepos.kafka.security.ldap.concurrency.AdaptiveConcurrencyLimiter;
+import com.jjrepos.kafka.security.ldap.concurrency.LdapExecutor;
+import com.jjrepos.kafka.security.ldap.concurrency.LdapPriority;
+import com.jjrepos.kafka.security.ldap.concurrency.RequestHedger;
+import com.jjrepos.kafka.security.ldap.concurrency.RequestHedger.ReplicaOperation;
+import com.jjrepos.kafka.security.jfr.LdapBindEvent;
+import com.jjrepos.kafka.security.jfr.LdapGroupSearchEvent;
+import com.jjrepos.kafka.security.ldap.authorizer.Membership;
+import com.jjrepos.kafka.security.utils.JmxUtils;
 import com.jjrepos.kafka.security.utils.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.ObjectName;
 import javax.naming.AuthenticationException;
 import javax.naming.Context;
+import javax.naming.NameNotFoundException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
 import javax.naming.ldap.InitialLdapContext;
 import javax.naming.ldap.LdapContext;
 import java.util.*;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
-public class LdapConnector implements UsernamePasswordAuthenticator, GroupsBuilder {
+public class LdapConnector implements Directory {
 
     private static final Logger LOG = LoggerFactory.getLogger(LdapConnector.class);
     private static final String MEMBER_OF = "memberOf";
+    private static final String ENTRY_USN = "entryUSN";
+    private static final String MODIFY_TIMESTAMP = "modifyTimestamp";
+    private static final String[] VERSION_ATTRIBUTES = {ENTRY_USN, MODIFY_TIMESTAMP};
+    private static final String[] GROUP_ATTRIBUTES = {MEMBER_OF, ENTRY_USN, MODIFY_TIMESTAMP};
     private static final String CN = "CN";
+    private static final String[] BATCH_ATTRIBUTES = {CN, MEMBER_OF, ENTRY_USN, MODIFY_TIMESTAMP};
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
     private final LdapConfig ldapConfig;
-    private final String usernameToDnFormat;
+    private final UserNames names;
+    private final String bindDn;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final ObjectName limiterMetrics;
+    private final LdapExecutor hedgeExecutor;
+    private final RequestHedger hedger;
+    private final ObjectName hedgingMetrics;
+    private final LdapExecutor fanOutExecutor;
 
     public LdapConnector(LdapConfig ldapConfig) {
         this.ldapConfig = Objects.requireNonNull(ldapConfig);
-        this.usernameToDnFormat = CN + "=%s," + ldapConfig.searchBase() + "," + ldapConfig.baseDn();
-        LOG.info("Using user DN format: {}", usernameToDnFormat);
+        this.names = new UserNames(ldapConfig);
+        this.bindDn = names.dn(String.valueOf(ldapConfig.bindUser()), 0);
+        this.limiter = new AdaptiveConcurrencyLimiter(ldapConfig.initialConcurrencyLimit(), ldapConfig.minConcurrencyLimit(),
+                ldapConfig.maxConcurrencyLimit(), ldapConfig.concurrencyAcquireTimeout());
+        final String name = "ldap-" + INSTANCES.incrementAndGet();
+        this.limiterMetrics = JmxUtils.register("ConcurrencyLimiter", name, limiter);
+        final List<String> urls = ldapConfig.urls();
+        if (ldapConfig.hedging() && urls.size() > 1) {
+            this.hedgeExecutor = LdapExecutor.create(name + "-hedging", ldapConfig.virtualThreads());
+            this.hedger = new RequestHedger(urls, ldapConfig.hedgePercentile(), ldapConfig.hedgeBudgetPercent(),
+                    ldapConfig.hedgeMinDelay(), limiter, hedgeExecutor);
+            this.hedgingMetrics = JmxUtils.register("Hedging", name, hedger);
+            LOG.info("Hedging LDAP reads slower than p{} to {} replicas, budget {}%", ldapConfig.hedgePercentile(),
+                    urls.size() - 1, ldapConfig.hedgeBudgetPercent());
+        } else {
+            if (ldapConfig.hedging()) {
+                LOG.warn("LDAP hedging is enabled but no replica urls are configured, not hedging.");
+            }
+            this.hedgeExecutor = null;
+            this.hedger = null;
+            this.hedgingMetrics = null;
+        }
+        if (names.bases() > 1) {
+            this.fanOutExecutor = LdapExecutor.create(name + "-search-bases", ldapConfig.virtualThreads());
+            LOG.info("Finding users in {} search bases: {}", names.bases(), ldapConfig.searchBases());
+        } else {
+            this.fanOutExecutor = null;
+        }
+        LOG.info("Using user DN format: {}, looking up groups by {}", names.dn("%s", 0), ldapConfig.groupLookup());
     }
 
     public boolean authenticate(final String username, final String password) {
+        return authenticate(username, password, null);
+    }
+
+    /**
+     * Reads the user's own {@code memberOf} over the connection the user just bound on, so a new client does not
+     * need a second connection and bind as the service account before its first request can be authorized.
+     * Failing to read the groups does not fail the authentication, they are searched later as usual.
+     */
+    @Override
+    public boolean authenticate(final String username, final String password, final Consumer<Membership> groupsRead) {
         if (StringUtils.isBlank(username) || StringUtils.isBlank(password)) {
             return false;
         }
-        LdapContext context = null;
-        try {
-            final String userDn = String.format(usernameToDnFormat, LdapUtils.escape(username));
-            context = bind(userDn, password);
+        final LdapBindEvent event = new LdapBindEvent();
+        event.begin();
+        // a client is waiting for its login
+        try (LdapPriority.Scope ignored = LdapPriority.AUTHENTICATION.enter()) {
+            final int base = base(username);
+            if (base == UserNames.UNKNOWN) {
+                LOG.info("Authentication failure for user: {}, not found in any search base", username);
+                return false;
+            }
+            final String userDn = names.dn(username, base);
+            final String entry = names.entry(username, base);
+            // never hedged, a second bind with a wrong password would count twice towards a lockout
+            final Optional<Membership> membership = runOnPrimary(url -> {
+                final LdapContext context = bind(url, userDn, password);
+                try {
+                    return groupsRead == null ? Optional.<Membership>empty() : readOwnGroups(context, username, entry);
+                } finally {
+                    try {
+                        context.close();
+                    } catch (final NamingException e) {
+                        LOG.warn("Ignoring exception when closing LDAP context.", e);
+                    }
+                }
+            });
+            event.authenticated = true;
+            membership.ifPresent(groupsRead);
             return true;
         } catch (final AuthenticationException e) {
+            // the learned base stays, a wrong password says nothing about where the entry is and a user who moved
+            // is forgotten when reading the entry finds nothing
             LOG.info("Authentication failure for user: {}, {}", username, e.getMessage());
             return false;
         } catch (final NamingException e) {
             throw new LdapException(e);
         } finally {
-            if (context != null) {
-                try {
-                    context.close();
-                } catch (final NamingException e) {
-                    LOG.warn("Ignoring exception when closing LDAP context.", e);
-                }
+            if (event.shouldCommit()) {
+                event.user = username;
+                event.commit();
             }
         }
     }
 
     public Set<String> groupsForUser(final String user) {
+        return membershipForUser(user).groups();
+    }
+
+    @Override
+    public Membership membershipForUser(final String user) {
+        final LdapGroupSearchEvent event = new LdapGroupSearchEvent();
+        event.begin();
+        try {
+            var membership = ldapConfig.groupLookup() == GroupLookup.ENTRY ? readGroups(user) : run(url -> searchGroups(url, user));
+            LOG.debug("User {} is in {} groups", user, membership.groups());
+            event.groups = membership.groups().size();
+            return membership;
+        } catch (final AuthenticationException e) {
+            LOG.info("Authentication failure for user: {}, {}", ldapConfig.bindUser(), e.getMessage());
+        } catch (final NamingException e) {
+            throw new LdapException(e);
+        } finally {
+            if (event.shouldCommit()) {
+                event.user = user;
+                event.commit();
+            }
+        }
+        LOG.info("User {} is in not in any groups", user);
+        return new Membership(Collections.emptySet(), null);
+    }
+
+    /**
+     * Reads the groups of up to {@link LdapConfig#groupBatchSize()} users with one search per search base, handing
+     * them to the consumer batch by batch. With {@link GroupLookup#ENTRY} the search covers the entries right below
+     * each base, where the single user reads look, and teaches the users' search bases.
+     */
+    @Override
+    public void membershipsForUsers(final Collection<String> users, final BiConsumer<String, Membership> memberships) {
+        final List<String> batch = new ArrayList<>(Math.min(users.size(), ldapConfig.groupBatchSize()));
+        for (final String user : users) {
+            batch.add(user);
+            if (batch.size() == ldapConfig.groupBatchSize()) {
+                searchBatch(batch, memberships);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) searchBatch(batch, memberships);
+    }
+
+    private void searchBatch(final List<String> users, final BiConsumer<String, Membership> memberships) {
+        final LdapGroupSearchEvent event = new LdapGroupSearchEvent();
+        event.begin();
+        MembershipBatch batch = new MembershipBatch(users, ldapConfig.groupLookup());
+        try {
+            batch = run(url -> searchBatch(url, users));
+            LOG.debug("Read the groups of {} users in one batch", users.size());
+            for (final String user : users) {
+                event.groups += batch.membership(user).groups().size();
+            }
+        } catch (final AuthenticationException e) {
+            LOG.info("Authentication failure for user: {}, {}", ldapConfig.bindUser(), e.getMessage());
+        } catch (final NamingException e) {
+            throw new LdapException(e);
+        } finally {
+            if (event.shouldCommit()) {
+                event.user = users.size() + " users";
+                event.commit();
+            }
+        }
+        for (final String user : users) {
+            memberships.accept(user, batch.membership(user));
+        }
+    }
+
+    private MembershipBatch searchBatch(final String url, final List<String> users) throws NamingException {
         LdapContext context = null;
         NamingEnumeration<SearchResult> results = null;
         try {
-            final String userDn = String.format(usernameToDnFormat, LdapUtils.escape(ldapConfig.bindUser()));
-            context = bind(userDn, ldapConfig.bindUserPassword());
-            LOG.debug("Authenticated bind user: {}", ldapConfig.bindUser());
-            var searchControls = new SearchControls();
-            searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+            context = bind(url, bindDn, ldapConfig.bindUserPassword());
+            final GroupLookup lookup = ldapConfig.groupLookup();
+            final var searchControls = new SearchControls();
+            searchControls.setSearchScope(lookup == GroupLookup.ENTRY ? SearchControls.ONELEVEL_SCOPE : SearchControls.SUBTREE_SCOPE);
             searchControls.setTimeLimit(10000);
-            searchControls.setReturningAttributes(new String[]{MEMBER_OF});
-            var searchFilter = String.format("(CN=%s)", user);
-            LOG.trace("Getting groups for user: {}", searchFilter);
-            results = context.search(ldapConfig.searchBase(), searchFilter, searchControls);
-            var groups = parseGroups(results);
-            LOG.debug("User {} is in {} groups", user, groups);
-            return groups;
+            searchControls.setReturningAttributes(BATCH_ATTRIBUTES);
+            final String searchFilter = UserNames.filter(users);
+            final MembershipBatch batch = new MembershipBatch(users, lookup);
+            for (int base = 0; base < names.bases(); base++) {
+                results = context.search(names.searchBase(base), searchFilter, searchControls);
+                while (results.hasMore()) {
+                    final SearchResult result = results.next();
+                    final Attributes attributes = result.getAttributes();
+                    final Set<String> groups = new HashSet<>(3);
+                    addGroups(attributes.get(MEMBER_OF), groups);
+                    final List<String> cnValues = new ArrayList<>(1);
+                    final Attribute cn = attributes.get(CN);
+                    for (int i = 0; cn != null && i < cn.size(); i++) {
+                        cnValues.add(String.valueOf(cn.get(i)));
+                    }
+                    final String dn = result.getNameInNamespace();
+                    if (batch.entry(dn, cnValues, groups, entryVersion(attributes)) && lookup == GroupLookup.ENTRY) {
+                        names.learn(MembershipBatch.rdnValue(dn), base);
+                    }
+                }
+                results.close();
+            }
+            return batch;
+        } finally {
+            try {
+                if (results != null) results.close();
+                if (context != null) context.close();
+            } catch (final NamingException e) {
+                LOG.warn("Ignoring exception when closing LDAP results/context.", e);
+            }
+        }
+    }
+
+    /**
+     * Reads {@code entryUSN} and {@code modifyTimestamp} of the user's entry with a base object read, far cheaper
+     * than searching the user's groups again.
+     */
+    @Override
+    public String entryVersion(final String user) {
+        try {
+            final int base = base(user);
+            if (base == UserNames.UNKNOWN) return null;
+            return run(url -> readEntryVersion(url, names.entry(user, base)));
+        } catch (final NameNotFoundException e) {
+            LOG.debug("No entry for user {}", user);
+            names.forget(user);
+            return null;
         } catch (final AuthenticationException e) {
             LOG.info("Authentication failure for user: {}, {}", ldapConfig.bindUser(), e.getMessage());
+            return null;
         } catch (final NamingException e) {
             throw new LdapException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        JmxUtils.unregister(limiterMetrics);
+        JmxUtils.unregister(hedgingMetrics);
+        if (hedgeExecutor != null) hedgeExecutor.close();
+        if (fanOutExecutor != null) fanOutExecutor.close();
+    }
+
+    /**
+     * Runs an operation against the primary directory, or hedges it across the replicas when hedging is enabled.
+     * Every attempt, hedges included, needs its own permit from the concurrency limiter.
+     */
+    private <T> T run(final ReplicaOperation<T> operation) throws NamingException {
+        if (hedger == null) return runOnPrimary(operation);
+        return hedger.execute(operation);
+    }
+
+    private <T> T runOnPrimary(final ReplicaOperation<T> operation) throws NamingException {
+        return limiter.execute(() -> operation.execute(ldapConfig.url()));
+    }
+
+    /**
+     * Returns the search base holding the user's entry. With several, an unknown user's candidate entries are read
+     * in all of them at once and the first found is remembered, so later lookups and binds go straight to it.
+     */
+    private int base(final String user) throws NamingException {
+        int base = names.learnedBase(user);
+        if (base != UserNames.UNKNOWN) return base;
+        final List<LdapOperation<Boolean>> reads = new ArrayList<>(names.bases());
+        for (int i = 0; i < names.bases(); i++) {
+            final String entry = names.entry(user, i);
+            reads.add(() -> run(url -> exists(url, entry)));
+        }
+        base = fanOutExecutor.indexOfFirstMatch(reads);
+        if (base == UserNames.UNKNOWN) {
+            LOG.debug("No entry for user {} in any search base", user);
+        } else {
+            LOG.debug("Found user {} in search base {}", user, names.searchBase(base));
+            names.learn(user, base);
+        }
+        return base;
+    }
+
+    /**
+     * Reads the groups of the user's own entry with a base object read, a single indexed fetch for the directory.
+     */
+    private Membership readGroups(final String user) throws NamingException {
+        final int base = base(user);
+        if (base == UserNames.UNKNOWN) return new Membership(Collections.emptySet(), null);
+        try {
+            return run(url -> readGroups(url, names.entry(user, base)));
+        } catch (final NameNotFoundException e) {
+            LOG.debug("No entry for user {}", user);
+            names.forget(user);
+            return new Membership(Collections.emptySet(), null);
+        }
+    }
+
+    private Membership readGroups(final String url, final String entry) throws NamingException {
+        LdapContext context = null;
+        try {
+            context = bind(url, bindDn, ldapConfig.bindUserPassword());
+            LOG.debug("Authenticated bind user: {}", ldapConfig.bindUser());
+            final Attributes attributes = context.getAttributes(entry, GROUP_ATTRIBUTES);
+            final Set<String> groups = new HashSet<>(3);
+            addGroups(attributes.get(MEMBER_OF), groups);
+            return new Membership(groups, entryVersion(attributes));
+        } finally {
+            try {
+                if (context != null) context.close();
+            } catch (final NamingException e) {
+                LOG.warn("Ignoring exception when closing LDAP context.", e);
+            }
+        }
+    }
+
+    /**
+     * Searches every search base in turn on one connection, the groups of all entries found are combined.
+     */
+    private Membership searchGroups(final String url, final String user) throws NamingException {
+        LdapContext context = null;
+        NamingEnumeration<SearchResult> results = null;
+        try {
+            context = bind(url, bindDn, ldapConfig.bindUserPassword());
+            LOG.debug("Authenticated bind user: {}", ldapConfig.bindUser());
+            var searchControls = new SearchControls();
+            searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+            searchControls.setTimeLimit(10000);
+            searchControls.setReturningAttributes(GROUP_ATTRIBUTES);
+            var searchFilter = UserNames.filter(user);
+            LOG.trace("Getting groups for user: {}", searchFilter);
+            final Set<String> groups = new HashSet<>(3);
+            String version = null;
+            int entries = 0;
+            for (int base = 0; base < names.bases(); base++) {
+                results = context.search(names.searchBase(base), searchFilter, searchControls);
+                while (results.hasMore()) {
+                    final Attributes attributes = results.next().getAttributes();
+                    version = entries++ == 0 ? entryVersion(attributes) : null;
+                    addGroups(attributes.get(MEMBER_OF), groups);
+                }
+                results.close();
+            }
+            return new Membership(groups, version);
         } finally {
             try {
                 if (results != null) results.close();
@@ -86,36 +387,69 @@ public class LdapConnector implements UsernamePasswordAuthenticator, GroupsBuild
                 LOG.warn("Ignoring exception when closing LDAP results/context.", e);
             }
         }
-        LOG.info("User {} is in not in any groups", user);
-        return Collections.emptySet();
-    }
-
-    private Set<String> parseGroups(NamingEnumeration<SearchResult> results) throws NamingException {
-        Set<String> groups = new HashSet<>(3);
-        while (results != null && results.hasMore()) {
-            Attribute attribute = results.next().getAttributes().get(MEMBER_OF);
-            var memberOf = attribute.getAll();
-            while (memberOf.hasMore()) {
-                var member = memberOf.next().toString();
-                LOG.debug("memberOf from LDAP: {}", member);
-                var memberArr = member.split(",");
-                Arrays.stream(memberArr)
-                        .map(String::toUpperCase)
-                        .filter(grp -> grp.startsWith(CN))
-                        .map(grp -> grp.split("="))
-                        .flatMap(Stream::of)
-                        .dropWhile(grp -> grp.equals(CN))
-                        .findFirst()
-                        .ifPresent(groups::add);
+    }
+
+    private Optional<Membership> readOwnGroups(final LdapContext context, final String username, final String entry) {
+        try {
+            final Attributes attributes = context.getAttributes(entry, GROUP_ATTRIBUTES);
+            final Set<String> groups = new HashSet<>(3);
+            addGroups(attributes.get(MEMBER_OF), groups);
+            LOG.debug("User {} is in {} groups", username, groups);
+            return Optional.of(new Membership(groups, entryVersion(attributes)));
+        } catch (final NamingException e) {
+            LOG.debug("Unable to read groups of user {} on its own connection, {}", username, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private boolean exists(final String url, final String entry) throws NamingException {
+        try {
+            readEntryVersion(url, entry);
+            return true;
+        } catch (final NameNotFoundException e) {
+            return false;
+        }
+    }
+
+    private String readEntryVersion(final String url, final String entry) throws NamingException {
+        LdapContext context = null;
+        try {
+            context = bind(url, bindDn, ldapConfig.bindUserPassword());
+            return entryVersion(context.getAttributes(entry, VERSION_ATTRIBUTES));
+        } finally {
+            try {
+                if (context != null) context.close();
+            } catch (final NamingException e) {
+                LOG.warn("Ignoring exception when closing LDAP context.", e);
             }
         }
-        return groups;
     }
 
-    private InitialLdapContext bind(final String userDn, final String password) throws NamingException {
+    /**
+     * Prefers {@code entryUSN}, which changes with every update, over {@code modifyTimestamp}, which some directories
+     * keep with a resolution of one second.
+     */
+    private static String entryVersion(Attributes attributes) throws NamingException {
+        final Attribute usn = attributes.get(ENTRY_USN);
+        if (usn != null) return ENTRY_USN + ":" + usn.get();
+        final Attribute timestamp = attributes.get(MODIFY_TIMESTAMP);
+        return timestamp == null ? null : MODIFY_TIMESTAMP + ":" + timestamp.get();
+    }
+
+    private static void addGroups(final Attribute attribute, final Set<String> groups) throws NamingException {
+        if (attribute == null) return;
+        var memberOf = attribute.getAll();
+        while (memberOf.hasMore()) {
+            var member = memberOf.next().toString();
+            LOG.debug("memberOf from LDAP: {}", member);
+            LdapUtils.groupName(member).ifPresent(groups::add);
+        }
+    }
+
+    private InitialLdapContext bind(final String url, final String userDn, final String password) throws NamingException {
         final Hashtable<String, Object> env = new Hashtable<>(5);
         env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
-        env.put(Context.PROVIDER_URL, ldapConfig.url());
+        env.put(Context.PROVIDER_URL, url);
         env.put(Context.SECURITY_AUTHENTICATION, "simple");
         env.put(Context.SECURITY_PRINCIPAL, userDn);
         env.put(Context.SECURITY_CREDENTIALS, password);
@@ -6,4 +6,8 @@ public final class LdapException extends RuntimeException {
         super(throwable);
     }
 
+    public LdapException(final String message) {
+        super(message);
+    }
+
 }
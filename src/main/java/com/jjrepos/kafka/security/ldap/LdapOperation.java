@@ -0,0 +1,13 @@
+package com.jjrepos.kafka.security.ldap;
+
+import javax.naming.NamingException;
+
+/**
+ * A single blocking round-trip to the directory, such as a bind or a search.
+ *
+ * @param <T> result of the operation
+ */
+@FunctionalInterface
+public interface LdapOperation<T> {
+    T execute() throws NamingException;
+}
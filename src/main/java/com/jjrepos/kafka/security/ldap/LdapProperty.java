@@ -4,10 +4,54 @@ public enum LdapProperty {
 
     URL("ldap.url"),
     BASE_DN("ldap.base.dn"),
+    /** One or more search bases, separated by {@code ;} since DNs contain commas. */
     SEARCH_BASE("ldap.search.base"),
+    SEARCH_BASE_CACHE_SIZE("ldap.search.base.cache.size"),
+    GROUP_LOOKUP("ldap.group.lookup"),
+    GROUP_BATCH_SIZE("ldap.group.batch.size"),
     USER("ladp.user"),
     PASSWORD("ldap.password"),
-    CACHE_VALIDITY_MILLIS("ldap.auth.cache.validity.millis");
+    CACHE_VALIDITY_MILLIS("ldap.auth.cache.validity.millis"),
+    CONCURRENCY_LIMIT_INITIAL("ldap.concurrency.limit.initial"),
+    CONCURRENCY_LIMIT_MIN("ldap.concurrency.limit.min"),
+    CONCURRENCY_LIMIT_MAX("ldap.concurrency.limit.max"),
+    CONCURRENCY_ACQUIRE_TIMEOUT_MILLIS("ldap.concurrency.acquire.timeout.millis"),
+    RATE_LIMIT_PER_SECOND("ldap.auth.rate.limit.per.second"),
+    RATE_LIMIT_BURST("ldap.auth.rate.limit.burst"),
+    CACHE_CHANNEL_CLASS("ldap.auth.cache.channel.class"),
+    CACHE_CHANNEL_GROUP("ldap.auth.cache.channel.loopback.group"),
+    CACHE_VALIDITY_JITTER_PERCENT("ldap.auth.cache.validity.jitter.percent"),
+    CACHE_VALIDITY_ADAPTIVE("ldap.auth.cache.validity.adaptive"),
+    CACHE_VALIDITY_MAX_STRETCH("ldap.auth.cache.validity.max.stretch"),
+    CACHE_REVALIDATE_MAX("ldap.auth.cache.revalidate.max"),
+    CACHE_PRIME_ON_LOGIN("ldap.auth.cache.prime.on.login"),
+    CACHE_NEAR_SIZE("ldap.auth.cache.near.size"),
+    CACHE_WARMUP_PRINCIPALS("ldap.auth.cache.warmup.principals"),
+    VIRTUAL_THREADS("ldap.virtual.threads.enabled"),
+    AUDIT_ENABLED("ldap.audit.enabled"),
+    AUDIT_BUFFER_SIZE("ldap.audit.buffer.size"),
+    AUDIT_BATCH_SIZE("ldap.audit.batch.size"),
+    /** Prefix, followed by the decision, e.g. {@code ldap.audit.sample.percent.authorization.allowed}. */
+    AUDIT_SAMPLE_PERCENT("ldap.audit.sample.percent"),
+    /** Prefix, followed by the decision, e.g. {@code ldap.audit.rate.limit.per.second.authentication.failure}. */
+    AUDIT_RATE_LIMIT_PER_SECOND("ldap.audit.rate.limit.per.second"),
+    TRACE_DIR("ldap.trace.dir"),
+    TRACE_BUFFER_SIZE("ldap.trace.buffer.size"),
+    DIRECTORY_MODE("ldap.directory.mode"),
+    DIRECTORY_SNAPSHOT_PATH("ldap.directory.snapshot.path"),
+    LOCAL_PRINCIPALS("ldap.local.principals"),
+    /** Prefix, followed by the principal and {@code password} or {@code groups}, e.g. {@code ldap.local.principal.kafka_broker.password}. */
+    LOCAL_PRINCIPAL("ldap.local.principal"),
+    REPLICA_URLS("ldap.replica.urls"),
+    HEDGE_ENABLED("ldap.hedge.enabled"),
+    HEDGE_PERCENTILE("ldap.hedge.percentile"),
+    HEDGE_BUDGET_PERCENT("ldap.hedge.budget.percent"),
+    HEDGE_MIN_DELAY_MILLIS("ldap.hedge.min.delay.millis"),
+    CLIENT("ldap.client"),
+    NIO_SEARCH_CONNECTIONS("ldap.nio.search.connections"),
+    NIO_BIND_CONNECTIONS("ldap.nio.bind.connections"),
+    NIO_TIMEOUT_MILLIS("ldap.nio.timeout.millis"),
+    NIO_PLAINTEXT("ldap.nio.plaintext");
 
     public final String config;
 
@@ -1,12 +1,40 @@
 package com.jjrepos.kafka.security.ldap;
 
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.stream.Stream;
+
 public final class LdapUtils {
 
+    private static final String CN = "CN";
     private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
 
     private LdapUtils() {
     }
 
+    /**
+     * Normalizes a username for use as a cache or rate limit key.
+     * LDAP matches CN values case-insensitively, so case variants of a name are the same principal.
+     */
+    public static String normalizeUsername(final String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Extracts the upper case group name from a group DN such as a {@code memberOf} value, e.g.
+     * {@code KAFKA-READ_GRP} from {@code cn=Kafka-read_grp,ou=AdminGroups,dc=bah,dc=com}.
+     */
+    public static Optional<String> groupName(final String groupDn) {
+        return Arrays.stream(groupDn.split(","))
+                .map(String::toUpperCase)
+                .filter(grp -> grp.startsWith(CN))
+                .map(grp -> grp.split("="))
+                .flatMap(Stream::of)
+                .dropWhile(grp -> grp.equals(CN))
+                .findFirst();
+    }
+
     public static String escape(final String s) {
         /* See RFC 2253, section 2.4 */
         final StringBuilder sb = new StringBuilder();
@@ -48,4 +76,20 @@ public final class LdapUtils {
         return sb.toString();
     }
 
+    /**
+     * Escapes a value for an LDAP search filter, so that a user name such as {@code *} or {@code a)(cn=*} matches
+     * only itself. See RFC 4515, section 3.
+     */
+    public static String escapeFilterValue(final String s) {
+        final StringBuilder sb = new StringBuilder(s.length() + 8);
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '*' || c == '(' || c == ')' || c == '\\' || c == 0) {
+                sb.append('\\').append(HEX_CHARS[c >> 4]).append(HEX_CHARS[c & 0xf]);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
 }
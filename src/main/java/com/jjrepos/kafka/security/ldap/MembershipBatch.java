@@ -0,0 +1,97 @@
+package com.jjrepos.kafka.security.ldap;
+
+import com.jjrepos.kafka.security.ldap.authorizer.Membership;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Attributes the entries found by one search for many users, {@code (|(CN=a)(CN=b)...)}, to the users asked for.
+ * <p>
+ * With {@link GroupLookup#ENTRY} an entry belongs to the user named by its RDN, the entry a base object read of
+ * {@code CN=<user>,<search base>} finds; with {@link GroupLookup#SEARCH} to every user among its {@code CN} values,
+ * as the single user's search would find it. The groups of a user found in several entries are combined and, as
+ * with a single search, have no version.
+ */
+public final class MembershipBatch {
+    private static final String CN = "CN";
+
+    private static final class Found {
+        final Set<String> groups = new HashSet<>(4);
+        String version;
+        int entries;
+    }
+
+    private final GroupLookup lookup;
+    private final Map<String, Found> found;
+
+    public MembershipBatch(Collection<String> users, GroupLookup lookup) {
+        this.lookup = lookup;
+        this.found = new HashMap<>(users.size() * 2);
+        for (final String user : users) {
+            found.put(LdapUtils.normalizeUsername(user), null);
+        }
+    }
+
+    /**
+     * @param dn       the entry's DN
+     * @param cnValues the values of the entry's {@code CN} attribute
+     * @return whether the entry belongs to one of the users
+     */
+    public boolean entry(String dn, Collection<String> cnValues, Set<String> groups, String version) {
+        boolean matched = false;
+        if (lookup == GroupLookup.ENTRY) {
+            final String user = rdnValue(dn);
+            if (user != null) matched = add(user, groups, version);
+        } else {
+            for (final String user : cnValues) {
+                matched |= add(user, groups, version);
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * @return the user's membership, empty when no entry belonged to the user
+     */
+    public Membership membership(String user) {
+        final Found entries = found.get(LdapUtils.normalizeUsername(user));
+        if (entries == null) return new Membership(Collections.emptySet(), null);
+        return new Membership(entries.groups, entries.entries == 1 ? entries.version : null);
+    }
+
+    private boolean add(String user, Set<String> groups, String version) {
+        final String key = LdapUtils.normalizeUsername(user);
+        if (!found.containsKey(key)) return false;
+        Found entries = found.get(key);
+        if (entries == null) {
+            entries = new Found();
+            found.put(key, entries);
+        }
+        entries.groups.addAll(groups);
+        entries.version = version;
+        entries.entries++;
+        return true;
+    }
+
+    /**
+     * @return the value of the DN's leftmost RDN when it is a {@code CN}, else null
+     */
+    public static String rdnValue(String dn) {
+        try {
+            final LdapName name = new LdapName(dn);
+            if (name.isEmpty()) return null;
+            final Rdn rdn = name.getRdn(name.size() - 1);
+            return CN.equalsIgnoreCase(rdn.getType()) ? String.valueOf(rdn.getValue()) : null;
+        } catch (final InvalidNameException e) {
+            return null;
+        }
+    }
+}
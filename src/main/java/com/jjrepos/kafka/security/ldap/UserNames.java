@@ -0,0 +1,121 @@
+package com.jjrepos.kafka.security.ldap;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The names of a user's entry and the filter matching it, built from templates split once per config so that a
+ * lookup only escapes the user name and concatenates.
+ * <p>
+ * With several search bases a user's entry may be in any of them. The base a user was found in is remembered in a
+ * bounded table, so after the first lookup the user's DN is known without reading the candidates again. The table
+ * is direct mapped: a user whose slot is taken by another is simply looked up again.
+ */
+public final class UserNames {
+    /** The search base of a user who has not been found yet, or is in none of them. */
+    public static final int UNKNOWN = -1;
+    private static final String CN = "CN=";
+
+    private static final class Learned {
+        final String user;
+        final int base;
+
+        Learned(String user, int base) {
+            this.user = user;
+            this.base = base;
+        }
+    }
+
+    private final List<String> searchBases;
+    private final String[] entrySuffixes;
+    private final String[] dnSuffixes;
+    private final AtomicReferenceArray<Learned> learned;
+    private final int mask;
+
+    public UserNames(LdapConfig ldapConfig) {
+        this.searchBases = ldapConfig.searchBases().isEmpty() ? List.of(String.valueOf(ldapConfig.searchBase())) : ldapConfig.searchBases();
+        this.entrySuffixes = new String[searchBases.size()];
+        this.dnSuffixes = new String[searchBases.size()];
+        for (int i = 0; i < entrySuffixes.length; i++) {
+            entrySuffixes[i] = "," + searchBases.get(i);
+            dnSuffixes[i] = entrySuffixes[i] + "," + ldapConfig.baseDn();
+        }
+        final int size = searchBases.size() == 1 || ldapConfig.searchBaseCacheSize() == 0
+                ? 0 : Integer.highestOneBit(ldapConfig.searchBaseCacheSize() * 2 - 1);
+        this.learned = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public int bases() {
+        return searchBases.size();
+    }
+
+    /**
+     * @return the search base, relative to the base DN
+     */
+    public String searchBase(int base) {
+        return searchBases.get(base);
+    }
+
+    /**
+     * @return the user's full DN in the search base, the name a bind needs
+     */
+    public String dn(String user, int base) {
+        return CN + LdapUtils.escape(user) + dnSuffixes[base];
+    }
+
+    /**
+     * @return the user's DN in the search base relative to the base DN, as named in a context opened on
+     * {@link LdapConfig#url()}
+     */
+    public String entry(String user, int base) {
+        return CN + LdapUtils.escape(user) + entrySuffixes[base];
+    }
+
+    /**
+     * @return the search base the user was found in, always the only one when there is one, else {@link #UNKNOWN}
+     */
+    public int learnedBase(String user) {
+        if (searchBases.size() == 1) return 0;
+        if (mask < 0) return UNKNOWN;
+        final String key = LdapUtils.normalizeUsername(user);
+        final Learned entry = learned.get(key.hashCode() & mask);
+        return entry != null && entry.user.equals(key) ? entry.base : UNKNOWN;
+    }
+
+    public void learn(String user, int base) {
+        if (mask < 0) return;
+        final String key = LdapUtils.normalizeUsername(user);
+        learned.set(key.hashCode() & mask, new Learned(key, base));
+    }
+
+    /**
+     * Forgets the user's search base after its entry was not found there, for users moved to another one.
+     */
+    public void forget(String user) {
+        if (mask < 0) return;
+        final String key = LdapUtils.normalizeUsername(user);
+        final int slot = key.hashCode() & mask;
+        final Learned entry = learned.get(slot);
+        if (entry != null && entry.user.equals(key)) learned.compareAndSet(slot, entry, null);
+    }
+
+    /**
+     * @return an equality filter for the user's {@code CN}
+     */
+    public static String filter(String user) {
+        return "(" + CN + LdapUtils.escapeFilterValue(user) + ")";
+    }
+
+    /**
+     * @return a filter matching the {@code CN} of any of the users
+     */
+    public static String filter(Collection<String> users) {
+        final StringBuilder filter = new StringBuilder(users.size() * 24).append("(|");
+        for (final String user : users) {
+            filter.append('(').append(CN).append(LdapUtils.escapeFilterValue(user)).append(')');
+        }
+        return filter.append(')').toString();
+    }
+}
@@ -1,9 +1,18 @@
 package com.jjrepos.kafka.security.ldap.authenticator;
 
+import com.jjrepos.kafka.security.audit.AuditDecision;
+import com.jjrepos.kafka.security.audit.AuditLog;
 import com.jjrepos.kafka.security.cache.AuthCache;
+import com.jjrepos.kafka.security.cache.LoginCache;
+import com.jjrepos.kafka.security.directory.Directories;
+import com.jjrepos.kafka.security.directory.DirectoryMode;
 import com.jjrepos.kafka.security.ldap.LdapConfig;
-import com.jjrepos.kafka.security.ldap.LdapConnector;
 import com.jjrepos.kafka.security.ldap.LdapProperty;
+import com.jjrepos.kafka.security.ldap.LdapUtils;
+import com.jjrepos.kafka.security.ldap.authorizer.Membership;
+import com.jjrepos.kafka.security.ldap.authorizer.PermissionProfile;
+import com.jjrepos.kafka.security.ldap.concurrency.TokenBucketRateLimiter;
+import com.jjrepos.kafka.security.trace.TraceRecorder;
 import com.jjrepos.kafka.security.utils.PropertyUtils;
 import org.apache.kafka.common.security.auth.AuthenticateCallbackHandler;
 import org.apache.kafka.common.security.plain.PlainAuthenticateCallback;
@@ -14,10 +23,15 @@ import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.NameCallback;
 import javax.security.auth.callback.UnsupportedCallbackException;
 import javax.security.auth.login.AppConfigurationEntry;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
+/**
+ * Authenticates {@code PLAIN} logins against the directory. Kafka does not reconfigure SASL callback handlers, so
+ * the connection, rate limit and login caching settings read here take effect with a broker restart.
+ */
 public class LdapAuthenticateCallbackHandler implements AuthenticateCallbackHandler {
 
     private static final Logger LOG = LoggerFactory.getLogger(LdapAuthenticateCallbackHandler.class);
@@ -27,13 +41,18 @@ public class LdapAuthenticateCallbackHandler implements AuthenticateCallbackHand
     private final UsernamePasswordAuthenticationFactory authenticationFactory;
 
     private UsernamePasswordAuthenticator authenticator;
+    private TokenBucketRateLimiter rateLimiter;
+    private AuditLog auditLog = AuditLog.disabled();
+    private TraceRecorder traceRecorder = TraceRecorder.disabled();
+    private Duration loginValidity;
+    private Duration primeValidity;
 
     public LdapAuthenticateCallbackHandler(UsernamePasswordAuthenticationFactory authenticationFactory) {
         this.authenticationFactory = Objects.requireNonNull(authenticationFactory);
     }
 
     public LdapAuthenticateCallbackHandler() {
-        this.authenticationFactory = LdapConnector::new;
+        this.authenticationFactory = Directories::shared;
     }
 
     @Override
@@ -47,6 +66,14 @@ public class LdapAuthenticateCallbackHandler implements AuthenticateCallbackHand
     @Override
     public void close() {
         LOG.info("Closing LDAP Authentication Handler...");
+        if (authenticator != null) {
+            authenticator.close();
+            authenticator = null;
+        }
+        auditLog.close();
+        auditLog = AuditLog.disabled();
+        traceRecorder.close();
+        traceRecorder = TraceRecorder.disabled();
     }
 
     @Override
@@ -72,27 +99,78 @@ public class LdapAuthenticateCallbackHandler implements AuthenticateCallbackHand
             throw new IllegalStateException("Expected PlainAuthenticationCallback was not found.");
         }
 
-        final boolean cached = AuthCache.INSTANCE.isValid(username);
-        if (cached) {
-            LOG.info("User '{}' in cache, authenticated.", username);
+        // keyed as the authorizer keys its cache; directory user names are case insensitive
+        final String user = LdapUtils.normalizeUsername(username);
+        final String password = String.valueOf(plainAuthenticateCallback.password());
+        if (LoginCache.INSTANCE.matches(user, password)) {
+            record(AuditDecision.AUTHENTICATION_CACHED, username);
             plainAuthenticateCallback.authenticated(true);
             return;
         }
-        final boolean authenticated = authenticator.authenticate(username, String.valueOf(plainAuthenticateCallback.password()));
-        if (authenticated) {
-            LOG.info("User '{}' authenticated.", username);
-        } else {
-            LOG.warn("Authentication failed for user '{}'", username);
+        if (rateLimiter != null && !rateLimiter.tryAcquire(user)) {
+            record(AuditDecision.AUTHENTICATION_THROTTLED, username);
+            plainAuthenticateCallback.authenticated(false);
+            return;
+        }
+        final boolean authenticated = primeValidity == null
+                ? authenticator.authenticate(username, password)
+                : authenticator.authenticate(username, password, membership -> prime(user, membership));
+        if (authenticated && loginValidity != null) {
+            LoginCache.INSTANCE.put(user, password, loginValidity);
         }
+        record(authenticated ? AuditDecision.AUTHENTICATION_SUCCESS : AuditDecision.AUTHENTICATION_FAILURE, username);
         plainAuthenticateCallback.authenticated(authenticated);
     }
 
+    private void record(AuditDecision decision, String username) {
+        auditLog.authentication(decision, username);
+        // traced under the name the authorizer sees, so one user is one principal in the trace
+        traceRecorder.authentication(decision, LdapUtils.normalizeUsername(username));
+    }
+
+    /**
+     * Caches the permissions of a user whose groups were read while authenticating, so the authorizer does not
+     * search them again for the user's first request.
+     */
+    private void prime(String user, Membership membership) {
+        AuthCache.INSTANCE.put(user, PermissionProfile.of(membership.groups()), primeValidity);
+    }
+
+    private static LdapConfig ldapConfig(final Map<String, ?> configs) {
+        final DirectoryMode mode = DirectoryMode.of(configs);
+        final String host = mode.ldapProperty(configs, LdapProperty.URL);
+        final String baseDn = mode.ldapProperty(configs, LdapProperty.BASE_DN);
+        final String searchBase = mode.ldapProperty(configs, LdapProperty.SEARCH_BASE);
+        // the bind user is not needed to authenticate, but with it the config equals the authorizer's and they share a directory
+        final String bindUser = PropertyUtils.getStringProperty(configs, LdapProperty.USER.config, null);
+        final String bindPassword = PropertyUtils.getStringProperty(configs, LdapProperty.PASSWORD.config, null);
+        return LdapConfig.builder(host, baseDn, searchBase)
+                .bindUser(bindUser, bindPassword)
+                .options(configs)
+                .build();
+    }
 
     private void configure(final Map<String, ?> configs) {
-        final String host = PropertyUtils.getRequiredStringProperty(configs, LdapProperty.URL.config);
-        final String baseDn = PropertyUtils.getRequiredStringProperty(configs, LdapProperty.BASE_DN.config);
-        final String searchBase = PropertyUtils.getRequiredStringProperty(configs, LdapProperty.SEARCH_BASE.config);
-        authenticator = authenticationFactory.create(new LdapConfig(host, baseDn, searchBase));
+        authenticator = authenticationFactory.create(ldapConfig(configs));
+        configureLimits(configs);
+        auditLog = AuditLog.create("ldap-authentication", configs);
+        traceRecorder = TraceRecorder.shared(configs);
         LOG.info("Configured LDAP authentication plugin...");
     }
+
+    private void configureLimits(final Map<String, ?> configs) {
+        final long permitsPerSecond = PropertyUtils.getLongProperty(configs, LdapProperty.RATE_LIMIT_PER_SECOND.config, 0);
+        if (permitsPerSecond > 0) {
+            final long burst = PropertyUtils.getLongProperty(configs, LdapProperty.RATE_LIMIT_BURST.config, permitsPerSecond);
+            rateLimiter = new TokenBucketRateLimiter(permitsPerSecond, burst);
+            LOG.info("Limiting LDAP authentication to {} per second per user, bursts of {}", permitsPerSecond, burst);
+        }
+        final long validity = PropertyUtils.getLongProperty(configs, LdapProperty.CACHE_VALIDITY_MILLIS.config, 0);
+        loginValidity = validity > 0 ? Duration.ofMillis(validity) : null;
+        final boolean prime = validity > 0 && PropertyUtils.getBooleanProperty(configs, LdapProperty.CACHE_PRIME_ON_LOGIN.config, true);
+        primeValidity = prime ? Duration.ofMillis(validity) : null;
+        if (prime) {
+            LOG.info("Caching groups read while authenticating for {} millis", validity);
+        }
+    }
 }
@@ -1,5 +1,24 @@
 package com.jjrepos.kafka.security.ldap.authenticator;
 
-public interface UsernamePasswordAuthenticator {
+import com.jjrepos.kafka.security.ldap.authorizer.Membership;
+
+import java.util.function.Consumer;
+
+public interface UsernamePasswordAuthenticator extends AutoCloseable {
     boolean authenticate(String username, String password);
+
+    /**
+     * Authenticates the user and, where the directory can do so over the connection the user just authenticated on,
+     * reads the user's groups and passes them to {@code groupsRead}. Directories that cannot only authenticate.
+     */
+    default boolean authenticate(String username, String password, Consumer<Membership> groupsRead) {
+        return authenticate(username, password);
+    }
+
+    /**
+     * Releases any resources held on behalf of the plugin, such as registered metrics.
+     */
+    @Override
+    default void close() {
+    }
 }
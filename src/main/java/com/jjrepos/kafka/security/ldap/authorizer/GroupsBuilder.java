@@ -1,7 +1,44 @@
 package com.jjrepos.kafka.security.ldap.authorizer;
 
+import java.util.Collection;
 import java.util.Set;
+import java.util.function.BiConsumer;
 
-public interface GroupsBuilder {
+public interface GroupsBuilder extends AutoCloseable {
     Set<String> groupsForUser(String user);
+
+    /**
+     * Reads the groups of the user together with the version of the user's entry they were read at.
+     */
+    default Membership membershipForUser(String user) {
+        return new Membership(groupsForUser(user), null);
+    }
+
+    /**
+     * Reads the memberships of many users, handing each user and its membership to the consumer as they are read,
+     * users without an entry with no groups. Directories that can read many users in one round trip override it.
+     */
+    default void membershipsForUsers(Collection<String> users, BiConsumer<String, Membership> memberships) {
+        for (final String user : users) {
+            memberships.accept(user, membershipForUser(user));
+        }
+    }
+
+    /**
+     * Reads only the version of the user's entry, a value such as {@code entryUSN} or {@code modifyTimestamp} that the
+     * directory changes whenever the entry changes. While it matches the version of a {@link Membership}, the
+     * groups read with it are still current.
+     *
+     * @return the current version, or null when the directory cannot tell and the groups have to be read again
+     */
+    default String entryVersion(String user) {
+        return null;
+    }
+
+    /**
+     * Releases any resources held on behalf of the plugin, such as registered metrics.
+     */
+    @Override
+    default void close() {
+    }
 }
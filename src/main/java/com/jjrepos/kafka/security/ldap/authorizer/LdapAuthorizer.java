@@ -1,66 +1,112 @@
 package com.jjrepos.kafka.security.ldap.authorizer;
 
+import com.jjrepos.kafka.security.audit.AuditLog;
 import com.jjrepos.kafka.security.cache.AuthCache;
+import com.jjrepos.kafka.security.cache.Cache;
+import com.jjrepos.kafka.security.cache.CacheChannel;
+import com.jjrepos.kafka.security.cache.Cacheable;
+import com.jjrepos.kafka.security.cache.ExpiryListener;
+import com.jjrepos.kafka.security.cache.NearCache;
+import com.jjrepos.kafka.security.cache.TtlPolicy;
+import com.jjrepos.kafka.security.directory.Directories;
+import com.jjrepos.kafka.security.directory.DirectoryMode;
+import com.jjrepos.kafka.security.jfr.AuthorizeEvent;
 import com.jjrepos.kafka.security.ldap.LdapConfig;
-import com.jjrepos.kafka.security.ldap.LdapConnector;
 import com.jjrepos.kafka.security.ldap.LdapProperty;
+import com.jjrepos.kafka.security.ldap.LdapUtils;
+import com.jjrepos.kafka.security.ldap.concurrency.LdapExecutor;
+import com.jjrepos.kafka.security.ldap.concurrency.LdapPriority;
+import com.jjrepos.kafka.security.ldap.concurrency.Swappable;
+import com.jjrepos.kafka.security.ldap.principal.LdapPrincipal;
+import com.jjrepos.kafka.security.trace.TraceRecorder;
 import com.jjrepos.kafka.security.utils.PropertyUtils;
 import org.apache.kafka.common.Endpoint;
+import org.apache.kafka.common.Reconfigurable;
 import org.apache.kafka.common.acl.AclBinding;
 import org.apache.kafka.common.acl.AclBindingFilter;
-import org.apache.kafka.common.acl.AclOperation;
-import org.apache.kafka.common.resource.ResourceType;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.security.auth.KafkaPrincipal;
+import org.apache.kafka.common.utils.Utils;
 import org.apache.kafka.server.authorizer.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class LdapAuthorizer implements Authorizer {
+public class LdapAuthorizer implements Authorizer, Reconfigurable {
     private static final Logger LOG = LoggerFactory.getLogger(LdapAuthorizer.class);
+    private static final int DEFAULT_NEAR_CACHE_SIZE = 16;
+    private static final Set<String> RECONFIGURABLE_CONFIGS = reconfigurableConfigs(
+            LdapProperty.CACHE_VALIDITY_MILLIS,
+            LdapProperty.CACHE_VALIDITY_JITTER_PERCENT,
+            LdapProperty.CACHE_VALIDITY_ADAPTIVE,
+            LdapProperty.CACHE_VALIDITY_MAX_STRETCH,
+            LdapProperty.CACHE_REVALIDATE_MAX,
+            LdapProperty.CACHE_NEAR_SIZE);
 
     private final GroupsBuilderFactory groupsBuilderFactory;
+    private final Cache cache;
+    private volatile NearCache nearCache;
+    private int nearCacheSize = DEFAULT_NEAR_CACHE_SIZE;
 
-    private GroupsBuilder groupsBuilder;
-    private Duration cacheValidity;
+    private Swappable<GroupsBuilder> groupsBuilders;
+    private LdapConfig ldapConfig;
+    private volatile Duration cacheValidity;
+    private CacheChannel cacheChannel;
+    private LdapExecutor executor;
+    private List<String> warmupPrincipals = List.of();
+    private AuditLog auditLog = AuditLog.disabled();
+    private TraceRecorder traceRecorder = TraceRecorder.disabled();
+    private volatile int maxRevalidations;
+    private final Map<String, EntryVersion> entryVersions = new ConcurrentHashMap<>();
+    private final ExpiryListener forgetEntryVersion = (user, value) -> entryVersions.remove(user);
 
     public LdapAuthorizer() {
-        this.groupsBuilderFactory = LdapConnector::new;
+        this(Directories::shared);
     }
 
     public LdapAuthorizer(GroupsBuilderFactory groupsBuilderFactory) {
+        this(groupsBuilderFactory, AuthCache.INSTANCE);
+    }
+
+    public LdapAuthorizer(GroupsBuilderFactory groupsBuilderFactory, Cache cache) {
         this.groupsBuilderFactory = Objects.requireNonNull(groupsBuilderFactory);
+        this.cache = Objects.requireNonNull(cache);
+        this.nearCache = new NearCache(cache, DEFAULT_NEAR_CACHE_SIZE);
     }
 
     @Override
     public Map<Endpoint, ? extends CompletionStage<Void>> start(AuthorizerServerInfo serverInfo) {
+        warmUp();
         return Collections.emptyMap();
     }
 
     @Override
     public List<AuthorizationResult> authorize(AuthorizableRequestContext ctx, List<Action> actions) {
-        String user = ctx.principal().getName();
-        LOG.debug("Authorizing user: {}", user);
-        Optional<Set<String>> optional = AuthCache.INSTANCE.getIfValid(user);
-        final Set<String> groups = optional.orElseGet(() ->
-        {
+        final AuthorizeEvent event = new AuthorizeEvent();
+        event.begin();
+        final KafkaPrincipal principal = ctx.principal();
+        final String user;
+        PermissionProfile profile;
+        if (principal instanceof LdapPrincipal) {
+            final LdapPrincipal ldapPrincipal = (LdapPrincipal) principal;
+            user = ldapPrincipal.user();
+            profile = ldapPrincipal.profile(cache.generation(), System.currentTimeMillis());
+            if (profile == null) profile = attach(ldapPrincipal);
+        } else {
+            user = LdapUtils.normalizeUsername(principal.getName());
+            profile = nearCache.getIfValid(user);
+        }
+        event.cached = profile != null;
+        if (profile == null) {
             LOG.debug("Groups not in cache for user: {}, reaching for ldap...", user);
-            Set<String> ldapGroups = groupsBuilder.groupsForUser(user);
-            AuthCache.INSTANCE.put(user, ldapGroups, cacheValidity);
-            return ldapGroups;
-        });
-        if (groups.isEmpty()) return denyAll(actions);
-        List<GroupAction> groupActions = groups.stream()
-                .map(Groups::valueOfName)
-                .filter(Objects::nonNull)
-                .map(group -> group.groupActions)
-                .flatMap(Collection::stream)
-                .collect(Collectors.toList());
-        LOG.debug("User {} can perform: {}, requested actions: {} ", user, groupActions, actions);
-        return allowOnly(groupActions, actions);
+            profile = resolve(user);
+        }
+        return allowOnly(user, profile, actions, event);
     }
 
     @Override
@@ -79,41 +125,273 @@ public class LdapAuthorizer implements Authorizer {
     }
 
 
-    private List<AuthorizationResult> allowOnly(List<GroupAction> groupActions, List<Action> actions) {
-        return actions.stream()
-                .map(action -> canPerformAction(groupActions, action) ? AuthorizationResult.ALLOWED : AuthorizationResult.DENIED)
-                .collect(Collectors.toList());
+    /**
+     * Attaches the profile cached for the principal's user, so the connection's next requests read it off the principal.
+     */
+    private PermissionProfile attach(LdapPrincipal principal) {
+        final long generation = cache.generation();
+        final Cacheable entry = cache.getEntryIfValid(principal.user());
+        if (entry == null) return null;
+        final PermissionProfile profile = entry.get();
+        principal.attach(profile, generation, entry.expiresAtMillis());
+        return profile;
+    }
+
+    private PermissionProfile resolve(String user) {
+        final int revalidations = maxRevalidations;
+        try (Swappable.Lease<GroupsBuilder> lease = groupsBuilders.acquire()) {
+            final GroupsBuilder groupsBuilder = lease.get();
+            if (revalidations == 0) {
+                PermissionProfile profile = PermissionProfile.of(groupsBuilder.groupsForUser(user));
+                cache.put(user, profile, cacheValidity);
+                return profile;
+            }
+            final PermissionProfile revalidated = revalidate(groupsBuilder, user);
+            if (revalidated != null) return revalidated;
+            return cacheMembership(user, groupsBuilder.membershipForUser(user), revalidations);
+        }
+    }
+
+    /**
+     * Caches the user's profile and, when expired profiles are revalidated, the version of the entry it was read at.
+     */
+    private PermissionProfile cacheMembership(String user, Membership membership, int revalidations) {
+        final PermissionProfile profile = PermissionProfile.of(membership.groups());
+        cache.put(user, profile, cacheValidity);
+        if (revalidations == 0 || membership.version() == null) {
+            entryVersions.remove(user);
+        } else {
+            entryVersions.put(user, new EntryVersion(membership.version(), revalidations));
+        }
+        return profile;
+    }
+
+    /**
+     * Extends an expired profile, still held by the cache, when the user's entry has not changed since its groups
+     * were read, which costs reading one attribute instead of searching the groups. The groups are searched again
+     * after the configured number of revalidations regardless.
+     *
+     * @return the extended profile, or null when the groups have to be searched
+     */
+    private PermissionProfile revalidate(GroupsBuilder groupsBuilder, String user) {
+        final EntryVersion known = entryVersions.get(user);
+        if (known == null || known.revalidations == 0) return null;
+        final PermissionProfile expired = cache.get(user);
+        if (expired == null) return null;
+        if (!known.version.equals(groupsBuilder.entryVersion(user))) {
+            LOG.debug("Entry of user {} changed, reaching for ldap...", user);
+            return null;
+        }
+        LOG.debug("Entry of user {} unchanged, extending cached groups.", user);
+        cache.put(user, expired, cacheValidity);
+        entryVersions.put(user, new EntryVersion(known.version, known.revalidations - 1));
+        return expired;
     }
 
-    private boolean canPerformAction(List<GroupAction> groupActions, Action action) {
-        return groupActions.stream()
-                .filter(ga -> ga.resourceType() == ResourceType.ANY || ga.resourceType() == action.resourcePattern().resourceType())
-                .anyMatch(ga -> ga.operation() == AclOperation.ALL || ga.operation() == AclOperation.ANY || ga.operation() == action.operation());
+    /**
+     * Resolves the configured principals in the background, so the brokers' own and other well known
+     * service accounts do not wait on LDAP for their first requests. Their groups are read in batches, a search
+     * for many users at a time, at background priority behind logins and requests that miss the cache.
+     */
+    private void warmUp() {
+        if (warmupPrincipals.isEmpty()) return;
+        LOG.info("Warming up auth cache for {} principals.", warmupPrincipals.size());
+        final long start = System.nanoTime();
+        final Set<String> users = new LinkedHashSet<>();
+        warmupPrincipals.forEach(principal -> users.add(LdapUtils.normalizeUsername(principal)));
+        final int revalidations = maxRevalidations;
+        final CompletableFuture<?> lookups;
+        try (LdapPriority.Scope ignored = LdapPriority.BACKGROUND.enter()) {
+            lookups = executor.submit(() -> {
+                try (Swappable.Lease<GroupsBuilder> lease = groupsBuilders.acquire()) {
+                    lease.get().membershipsForUsers(users, (user, membership) -> cacheMembership(user, membership, revalidations));
+                }
+                return null;
+            });
+        }
+        lookups.whenComplete((result, e) -> {
+                    if (e != null) {
+                        LOG.warn("Auth cache warm up failed, principals will be resolved on first use.", e);
+                    } else {
+                        LOG.info("Warmed up auth cache in {} ms.", (System.nanoTime() - start) / 1_000_000);
+                    }
+                });
     }
 
-    private List<AuthorizationResult> denyAll(List<Action> actions) {
-        return actions.stream()
-                .map(action -> AuthorizationResult.DENIED)
-                .collect(Collectors.toList());
+    private List<AuthorizationResult> allowOnly(String user, PermissionProfile profile, List<Action> actions,
+                                                AuthorizeEvent event) {
+        final List<AuthorizationResult> results = new ArrayList<>(actions.size());
+        int denied = 0;
+        String deniedResource = null;
+        for (final Action action : actions) {
+            if (!profile.isEmpty() && profile.allows(action)) {
+                results.add(AuthorizationResult.ALLOWED);
+            } else {
+                results.add(AuthorizationResult.DENIED);
+                if (denied++ == 0) deniedResource = action.resourcePattern().name();
+            }
+        }
+        auditLog.authorization(user, actions.size() - denied, denied, deniedResource);
+        traceRecorder.authorization(user, actions, denied);
+        if (event.shouldCommit()) {
+            event.principal = user;
+            event.actions = actions.size();
+            event.denied = denied;
+            event.commit();
+        }
+        return results;
     }
 
     @Override
     public void close() {
         LOG.info("Closing LdapAuthorizer...");
+        if (groupsBuilders != null) {
+            groupsBuilders.close();
+            groupsBuilders = null;
+            ldapConfig = null;
+        }
+        cache.removeExpiryListener(forgetEntryVersion);
+        entryVersions.clear();
+        maxRevalidations = 0;
+        if (cacheChannel != null) {
+            cache.detach(cacheChannel);
+            cacheChannel.close();
+            cacheChannel = null;
+        }
+        if (executor != null) {
+            executor.close();
+            executor = null;
+        }
+        auditLog.close();
+        auditLog = AuditLog.disabled();
+        traceRecorder.close();
+        traceRecorder = TraceRecorder.disabled();
     }
 
     @Override
     public void configure(Map<String, ?> configs) {
         LOG.info("configuring LdapAuthorizer plugin...");
-        final String host = PropertyUtils.getRequiredStringProperty(configs, LdapProperty.URL.config);
-        final String baseDn = PropertyUtils.getRequiredStringProperty(configs, LdapProperty.BASE_DN.config);
-        final String searchBase = PropertyUtils.getRequiredStringProperty(configs, LdapProperty.SEARCH_BASE.config);
-        final String bindUser = PropertyUtils.getRequiredStringProperty(configs, LdapProperty.USER.config);
-        final String bindPassword = PropertyUtils.getRequiredStringProperty(configs, LdapProperty.PASSWORD.config);
-        cacheValidity = Duration.ofMillis(PropertyUtils.getRequiredLongProperty(configs, LdapProperty.CACHE_VALIDITY_MILLIS.config));
-        groupsBuilder = groupsBuilderFactory.create(new LdapConfig(host, baseDn, searchBase, bindUser, bindPassword));
+        ldapConfig = ldapConfig(configs);
+        groupsBuilders = new Swappable<>(groupsBuilderFactory.create(ldapConfig));
+        executor = LdapExecutor.create("ldap-authorizer", ldapConfig.virtualThreads());
+        warmupPrincipals = PropertyUtils.getListProperty(configs, LdapProperty.CACHE_WARMUP_PRINCIPALS.config);
+        configureCache(configs);
+        configureCacheChannel(configs);
+        auditLog = AuditLog.create("ldap-authorizer", configs);
+        traceRecorder = TraceRecorder.shared(configs);
         LOG.info("Configured LdapAuthorizer...");
-        LOG.info("Configured to use bind user {} for searching LDAP groups.", bindUser);
+        LOG.info("Configured to use bind user {} for searching LDAP groups.", ldapConfig.bindUser());
+    }
+
+    @Override
+    public Set<String> reconfigurableConfigs() {
+        return RECONFIGURABLE_CONFIGS;
+    }
+
+    @Override
+    public void validateReconfiguration(Map<String, ?> configs) throws ConfigException {
+        try {
+            ldapConfig.reconfigured(configs);
+            PropertyUtils.getRequiredLongProperty(configs, LdapProperty.CACHE_VALIDITY_MILLIS.config);
+            cacheSettings(configs);
+        } catch (final IllegalArgumentException e) {
+            throw new ConfigException(e.getMessage());
+        }
+    }
+
+    /**
+     * Applies changed cache and connection settings. The cache, with everything resolved so far, is kept; a changed
+     * connection setting builds a new directory for the following lookups while lookups in flight finish on the old
+     * one, which is closed after them. Settings that need a restart keep their configured values.
+     */
+    @Override
+    public void reconfigure(Map<String, ?> configs) {
+        configureCache(configs);
+        final LdapConfig reconfigured = ldapConfig.reconfigured(configs);
+        if (!reconfigured.equals(ldapConfig)) {
+            groupsBuilders.swap(groupsBuilderFactory.create(reconfigured));
+            ldapConfig = reconfigured;
+            LOG.info("Reconfigured LDAP connection settings, bind user {}.", reconfigured.bindUser());
+        }
+    }
+
+    private static LdapConfig ldapConfig(Map<String, ?> configs) {
+        final DirectoryMode mode = DirectoryMode.of(configs);
+        final String host = mode.ldapProperty(configs, LdapProperty.URL);
+        final String baseDn = mode.ldapProperty(configs, LdapProperty.BASE_DN);
+        final String searchBase = mode.ldapProperty(configs, LdapProperty.SEARCH_BASE);
+        final String bindUser = mode.ldapProperty(configs, LdapProperty.USER);
+        final String bindPassword = mode.ldapProperty(configs, LdapProperty.PASSWORD);
+        return LdapConfig.builder(host, baseDn, searchBase)
+                .bindUser(bindUser, bindPassword)
+                .options(configs)
+                .build();
+    }
+
+    private static TtlPolicy cacheSettings(Map<String, ?> configs) {
+        final int nearCacheSize = PropertyUtils.getIntProperty(configs, LdapProperty.CACHE_NEAR_SIZE.config, DEFAULT_NEAR_CACHE_SIZE);
+        if (nearCacheSize < 0) {
+            throw new IllegalArgumentException("Invalid configuration property \"" + LdapProperty.CACHE_NEAR_SIZE.config + "\".");
+        }
+        return new TtlPolicy(
+                PropertyUtils.getIntProperty(configs, LdapProperty.CACHE_VALIDITY_JITTER_PERCENT.config, 10),
+                PropertyUtils.getBooleanProperty(configs, LdapProperty.CACHE_VALIDITY_ADAPTIVE.config, false),
+                PropertyUtils.getIntProperty(configs, LdapProperty.CACHE_VALIDITY_MAX_STRETCH.config, 4));
+    }
+
+    /**
+     * Entries already cached keep the validity they were put with, the new settings apply from their next refresh.
+     */
+    private void configureCache(Map<String, ?> configs) {
+        cacheValidity = Duration.ofMillis(PropertyUtils.getRequiredLongProperty(configs, LdapProperty.CACHE_VALIDITY_MILLIS.config));
+        cache.ttlPolicy(cacheSettings(configs));
+        final int size = PropertyUtils.getIntProperty(configs, LdapProperty.CACHE_NEAR_SIZE.config, DEFAULT_NEAR_CACHE_SIZE);
+        if (size != nearCacheSize) {
+            nearCache = new NearCache(cache, size);
+            nearCacheSize = size;
+        }
+        final int revalidations = PropertyUtils.getIntProperty(configs, LdapProperty.CACHE_REVALIDATE_MAX.config, 0);
+        if (revalidations > 0 && maxRevalidations == 0) {
+            cache.addExpiryListener(forgetEntryVersion);
+        } else if (revalidations == 0 && maxRevalidations > 0) {
+            cache.removeExpiryListener(forgetEntryVersion);
+            entryVersions.clear();
+        }
+        maxRevalidations = revalidations;
+        if (revalidations > 0) {
+            LOG.info("Configured to revalidate expired auth groups by entry version up to {} times.", revalidations);
+        }
         LOG.info("Configured to cache auth groups for {} millis.", cacheValidity.toMillis());
     }
+
+    private static Set<String> reconfigurableConfigs(LdapProperty... properties) {
+        final Set<String> configs = new HashSet<>(LdapConfig.RECONFIGURABLE_CONFIGS);
+        for (final LdapProperty property : properties) {
+            configs.add(property.config);
+        }
+        return Collections.unmodifiableSet(configs);
+    }
+
+    private void configureCacheChannel(Map<String, ?> configs) {
+        final Object channelClass = configs.get(LdapProperty.CACHE_CHANNEL_CLASS.config);
+        if (channelClass == null) return;
+        try {
+            cacheChannel = Utils.newInstance(channelClass.toString(), CacheChannel.class);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Invalid configuration property \"" + LdapProperty.CACHE_CHANNEL_CLASS.config + "\".", e);
+        }
+        cacheChannel.configure(configs);
+        cache.attach(cacheChannel);
+        LOG.info("Configured to share cached auth groups with other brokers over {}.", channelClass);
+    }
+
+    private static final class EntryVersion {
+        final String version;
+        final int revalidations;
+
+        EntryVersion(String version, int revalidations) {
+            this.version = version;
+            this.revalidations = revalidations;
+        }
+    }
 }
@@ -0,0 +1,29 @@
+package com.jjrepos.kafka.security.ldap.authorizer;
+
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The groups of a user as read from the directory, with the version of the user's entry at the time they were read.
+ */
+public final class Membership {
+    private final Set<String> groups;
+    private final String version;
+
+    public Membership(Set<String> groups, String version) {
+        this.groups = Objects.requireNonNull(groups);
+        this.version = version;
+    }
+
+    public Set<String> groups() {
+        return groups;
+    }
+
+    /**
+     * @return the entry version, see {@link GroupsBuilder#entryVersion(String)}, or null when the directory does not
+     * report one
+     */
+    public String version() {
+        return version;
+    }
+}
@@ -0,0 +1,115 @@
+package com.jjrepos.kafka.security.ldap.authorizer;
+
+import org.apache.kafka.common.acl.AclOperation;
+import org.apache.kafka.common.resource.ResourceType;
+import org.apache.kafka.server.authorizer.Action;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The compiled, immutable permissions of a combination of {@link Groups}.
+ * <p>
+ * There is exactly one profile per combination of groups, all of them created up front, so every principal
+ * with the same kafka groups shares the same instance and a cache entry only holds a reference to it.
+ * Each profile keeps the allowed {@link AclOperation}s as one bit mask per {@link ResourceType}, which makes
+ * checking an action two array reads.
+ */
+public final class PermissionProfile {
+
+    private static final ResourceType[] RESOURCE_TYPES = ResourceType.values();
+    private static final AclOperation[] OPERATIONS = AclOperation.values();
+    private static final Groups[] GROUPS = Groups.values();
+    private static final PermissionProfile[] PROFILES = new PermissionProfile[1 << GROUPS.length];
+
+    static {
+        for (int mask = 0; mask < PROFILES.length; mask++) {
+            PROFILES[mask] = new PermissionProfile(mask);
+        }
+    }
+
+    public static final PermissionProfile NONE = PROFILES[0];
+
+    private final int mask;
+    private final Set<Groups> groups;
+    private final Set<String> groupNames;
+    private final long[] allowedOperations = new long[RESOURCE_TYPES.length];
+
+    private PermissionProfile(int mask) {
+        this.mask = mask;
+        EnumSet<Groups> members = EnumSet.noneOf(Groups.class);
+        for (Groups group : GROUPS) {
+            if ((mask & bit(group)) != 0) {
+                members.add(group);
+                group.groupActions.forEach(this::allow);
+            }
+        }
+        this.groups = Collections.unmodifiableSet(members);
+        this.groupNames = members.stream().map(group -> group.name).collect(Collectors.toUnmodifiableSet());
+    }
+
+    /**
+     * Gets the shared profile for LDAP group names, ignoring the names that are not kafka {@link Groups}.
+     */
+    public static PermissionProfile of(Collection<String> groupNames) {
+        int mask = 0;
+        for (String name : groupNames) {
+            Groups group = Groups.valueOfName(name);
+            if (group != null) mask |= bit(group);
+        }
+        return PROFILES[mask];
+    }
+
+    public static PermissionProfile ofGroups(Collection<Groups> groups) {
+        int mask = 0;
+        for (Groups group : groups) {
+            mask |= bit(Objects.requireNonNull(group));
+        }
+        return PROFILES[mask];
+    }
+
+    public boolean allows(Action action) {
+        return allows(action.resourcePattern().resourceType(), action.operation());
+    }
+
+    public boolean allows(ResourceType resourceType, AclOperation operation) {
+        return (allowedOperations[resourceType.ordinal()] & (1L << operation.ordinal())) != 0;
+    }
+
+    public boolean isEmpty() {
+        return mask == 0;
+    }
+
+    public Set<Groups> groups() {
+        return groups;
+    }
+
+    public Set<String> groupNames() {
+        return groupNames;
+    }
+
+    @Override
+    public String toString() {
+        return "PermissionProfile" + groups;
+    }
+
+    private void allow(GroupAction groupAction) {
+        for (ResourceType resourceType : RESOURCE_TYPES) {
+            if (groupAction.resourceType() != ResourceType.ANY && groupAction.resourceType() != resourceType) continue;
+            for (AclOperation operation : OPERATIONS) {
+                if (groupAction.operation() == AclOperation.ALL || groupAction.operation() == AclOperation.ANY
+                        || groupAction.operation() == operation) {
+                    allowedOperations[resourceType.ordinal()] |= 1L << operation.ordinal();
+                }
+            }
+        }
+    }
+
+    private static int bit(Groups group) {
+        return 1 << group.ordinal();
+    }
+}
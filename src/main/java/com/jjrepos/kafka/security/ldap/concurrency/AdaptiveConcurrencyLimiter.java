@@ -0,0 +1,266 @@
+package com.jjrepos.kafka.security.ldap.concurrency;
+
+import com.jjrepos.kafka.security.ldap.LdapException;
+import com.jjrepos.kafka.security.ldap.LdapOperation;
+import com.jjrepos.kafka.security.jfr.LdapPermitWaitEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.TimeLimitExceededException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the number of in-flight LDAP operations with a limit that adapts to the observed round-trip times,
+ * following the TCP Vegas congestion avoidance scheme.
+ * <p>
+ * The lowest recently observed round-trip time is taken as the no-load latency of the directory. Every completed
+ * operation estimates how many requests are queued inside the directory as
+ * {@code limit * (1 - noLoadRtt / rtt)}: while that queue is small the limit grows, once it gets large the limit
+ * shrinks, and communication failures or server side time limits cut it multiplicatively.
+ * Callers above the limit wait for a permit up to the configured acquire timeout.
+ * <p>
+ * Waiting callers get permits by {@link LdapPriority}: logins first, then authorization misses, then background
+ * work, which also leaves a quarter of the limit free for the others so it never holds every permit when a login
+ * arrives. A waiter moves up one priority for every third of the acquire timeout it waits, so a steady stream of
+ * logins cannot starve authorization misses or background work until they time out.
+ */
+public final class AdaptiveConcurrencyLimiter implements ConcurrencyLimiterMXBean {
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    private static final int ALPHA = 3;
+    private static final int BETA = 6;
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final int PROBE_INTERVAL = 1000;
+
+    private static final int BACKGROUND_RESERVE_DIVISOR = 4;
+
+    private static final class Waiter {
+        final int priority;
+        final long sinceNanos;
+        final Condition turn;
+        boolean granted;
+
+        Waiter(LdapPriority priority, long sinceNanos, Condition turn) {
+            this.priority = priority.ordinal();
+            this.sinceNanos = sinceNanos;
+            this.turn = turn;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int minLimit;
+    private final int maxLimit;
+    private final long acquireTimeoutNanos;
+    private final long agingNanos;
+    private final AtomicLong rejected = new AtomicLong();
+
+    // guarded by lock
+    private double limit;
+    private int inFlight;
+    private final List<Waiter> waiters = new ArrayList<>();
+    private long noLoadRttNanos = Long.MAX_VALUE;
+    private int samplesSinceProbe;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, Duration acquireTimeout) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Expected 1 <= min <= initial <= max concurrency limit");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.acquireTimeoutNanos = acquireTimeout.toNanos();
+        this.agingNanos = Math.max(1, acquireTimeoutNanos / LdapPriority.values().length);
+    }
+
+    /**
+     * Runs the operation once a permit is available at the thread's {@link LdapPriority#current() priority} and
+     * feeds its round-trip time back into the limit.
+     *
+     * @throws LdapException when no permit became available within the acquire timeout
+     */
+    public <T> T execute(LdapOperation<T> operation) throws NamingException {
+        acquire(LdapPriority.current());
+        final long start = System.nanoTime();
+        boolean dropped = false;
+        try {
+            return operation.execute();
+        } catch (final CommunicationException | ServiceUnavailableException | TimeLimitExceededException e) {
+            dropped = true;
+            throw e;
+        } finally {
+            release(System.nanoTime() - start, dropped);
+        }
+    }
+
+    void acquire() {
+        acquire(LdapPriority.current());
+    }
+
+    void acquire(LdapPriority priority) {
+        LdapPermitWaitEvent event = null;
+        boolean acquired = false;
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && available(priority.ordinal())) {
+                inFlight++;
+                acquired = true;
+                return;
+            }
+            event = new LdapPermitWaitEvent();
+            event.begin();
+            event.limit = (int) limit;
+            event.waiting = waiters.size() + 1;
+            event.priority = priority.name();
+            final Waiter waiter = new Waiter(priority, System.nanoTime(), lock.newCondition());
+            waiters.add(waiter);
+            grant();
+            long remaining = acquireTimeoutNanos;
+            try {
+                while (!waiter.granted) {
+                    if (remaining <= 0) {
+                        rejected.incrementAndGet();
+                        throw new LdapException("Timed out after " + TimeUnit.NANOSECONDS.toMillis(acquireTimeoutNanos)
+                                + " ms waiting for one of " + (int) limit + " LDAP permits.");
+                    }
+                    remaining = waiter.turn.awaitNanos(remaining);
+                }
+            } catch (final InterruptedException e) {
+                if (waiter.granted) {
+                    // granted as the interrupt arrived, the caller will not release a permit it never gets
+                    inFlight--;
+                    grant();
+                }
+                Thread.currentThread().interrupt();
+                throw new LdapException(e);
+            } finally {
+                if (!waiter.granted) {
+                    waiters.remove(waiter);
+                    // this waiter may have been the one holding back the others
+                    grant();
+                }
+            }
+            acquired = true;
+        } finally {
+            lock.unlock();
+            if (event != null && event.shouldCommit()) {
+                event.acquired = acquired;
+                event.commit();
+            }
+        }
+    }
+
+    // holding lock
+    private boolean available(int priority) {
+        final int permits = (int) limit;
+        final int reserved = priority == LdapPriority.BACKGROUND.ordinal() ? permits / BACKGROUND_RESERVE_DIVISOR : 0;
+        return inFlight < permits - reserved;
+    }
+
+    /**
+     * Hands free permits to the waiters with the highest priority, aged by their time waiting, longest waiting first.
+     */
+    // holding lock
+    private void grant() {
+        final long now = System.nanoTime();
+        while (!waiters.isEmpty()) {
+            Waiter next = null;
+            int nextPriority = Integer.MAX_VALUE;
+            for (final Waiter waiter : waiters) {
+                final int priority = (int) Math.max(0, waiter.priority - (now - waiter.sinceNanos) / agingNanos);
+                if (priority < nextPriority || (priority == nextPriority && waiter.sinceNanos - next.sinceNanos < 0)) {
+                    next = waiter;
+                    nextPriority = priority;
+                }
+            }
+            if (!available(nextPriority)) return;
+            waiters.remove(next);
+            next.granted = true;
+            inFlight++;
+            next.turn.signal();
+        }
+    }
+
+    void release(long rttNanos, boolean dropped) {
+        lock.lock();
+        try {
+            final int previousLimit = (int) limit;
+            final int inFlightAtCompletion = inFlight--;
+            if (dropped) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+            } else {
+                adjust(Math.max(1, rttNanos), inFlightAtCompletion);
+            }
+            grant();
+            if ((int) limit != previousLimit) {
+                LOG.trace("LDAP concurrency limit changed from {} to {}", previousLimit, (int) limit);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void adjust(long rttNanos, int inFlightAtCompletion) {
+        if (++samplesSinceProbe >= PROBE_INTERVAL) {
+            // forget the old minimum now and then, the directory may have moved or changed capacity
+            samplesSinceProbe = 0;
+            noLoadRttNanos = rttNanos;
+        } else {
+            noLoadRttNanos = Math.min(noLoadRttNanos, rttNanos);
+        }
+        final int currentLimit = (int) limit;
+        final double queueSize = Math.ceil(currentLimit * (1 - (double) noLoadRttNanos / rttNanos));
+        final double step = Math.max(1, Math.log10(currentLimit));
+        if (queueSize <= ALPHA * step) {
+            // only grow when the limit is actually being used, otherwise idle periods inflate it without evidence
+            if (inFlightAtCompletion * 2 >= currentLimit) {
+                limit = Math.min(maxLimit, limit + step);
+            }
+        } else if (queueSize >= BETA * step) {
+            limit = Math.max(minLimit, limit - step);
+        }
+    }
+
+    @Override
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.get();
+    }
+}
@@ -0,0 +1,11 @@
+package com.jjrepos.kafka.security.ldap.concurrency;
+
+public interface ConcurrencyLimiterMXBean {
+    int getLimit();
+
+    int getInFlight();
+
+    int getQueueDepth();
+
+    long getRejected();
+}
@@ -0,0 +1,18 @@
+package com.jjrepos.kafka.security.ldap.concurrency;
+
+public interface HedgingMXBean {
+    long getRequests();
+
+    long getHedges();
+
+    long getHedgeWins();
+
+    long getBudgetExhausted();
+
+    long getLatencySavedMillis();
+
+    /**
+     * Current delay before a hedge is sent, -1 while too few latencies have been observed to hedge.
+     */
+    double getHedgeDelayMillis();
+}
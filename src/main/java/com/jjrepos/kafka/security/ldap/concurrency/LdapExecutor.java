@@ -0,0 +1,147 @@
+package com.jjrepos.kafka.security.ldap.concurrency;
+
+import com.jjrepos.kafka.security.ldap.LdapException;
+import com.jjrepos.kafka.security.ldap.LdapOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.NamingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs blocking LDAP operations off the calling thread, on virtual threads when the plugin runs on Java 21 and
+ * they are enabled, so that many concurrent directory operations do not each hold a platform thread.
+ * <p>
+ * It carries background refreshes, hedges and search base fan-out only. Binds and searches made for a login or an
+ * authorization cache miss still run on, and block, the Kafka request thread: the SASL callback and the authorizer
+ * are synchronous, so handing their work to another thread would only have the request thread wait for it.
+ */
+public final class LdapExecutor implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(LdapExecutor.class);
+
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    private LdapExecutor(ExecutorService executor, boolean virtualThreads) {
+        this.executor = executor;
+        this.virtualThreads = virtualThreads;
+    }
+
+    public static LdapExecutor create(String name, boolean virtualThreads) {
+        final boolean useVirtualThreads = virtualThreads && LdapThreads.supportsVirtualThreads();
+        if (virtualThreads && !useVirtualThreads) {
+            LOG.warn("Virtual threads need Java 21, running {} on platform threads.", name);
+        }
+        LOG.info("Running {} on {} threads.", name, useVirtualThreads ? "virtual" : "platform");
+        return new LdapExecutor(LdapThreads.newExecutor(name, useVirtualThreads), useVirtualThreads);
+    }
+
+    public boolean virtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Runs the operation at the submitting thread's {@link LdapPriority}.
+     */
+    public <T> CompletableFuture<T> submit(LdapOperation<T> operation) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final LdapPriority priority = LdapPriority.current();
+        final Future<?> task = executor.submit(() -> {
+            try (LdapPriority.Scope ignored = priority.enter()) {
+                result.complete(operation.execute());
+            } catch (final Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        result.whenComplete((value, e) -> {
+            if (result.isCancelled()) task.cancel(true);
+        });
+        return result;
+    }
+
+    /**
+     * Runs all operations concurrently and waits for every one of them. The operations are treated as one unit of
+     * work: the first failure cancels the operations still running and is rethrown to the caller.
+     */
+    public <T> List<T> invokeAll(Collection<? extends LdapOperation<T>> operations) throws NamingException {
+        final List<CompletableFuture<T>> futures = new ArrayList<>(operations.size());
+        operations.forEach(operation -> futures.add(submit(operation)));
+        final CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new));
+        futures.forEach(future -> future.whenComplete((value, e) -> {
+            if (e != null) all.completeExceptionally(e);
+        }));
+        try {
+            await(all);
+            final List<T> results = new ArrayList<>(futures.size());
+            futures.forEach(future -> results.add(future.join()));
+            return results;
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    /**
+     * Runs all operations concurrently and returns the index of the first to answer true, cancelling the ones still
+     * running, or -1 when none does. A failure is only rethrown when no operation answered true.
+     */
+    public int indexOfFirstMatch(List<? extends LdapOperation<Boolean>> operations) throws NamingException {
+        final CompletableFuture<Integer> first = new CompletableFuture<>();
+        final List<CompletableFuture<Boolean>> futures = new ArrayList<>(operations.size());
+        for (int i = 0; i < operations.size(); i++) {
+            final int index = i;
+            final CompletableFuture<Boolean> future = submit(operations.get(i));
+            future.whenComplete((match, e) -> {
+                if (Boolean.TRUE.equals(match)) first.complete(index);
+            });
+            futures.add(future);
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new)).whenComplete((value, e) -> {
+            // a match completing last may run this before its own callback
+            for (int i = 0; i < futures.size(); i++) {
+                final CompletableFuture<Boolean> future = futures.get(i);
+                if (!future.isCompletedExceptionally() && Boolean.TRUE.equals(future.join())) first.complete(i);
+            }
+            if (e != null) first.completeExceptionally(e);
+            else first.complete(-1);
+        });
+        try {
+            return await(first);
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    /**
+     * Waits for an operation submitted to this executor, rethrowing its failure as thrown by the operation.
+     */
+    public static <T> T await(Future<T> future) throws NamingException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LdapException(e);
+        } catch (final ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private static LdapException rethrow(Throwable cause) throws NamingException {
+        if (cause instanceof CompletionException && cause.getCause() != null) cause = cause.getCause();
+        if (cause instanceof NamingException) throw (NamingException) cause;
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        return new LdapException(cause);
+    }
+}
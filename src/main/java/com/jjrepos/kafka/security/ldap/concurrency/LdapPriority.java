@@ -0,0 +1,46 @@
+package com.jjrepos.kafka.security.ldap.concurrency;
+
+/**
+ * The class of the LDAP work a thread is doing, which decides who gets the next permit of the
+ * {@link AdaptiveConcurrencyLimiter} when callers have to wait. Work is {@link #AUTHORIZATION} unless the thread
+ * entered another priority; {@link LdapExecutor} carries the submitting thread's priority to its workers.
+ */
+public enum LdapPriority {
+    /** A client waiting for its login. */
+    AUTHENTICATION,
+    /** A request waiting for the groups of a principal missing from the cache. */
+    AUTHORIZATION,
+    /** Work nobody waits for, such as warming up the cache. */
+    BACKGROUND;
+
+    private static final ThreadLocal<LdapPriority> CURRENT = ThreadLocal.withInitial(() -> AUTHORIZATION);
+
+    /**
+     * Restores the priority the thread had before it entered another.
+     */
+    public static final class Scope implements AutoCloseable {
+        private final LdapPriority previous;
+
+        private Scope(LdapPriority previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            CURRENT.set(previous);
+        }
+    }
+
+    public static LdapPriority current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs the thread's LDAP work at this priority until the returned scope is closed.
+     */
+    public Scope enter() {
+        final LdapPriority previous = CURRENT.get();
+        CURRENT.set(this);
+        return new Scope(previous);
+    }
+}
@@ -0,0 +1,33 @@
+package com.jjrepos.kafka.security.ldap.concurrency;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads LDAP work runs on. This is the Java 11 variant, which only has platform threads;
+ * the multi-release jar carries a Java 21 variant under {@code META-INF/versions/21} that uses virtual threads.
+ */
+final class LdapThreads {
+
+    private LdapThreads() {
+    }
+
+    static boolean supportsVirtualThreads() {
+        return false;
+    }
+
+    static ExecutorService newExecutor(String name, boolean virtualThreads) {
+        return Executors.newCachedThreadPool(daemonThreads(name));
+    }
+
+    static ThreadFactory daemonThreads(String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,216 @@
+package com.jjrepos.kafka.security.ldap.concurrency;
+
+import com.jjrepos.kafka.security.ldap.LdapException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hedges directory operations across replicas: an operation still running after the configured percentile of recent
+ * latencies is sent to another replica as well, and whichever answers first is returned.
+ * <p>
+ * A replica that cannot be reached does not win; any other answer, including a failed authentication, does.
+ * Hedges are paid for out of a budget that every request adds a fraction of a hedge to, so hedging adds at most the
+ * configured percentage of load even when the whole directory slows down. The slower attempt is left to finish on
+ * its own, it releases its connection and reports how much latency the hedge saved.
+ * <p>
+ * Every attempt runs within a permit of the concurrency limiter, and only the directory call is timed, so waiting for
+ * a permit under load does not raise the hedge delay. Until enough latencies are known the operation runs on the
+ * calling thread. Only idempotent reads may be hedged: a bind sent twice counts twice against a lockout policy.
+ */
+public final class RequestHedger implements HedgingMXBean {
+    private static final Logger LOG = LoggerFactory.getLogger(RequestHedger.class);
+
+    private static final int SAMPLES = 1024;
+    private static final int MIN_SAMPLES = 64;
+    private static final int RECOMPUTE_INTERVAL = 128;
+    private static final long NO_HEDGE = Long.MAX_VALUE;
+    private static final long MILLI_HEDGES = 1000;
+    private static final long MAX_BUDGET = 10 * MILLI_HEDGES;
+
+    @FunctionalInterface
+    public interface ReplicaOperation<T> {
+        T execute(String url) throws NamingException;
+    }
+
+    private final List<String> urls;
+    private final int percentile;
+    private final long budgetPerRequest;
+    private final long minDelayNanos;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final LdapExecutor executor;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final AtomicLong budget = new AtomicLong(MAX_BUDGET);
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder budgetExhausted = new LongAdder();
+    private final LongAdder savedNanos = new LongAdder();
+
+    // guarded by samples
+    private final long[] samples = new long[SAMPLES];
+    private long sampleCount;
+    private volatile long delayNanos = NO_HEDGE;
+
+    /**
+     * @param urls          the primary directory first, then the replicas hedges go to in turn
+     * @param percentile    latency percentile after which an operation is hedged
+     * @param budgetPercent hedges allowed as a percentage of requests
+     */
+    public RequestHedger(List<String> urls, int percentile, int budgetPercent, Duration minDelay,
+                         AdaptiveConcurrencyLimiter limiter, LdapExecutor executor) {
+        if (urls.size() < 2) {
+            throw new IllegalArgumentException("Hedging needs at least one replica besides the primary directory");
+        }
+        if (percentile < 1 || percentile > 99 || budgetPercent < 0 || budgetPercent > 100) {
+            throw new IllegalArgumentException("Expected a hedging percentile between 1 and 99 and a budget between 0 and 100 percent");
+        }
+        this.urls = List.copyOf(urls);
+        this.percentile = percentile;
+        this.budgetPerRequest = budgetPercent * MILLI_HEDGES / 100;
+        this.minDelayNanos = minDelay.toNanos();
+        this.limiter = limiter;
+        this.executor = executor;
+    }
+
+    public <T> T execute(ReplicaOperation<T> operation) throws NamingException {
+        requests.increment();
+        earn();
+        final long delay = delayNanos;
+        if (delay == NO_HEDGE) return attempt(operation, urls.get(0), true);
+        final CompletableFuture<T> primary = executor.submit(() -> attempt(operation, urls.get(0), true));
+        try {
+            return primary.get(delay, TimeUnit.NANOSECONDS);
+        } catch (final TimeoutException e) {
+            return hedge(operation, primary);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LdapException(e);
+        } catch (final ExecutionException e) {
+            return LdapExecutor.await(primary);
+        }
+    }
+
+    private <T> T hedge(ReplicaOperation<T> operation, CompletableFuture<T> primary) throws NamingException {
+        if (!spend()) {
+            budgetExhausted.increment();
+            return LdapExecutor.await(primary);
+        }
+        hedges.increment();
+        final String replica = urls.get(1 + Math.floorMod(nextReplica.getAndIncrement(), urls.size() - 1));
+        LOG.trace("Hedging LDAP operation to {}", replica);
+        final CompletableFuture<T> hedge = executor.submit(() -> attempt(operation, replica, false));
+        final CompletableFuture<T> winner = new CompletableFuture<>();
+        final AtomicInteger unreachable = new AtomicInteger();
+        primary.whenComplete((value, e) -> settle(winner, unreachable, value, e, () -> {
+        }));
+        hedge.whenComplete((value, e) -> settle(winner, unreachable, value, e, () -> {
+            hedgeWins.increment();
+            final long won = System.nanoTime();
+            primary.whenComplete((late, error) -> savedNanos.add(System.nanoTime() - won));
+        }));
+        return LdapExecutor.await(winner);
+    }
+
+    /**
+     * Runs one attempt within a permit, sampling how long the primary directory took to answer.
+     */
+    private <T> T attempt(ReplicaOperation<T> operation, String url, boolean primary) throws NamingException {
+        return limiter.execute(() -> {
+            final long start = System.nanoTime();
+            final T value = operation.execute(url);
+            if (primary) sample(System.nanoTime() - start);
+            return value;
+        });
+    }
+
+    /**
+     * Completes the winner with the attempt's outcome unless the other attempt decided it already; an answer that
+     * wins is counted before the caller sees it.
+     */
+    private static <T> void settle(CompletableFuture<T> winner, AtomicInteger unreachable, T value, Throwable error,
+                                   Runnable answered) {
+        synchronized (winner) {
+            if (winner.isDone()) return;
+            if (error == null) {
+                answered.run();
+                winner.complete(value);
+                return;
+            }
+            final Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            final boolean replicaDown = cause instanceof CommunicationException || cause instanceof ServiceUnavailableException;
+            // an unreachable replica only decides the outcome when the other attempt failed the same way
+            if (replicaDown && unreachable.incrementAndGet() < 2) return;
+            winner.completeExceptionally(cause);
+        }
+    }
+
+    private void earn() {
+        budget.getAndUpdate(tokens -> Math.min(MAX_BUDGET, tokens + budgetPerRequest));
+    }
+
+    private boolean spend() {
+        while (true) {
+            final long tokens = budget.get();
+            if (tokens < MILLI_HEDGES) return false;
+            if (budget.compareAndSet(tokens, tokens - MILLI_HEDGES)) return true;
+        }
+    }
+
+    private void sample(long latencyNanos) {
+        synchronized (samples) {
+            samples[(int) (sampleCount++ % SAMPLES)] = latencyNanos;
+            if (sampleCount >= MIN_SAMPLES && sampleCount % RECOMPUTE_INTERVAL == 0 || sampleCount == MIN_SAMPLES) {
+                final long[] sorted = Arrays.copyOf(samples, (int) Math.min(sampleCount, SAMPLES));
+                Arrays.sort(sorted);
+                final long latency = sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+                delayNanos = Math.max(minDelayNanos, latency);
+            }
+        }
+    }
+
+    @Override
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    @Override
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    @Override
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    @Override
+    public long getBudgetExhausted() {
+        return budgetExhausted.sum();
+    }
+
+    @Override
+    public long getLatencySavedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(savedNanos.sum());
+    }
+
+    @Override
+    public double getHedgeDelayMillis() {
+        final long delay = delayNanos;
+        return delay == NO_HEDGE ? -1 : delay / 1_000_000.0;
+    }
+}
@@ -0,0 +1,88 @@
+package com.jjrepos.kafka.security.ldap.concurrency;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current instance of a resource that can be replaced while it is in use, such as the directory of a
+ * plugin whose bind credentials were rotated. Callers hold a {@link Lease} for the duration of one operation; a
+ * replaced instance is closed when its last lease is released, so operations already running finish on the
+ * instance they started on while new ones go to its replacement.
+ */
+public final class Swappable<T extends AutoCloseable> implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(Swappable.class);
+
+    private final AtomicReference<Lease<T>> current;
+
+    public Swappable(T initial) {
+        this.current = new AtomicReference<>(new Lease<>(initial));
+    }
+
+    /**
+     * Leases the current instance, to be released by closing the lease once the operation is done.
+     */
+    public Lease<T> acquire() {
+        while (true) {
+            final Lease<T> lease = current.get();
+            if (lease == null) throw new IllegalStateException("Already closed.");
+            if (lease.retain()) return lease;
+        }
+    }
+
+    /**
+     * Makes {@code next} the instance leased from now on and retires the previous one.
+     */
+    public void swap(T next) {
+        final Lease<T> previous = current.getAndSet(new Lease<>(next));
+        if (previous != null) previous.release();
+    }
+
+    @Override
+    public void close() {
+        final Lease<T> previous = current.getAndSet(null);
+        if (previous != null) previous.release();
+    }
+
+    /**
+     * The same lease object is handed to every caller of one instance, it counts them rather than being one per caller.
+     */
+    public static final class Lease<T extends AutoCloseable> implements AutoCloseable {
+        private final T instance;
+        // one for being current, plus one per caller in flight
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Lease(T instance) {
+            this.instance = instance;
+        }
+
+        public T get() {
+            return instance;
+        }
+
+        private boolean retain() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) return false;
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        private void release() {
+            if (references.decrementAndGet() > 0) return;
+            try {
+                instance.close();
+            } catch (final Exception e) {
+                LOG.warn("Ignoring exception when closing a replaced instance.", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            release();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.jjrepos.kafka.security.ldap.concurrency;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free token buckets keyed by an arbitrary string such as a username.
+ * <p>
+ * Each bucket is a single {@link AtomicLong}: the upper 42 bits hold the millisecond of the last refill and the
+ * lower 22 bits the available tokens in thousandths, so a bucket costs one small object and is updated with one CAS.
+ * A bucket that has refilled to capacity carries no information, so such buckets are dropped by a periodic sweep
+ * and the map only holds keys that were active within the last refill period.
+ */
+public final class TokenBucketRateLimiter {
+
+    private static final int TOKEN_BITS = 22;
+    private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+    private static final long MILLI_TOKENS = 1000;
+    static final long MAX_BURST = TOKEN_MASK / MILLI_TOKENS;
+    private static final long SWEEP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final long permitsPerSecond;
+    private final long capacity;
+    private final LongSupplier clock;
+    private final AtomicLong lastSweep;
+
+    public TokenBucketRateLimiter(long permitsPerSecond, long burst) {
+        this(permitsPerSecond, burst, System::currentTimeMillis);
+    }
+
+    TokenBucketRateLimiter(long permitsPerSecond, long burst, LongSupplier clock) {
+        if (permitsPerSecond < 1 || burst < 1 || burst > MAX_BURST) {
+            throw new IllegalArgumentException("Expected a positive rate and a burst between 1 and " + MAX_BURST);
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = burst * MILLI_TOKENS;
+        this.clock = clock;
+        this.lastSweep = new AtomicLong(clock.getAsLong());
+    }
+
+    /**
+     * Takes one token from the bucket for the key.
+     *
+     * @return true when the call is within the rate, false when it should be rejected
+     */
+    public boolean tryAcquire(String key) {
+        final long now = clock.getAsLong();
+        sweepIfDue(now);
+        final AtomicLong bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(pack(now, capacity)));
+        while (true) {
+            final long state = bucket.get();
+            final long tokens = available(state, now);
+            if (tokens < MILLI_TOKENS) {
+                return false;
+            }
+            if (bucket.compareAndSet(state, pack(Math.max(now, time(state)), tokens - MILLI_TOKENS))) {
+                return true;
+            }
+        }
+    }
+
+    int trackedKeys() {
+        return buckets.size();
+    }
+
+    private void sweepIfDue(long now) {
+        final long last = lastSweep.get();
+        if (now - last < SWEEP_INTERVAL_MILLIS || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        // a caller racing with removal may spend a token on the dropped bucket, which at most grants one extra call
+        for (Map.Entry<String, AtomicLong> entry : buckets.entrySet()) {
+            if (available(entry.getValue().get(), now) >= capacity) {
+                buckets.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private long available(long state, long now) {
+        final long elapsed = Math.max(0, now - time(state));
+        // permits per second equal milli-tokens per millisecond
+        final long refill = elapsed >= capacity ? capacity : elapsed * permitsPerSecond;
+        return Math.min(capacity, (state & TOKEN_MASK) + refill);
+    }
+
+    private static long time(long state) {
+        return state >>> TOKEN_BITS;
+    }
+
+    private static long pack(long timeMillis, long milliTokens) {
+        return (timeMillis << TOKEN_BITS) | milliTokens;
+    }
+}
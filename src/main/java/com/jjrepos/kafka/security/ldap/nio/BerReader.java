@@ -0,0 +1,137 @@
+package com.jjrepos.kafka.security.ldap.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads BER elements in place from a buffer, usually the direct buffer the connection reads the socket into.
+ * Nothing is copied until a caller asks for a value as a string, so the parts of a response nobody needs, such as
+ * DNs of entries or attributes not asked for, are only skipped over.
+ */
+final class BerReader {
+    static final int BOOLEAN = 0x01;
+    static final int INTEGER = 0x02;
+    static final int OCTET_STRING = 0x04;
+    static final int ENUMERATED = 0x0a;
+    static final int SEQUENCE = 0x30;
+    static final int SET = 0x31;
+
+    private ByteBuffer buffer;
+    private int position;
+    private int limit;
+    private byte[] scratch = new byte[256];
+
+    /**
+     * Returns the length of the element starting at {@code start}, header included, or -1 when fewer than
+     * {@code available} bytes hold it completely.
+     */
+    static int elementLength(ByteBuffer buffer, int start, int available) {
+        if (available < 2) return -1;
+        final int first = buffer.get(start + 1) & 0xff;
+        if (first < 0x80) return 2 + first;
+        final int count = first & 0x7f;
+        if (count == 0 || count > 4) throw new IllegalStateException("Unsupported BER length of " + count + " bytes.");
+        if (available < 2 + count) return -1;
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            length = (length << 8) | (buffer.get(start + 2 + i) & 0xff);
+        }
+        if (length < 0 || length > Integer.MAX_VALUE - 2 - count) throw new IllegalStateException("BER length out of range.");
+        return 2 + count + length;
+    }
+
+    BerReader reset(ByteBuffer buffer, int position, int limit) {
+        this.buffer = buffer;
+        this.position = position;
+        this.limit = limit;
+        return this;
+    }
+
+    int position() {
+        return position;
+    }
+
+    void position(int position) {
+        this.position = position;
+    }
+
+    boolean hasRemaining(int end) {
+        return position < end;
+    }
+
+    int tag() {
+        check(1);
+        return buffer.get(position++) & 0xff;
+    }
+
+    int length() {
+        final int first = tag();
+        if (first < 0x80) return first;
+        final int count = first & 0x7f;
+        check(count);
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            length = (length << 8) | (buffer.get(position++) & 0xff);
+        }
+        check(length);
+        return length;
+    }
+
+    /**
+     * Reads the tag, which has to be the expected one, and the length of the next element.
+     */
+    int expect(int tag) {
+        final int actual = tag();
+        if (actual != tag) {
+            throw new IllegalStateException(String.format("Expected BER tag 0x%02x but got 0x%02x.", tag, actual));
+        }
+        return length();
+    }
+
+    int readInt(int length) {
+        check(length);
+        int value = buffer.get(position) < 0 ? -1 : 0;
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (buffer.get(position++) & 0xff);
+        }
+        return value;
+    }
+
+    void skip(int length) {
+        check(length);
+        position += length;
+    }
+
+    /**
+     * Compares the next {@code length} bytes with an ASCII name ignoring case, and skips them.
+     *
+     * @param lowerCase the name in lower case
+     */
+    boolean skipIfEqualsIgnoreCase(int length, byte[] lowerCase) {
+        check(length);
+        final int start = position;
+        position += length;
+        if (length != lowerCase.length) return false;
+        for (int i = 0; i < length; i++) {
+            int b = buffer.get(start + i);
+            if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+            if (b != lowerCase[i]) return false;
+        }
+        return true;
+    }
+
+    String readString(int length) {
+        check(length);
+        if (scratch.length < length) scratch = new byte[Math.max(length, scratch.length * 2)];
+        for (int i = 0; i < length; i++) {
+            scratch[i] = buffer.get(position++);
+        }
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void check(int length) {
+        if (length < 0 || position + length > limit) {
+            throw new IllegalStateException("Truncated BER element.");
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.jjrepos.kafka.security.ldap.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes the few BER structures of LDAP requests with definite lengths. A constructed element is written body
+ * first and its length inserted in front when it ends, so requests are built in one pass without nested buffers.
+ */
+final class BerWriter {
+    private byte[] bytes = new byte[256];
+    private int size;
+    private final int[] starts = new int[8];
+    private int depth;
+
+    BerWriter reset() {
+        size = 0;
+        depth = 0;
+        return this;
+    }
+
+    BerWriter begin(int tag) {
+        put(tag);
+        starts[depth++] = size;
+        return this;
+    }
+
+    BerWriter end() {
+        final int start = starts[--depth];
+        final int length = size - start;
+        final int header = lengthBytes(length);
+        ensure(header);
+        System.arraycopy(bytes, start, bytes, start + header, length);
+        final int end = size;
+        size = start;
+        putLength(length);
+        size = end + header;
+        return this;
+    }
+
+    BerWriter integer(int tag, int value) {
+        put(tag);
+        int length = 1;
+        while (length < 4 && value != (value << (32 - 8 * length) >> (32 - 8 * length))) {
+            length++;
+        }
+        putLength(length);
+        for (int shift = 8 * (length - 1); shift >= 0; shift -= 8) {
+            put(value >>> shift);
+        }
+        return this;
+    }
+
+    BerWriter bool(boolean value) {
+        put(BerReader.BOOLEAN);
+        put(1);
+        put(value ? 0xff : 0);
+        return this;
+    }
+
+    BerWriter octets(int tag, byte[] value) {
+        put(tag);
+        putLength(value.length);
+        ensure(value.length);
+        System.arraycopy(value, 0, bytes, size, value.length);
+        size += value.length;
+        return this;
+    }
+
+    BerWriter string(int tag, String value) {
+        return octets(tag, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    int size() {
+        return size;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.put(bytes, 0, size);
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    private void put(int b) {
+        ensure(1);
+        bytes[size++] = (byte) b;
+    }
+
+    private void putLength(int length) {
+        if (length < 0x80) {
+            put(length);
+            return;
+        }
+        final int count = lengthBytes(length) - 1;
+        put(0x80 | count);
+        for (int shift = 8 * (count - 1); shift >= 0; shift -= 8) {
+            put(length >>> shift);
+        }
+    }
+
+    private static int lengthBytes(int length) {
+        if (length < 0x80) return 1;
+        if (length < 0x100) return 2;
+        if (length < 0x10000) return 3;
+        if (length < 0x1000000) return 4;
+        return 5;
+    }
+
+    private void ensure(int more) {
+        if (size + more > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + more));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.jjrepos.kafka.security.ldap.nio;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * The LDAP v3 (RFC 4511) requests this client sends and the tags and result codes of the responses it reads.
+ */
+final class LdapMessages {
+    static final int BIND_REQUEST = 0x60;
+    static final int BIND_RESPONSE = 0x61;
+    static final int UNBIND_REQUEST = 0x42;
+    static final int SEARCH_REQUEST = 0x63;
+    static final int SEARCH_RESULT_ENTRY = 0x64;
+    static final int SEARCH_RESULT_DONE = 0x65;
+    static final int EXTENDED_RESPONSE = 0x78;
+
+    static final int SCOPE_BASE_OBJECT = 0;
+    static final int SCOPE_SINGLE_LEVEL = 1;
+    static final int SCOPE_WHOLE_SUBTREE = 2;
+
+    static final int SUCCESS = 0;
+    static final int TIME_LIMIT_EXCEEDED = 3;
+    static final int NO_SUCH_OBJECT = 32;
+    static final int INVALID_CREDENTIALS = 49;
+    static final int BUSY = 51;
+    static final int UNAVAILABLE = 52;
+
+    private static final int VERSION_3 = 3;
+    private static final int SIMPLE_AUTHENTICATION = 0x80;
+    /** JNDI's default, {@code java.naming.ldap.derefAliases=always}. */
+    private static final int DEREF_ALWAYS = 3;
+    private static final int FILTER_OR = 0xa1;
+    private static final int FILTER_EQUALITY_MATCH = 0xa3;
+    private static final int FILTER_PRESENT = 0x87;
+    private static final byte[] OBJECT_CLASS = ascii("objectClass");
+
+    private LdapMessages() {
+    }
+
+    static void bind(BerWriter writer, int messageId, String dn, String password) {
+        writer.begin(BerReader.SEQUENCE)
+                .integer(BerReader.INTEGER, messageId)
+                .begin(BIND_REQUEST)
+                .integer(BerReader.INTEGER, VERSION_3)
+                .string(BerReader.OCTET_STRING, dn)
+                .string(SIMPLE_AUTHENTICATION, password)
+                .end()
+                .end();
+    }
+
+    static void unbind(BerWriter writer, int messageId) {
+        writer.begin(BerReader.SEQUENCE)
+                .integer(BerReader.INTEGER, messageId)
+                .octets(UNBIND_REQUEST, new byte[0])
+                .end();
+    }
+
+    /**
+     * Searches the subtree for entries whose attribute equals the value. The value is sent as is, so unlike a
+     * string filter it needs no escaping and cannot turn into a substring match.
+     */
+    static void searchEqual(BerWriter writer, int messageId, String base, int timeLimitSeconds, byte[] attribute,
+                            String value, byte[][] attributes) {
+        beginSearch(writer, messageId, base, SCOPE_WHOLE_SUBTREE, timeLimitSeconds)
+                .begin(FILTER_EQUALITY_MATCH)
+                .octets(BerReader.OCTET_STRING, attribute)
+                .string(BerReader.OCTET_STRING, value)
+                .end();
+        endSearch(writer, attributes);
+    }
+
+    /**
+     * Searches for entries whose attribute equals any of the values, one OR filter instead of a search per value.
+     */
+    static void searchAnyEqual(BerWriter writer, int messageId, String base, int scope, int timeLimitSeconds,
+                               byte[] attribute, Collection<String> values, byte[][] attributes) {
+        beginSearch(writer, messageId, base, scope, timeLimitSeconds).begin(FILTER_OR);
+        for (final String value : values) {
+            writer.begin(FILTER_EQUALITY_MATCH)
+                    .octets(BerReader.OCTET_STRING, attribute)
+                    .string(BerReader.OCTET_STRING, value)
+                    .end();
+        }
+        writer.end();
+        endSearch(writer, attributes);
+    }
+
+    /**
+     * Reads attributes of one entry, the equivalent of JNDI's {@code getAttributes(name, attributes)}.
+     */
+    static void readEntry(BerWriter writer, int messageId, String dn, int timeLimitSeconds, byte[][] attributes) {
+        beginSearch(writer, messageId, dn, SCOPE_BASE_OBJECT, timeLimitSeconds)
+                .octets(FILTER_PRESENT, OBJECT_CLASS);
+        endSearch(writer, attributes);
+    }
+
+    private static BerWriter beginSearch(BerWriter writer, int messageId, String base, int scope, int timeLimitSeconds) {
+        return writer.begin(BerReader.SEQUENCE)
+                .integer(BerReader.INTEGER, messageId)
+                .begin(SEARCH_REQUEST)
+                .string(BerReader.OCTET_STRING, base)
+                .integer(BerReader.ENUMERATED, scope)
+                .integer(BerReader.ENUMERATED, DEREF_ALWAYS)
+                .integer(BerReader.INTEGER, 0)
+                .integer(BerReader.INTEGER, timeLimitSeconds)
+                .bool(false);
+    }
+
+    private static void endSearch(BerWriter writer, byte[][] attributes) {
+        writer.begin(BerReader.SEQUENCE);
+        for (final byte[] attribute : attributes) {
+            writer.octets(BerReader.OCTET_STRING, attribute);
+        }
+        writer.end().end().end();
+    }
+
+    static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,432 @@
+package com.jjrepos.kafka.security.ldap.nio;
+
+import com.jjrepos.kafka.security.directory.Directory;
+import com.jjrepos.kafka.security.jfr.LdapBindEvent;
+import com.jjrepos.kafka.security.jfr.LdapGroupSearchEvent;
+import com.jjrepos.kafka.security.ldap.LdapConfig;
+import com.jjrepos.kafka.security.ldap.LdapException;
+import com.jjrepos.kafka.security.ldap.LdapProperty;
+import com.jjrepos.kafka.security.ldap.UserNames;
+import com.jjrepos.kafka.security.ldap.GroupLookup;
+import com.jjrepos.kafka.security.ldap.MembershipBatch;
+import com.jjrepos.kafka.security.ldap.authorizer.Membership;
+import com.jjrepos.kafka.security.ldap.concurrency.AdaptiveConcurrencyLimiter;
+import com.jjrepos.kafka.security.ldap.concurrency.LdapPriority;
+import com.jjrepos.kafka.security.utils.JmxUtils;
+import com.jjrepos.kafka.security.utils.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import javax.naming.AuthenticationException;
+import javax.naming.CommunicationException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.TimeLimitExceededException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * A directory reached over a handful of long lived LDAP connections instead of a new JNDI context per operation.
+ * Group searches and entry reads from all threads are pipelined over a few connections bound once as the bind
+ * user. A bind must be the only operation outstanding on its connection, so user logins take a connection from a
+ * small pool, bind on it and return it for the next login, which saves the TCP handshake but not the round trip.
+ * <p>
+ * Answers are decoded straight from the socket's buffer, reading only {@code memberOf}, {@code entryUSN} and
+ * {@code modifyTimestamp}. Plain {@code ldap://} urls only; replicas and hedging are not used by this client.
+ * As there is no TLS, the client refuses to start unless {@link LdapConfig#nioPlaintext()} allows passwords in
+ * clear text.
+ */
+public final class NioLdapClient implements Directory {
+    private static final Logger LOG = LoggerFactory.getLogger(NioLdapClient.class);
+    private static final int DEFAULT_PORT = 389;
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private final LdapConfig ldapConfig;
+    private final InetSocketAddress address;
+    private final String urlDn;
+    private final UserNames names;
+    private final Duration timeout;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final ObjectName limiterMetrics;
+    private final AtomicReferenceArray<NioLdapConnection> searchConnections;
+    private final Object[] searchConnectionLocks;
+    private final AtomicInteger nextSearchConnection = new AtomicInteger();
+    private final BlockingQueue<NioLdapConnection> idleBindConnections;
+    private final Semaphore bindConnections;
+    private volatile boolean closed;
+
+    public NioLdapClient(LdapConfig ldapConfig) {
+        this.ldapConfig = ldapConfig;
+        final URI url = parse(ldapConfig.url());
+        if (!ldapConfig.nioPlaintext()) {
+            throw new IllegalArgumentException("The NIO LDAP client has no TLS and would send passwords in clear text to "
+                    + ldapConfig.url() + ", set \"" + LdapProperty.NIO_PLAINTEXT.config
+                    + "\" to true to allow it or use the jndi client with an ldaps:// url.");
+        }
+        this.address = InetSocketAddress.createUnresolved(url.getHost(), url.getPort() < 0 ? DEFAULT_PORT : url.getPort());
+        final String path = url.getPath() == null ? "" : url.getPath();
+        this.urlDn = path.startsWith("/") ? path.substring(1) : path;
+        this.names = new UserNames(ldapConfig);
+        this.timeout = ldapConfig.nioTimeout();
+        this.limiter = new AdaptiveConcurrencyLimiter(ldapConfig.initialConcurrencyLimit(), ldapConfig.minConcurrencyLimit(),
+                ldapConfig.maxConcurrencyLimit(), ldapConfig.concurrencyAcquireTimeout());
+        this.limiterMetrics = JmxUtils.register("ConcurrencyLimiter", "ldap-nio-" + INSTANCES.incrementAndGet(), limiter);
+        this.searchConnections = new AtomicReferenceArray<>(ldapConfig.nioSearchConnections());
+        this.searchConnectionLocks = new Object[ldapConfig.nioSearchConnections()];
+        for (int i = 0; i < searchConnectionLocks.length; i++) {
+            searchConnectionLocks[i] = new Object();
+        }
+        this.idleBindConnections = new ArrayBlockingQueue<>(ldapConfig.nioBindConnections());
+        this.bindConnections = new Semaphore(ldapConfig.nioBindConnections());
+        if (ldapConfig.urls().size() > 1 || ldapConfig.hedging()) {
+            LOG.warn("The NIO LDAP client only connects to {}, replicas and hedging are not used.", ldapConfig.url());
+        }
+        LOG.info("Using NIO LDAP client for {} with {} search and up to {} bind connections.", ldapConfig.url(),
+                ldapConfig.nioSearchConnections(), ldapConfig.nioBindConnections());
+    }
+
+    @Override
+    public boolean authenticate(final String username, final String password) {
+        return authenticate(username, password, null);
+    }
+
+    /**
+     * Reads the user's own {@code memberOf} on the connection the user just bound on, see
+     * {@link com.jjrepos.kafka.security.ldap.LdapConnector#authenticate(String, String, Consumer)}.
+     */
+    @Override
+    public boolean authenticate(final String username, final String password, final Consumer<Membership> groupsRead) {
+        if (StringUtils.isBlank(username) || StringUtils.isBlank(password)) {
+            return false;
+        }
+        final LdapBindEvent event = new LdapBindEvent();
+        event.begin();
+        // a client is waiting for its login
+        try (LdapPriority.Scope ignored = LdapPriority.AUTHENTICATION.enter()) {
+            final int base = limiter.execute(() -> base(username));
+            if (base == UserNames.UNKNOWN) {
+                LOG.info("Authentication failure for user: {}, not found in any search base", username);
+                return false;
+            }
+            final String userDn = names.dn(username, base);
+            final Optional<Membership> membership = limiter.execute(() -> bindAs(userDn, password, groupsRead != null));
+            event.authenticated = true;
+            membership.ifPresent(groupsRead);
+            return true;
+        } catch (final AuthenticationException e) {
+            // the learned base stays, a wrong password says nothing about where the entry is and a user who moved
+            // is forgotten when reading the entry finds nothing
+            LOG.info("Authentication failure for user: {}, {}", username, e.getMessage());
+            return false;
+        } catch (final NamingException e) {
+            throw new LdapException(e);
+        } finally {
+            if (event.shouldCommit()) {
+                event.user = username;
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    public Set<String> groupsForUser(final String user) {
+        return membershipForUser(user).groups();
+    }
+
+    @Override
+    public Membership membershipForUser(final String user) {
+        final LdapGroupSearchEvent event = new LdapGroupSearchEvent();
+        event.begin();
+        try {
+            final Membership membership = limiter.execute(() -> ldapConfig.groupLookup() == GroupLookup.ENTRY
+                    ? readGroups(user)
+                    : searchGroups(user));
+            LOG.debug("User {} is in {} groups", user, membership.groups());
+            event.groups = membership.groups().size();
+            return membership;
+        } catch (final AuthenticationException e) {
+            LOG.info("Authentication failure for user: {}, {}", ldapConfig.bindUser(), e.getMessage());
+        } catch (final NamingException e) {
+            throw new LdapException(e);
+        } finally {
+            if (event.shouldCommit()) {
+                event.user = user;
+                event.commit();
+            }
+        }
+        LOG.info("User {} is in not in any groups", user);
+        return new Membership(Collections.emptySet(), null);
+    }
+
+    /**
+     * Reads the groups of the users with one OR filter search per batch and search base, the searches for all bases
+     * of a batch pipelined on one connection, see
+     * {@link com.jjrepos.kafka.security.ldap.LdapConnector#membershipsForUsers(Collection, BiConsumer)}.
+     */
+    @Override
+    public void membershipsForUsers(final Collection<String> users, final BiConsumer<String, Membership> memberships) {
+        final List<String> batch = new ArrayList<>(Math.min(users.size(), ldapConfig.groupBatchSize()));
+        for (final String user : users) {
+            batch.add(user);
+            if (batch.size() == ldapConfig.groupBatchSize()) {
+                searchBatch(batch, memberships);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) searchBatch(batch, memberships);
+    }
+
+    private void searchBatch(final List<String> users, final BiConsumer<String, Membership> memberships) {
+        final LdapGroupSearchEvent event = new LdapGroupSearchEvent();
+        event.begin();
+        MembershipBatch batch = new MembershipBatch(users, ldapConfig.groupLookup());
+        try {
+            batch = limiter.execute(() -> searchBatch(users));
+            LOG.debug("Read the groups of {} users in one batch", users.size());
+            for (final String user : users) {
+                event.groups += batch.membership(user).groups().size();
+            }
+        } catch (final AuthenticationException e) {
+            LOG.info("Authentication failure for user: {}, {}", ldapConfig.bindUser(), e.getMessage());
+        } catch (final NamingException e) {
+            throw new LdapException(e);
+        } finally {
+            if (event.shouldCommit()) {
+                event.user = users.size() + " users";
+                event.commit();
+            }
+        }
+        for (final String user : users) {
+            memberships.accept(user, batch.membership(user));
+        }
+    }
+
+    private MembershipBatch searchBatch(final List<String> users) throws NamingException {
+        final GroupLookup lookup = ldapConfig.groupLookup();
+        final MembershipBatch batch = new MembershipBatch(users, lookup);
+        final NioLdapConnection connection = searchConnection();
+        final List<Future<List<String>>> searches = new ArrayList<>(names.bases());
+        for (int base = 0; base < names.bases(); base++) {
+            searches.add(connection.searchBatch(qualify(names.searchBase(base)), lookup == GroupLookup.ENTRY, users, batch, timeout));
+        }
+        for (int base = 0; base < names.bases(); base++) {
+            final List<String> matched = connection.await(searches.get(base), timeout);
+            if (lookup != GroupLookup.ENTRY) continue;
+            for (final String dn : matched) {
+                names.learn(MembershipBatch.rdnValue(dn), base);
+            }
+        }
+        return batch;
+    }
+
+    @Override
+    public String entryVersion(final String user) {
+        try {
+            return limiter.execute(() -> {
+                final int base = base(user);
+                return base == UserNames.UNKNOWN ? null
+                        : searchConnection().readEntry(names.dn(user, base), NioLdapConnection.VERSION_ATTRIBUTES, timeout).version();
+            });
+        } catch (final NameNotFoundException e) {
+            LOG.debug("No entry for user {}", user);
+            names.forget(user);
+            return null;
+        } catch (final AuthenticationException e) {
+            LOG.info("Authentication failure for user: {}, {}", ldapConfig.bindUser(), e.getMessage());
+            return null;
+        } catch (final NamingException e) {
+            throw new LdapException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        JmxUtils.unregister(limiterMetrics);
+        for (int i = 0; i < searchConnections.length(); i++) {
+            final NioLdapConnection connection = searchConnections.getAndSet(i, null);
+            if (connection != null) connection.close();
+        }
+        NioLdapConnection idle;
+        while ((idle = idleBindConnections.poll()) != null) {
+            idle.close();
+        }
+    }
+
+    /**
+     * Returns the search base holding the user's entry. With several, an unknown user's candidate entries are read
+     * from all of them in one pipelined round trip and the first found is remembered.
+     */
+    private int base(String user) throws NamingException {
+        int base = names.learnedBase(user);
+        if (base != UserNames.UNKNOWN) return base;
+        final List<String> candidates = new ArrayList<>(names.bases());
+        for (int i = 0; i < names.bases(); i++) {
+            candidates.add(names.dn(user, i));
+        }
+        base = searchConnection().firstEntry(candidates, timeout);
+        if (base == UserNames.UNKNOWN) {
+            LOG.debug("No entry for user {} in any search base", user);
+        } else {
+            names.learn(user, base);
+        }
+        return base;
+    }
+
+    private Membership readGroups(String user) throws NamingException {
+        final int base = base(user);
+        if (base == UserNames.UNKNOWN) return new Membership(Collections.emptySet(), null);
+        try {
+            return searchConnection().readEntry(names.dn(user, base), NioLdapConnection.GROUP_ATTRIBUTES, timeout);
+        } catch (final NameNotFoundException e) {
+            LOG.debug("No entry for user {}", user);
+            names.forget(user);
+            return new Membership(Collections.emptySet(), null);
+        }
+    }
+
+    /**
+     * Searches every search base in turn; an entry found in more than one has no version, as with a single search.
+     */
+    private Membership searchGroups(String user) throws NamingException {
+        Membership membership = null;
+        for (int base = 0; base < names.bases(); base++) {
+            final Membership found = searchConnection().searchEqual(qualify(names.searchBase(base)), NioLdapConnection.CN, user, timeout);
+            if (membership == null || (membership.groups().isEmpty() && membership.version() == null)) {
+                membership = found;
+            } else if (!found.groups().isEmpty() || found.version() != null) {
+                final Set<String> groups = new HashSet<>(membership.groups());
+                groups.addAll(found.groups());
+                membership = new Membership(groups, null);
+            }
+        }
+        return membership;
+    }
+
+    /**
+     * Binds on a pooled connection. Only a connection whose requests all got their answer goes back to the pool, a
+     * bind or read that timed out may still be answered later and would confuse the next login on it.
+     */
+    private Optional<Membership> bindAs(String userDn, String password, boolean readOwnGroups) throws NamingException {
+        final NioLdapConnection connection = borrowBindConnection();
+        boolean reusable = false;
+        try {
+            try {
+                connection.bind(userDn, password, timeout);
+            } catch (final AuthenticationException e) {
+                reusable = true;
+                throw e;
+            }
+            if (!readOwnGroups) {
+                reusable = true;
+                return Optional.empty();
+            }
+            try {
+                final Membership membership = connection.readEntry(userDn, NioLdapConnection.GROUP_ATTRIBUTES, timeout);
+                LOG.debug("User {} is in {} groups", userDn, membership.groups());
+                reusable = true;
+                return Optional.of(membership);
+            } catch (final NamingException e) {
+                LOG.debug("Unable to read groups of user {} on its own connection, {}", userDn, e.getMessage());
+                return Optional.empty();
+            }
+        } finally {
+            returnBindConnection(connection, reusable);
+        }
+    }
+
+    private NioLdapConnection borrowBindConnection() throws NamingException {
+        try {
+            if (!bindConnections.tryAcquire(timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                throw new TimeLimitExceededException("No LDAP bind connection became free within " + timeout.toMillis() + " ms.");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LdapException(e);
+        }
+        NioLdapConnection connection;
+        while ((connection = idleBindConnections.poll()) != null) {
+            if (connection.isOpen()) return connection;
+        }
+        try {
+            return open();
+        } catch (final NamingException | RuntimeException e) {
+            bindConnections.release();
+            throw e;
+        }
+    }
+
+    private void returnBindConnection(NioLdapConnection connection, boolean reusable) {
+        if (!reusable || closed || !connection.isOpen() || !idleBindConnections.offer(connection)) {
+            connection.close();
+        }
+        bindConnections.release();
+    }
+
+    /**
+     * Returns the next search connection round robin, connecting and binding it as the bind user when it is new
+     * or was lost.
+     */
+    private NioLdapConnection searchConnection() throws NamingException {
+        final int slot = Math.floorMod(nextSearchConnection.getAndIncrement(), searchConnections.length());
+        final NioLdapConnection current = searchConnections.get(slot);
+        if (current != null && current.isOpen()) return current;
+        synchronized (searchConnectionLocks[slot]) {
+            NioLdapConnection connection = searchConnections.get(slot);
+            if (connection != null && connection.isOpen()) return connection;
+            if (closed) throw new CommunicationException("The LDAP client is closed.");
+            connection = open();
+            try {
+                connection.bind(names.dn(String.valueOf(ldapConfig.bindUser()), 0), ldapConfig.bindUserPassword(), timeout);
+            } catch (final NamingException | RuntimeException e) {
+                connection.close();
+                throw e;
+            }
+            LOG.debug("Authenticated bind user: {}", ldapConfig.bindUser());
+            searchConnections.set(slot, connection);
+            return connection;
+        }
+    }
+
+    private NioLdapConnection open() throws NamingException {
+        return NioLdapConnection.open(new InetSocketAddress(address.getHostString(), address.getPort()), timeout);
+    }
+
+    /**
+     * Names are relative to the DN of the url, if it has one, as they are for JNDI.
+     */
+    private String qualify(String name) {
+        return urlDn.isEmpty() ? name : name + "," + urlDn;
+    }
+
+    private static URI parse(String url) {
+        try {
+            final URI uri = new URI(url.trim());
+            if (!"ldap".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null) {
+                throw new IllegalArgumentException("The NIO LDAP client needs an ldap://host:port url, got " + url);
+            }
+            return uri;
+        } catch (final URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid LDAP url " + url, e);
+        }
+    }
+}
@@ -0,0 +1,514 @@
+package com.jjrepos.kafka.security.ldap.nio;
+
+import com.jjrepos.kafka.security.ldap.LdapException;
+import com.jjrepos.kafka.security.ldap.LdapUtils;
+import com.jjrepos.kafka.security.ldap.MembershipBatch;
+import com.jjrepos.kafka.security.ldap.authorizer.Membership;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.AuthenticationException;
+import javax.naming.CommunicationException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.TimeLimitExceededException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One LDAP connection on which any number of operations are outstanding at once. Requests are written by the
+ * calling threads; a reader thread decodes the responses as they arrive, in whatever order the directory answers,
+ * and completes the operation with the response's message ID.
+ * <p>
+ * RFC 4511 does not allow other operations while a bind is outstanding on the connection, so callers only bind
+ * a connection that is not otherwise in use.
+ */
+final class NioLdapConnection implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(NioLdapConnection.class);
+    private static final AtomicInteger CONNECTIONS = new AtomicInteger();
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 4 * 1024;
+    // the length of a response comes from the peer, anything larger fails the connection instead of the heap
+    static final int MAX_MESSAGE_BYTES = 16 * 1024 * 1024;
+
+    static final byte[] CN = LdapMessages.ascii("CN");
+    private static final byte[] CN_LOWER_CASE = LdapMessages.ascii("cn");
+    private static final byte[] MEMBER_OF = LdapMessages.ascii("memberof");
+    private static final byte[] ENTRY_USN = LdapMessages.ascii("entryusn");
+    private static final byte[] MODIFY_TIMESTAMP = LdapMessages.ascii("modifytimestamp");
+    static final byte[][] GROUP_ATTRIBUTES = {
+            LdapMessages.ascii("memberOf"), LdapMessages.ascii("entryUSN"), LdapMessages.ascii("modifyTimestamp")};
+    static final byte[][] VERSION_ATTRIBUTES = {LdapMessages.ascii("entryUSN"), LdapMessages.ascii("modifyTimestamp")};
+    private static final byte[][] BATCH_ATTRIBUTES = {
+            CN, LdapMessages.ascii("memberOf"), LdapMessages.ascii("entryUSN"), LdapMessages.ascii("modifyTimestamp")};
+
+    private final SocketChannel channel;
+    private final String name;
+    private final Map<Integer, Operation<?>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger messageIds = new AtomicInteger();
+    private final Object writeLock = new Object();
+    // guarded by writeLock
+    private final BerWriter writer = new BerWriter();
+    // guarded by writeLock
+    private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    // used by the reader thread only
+    private final BerReader reader = new BerReader();
+    private volatile boolean open = true;
+
+    private NioLdapConnection(SocketChannel channel, String name) {
+        this.channel = channel;
+        this.name = name;
+    }
+
+    static NioLdapConnection open(InetSocketAddress address, Duration connectTimeout) throws NamingException {
+        final SocketChannel channel;
+        try {
+            channel = SocketChannel.open();
+        } catch (final IOException e) {
+            throw communication("Unable to open a socket", e);
+        }
+        try {
+            channel.socket().connect(address, (int) connectTimeout.toMillis());
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().setKeepAlive(true);
+        } catch (final IOException e) {
+            closeQuietly(channel);
+            throw communication("Unable to connect to " + address, e);
+        }
+        final NioLdapConnection connection = new NioLdapConnection(channel, "ldap-nio-" + CONNECTIONS.incrementAndGet());
+        final Thread reader = new Thread(connection::read, connection.name);
+        reader.setDaemon(true);
+        reader.start();
+        return connection;
+    }
+
+    boolean isOpen() {
+        return open;
+    }
+
+    int outstanding() {
+        return pending.size();
+    }
+
+    /**
+     * @throws AuthenticationException when the directory rejects the credentials, the connection stays usable
+     */
+    void bind(String dn, String password, Duration timeout) throws NamingException {
+        await(send(new Bind(), (writer, id) -> LdapMessages.bind(writer, id, dn, password)), timeout);
+    }
+
+    /**
+     * Collects the groups of all entries below the base whose attribute equals the value, and the version of a single one.
+     */
+    Membership searchEqual(String base, byte[] attribute, String value, Duration timeout) throws NamingException {
+        final int timeLimit = timeLimitSeconds(timeout);
+        return await(send(new MembershipRead(), (writer, id) ->
+                LdapMessages.searchEqual(writer, id, base, timeLimit, attribute, value, GROUP_ATTRIBUTES)), timeout);
+    }
+
+    /**
+     * Reads the groups and version, or only the version, of one entry.
+     *
+     * @throws NameNotFoundException when there is no such entry
+     */
+    Membership readEntry(String dn, byte[][] attributes, Duration timeout) throws NamingException {
+        final int timeLimit = timeLimitSeconds(timeout);
+        return await(send(new MembershipRead(), (writer, id) ->
+                LdapMessages.readEntry(writer, id, dn, timeLimit, attributes)), timeout);
+    }
+
+    /**
+     * Reads the version of all entries at once, pipelined, and returns the index of the first that exists, or -1.
+     * A failure is only rethrown when no entry was found.
+     */
+    int firstEntry(List<String> dns, Duration timeout) throws NamingException {
+        final int timeLimit = timeLimitSeconds(timeout);
+        final List<Operation<Membership>> reads = new ArrayList<>(dns.size());
+        for (String dn : dns) {
+            reads.add(send(new MembershipRead(), (writer, id) -> LdapMessages.readEntry(writer, id, dn, timeLimit, VERSION_ATTRIBUTES)));
+        }
+        NamingException failure = null;
+        for (int i = 0; i < reads.size(); i++) {
+            try {
+                await(reads.get(i), timeout);
+                return i;
+            } catch (final NameNotFoundException e) {
+                // not in this one
+            } catch (final NamingException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+        return -1;
+    }
+
+    /**
+     * Sends a search for the entries with any of the users' {@code CN}s below the base, one level or the whole
+     * subtree, and adds them to the batch as they arrive; completes with the DNs of the entries that belonged to a
+     * user. Await it with {@link #await(Future, Duration)} once every search of the batch is sent.
+     */
+    Future<List<String>> searchBatch(String base, boolean oneLevel, Collection<String> users, MembershipBatch batch,
+                                     Duration timeout) throws NamingException {
+        final int timeLimit = timeLimitSeconds(timeout);
+        return send(new BatchRead(batch), (writer, id) -> LdapMessages.searchAnyEqual(writer, id, base,
+                oneLevel ? LdapMessages.SCOPE_SINGLE_LEVEL : LdapMessages.SCOPE_WHOLE_SUBTREE, timeLimit, CN, users,
+                BATCH_ATTRIBUTES));
+    }
+
+    @Override
+    public void close() {
+        if (!open) return;
+        try {
+            synchronized (writeLock) {
+                writer.reset();
+                LdapMessages.unbind(writer, nextMessageId());
+                write();
+            }
+        } catch (final IOException e) {
+            LOG.debug("Unable to unbind {}, {}", name, e.getMessage());
+        }
+        fail(new CommunicationException("Connection closed."));
+    }
+
+    @FunctionalInterface
+    private interface Request {
+        void write(BerWriter writer, int messageId);
+    }
+
+    private <T> Operation<T> send(Operation<T> operation, Request request) throws NamingException {
+        if (!open) throw new CommunicationException("Connection " + name + " is closed.");
+        final int messageId = nextMessageId();
+        operation.messageId = messageId;
+        pending.put(messageId, operation);
+        try {
+            synchronized (writeLock) {
+                writer.reset();
+                request.write(writer, messageId);
+                write();
+            }
+        } catch (final IOException e) {
+            final CommunicationException failure = communication("Unable to write to " + name, e);
+            fail(failure);
+            throw failure;
+        }
+        // the reader may have failed the pending operations before this one was added
+        if (!open && pending.remove(messageId) != null) {
+            throw new CommunicationException("Connection " + name + " is closed.");
+        }
+        return operation;
+    }
+
+    // holding writeLock
+    private void write() throws IOException {
+        if (writer.size() > writeBuffer.capacity()) {
+            writeBuffer = ByteBuffer.allocateDirect(Math.max(writer.size(), writeBuffer.capacity() * 2));
+        }
+        writeBuffer.clear();
+        writer.writeTo(writeBuffer);
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+    }
+
+    <T> T await(Future<T> future, Duration timeout) throws NamingException {
+        final Operation<T> operation = (Operation<T>) future;
+        try {
+            return operation.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (final TimeoutException e) {
+            pending.remove(operation.messageId);
+            throw new TimeLimitExceededException("No answer from the directory within " + timeout.toMillis() + " ms.");
+        } catch (final InterruptedException e) {
+            pending.remove(operation.messageId);
+            Thread.currentThread().interrupt();
+            throw new LdapException(e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof NamingException) throw (NamingException) e.getCause();
+            throw new LdapException(e.getCause());
+        }
+    }
+
+    private int nextMessageId() {
+        // message ID 0 is reserved for unsolicited notifications
+        return messageIds.updateAndGet(id -> id == Integer.MAX_VALUE ? 1 : id + 1);
+    }
+
+    private void read() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        try {
+            while (open) {
+                if (channel.read(buffer) < 0) throw new EOFException("Connection closed by the directory.");
+                buffer.flip();
+                int length;
+                while ((length = BerReader.elementLength(buffer, buffer.position(), buffer.remaining())) >= 0
+                        && length <= buffer.remaining()) {
+                    dispatch(buffer, buffer.position(), length);
+                    buffer.position(buffer.position() + length);
+                }
+                if (length > MAX_MESSAGE_BYTES) {
+                    throw new IOException("LDAP message of " + length + " bytes exceeds the limit of " + MAX_MESSAGE_BYTES);
+                }
+                if (length > buffer.capacity()) {
+                    final ByteBuffer larger = ByteBuffer.allocateDirect(Math.min(Math.max(length, buffer.capacity() * 2), MAX_MESSAGE_BYTES));
+                    larger.put(buffer);
+                    buffer = larger;
+                } else {
+                    buffer.compact();
+                }
+            }
+        } catch (final IOException | RuntimeException e) {
+            if (open) LOG.debug("LDAP connection {} failed, {}", name, e.toString());
+            fail(communication("Connection " + name + " failed", e));
+        }
+    }
+
+    private void dispatch(ByteBuffer buffer, int start, int length) {
+        reader.reset(buffer, start, start + length);
+        reader.expect(BerReader.SEQUENCE);
+        final int messageId = reader.readInt(reader.expect(BerReader.INTEGER));
+        final int protocolOp = reader.tag();
+        final int opLength = reader.length();
+        final int end = reader.position() + opLength;
+        switch (protocolOp) {
+            case LdapMessages.SEARCH_RESULT_ENTRY: {
+                final Operation<?> operation = pending.get(messageId);
+                if (operation != null) operation.entry(reader, end);
+                break;
+            }
+            case LdapMessages.BIND_RESPONSE:
+            case LdapMessages.SEARCH_RESULT_DONE: {
+                final Operation<?> operation = pending.remove(messageId);
+                final int resultCode = reader.readInt(reader.expect(BerReader.ENUMERATED));
+                reader.skip(reader.expect(BerReader.OCTET_STRING));
+                final String diagnostic = reader.readString(reader.expect(BerReader.OCTET_STRING));
+                if (operation != null) operation.done(resultCode, diagnostic);
+                break;
+            }
+            case LdapMessages.EXTENDED_RESPONSE:
+                if (messageId == 0) throw new IllegalStateException("Notice of disconnection from the directory.");
+                break;
+            default:
+                // referrals and responses to operations this client does not send
+        }
+    }
+
+    private void fail(NamingException failure) {
+        open = false;
+        closeQuietly(channel);
+        pending.keySet().forEach(messageId -> {
+            final Operation<?> operation = pending.remove(messageId);
+            if (operation != null) operation.completeExceptionally(failure);
+        });
+    }
+
+    private static CommunicationException communication(String message, Throwable cause) {
+        final CommunicationException e = new CommunicationException(message + ": " + cause.getMessage());
+        e.setRootCause(cause);
+        return e;
+    }
+
+    private static int timeLimitSeconds(Duration timeout) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, timeout.getSeconds()));
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (final IOException ignored) {
+            // nothing left to release
+        }
+    }
+
+    /**
+     * The exceptions JNDI throws for the same result codes, so callers handle both clients alike.
+     */
+    static NamingException error(int resultCode, String diagnostic) {
+        final String message = "[LDAP: error code " + resultCode + " - " + diagnostic + "]";
+        switch (resultCode) {
+            case LdapMessages.INVALID_CREDENTIALS:
+                return new AuthenticationException(message);
+            case LdapMessages.NO_SUCH_OBJECT:
+                return new NameNotFoundException(message);
+            case LdapMessages.TIME_LIMIT_EXCEEDED:
+                return new TimeLimitExceededException(message);
+            case LdapMessages.BUSY:
+            case LdapMessages.UNAVAILABLE:
+                return new ServiceUnavailableException(message);
+            default:
+                return new NamingException(message);
+        }
+    }
+
+    private static final int OTHER = -1;
+    private static final int GROUP = 0;
+    private static final int USN = 1;
+    private static final int TIMESTAMP = 2;
+    private static final int NAME = 3;
+
+    private static int attribute(BerReader reader, int length) {
+        final int start = reader.position();
+        if (reader.skipIfEqualsIgnoreCase(length, MEMBER_OF)) return GROUP;
+        reader.position(start);
+        if (reader.skipIfEqualsIgnoreCase(length, ENTRY_USN)) return USN;
+        reader.position(start);
+        if (reader.skipIfEqualsIgnoreCase(length, MODIFY_TIMESTAMP)) return TIMESTAMP;
+        reader.position(start);
+        if (reader.skipIfEqualsIgnoreCase(length, CN_LOWER_CASE)) return NAME;
+        return OTHER;
+    }
+
+    private abstract static class Operation<T> extends CompletableFuture<T> {
+        int messageId;
+
+        /**
+         * Reads a search result entry, called on the reader thread.
+         */
+        void entry(BerReader reader, int end) {
+            reader.position(end);
+        }
+
+        /**
+         * Completes the operation with its final result, called on the reader thread.
+         */
+        abstract void done(int resultCode, String diagnostic);
+    }
+
+    private static final class Bind extends Operation<Void> {
+        @Override
+        void done(int resultCode, String diagnostic) {
+            if (resultCode == LdapMessages.SUCCESS) {
+                complete(null);
+            } else {
+                completeExceptionally(error(resultCode, diagnostic));
+            }
+        }
+    }
+
+    /**
+     * Picks {@code memberOf}, {@code entryUSN} and {@code modifyTimestamp} out of the entries and skips everything
+     * else; groups are collected from all entries, the version only of a single entry, as {@code LdapConnector} does.
+     */
+    private static final class MembershipRead extends Operation<Membership> {
+        private final Set<String> groups = new HashSet<>(4);
+        private String version;
+        private int entries;
+
+        @Override
+        void entry(BerReader reader, int end) {
+            reader.skip(reader.expect(BerReader.OCTET_STRING));
+            final int attributesLength = reader.expect(BerReader.SEQUENCE);
+            final int attributesEnd = reader.position() + attributesLength;
+            String usn = null;
+            String timestamp = null;
+            while (reader.hasRemaining(attributesEnd)) {
+                final int attributeLength = reader.expect(BerReader.SEQUENCE);
+                final int attributeEnd = reader.position() + attributeLength;
+                final int attribute = attribute(reader, reader.expect(BerReader.OCTET_STRING));
+                if (attribute == OTHER || attribute == NAME || (attribute != GROUP && entries > 0)) {
+                    reader.position(attributeEnd);
+                    continue;
+                }
+                final int valuesLength = reader.expect(BerReader.SET);
+                final int valuesEnd = reader.position() + valuesLength;
+                while (reader.hasRemaining(valuesEnd)) {
+                    final String value = reader.readString(reader.expect(BerReader.OCTET_STRING));
+                    if (attribute == GROUP) {
+                        LdapUtils.groupName(value).ifPresent(groups::add);
+                    } else if (attribute == USN) {
+                        usn = value;
+                    } else {
+                        timestamp = value;
+                    }
+                }
+            }
+            // an ambiguous name has no version, as with LdapConnector
+            version = entries++ == 0 ? (usn != null ? "entryUSN:" + usn : timestamp != null ? "modifyTimestamp:" + timestamp : null) : null;
+            reader.position(end);
+        }
+
+        @Override
+        void done(int resultCode, String diagnostic) {
+            if (resultCode == LdapMessages.SUCCESS) {
+                complete(new Membership(groups, version));
+            } else {
+                completeExceptionally(error(resultCode, diagnostic));
+            }
+        }
+    }
+
+    /**
+     * Adds each entry's {@code CN}s, groups and version to the batch, which decides the users it belongs to.
+     */
+    private static final class BatchRead extends Operation<List<String>> {
+        private final MembershipBatch batch;
+        private final List<String> matched = new ArrayList<>();
+
+        BatchRead(MembershipBatch batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        void entry(BerReader reader, int end) {
+            final String dn = reader.readString(reader.expect(BerReader.OCTET_STRING));
+            final int attributesLength = reader.expect(BerReader.SEQUENCE);
+            final int attributesEnd = reader.position() + attributesLength;
+            final List<String> names = new ArrayList<>(1);
+            final Set<String> groups = new HashSet<>(4);
+            String usn = null;
+            String timestamp = null;
+            while (reader.hasRemaining(attributesEnd)) {
+                final int attributeLength = reader.expect(BerReader.SEQUENCE);
+                final int attributeEnd = reader.position() + attributeLength;
+                final int attribute = attribute(reader, reader.expect(BerReader.OCTET_STRING));
+                if (attribute == OTHER) {
+                    reader.position(attributeEnd);
+                    continue;
+                }
+                final int valuesLength = reader.expect(BerReader.SET);
+                final int valuesEnd = reader.position() + valuesLength;
+                while (reader.hasRemaining(valuesEnd)) {
+                    final String value = reader.readString(reader.expect(BerReader.OCTET_STRING));
+                    if (attribute == GROUP) {
+                        LdapUtils.groupName(value).ifPresent(groups::add);
+                    } else if (attribute == NAME) {
+                        names.add(value);
+                    } else if (attribute == USN) {
+                        usn = value;
+                    } else {
+                        timestamp = value;
+                    }
+                }
+            }
+            final String version = usn != null ? "entryUSN:" + usn : timestamp != null ? "modifyTimestamp:" + timestamp : null;
+            if (batch.entry(dn, names, groups, version)) matched.add(dn);
+            reader.position(end);
+        }
+
+        @Override
+        void done(int resultCode, String diagnostic) {
+            if (resultCode == LdapMessages.SUCCESS) {
+                complete(matched);
+            } else {
+                completeExceptionally(error(resultCode, diagnostic));
+            }
+        }
+    }
+}
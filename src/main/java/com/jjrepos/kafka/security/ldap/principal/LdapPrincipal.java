@@ -0,0 +1,60 @@
+package com.jjrepos.kafka.security.ldap.principal;
+
+import com.jjrepos.kafka.security.ldap.LdapUtils;
+import com.jjrepos.kafka.security.ldap.authorizer.PermissionProfile;
+import org.apache.kafka.common.security.auth.KafkaPrincipal;
+
+/**
+ * A user principal carrying the permissions resolved for it, so the authorizer can check a connection's requests
+ * without looking the user up in the cache.
+ * <p>
+ * The profile is only used while it is as current as the cache: until the validity of the cache entry it was taken
+ * from ends and as long as the cache's {@link com.jjrepos.kafka.security.cache.Cache#generation() generation} has
+ * not moved. After that the authorizer attaches the profile it finds in the cache instead.
+ * <p>
+ * Like every {@link KafkaPrincipal} subclass, it only equals principals of the same class.
+ */
+public final class LdapPrincipal extends KafkaPrincipal {
+    private final String user;
+    private volatile Attached attached;
+
+    public LdapPrincipal(String name, boolean tokenAuthenticated) {
+        super(USER_TYPE, name, tokenAuthenticated);
+        this.user = LdapUtils.normalizeUsername(name);
+    }
+
+    /**
+     * @return the normalized username the user's cache entry is kept under
+     */
+    public String user() {
+        return user;
+    }
+
+    /**
+     * @return the attached profile while it is still current, otherwise null
+     */
+    public PermissionProfile profile(long generation, long nowMillis) {
+        final Attached current = attached;
+        if (current == null || current.generation != generation || nowMillis >= current.expiresAtMillis) return null;
+        return current.profile;
+    }
+
+    /**
+     * @param generation the cache's generation read before the profile was looked up
+     */
+    public void attach(PermissionProfile profile, long generation, long expiresAtMillis) {
+        attached = new Attached(profile, generation, expiresAtMillis);
+    }
+
+    private static final class Attached {
+        final PermissionProfile profile;
+        final long generation;
+        final long expiresAtMillis;
+
+        Attached(PermissionProfile profile, long generation, long expiresAtMillis) {
+            this.profile = profile;
+            this.generation = generation;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.jjrepos.kafka.security.ldap.principal;
+
+import com.jjrepos.kafka.security.cache.AuthCache;
+import com.jjrepos.kafka.security.cache.Cache;
+import com.jjrepos.kafka.security.cache.Cacheable;
+import com.jjrepos.kafka.security.ldap.authorizer.PermissionProfile;
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.config.internals.BrokerSecurityConfigs;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.security.auth.AuthenticationContext;
+import org.apache.kafka.common.security.auth.KafkaPrincipal;
+import org.apache.kafka.common.security.auth.KafkaPrincipalBuilder;
+import org.apache.kafka.common.security.auth.KafkaPrincipalSerde;
+import org.apache.kafka.common.security.auth.SaslAuthenticationContext;
+import org.apache.kafka.common.security.authenticator.DefaultKafkaPrincipalBuilder;
+import org.apache.kafka.common.security.kerberos.KerberosShortNamer;
+import org.apache.kafka.common.security.ssl.SslPrincipalMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.sasl.SaslServer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Builds {@link LdapPrincipal}s for users authenticated with SASL {@code PLAIN} against the directory, with the
+ * permissions already cached for them attached, usually those read while the user authenticated. Nothing is looked
+ * up in the directory here, principals are built on the network threads; a user without cached permissions gets them
+ * attached by the authorizer.
+ * <p>
+ * Enable with {@code principal.builder.class=com.jjrepos.kafka.security.ldap.principal.LdapPrincipalBuilder}.
+ * Principals of other connections and mechanisms are built by Kafka's default builder, with the broker's
+ * {@code ssl.principal.mapping.rules} and {@code sasl.kerberos.principal.to.local.rules}.
+ */
+public class LdapPrincipalBuilder implements KafkaPrincipalBuilder, KafkaPrincipalSerde, Configurable {
+    private static final Logger LOG = LoggerFactory.getLogger(LdapPrincipalBuilder.class);
+    private static final String PLAIN = "PLAIN";
+
+    private volatile DefaultKafkaPrincipalBuilder defaultBuilder = defaultBuilder(Collections.emptyMap());
+    private final Cache cache;
+
+    public LdapPrincipalBuilder() {
+        this(AuthCache.INSTANCE);
+    }
+
+    public LdapPrincipalBuilder(Cache cache) {
+        this.cache = Objects.requireNonNull(cache);
+    }
+
+    /**
+     * Called by the broker with the listener's configs.
+     */
+    @Override
+    public void configure(Map<String, ?> configs) {
+        defaultBuilder = defaultBuilder(configs);
+    }
+
+    @Override
+    public KafkaPrincipal build(AuthenticationContext context) {
+        if (!(context instanceof SaslAuthenticationContext)) return defaultBuilder.build(context);
+        final SaslServer server = ((SaslAuthenticationContext) context).server();
+        if (!PLAIN.equals(server.getMechanismName())) return defaultBuilder.build(context);
+        final LdapPrincipal principal = new LdapPrincipal(server.getAuthorizationID(), false);
+        final long generation = cache.generation();
+        final Cacheable entry = cache.getEntryIfValid(principal.user());
+        if (entry != null && entry.get() instanceof PermissionProfile) {
+            principal.attach(entry.get(), generation, entry.expiresAtMillis());
+        }
+        return principal;
+    }
+
+    /**
+     * Principals forwarded to the controller are sent without their permissions and deserialized as plain
+     * {@link KafkaPrincipal}s.
+     */
+    @Override
+    public byte[] serialize(KafkaPrincipal principal) throws SerializationException {
+        return defaultBuilder.serialize(principal);
+    }
+
+    @Override
+    public KafkaPrincipal deserialize(byte[] bytes) throws SerializationException {
+        return defaultBuilder.deserialize(bytes);
+    }
+
+    /**
+     * Builds Kafka's default builder as the broker does for its listeners when no principal builder is configured.
+     */
+    private static DefaultKafkaPrincipalBuilder defaultBuilder(Map<String, ?> configs) {
+        final Object sslRules = configs.get(BrokerSecurityConfigs.SSL_PRINCIPAL_MAPPING_RULES_CONFIG);
+        final Object kerberosRules = configs.get(BrokerSecurityConfigs.SASL_KERBEROS_PRINCIPAL_TO_LOCAL_RULES_CONFIG);
+        return new DefaultKafkaPrincipalBuilder(
+                KerberosShortNamer.fromUnparsedRules(defaultKerberosRealm(), kerberosRules == null
+                        ? BrokerSecurityConfigs.DEFAULT_SASL_KERBEROS_PRINCIPAL_TO_LOCAL_RULES
+                        : list(kerberosRules)),
+                SslPrincipalMapper.fromRules(sslRules == null
+                        ? BrokerSecurityConfigs.DEFAULT_SSL_PRINCIPAL_MAPPING_RULES
+                        : String.valueOf(sslRules)));
+    }
+
+    /**
+     * Parsed broker configs hold lists, plain maps comma separated strings.
+     */
+    private static List<String> list(Object value) {
+        if (value instanceof List) {
+            final List<String> values = new ArrayList<>();
+            ((List<?>) value).forEach(item -> values.add(String.valueOf(item).trim()));
+            return values;
+        }
+        return Arrays.asList(String.valueOf(value).trim().split("\\s*,\\s*"));
+    }
+
+    private static String defaultKerberosRealm() {
+        try {
+            return new KerberosPrincipal("tmp", KerberosPrincipal.KRB_NT_PRINCIPAL).getRealm();
+        } catch (final IllegalArgumentException e) {
+            LOG.debug("No default Kerberos realm, {}", e.getMessage());
+            return "";
+        }
+    }
+}
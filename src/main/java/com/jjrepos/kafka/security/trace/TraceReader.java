@@ -0,0 +1,82 @@
+package com.jjrepos.kafka.security.trace;
+
+import com.jjrepos.kafka.security.audit.AuditDecision;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads a trace written by {@link TraceRecorder}, one record at a time.
+ */
+public final class TraceReader implements AutoCloseable {
+    private static final AuditDecision[] DECISIONS = AuditDecision.values();
+
+    private final DataInputStream in;
+    private final long startMillis;
+
+    public TraceReader(Path path) throws IOException {
+        this(Files.newInputStream(path));
+    }
+
+    public TraceReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        if (this.in.readInt() != TraceRecorder.MAGIC) throw new IOException("Not an authorization trace");
+        final int version = this.in.readUnsignedByte();
+        if (version != TraceRecorder.VERSION) throw new IOException("Unsupported trace version " + version);
+        this.startMillis = this.in.readLong();
+    }
+
+    /**
+     * @return the wall clock time the trace started at, in epoch milliseconds
+     */
+    public long startMillis() {
+        return startMillis;
+    }
+
+    /**
+     * @return the next record, or null at the end of the trace
+     */
+    public TraceRecord next() throws IOException {
+        final int kind = in.read();
+        if (kind < 0) return null;
+        try {
+            final long nanos = readVarLong();
+            final int principal = (int) readVarLong();
+            final AuditDecision decision = DECISIONS[in.readUnsignedByte()];
+            if (kind == TraceRecorder.AUTHENTICATION) {
+                return new TraceRecord(TraceRecord.Kind.AUTHENTICATION, nanos, principal, decision, new byte[0], new int[0], 0);
+            }
+            final int denied = (int) readVarLong();
+            final int count = (int) readVarLong();
+            final byte[] actions = new byte[count * 3];
+            final int[] resources = new int[count];
+            for (int i = 0; i < count; i++) {
+                in.readFully(actions, i * 3, 3);
+                resources[i] = (int) readVarLong();
+            }
+            return new TraceRecord(TraceRecord.Kind.AUTHORIZATION, nanos, principal, decision, actions, resources, denied);
+        } catch (final EOFException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated trace record", e);
+        }
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed variable length number");
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
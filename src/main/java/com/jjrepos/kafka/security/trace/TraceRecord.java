@@ -0,0 +1,82 @@
+package com.jjrepos.kafka.security.trace;
+
+import com.jjrepos.kafka.security.audit.AuditDecision;
+import org.apache.kafka.common.acl.AclOperation;
+import org.apache.kafka.common.resource.PatternType;
+import org.apache.kafka.common.resource.ResourcePattern;
+import org.apache.kafka.common.resource.ResourceType;
+import org.apache.kafka.server.authorizer.Action;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One authentication or authorization read back from a trace. Principals and resource names are the anonymous ids
+ * the recorder assigned them, numbered in order of first appearance.
+ */
+public final class TraceRecord {
+    public enum Kind {
+        AUTHENTICATION, AUTHORIZATION
+    }
+
+    private final Kind kind;
+    private final long nanos;
+    private final int principal;
+    private final AuditDecision decision;
+    private final byte[] actions;
+    private final int[] resources;
+    private final int denied;
+
+    TraceRecord(Kind kind, long nanos, int principal, AuditDecision decision, byte[] actions, int[] resources, int denied) {
+        this.kind = kind;
+        this.nanos = nanos;
+        this.principal = principal;
+        this.decision = decision;
+        this.actions = actions;
+        this.resources = resources;
+        this.denied = denied;
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    /**
+     * @return nanoseconds since the trace started
+     */
+    public long nanos() {
+        return nanos;
+    }
+
+    public int principal() {
+        return principal;
+    }
+
+    /**
+     * @return the authentication decision, or the authorization decision as a whole
+     */
+    public AuditDecision decision() {
+        return decision;
+    }
+
+    public int denied() {
+        return denied;
+    }
+
+    public int actionCount() {
+        return resources.length;
+    }
+
+    /**
+     * Rebuilds the authorized actions, naming resource {@code n} {@code resource-n}.
+     */
+    public List<Action> actions() {
+        final List<Action> result = new ArrayList<>(resources.length);
+        for (int i = 0; i < resources.length; i++) {
+            final ResourcePattern pattern = new ResourcePattern(ResourceType.fromCode(actions[i * 3 + 1]),
+                    "resource-" + resources[i], PatternType.fromCode(actions[i * 3 + 2]));
+            result.add(new Action(AclOperation.fromCode(actions[i * 3]), pattern, 1, true, true));
+        }
+        return result;
+    }
+}
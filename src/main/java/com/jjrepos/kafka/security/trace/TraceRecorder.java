@@ -0,0 +1,278 @@
+package com.jjrepos.kafka.security.trace;
+
+import com.jjrepos.kafka.security.audit.AuditDecision;
+import com.jjrepos.kafka.security.ldap.LdapProperty;
+import com.jjrepos.kafka.security.utils.PropertyUtils;
+import org.apache.kafka.server.authorizer.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Captures the authentications and authorizations a plugin sees as a compact binary trace, for replaying the real
+ * mix of principals, resource types and action lists offline, see {@link TraceReader}.
+ * <p>
+ * Principals and resource names are replaced by numbers in order of first appearance, a trace holds no names.
+ * Only the numbers of the {@value #MAX_NAMES} most recently seen principals and of as many resource names are
+ * remembered, a name seen again after that many others gets a new number and replays as a new one.
+ * Timestamps are nanoseconds since the trace started and numbers are written as variable length integers, an
+ * authorization of one action takes around ten bytes. Request threads only encode a record and hand it to a
+ * bounded queue; records that do not fit are counted as dropped instead of slowing the caller down.
+ * <p>
+ * The plugins of a broker, the authorizer and a callback handler per listener and mechanism, share one recorder per
+ * trace directory, see {@link #shared(Map)}, so their records form one stream numbered in one id space.
+ */
+public final class TraceRecorder implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(TraceRecorder.class);
+
+    static final int MAGIC = 0x4c445452;
+    static final int VERSION = 1;
+    static final int AUTHENTICATION = 1;
+    static final int AUTHORIZATION = 2;
+    static final int MAX_NAMES = 1 << 16;
+
+    private static final TraceRecorder DISABLED = new TraceRecorder();
+    private static final int BATCH = 256;
+    private static final ThreadLocal<Encoder> ENCODER = ThreadLocal.withInitial(Encoder::new);
+    private static final AtomicInteger TRACES = new AtomicInteger();
+    // guarded by itself
+    private static final Map<Path, TraceRecorder> SHARED = new HashMap<>();
+
+    private final boolean enabled;
+    private final long startNanos;
+    private final BlockingQueue<byte[]> queue;
+    private final Ids principals;
+    private final Ids resources;
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final OutputStream out;
+    private final Thread writer;
+    private volatile boolean running;
+    private Path sharedDirectory;
+    // guarded by SHARED
+    private int references;
+
+    private TraceRecorder() {
+        this.enabled = false;
+        this.startNanos = 0;
+        this.queue = null;
+        this.principals = null;
+        this.resources = null;
+        this.out = null;
+        this.writer = null;
+    }
+
+    TraceRecorder(String name, OutputStream out, int bufferSize) throws IOException {
+        this(name, out, bufferSize, MAX_NAMES);
+    }
+
+    TraceRecorder(String name, OutputStream out, int bufferSize, int maxNames) throws IOException {
+        this.enabled = true;
+        this.startNanos = System.nanoTime();
+        this.queue = new ArrayBlockingQueue<>(bufferSize);
+        this.principals = new Ids(maxNames);
+        this.resources = new Ids(maxNames);
+        this.out = new BufferedOutputStream(out, 1 << 16);
+        final DataOutputStream header = new DataOutputStream(this.out);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeLong(System.currentTimeMillis());
+        this.running = true;
+        this.writer = new Thread(this::write, name + "-trace");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public static TraceRecorder disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Returns the recorder of the {@code ldap.trace.dir} directory, starting a trace in a new file there on first
+     * use, or a disabled recorder when the property is not set. Every plugin tracing to the directory records to the
+     * same trace, which is closed when each of them has called {@link #close()} once.
+     */
+    public static TraceRecorder shared(Map<String, ?> configs) {
+        final String directory = PropertyUtils.getStringProperty(configs, LdapProperty.TRACE_DIR.config, null);
+        if (directory == null) return DISABLED;
+        final Path key = Path.of(directory).toAbsolutePath().normalize();
+        synchronized (SHARED) {
+            TraceRecorder recorder = SHARED.get(key);
+            if (recorder == null) {
+                recorder = create(key, PropertyUtils.getIntProperty(configs, LdapProperty.TRACE_BUFFER_SIZE.config, 65536));
+                recorder.sharedDirectory = key;
+                SHARED.put(key, recorder);
+            }
+            recorder.references++;
+            return recorder;
+        }
+    }
+
+    private static TraceRecorder create(Path directory, int bufferSize) {
+        final Path path = directory.resolve("ldap-" + System.currentTimeMillis() + "-" + TRACES.incrementAndGet() + ".trace");
+        try {
+            Files.createDirectories(directory);
+            final TraceRecorder recorder = new TraceRecorder("ldap", Files.newOutputStream(path), bufferSize);
+            LOG.info("Tracing to {}", path);
+            return recorder;
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Invalid configuration property \"" + LdapProperty.TRACE_DIR.config
+                    + "\", unable to write " + path, e);
+        }
+    }
+
+    public void authentication(AuditDecision decision, String principal) {
+        if (!enabled) return;
+        final Encoder encoder = ENCODER.get().start(AUTHENTICATION, System.nanoTime() - startNanos,
+                principals.id(principal), decision);
+        offer(encoder.toBytes());
+    }
+
+    public void authorization(String principal, List<Action> actions, int denied) {
+        if (!enabled) return;
+        final Encoder encoder = ENCODER.get().start(AUTHORIZATION, System.nanoTime() - startNanos,
+                principals.id(principal),
+                denied > 0 ? AuditDecision.AUTHORIZATION_DENIED : AuditDecision.AUTHORIZATION_ALLOWED);
+        encoder.varLong(denied).varLong(actions.size());
+        for (final Action action : actions) {
+            encoder.put(action.operation().code())
+                    .put(action.resourcePattern().resourceType().code())
+                    .put(action.resourcePattern().patternType().code())
+                    .varLong(resources.id(action.resourcePattern().name()));
+        }
+        offer(encoder.toBytes());
+    }
+
+    public long recorded() {
+        return recorded.sum();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    private void offer(byte[] record) {
+        if (queue.offer(record)) {
+            recorded.increment();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    private void write() {
+        final List<byte[]> batch = new ArrayList<>(BATCH);
+        try {
+            while (running || !queue.isEmpty()) {
+                final byte[] first = queue.poll(10, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    out.flush();
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH - 1);
+                for (final byte[] record : batch) out.write(record);
+                batch.clear();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final IOException e) {
+            LOG.warn("Writing trace failed, tracing stopped", e);
+        }
+    }
+
+    /**
+     * Writes the records already queued and closes the trace, once every plugin sharing it has closed it.
+     */
+    @Override
+    public void close() {
+        if (!enabled) return;
+        if (sharedDirectory != null) {
+            synchronized (SHARED) {
+                if (--references > 0) return;
+                SHARED.remove(sharedDirectory);
+            }
+        }
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+            out.close();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final IOException e) {
+            LOG.warn("Closing trace failed", e);
+        }
+        LOG.info("Trace closed, {} records, {} dropped", recorded(), dropped());
+    }
+
+    /**
+     * Numbers names in order of first appearance, forgetting the least recently seen beyond its capacity.
+     */
+    private static final class Ids {
+        private final Map<String, Integer> ids;
+        private int next;
+
+        Ids(int capacity) {
+            this.ids = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        synchronized int id(String name) {
+            final Integer id = ids.get(name);
+            if (id != null) return id;
+            ids.put(name, next);
+            return next++;
+        }
+    }
+
+    /**
+     * Encodes one record into a buffer reused by the calling thread.
+     */
+    private static final class Encoder {
+        private byte[] buffer = new byte[64];
+        private int size;
+
+        Encoder start(int kind, long nanos, int principal, AuditDecision decision) {
+            size = 0;
+            return put((byte) kind).varLong(nanos).varLong(principal).put((byte) decision.ordinal());
+        }
+
+        Encoder put(byte b) {
+            if (size == buffer.length) buffer = Arrays.copyOf(buffer, size * 2);
+            buffer[size++] = b;
+            return this;
+        }
+
+        Encoder varLong(long value) {
+            while ((value & ~0x7fL) != 0) {
+                put((byte) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            return put((byte) value);
+        }
+
+        byte[] toBytes() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.jjrepos.kafka.security.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+public final class JmxUtils {
+    private static final Logger LOG = LoggerFactory.getLogger(JmxUtils.class);
+    private static final String DOMAIN = "com.jjrepos.kafka.security";
+
+    private JmxUtils() {
+    }
+
+    /**
+     * Registers an MXBean under {@code com.jjrepos.kafka.security:type=<type>,name=<name>}.
+     * Registration failures are logged and otherwise ignored, metrics must never stop the plugin from working.
+     *
+     * @return the registered name, or null when the bean could not be registered
+     */
+    public static ObjectName register(final String type, final String name, final Object mxBean) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(mxBean, objectName);
+            return objectName;
+        } catch (final JMException e) {
+            LOG.warn("Unable to register {} metrics for {}", type, name, e);
+            return null;
+        }
+    }
+
+    public static void unregister(final ObjectName objectName) {
+        if (objectName == null) return;
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (final JMException e) {
+            LOG.warn("Unable to unregister metrics {}", objectName, e);
+        }
+    }
+}
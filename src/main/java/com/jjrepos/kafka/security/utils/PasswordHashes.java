@@ -0,0 +1,104 @@
+package com.jjrepos.kafka.security.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+
+/**
+ * Salted password hashes in the RFC 2307 style used by LDAP {@code userPassword} attributes:
+ * {@code {SSHA}}, {@code {SSHA256}} or {@code {SSHA512}} followed by the base64 of the digest of password and salt,
+ * with the salt appended. Values without a known scheme never match, clear text passwords are not supported.
+ */
+public final class PasswordHashes {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final int SALT_LENGTH = 16;
+
+    private PasswordHashes() {
+    }
+
+    /**
+     * Compares a password against a stored hash in time independent of where they differ.
+     */
+    public static boolean matches(final String stored, final String password) {
+        if (stored == null || password == null) return false;
+        final int end = stored.indexOf('}');
+        if (!stored.startsWith("{") || end < 0) return false;
+        final String algorithm = algorithm(stored.substring(1, end));
+        if (algorithm == null) return false;
+        final byte[] decoded;
+        try {
+            decoded = Base64.getDecoder().decode(stored.substring(end + 1).trim());
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+        final MessageDigest digest = digest(algorithm);
+        final int digestLength = digest.getDigestLength();
+        if (decoded.length <= digestLength) return false;
+        final byte[] salt = Arrays.copyOfRange(decoded, digestLength, decoded.length);
+        final byte[] expected = Arrays.copyOf(decoded, digestLength);
+        return MessageDigest.isEqual(expected, hash(digest, password, salt));
+    }
+
+    /**
+     * @return true when the value is a hash in one of the supported schemes, whether or not it is well formed
+     */
+    public static boolean isSupported(final String stored) {
+        if (stored == null || !stored.startsWith("{")) return false;
+        final int end = stored.indexOf('}');
+        return end > 0 && algorithm(stored.substring(1, end)) != null;
+    }
+
+    /**
+     * Hashes a password with a random salt.
+     *
+     * @param scheme one of {@code SSHA}, {@code SSHA256} or {@code SSHA512}
+     */
+    public static String hash(final String scheme, final String password) {
+        final byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return hash(scheme, password, salt);
+    }
+
+    public static String hash(final String scheme, final String password, final byte[] salt) {
+        final String algorithm = algorithm(scheme);
+        if (algorithm == null) {
+            throw new IllegalArgumentException("Unsupported password hash scheme \"" + scheme + "\".");
+        }
+        final byte[] hash = hash(digest(algorithm), password, salt);
+        final byte[] value = Arrays.copyOf(hash, hash.length + salt.length);
+        System.arraycopy(salt, 0, value, hash.length, salt.length);
+        return "{" + scheme.toUpperCase(Locale.ROOT) + "}" + Base64.getEncoder().encodeToString(value);
+    }
+
+    private static byte[] hash(final MessageDigest digest, final String password, final byte[] salt) {
+        digest.update(password.getBytes(StandardCharsets.UTF_8));
+        digest.update(salt);
+        return digest.digest();
+    }
+
+    private static String algorithm(final String scheme) {
+        switch (scheme.toUpperCase(Locale.ROOT)) {
+            case "SSHA":
+                return "SHA-1";
+            case "SSHA256":
+                return "SHA-256";
+            case "SSHA512":
+                return "SHA-512";
+            default:
+                return null;
+        }
+    }
+
+    private static MessageDigest digest(final String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(algorithm + " is required of every Java platform", e);
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package com.jjrepos.kafka.security.utils;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 public final class PropertyUtils {
     public static String getRequiredStringProperty(final Map<String, ?> configs, final String name) {
@@ -11,6 +14,11 @@ public final class PropertyUtils {
         return value.toString();
     }
 
+    public static String getStringProperty(final Map<String, ?> configs, final String name, final String defaultValue) {
+        final Object value = configs.get(name);
+        return value == null ? defaultValue : value.toString();
+    }
+
     public static long getRequiredLongProperty(final Map<String, ?> configs, final String name) {
         final Object value = configs.get(name);
         if (value == null) {
@@ -22,4 +30,49 @@ public final class PropertyUtils {
             throw new IllegalArgumentException("Invalid configuration property \"" + name + "\".");
         }
     }
+
+    public static long getLongProperty(final Map<String, ?> configs, final String name, final long defaultValue) {
+        final Object value = configs.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid configuration property \"" + name + "\".");
+        }
+    }
+
+    public static int getIntProperty(final Map<String, ?> configs, final String name, final int defaultValue) {
+        final long value = getLongProperty(configs, name, defaultValue);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid configuration property \"" + name + "\".");
+        }
+        return (int) value;
+    }
+
+    public static boolean getBooleanProperty(final Map<String, ?> configs, final String name, final boolean defaultValue) {
+        final Object value = configs.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        final String text = value.toString().trim();
+        if ("true".equalsIgnoreCase(text)) return true;
+        if ("false".equalsIgnoreCase(text)) return false;
+        throw new IllegalArgumentException("Invalid configuration property \"" + name + "\".");
+    }
+
+    public static List<String> getListProperty(final Map<String, ?> configs, final String name) {
+        final Object value = configs.get(name);
+        if (value == null) {
+            return List.of();
+        }
+        if (value instanceof List) {
+            return ((List<?>) value).stream().map(Object::toString).map(String::trim).collect(Collectors.toList());
+        }
+        return Arrays.stream(value.toString().split(","))
+                .map(String::trim)
+                .filter(item -> !item.isEmpty())
+                .collect(Collectors.toList());
+    }
 }
@@ -0,0 +1,37 @@
+package com.jjrepos.kafka.security.ldap.concurrency;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Java 21 variant of the LDAP thread factory, packaged under {@code META-INF/versions/21}.
+ * With virtual threads enabled every LDAP operation gets its own virtual thread, so blocking JNDI calls park
+ * instead of pinning a platform thread.
+ */
+final class LdapThreads {
+
+    private LdapThreads() {
+    }
+
+    static boolean supportsVirtualThreads() {
+        return true;
+    }
+
+    static ExecutorService newExecutor(String name, boolean virtualThreads) {
+        if (virtualThreads) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+        }
+        return Executors.newCachedThreadPool(daemonThreads(name));
+    }
+
+    static ThreadFactory daemonThreads(String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
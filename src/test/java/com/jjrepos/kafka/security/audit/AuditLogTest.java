@@ -0,0 +1,165 @@
+package com.jjrepos.kafka.security.audit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@RunWith(JUnitPlatform.class)
+public class AuditLogTest {
+
+    @Test
+    public void ring_buffer_should_reject_records_when_full_and_accept_them_again_once_drained() {
+        var buffer = new AuditRingBuffer(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i, AuditDecision.AUTHENTICATION_SUCCESS, "user" + i, 0, 0, null));
+        }
+        assertFalse(buffer.offer(4, AuditDecision.AUTHENTICATION_SUCCESS, "user4", 0, 0, null));
+
+        List<String> principals = new ArrayList<>();
+        assertEquals(2, buffer.drain(2, (time, decision, principal, allowed, denied, resource) -> principals.add(principal)));
+        assertTrue(buffer.offer(5, AuditDecision.AUTHORIZATION_DENIED, "user5", 1, 2, "topic"));
+        buffer.drain(10, (time, decision, principal, allowed, denied, resource) -> principals.add(principal));
+        assertEquals(List.of("user0", "user1", "user2", "user3", "user5"), principals);
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void ring_buffer_should_keep_every_record_of_concurrent_producers() throws InterruptedException {
+        var buffer = new AuditRingBuffer(1 << 16);
+        int producers = 8;
+        int perProducer = 5000;
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    buffer.offer(i, AuditDecision.AUTHORIZATION_ALLOWED, "user" + producer, i, 0, null);
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        int[] next = new int[producers];
+        int drained = buffer.drain(Integer.MAX_VALUE, (time, decision, principal, allowed, denied, resource) -> {
+            int producer = Integer.parseInt(principal.substring(4));
+            assertEquals(next[producer]++, allowed, "records of one producer stay in order");
+        });
+        assertEquals(producers * perProducer, drained);
+    }
+
+    @Test
+    public void audit_log_should_write_structured_records_in_batches() throws InterruptedException {
+        List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+        var auditLog = new AuditLog("test", 1024, 10, Map.of(AuditDecision.AUTHORIZATION_ALLOWED, 100), Map.of(),
+                records -> batches.add(List.copyOf(records)));
+        for (int i = 0; i < 25; i++) {
+            auditLog.authentication(AuditDecision.AUTHENTICATION_SUCCESS, "user" + i);
+        }
+        auditLog.authorization("alice", 2, 1, "payments");
+        auditLog.close();
+
+        List<String> records = new ArrayList<>();
+        batches.forEach(records::addAll);
+        assertEquals(26, records.size());
+        assertTrue(batches.stream().allMatch(batch -> batch.size() <= 10));
+        assertTrue(records.get(0).matches("time=\\S+ decision=authentication.success principal=user0"), records.get(0));
+        assertTrue(records.get(25).endsWith("decision=authorization.denied principal=alice allowed=2 denied=1 resource=payments"));
+        assertEquals(26, auditLog.getRecorded());
+    }
+
+    @Test
+    public void audit_log_should_quote_values_that_could_forge_fields_or_records() {
+        List<String> records = Collections.synchronizedList(new ArrayList<>());
+        var auditLog = new AuditLog("forged", 1024, 10, Map.of(AuditDecision.AUTHORIZATION_ALLOWED, 100), Map.of(),
+                records::addAll);
+        auditLog.authentication(AuditDecision.AUTHENTICATION_FAILURE, "mallory decision=authentication.success");
+        auditLog.authentication(AuditDecision.AUTHENTICATION_FAILURE,
+                "mallory\ntime=2026-01-01T00:00:00Z decision=authentication.success principal=admin");
+        auditLog.authorization("alice", 1, 0, "say \"hi\"\\\r");
+        auditLog.authentication(AuditDecision.AUTHENTICATION_FAILURE, "");
+        auditLog.close();
+
+        assertEquals(4, records.size());
+        assertTrue(records.stream().noneMatch(record -> record.contains("\n") || record.contains("\r")), records.toString());
+        assertTrue(records.get(0).endsWith(" principal=\"mallory decision=authentication.success\""), records.get(0));
+        assertTrue(records.get(1).endsWith(
+                " principal=\"mallory\\ntime=2026-01-01T00:00:00Z decision=authentication.success principal=admin\""), records.get(1));
+        assertTrue(records.get(2).endsWith(" resource=\"say \\\"hi\\\"\\\\\\r\""), records.get(2));
+        assertTrue(records.get(3).endsWith(" principal=\"\""), records.get(3));
+    }
+
+    @Test
+    public void audit_log_should_be_off_by_default() {
+        assertSame(AuditLog.disabled(), AuditLog.create("default", Map.of()));
+    }
+
+    @Test
+    public void audit_log_should_sample_and_rate_limit_per_decision() {
+        List<String> records = Collections.synchronizedList(new ArrayList<>());
+        var auditLog = new AuditLog("test", 1024, 100,
+                Map.of(AuditDecision.AUTHORIZATION_ALLOWED, 0),
+                Map.of(AuditDecision.AUTHENTICATION_CACHED, 5L),
+                records::addAll);
+        for (int i = 0; i < 100; i++) {
+            auditLog.authorization("alice", 1, 0, null);
+            auditLog.authentication(AuditDecision.AUTHENTICATION_CACHED, "bob");
+        }
+        auditLog.close();
+
+        assertEquals(100, auditLog.getSampledOut());
+        assertEquals(5, auditLog.getRecorded());
+        assertEquals(95, auditLog.getRateLimited());
+        assertEquals(5, records.size());
+    }
+
+    @Test
+    public void audit_log_should_count_overflow_instead_of_blocking() {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> records = Collections.synchronizedList(new ArrayList<>());
+        var auditLog = new AuditLog("test", 16, 1, Map.of(), Map.of(), batch -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            records.addAll(batch);
+        });
+        for (int i = 0; i < 100; i++) {
+            auditLog.authentication(AuditDecision.AUTHENTICATION_FAILURE, "mallory");
+        }
+        assertTrue(auditLog.getDropped() >= 100 - 16 - 1);
+        assertEquals(100, auditLog.getRecorded() + auditLog.getDropped());
+        release.countDown();
+        auditLog.close();
+
+        assertTrue(records.stream().anyMatch(record -> record.contains("decision=overflow dropped=")));
+    }
+
+    @Test
+    public void disabled_audit_log_should_ignore_records() {
+        var auditLog = AuditLog.create("disabled", Map.of("ldap.audit.enabled", "false"));
+        auditLog.authentication(AuditDecision.AUTHENTICATION_FAILURE, "mallory");
+        assertSame(AuditLog.disabled(), auditLog);
+        assertEquals(0, auditLog.getRecorded());
+        auditLog.close();
+    }
+}
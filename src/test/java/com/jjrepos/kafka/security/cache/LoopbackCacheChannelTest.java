@@ -0,0 +1,207 @@
+package com.jjrepos.kafka.security.cache;
+
+import com.jjrepos.kafka.security.ldap.LdapProperty;
+import com.jjrepos.kafka.security.ldap.authenticator.LdapAuthenticateCallbackHandler;
+import com.jjrepos.kafka.security.ldap.authenticator.UsernamePasswordAuthenticator;
+import com.jjrepos.kafka.security.ldap.authorizer.Groups;
+import com.jjrepos.kafka.security.ldap.authorizer.LdapAuthorizer;
+import com.jjrepos.kafka.security.ldap.authorizer.PermissionProfile;
+import org.apache.kafka.common.acl.AclOperation;
+import org.apache.kafka.common.resource.PatternType;
+import org.apache.kafka.common.resource.ResourcePattern;
+import org.apache.kafka.common.resource.ResourceType;
+import org.apache.kafka.common.security.auth.KafkaPrincipal;
+import org.apache.kafka.common.security.plain.PlainAuthenticateCallback;
+import org.apache.kafka.server.authorizer.Action;
+import org.apache.kafka.server.authorizer.AuthorizableRequestContext;
+import org.apache.kafka.server.authorizer.AuthorizationResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.NameCallback;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@RunWith(JUnitPlatform.class)
+public class LoopbackCacheChannelTest {
+
+    private static final PermissionProfile READ = PermissionProfile.of(Set.of(Groups.READ.name));
+
+    private final List<CacheChannel> channels = new ArrayList<>();
+
+    @AfterEach
+    public void closeChannels() {
+        channels.forEach(CacheChannel::close);
+    }
+
+    @Test
+    public void put_should_be_visible_on_peer_caches() {
+        Cache broker1 = sharedCache("put");
+        Cache broker2 = sharedCache("put");
+        Cache broker3 = sharedCache("put");
+        broker1.put("kafka_user", READ, Duration.ofMinutes(5));
+        assertEquals(Optional.of(READ), broker2.getIfValid("kafka_user"));
+        assertEquals(Optional.of(READ), broker3.getIfValid("kafka_user"));
+    }
+
+    @Test
+    public void update_should_decode_to_what_was_encoded() {
+        PermissionProfile profile = PermissionProfile.of(Set.of(Groups.READ.name, Groups.WRITE.name));
+        CacheUpdate decoded = CacheUpdate.decode(CacheUpdate.put("broker-1", "kafka_user", profile, 1234L).encode());
+        assertEquals("broker-1", decoded.origin());
+        assertEquals("kafka_user", decoded.key());
+        assertEquals(1234L, decoded.expiresAtMillis());
+        assertEquals(Set.of(Groups.READ.name, Groups.WRITE.name), decoded.groups());
+        assertSame(profile, decoded.profile());
+    }
+
+    @Test
+    public void decode_should_reject_malformed_updates() {
+        byte[] encoded = CacheUpdate.put("broker-1", "kafka_user", READ, 1234L).encode();
+        assertThrows(IllegalArgumentException.class, () -> CacheUpdate.decode(Arrays.copyOf(encoded, encoded.length - 1)));
+        assertThrows(IllegalArgumentException.class, () -> CacheUpdate.decode(Arrays.copyOf(encoded, encoded.length + 1)));
+        encoded[0] = 2;
+        assertThrows(IllegalArgumentException.class, () -> CacheUpdate.decode(encoded));
+    }
+
+    @Test
+    public void only_profiles_should_be_published() {
+        Cache broker1 = sharedCache("profiles");
+        Cache broker2 = sharedCache("profiles");
+        broker1.put("kafka_user", "groups", Duration.ofMinutes(5));
+        assertNull(broker2.get("kafka_user"));
+    }
+
+    @Test
+    public void peer_should_keep_only_remaining_validity() throws InterruptedException {
+        Cache broker1 = sharedCache("validity");
+        Cache broker2 = sharedCache("validity");
+        broker1.put("kafka_user", READ, Duration.ofMillis(20));
+        Thread.sleep(30);
+        assertTrue(broker2.getIfValid("kafka_user").isEmpty());
+    }
+
+    @Test
+    public void channels_in_other_groups_should_not_receive_updates() {
+        Cache broker1 = sharedCache("cluster-a");
+        Cache broker2 = sharedCache("cluster-b");
+        broker1.put("kafka_user", READ, Duration.ofMinutes(5));
+        assertNull(broker2.get("kafka_user"));
+    }
+
+    @Test
+    public void detached_cache_should_stop_publishing_and_receiving() {
+        Cache broker1 = sharedCache("detach");
+        CacheChannel channel2 = channel("detach");
+        Cache broker2 = Cache.inMemory();
+        broker2.attach(channel2);
+        broker2.detach(channel2);
+        broker1.put("kafka_user", READ, Duration.ofMinutes(5));
+        broker2.put("kafka_admin", READ, Duration.ofMinutes(5));
+        assertNull(broker2.get("kafka_user"));
+        assertNull(broker1.get("kafka_admin"));
+    }
+
+    @Test
+    public void cluster_should_resolve_each_principal_once() {
+        AtomicInteger ldapSearches = new AtomicInteger();
+        Map<String, Object> config = new HashMap<>();
+        config.put(LdapProperty.URL.config, "localhost");
+        config.put(LdapProperty.BASE_DN.config, "dc=bah,dc=com");
+        config.put(LdapProperty.SEARCH_BASE.config, "OU=Service Accounts");
+        config.put(LdapProperty.USER.config, "kafka_test");
+        config.put(LdapProperty.PASSWORD.config, "password");
+        config.put(LdapProperty.CACHE_VALIDITY_MILLIS.config, "60000");
+        config.put(LdapProperty.CACHE_CHANNEL_CLASS.config, LoopbackCacheChannel.class.getName());
+        config.put(LdapProperty.CACHE_CHANNEL_GROUP.config, "cluster");
+
+        List<LdapAuthorizer> brokers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            LdapAuthorizer authorizer = new LdapAuthorizer(spec -> user -> {
+                ldapSearches.incrementAndGet();
+                return Collections.singleton(Groups.READ.name);
+            }, Cache.inMemory());
+            authorizer.configure(config);
+            brokers.add(authorizer);
+        }
+
+        KafkaPrincipal principal = new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "kafka_reader");
+        AuthorizableRequestContext ctx = Mockito.mock(AuthorizableRequestContext.class);
+        when(ctx.principal()).thenReturn(principal);
+        Action readTopic = new Action(AclOperation.READ,
+                new ResourcePattern(ResourceType.TOPIC, "topic", PatternType.LITERAL), 1, true, true);
+        for (LdapAuthorizer broker : brokers) {
+            assertEquals(List.of(AuthorizationResult.ALLOWED), broker.authorize(ctx, List.of(readTopic)));
+        }
+        assertEquals(1, ldapSearches.get());
+        brokers.forEach(LdapAuthorizer::close);
+    }
+
+    @Test
+    public void groups_shared_by_a_peer_should_not_authenticate_a_wrong_password() throws Exception {
+        Map<String, Object> config = new HashMap<>();
+        config.put(LdapProperty.URL.config, "localhost");
+        config.put(LdapProperty.BASE_DN.config, "dc=bah,dc=com");
+        config.put(LdapProperty.SEARCH_BASE.config, "OU=Service Accounts");
+        config.put(LdapProperty.USER.config, "kafka_test");
+        config.put(LdapProperty.PASSWORD.config, "password");
+        config.put(LdapProperty.CACHE_VALIDITY_MILLIS.config, "60000");
+        config.put(LdapProperty.CACHE_CHANNEL_CLASS.config, LoopbackCacheChannel.class.getName());
+        config.put(LdapProperty.CACHE_CHANNEL_GROUP.config, "logins");
+        UsernamePasswordAuthenticator directory = (user, password) -> "secret".equals(password);
+        Cache broker1Cache = Cache.inMemory();
+        Cache broker2Cache = Cache.inMemory();
+        LdapAuthorizer broker1 = new LdapAuthorizer(spec -> user -> Collections.singleton(Groups.READ.name), broker1Cache);
+        LdapAuthorizer broker2 = new LdapAuthorizer(spec -> user -> Collections.singleton(Groups.READ.name), broker2Cache);
+        broker1.configure(config);
+        broker2.configure(config);
+        LdapAuthenticateCallbackHandler broker1Logins = new LdapAuthenticateCallbackHandler(spec -> directory);
+        LdapAuthenticateCallbackHandler broker2Logins = new LdapAuthenticateCallbackHandler(spec -> directory);
+        broker1Logins.configure(config, "PLAIN", List.of());
+        broker2Logins.configure(config, "PLAIN", List.of());
+        try {
+            assertTrue(login(broker1Logins, "kafka_peer", "secret"));
+            AuthorizableRequestContext ctx = Mockito.mock(AuthorizableRequestContext.class);
+            when(ctx.principal()).thenReturn(new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "kafka_peer"));
+            Action readTopic = new Action(AclOperation.READ,
+                    new ResourcePattern(ResourceType.TOPIC, "topic", PatternType.LITERAL), 1, true, true);
+            assertEquals(List.of(AuthorizationResult.ALLOWED), broker1.authorize(ctx, List.of(readTopic)));
+            assertTrue(broker2Cache.isValid("kafka_peer"));
+            assertFalse(login(broker2Logins, "kafka_peer", "wrong"));
+            assertTrue(login(broker2Logins, "kafka_peer", "secret"));
+        } finally {
+            broker1.close();
+            broker2.close();
+            broker1Logins.close();
+            broker2Logins.close();
+            LoginCache.INSTANCE.invalidate("kafka_peer");
+        }
+    }
+
+    private static boolean login(LdapAuthenticateCallbackHandler handler, String username, String password) throws Exception {
+        PlainAuthenticateCallback passwordCallback = new PlainAuthenticateCallback(password.toCharArray());
+        handler.handle(new Callback[]{new NameCallback("prompt", username), passwordCallback});
+        return passwordCallback.authenticated();
+    }
+
+    private Cache sharedCache(String group) {
+        Cache cache = Cache.inMemory();
+        cache.attach(channel(group));
+        return cache;
+    }
+
+    private CacheChannel channel(String group) {
+        CacheChannel channel = new LoopbackCacheChannel();
+        channel.configure(Map.of(LdapProperty.CACHE_CHANNEL_GROUP.config, group));
+        channels.add(channel);
+        return channel;
+    }
+}
@@ -0,0 +1,90 @@
+package com.jjrepos.kafka.security.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.mockito.AdditionalAnswers;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(JUnitPlatform.class)
+public class NearCacheTest {
+    private static final Duration VALIDITY = Duration.ofSeconds(60);
+
+    private final SimulatedClock clock = new SimulatedClock();
+    private final Cache shared = Mockito.mock(Cache.class, AdditionalAnswers.delegatesTo(new InMemoryCache(clock, false)));
+    private final NearCache nearCache = new NearCache(shared, 16, clock::millis);
+
+    @Test
+    public void repeated_lookups_should_be_served_by_the_thread_without_the_shared_cache() {
+        shared.put("alice", "KAFKA-READ_GRP", VALIDITY);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("KAFKA-READ_GRP", nearCache.getIfValid("alice"));
+        }
+        verify(shared, times(1)).getEntryIfValid("alice");
+    }
+
+    @Test
+    public void invalidation_should_reach_every_thread_on_its_next_lookup() throws ExecutionException, InterruptedException {
+        shared.put("alice", "KAFKA-READ_GRP", VALIDITY);
+        ExecutorService handler = Executors.newSingleThreadExecutor();
+        try {
+            assertEquals("KAFKA-READ_GRP", CompletableFuture.supplyAsync(() -> nearCache.getIfValid("alice"), handler).get());
+            shared.invalidate("alice");
+            assertNull(CompletableFuture.supplyAsync(() -> nearCache.getIfValid("alice"), handler).get());
+        } finally {
+            handler.shutdown();
+        }
+    }
+
+    @Test
+    public void changed_values_should_replace_near_cached_ones_and_refreshes_should_not_disturb_them() {
+        shared.put("alice", "KAFKA-READ_GRP", VALIDITY);
+        shared.put("bob", "KAFKA-READ_GRP", VALIDITY);
+        nearCache.getIfValid("alice");
+        nearCache.getIfValid("bob");
+
+        long generation = shared.generation();
+        shared.put("bob", "KAFKA-READ_GRP", VALIDITY);
+        assertEquals(generation, shared.generation(), "an unchanged refresh keeps every near cached entry valid");
+        shared.put("alice", "KAFKA-ADMIN_GRP", VALIDITY);
+        assertEquals("KAFKA-ADMIN_GRP", nearCache.getIfValid("alice"));
+    }
+
+    @Test
+    public void near_cached_entries_should_expire_with_the_shared_entry() {
+        shared.put("alice", "KAFKA-READ_GRP", VALIDITY);
+        assertNotNull(nearCache.getIfValid("alice"));
+        clock.advance(VALIDITY);
+        assertNull(nearCache.getIfValid("alice"));
+    }
+
+    @Test
+    public void colliding_keys_should_evict_each_other_without_mixing_values() {
+        var single = new NearCache(shared, 1, clock::millis);
+        shared.put("alice", "KAFKA-READ_GRP", VALIDITY);
+        shared.put("bob", "KAFKA-WRITE_GRP", VALIDITY);
+        assertEquals("KAFKA-READ_GRP", single.getIfValid("alice"));
+        assertEquals("KAFKA-WRITE_GRP", single.getIfValid("bob"));
+        assertEquals("KAFKA-READ_GRP", single.getIfValid("alice"));
+        assertNull(single.getIfValid("carol"));
+    }
+
+    @Test
+    public void disabled_near_cache_should_always_ask_the_shared_cache() {
+        var disabled = new NearCache(shared, 0, clock::millis);
+        shared.put("alice", "KAFKA-READ_GRP", VALIDITY);
+        disabled.getIfValid("alice");
+        disabled.getIfValid("alice");
+        verify(shared, times(2)).getEntryIfValid("alice");
+    }
+}
@@ -0,0 +1,129 @@
+package com.jjrepos.kafka.security.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@RunWith(JUnitPlatform.class)
+public class TimingWheelTest {
+    private static final long TICK = 1000;
+    private static final long START = 1_640_995_200_000L;
+
+    @Test
+    public void advance_should_expire_every_node_at_its_deadline_across_all_levels() {
+        var wheel = new TimingWheel(TICK, START);
+        var random = new Random(42);
+        List<TestNode> nodes = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            // up to ~ 3 levels above the first, plus a few beyond the wheel's range
+            long delay = i % 100 == 0 ? TICK * (1L << 25) : (long) (random.nextDouble() * TICK * (1L << 18));
+            var node = new TestNode(START + delay);
+            nodes.add(node);
+            wheel.schedule(node);
+        }
+        assertEquals(nodes.size(), wheel.size());
+
+        long now = START;
+        int expired = 0;
+        while (expired < nodes.size()) {
+            now += TICK * 37;
+            for (TimingWheel.Node node : wheel.advance(now)) {
+                var testNode = (TestNode) node;
+                assertTrue(testNode.deadline <= now, "expired early");
+                assertTrue(testNode.deadline > now - TICK * 38, "expired late");
+                assertFalse(node.scheduled());
+                testNode.expired++;
+                expired++;
+            }
+        }
+        assertEquals(0, wheel.size());
+        nodes.forEach(node -> assertEquals(1, node.expired));
+    }
+
+    @Test
+    public void cancelled_nodes_should_never_expire() {
+        var wheel = new TimingWheel(TICK, START);
+        var kept = new TestNode(START + 5 * TICK);
+        var cancelled = new TestNode(START + 5 * TICK);
+        wheel.schedule(kept);
+        wheel.schedule(cancelled);
+        wheel.cancel(cancelled);
+        wheel.cancel(cancelled);
+
+        assertEquals(List.of(kept), wheel.advance(START + 10 * TICK));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void rescheduling_should_move_the_node_to_its_new_deadline() {
+        var wheel = new TimingWheel(TICK, START);
+        var node = new TestNode(START + 2 * TICK);
+        wheel.schedule(node);
+        node.deadline = START + 500 * TICK;
+        wheel.schedule(node);
+
+        assertEquals(1, wheel.size());
+        assertTrue(wheel.advance(START + 499 * TICK).isEmpty());
+        assertEquals(List.of(node), wheel.advance(START + 500 * TICK));
+    }
+
+    @Test
+    public void cache_should_reclaim_expired_entries_after_their_retention_and_notify_listeners() {
+        var clock = new SimulatedClock();
+        var cache = new InMemoryCache(clock, false);
+        List<String> reclaimed = new ArrayList<>();
+        cache.addExpiryListener((key, value) -> reclaimed.add(key + "=" + value));
+        for (int i = 0; i < 1000; i++) {
+            cache.put("user" + i, "KAFKA-READ_GRP", Duration.ofSeconds(60));
+        }
+
+        clock.advance(Duration.ofSeconds(61));
+        assertEquals(0, cache.reclaimExpired());
+        assertTrue(cache.getIfValid("user1").isEmpty());
+        assertFalse(cache.isValid("user1"));
+        assertNotNull(cache.get("user1"), "expired entries are kept for a refresh to compare against");
+
+        cache.put("user1", "KAFKA-READ_GRP", Duration.ofSeconds(60));
+        clock.advance(Duration.ofSeconds(60));
+        assertEquals(999, cache.reclaimExpired());
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.scheduled());
+        assertEquals(999, reclaimed.size());
+        assertTrue(reclaimed.contains("user2=KAFKA-READ_GRP"));
+        assertFalse(reclaimed.contains("user1=KAFKA-READ_GRP"));
+    }
+
+    @Test
+    public void invalidated_entries_should_leave_the_wheel() {
+        var clock = new SimulatedClock();
+        var cache = new InMemoryCache(clock, false);
+        cache.addExpiryListener((key, value) -> fail("invalidated entries are not reported as expired"));
+        cache.put("user", "KAFKA-READ_GRP", Duration.ofSeconds(60));
+        cache.invalidate("user");
+
+        assertEquals(0, cache.scheduled());
+        clock.advance(Duration.ofMinutes(5));
+        assertEquals(0, cache.reclaimExpired());
+    }
+
+    private static final class TestNode extends TimingWheel.Node {
+        long deadline;
+        int expired;
+
+        TestNode(long deadline) {
+            this.deadline = deadline;
+        }
+
+        @Override
+        long deadlineMillis() {
+            return deadline;
+        }
+    }
+}
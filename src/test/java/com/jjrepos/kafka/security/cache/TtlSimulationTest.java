@@ -0,0 +1,106 @@
+package com.jjrepos.kafka.security.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Simulates principals that all connect at broker start and then issue one request per second,
+ * counting the LDAP lookups each simulated second caused by cache misses.
+ */
+@RunWith(JUnitPlatform.class)
+public class TtlSimulationTest {
+    private static final Logger LOG = LoggerFactory.getLogger(TtlSimulationTest.class);
+
+    private static final int PRINCIPALS = 1000;
+    private static final Duration VALIDITY = Duration.ofSeconds(60);
+    private static final int SECONDS = 30 * 60;
+    private static final int LAST_TEN_MINUTES = SECONDS - 10 * 60;
+
+    @Test
+    public void fixed_validity_should_expire_all_principals_in_the_same_second() {
+        long[] lookups = simulate(TtlPolicy.FIXED);
+        assertEquals(PRINCIPALS, peak(lookups, LAST_TEN_MINUTES, SECONDS));
+    }
+
+    @Test
+    public void jitter_should_flatten_ldap_request_rate_over_time() {
+        long[] lookups = simulate(new TtlPolicy(20, false, 1, new Random(42)));
+        long firstWave = peak(lookups, 1, 120);
+        long lastTenMinutes = peak(lookups, LAST_TEN_MINUTES, SECONDS);
+        LOG.info("Peak LDAP lookups per second, first waves: {}, last ten minutes: {}", firstWave, lastTenMinutes);
+        assertTrue(lastTenMinutes < firstWave, "peak should keep dropping as expiries drift apart");
+        assertTrue(lastTenMinutes < PRINCIPALS / 10, "peak " + lastTenMinutes + " should be a small fraction of all principals");
+    }
+
+    @Test
+    public void adaptive_validity_should_reduce_lookups_for_unchanged_groups() {
+        long jittered = Arrays.stream(simulate(new TtlPolicy(20, false, 1, new Random(42)))).sum();
+        long adaptive = Arrays.stream(simulate(new TtlPolicy(20, true, 4, new Random(42)))).sum();
+        LOG.info("Total LDAP lookups, jitter only: {}, adaptive: {}", jittered, adaptive);
+        assertTrue(adaptive * 2 < jittered);
+    }
+
+    @Test
+    public void adaptive_validity_should_shorten_for_changing_groups_and_stretch_for_stable_ones() {
+        var cache = new InMemoryCache(new SimulatedClock(), false);
+        cache.ttlPolicy(new TtlPolicy(0, true, 4));
+        cache.put("volatile", "a", VALIDITY);
+        cache.put("volatile", "b", VALIDITY);
+        assertEquals(VALIDITY.dividedBy(2), validity(cache, "volatile"));
+        cache.put("volatile", "c", VALIDITY);
+        cache.put("volatile", "d", VALIDITY);
+        assertEquals(VALIDITY.dividedBy(4), validity(cache, "volatile"));
+
+        for (int refresh = 0; refresh < TtlPolicy.STABLE_REFRESHES + 5; refresh++) {
+            cache.put("stable", "a", VALIDITY);
+        }
+        assertEquals(VALIDITY.multipliedBy(4), validity(cache, "stable"));
+        cache.put("stable", "b", VALIDITY);
+        assertEquals(VALIDITY.dividedBy(2), validity(cache, "stable"));
+    }
+
+    @Test
+    public void jitter_should_never_exceed_configured_validity() {
+        var policy = new TtlPolicy(50, false, 1, new Random(7));
+        for (int i = 0; i < 1000; i++) {
+            Duration validity = policy.validity(VALIDITY, 0);
+            assertTrue(validity.compareTo(VALIDITY) <= 0);
+            assertTrue(validity.compareTo(VALIDITY.dividedBy(2)) >= 0);
+        }
+    }
+
+    private static long[] simulate(TtlPolicy policy) {
+        var clock = new SimulatedClock();
+        var cache = new InMemoryCache(clock, false);
+        cache.ttlPolicy(policy);
+        long[] lookups = new long[SECONDS];
+        for (int second = 0; second < SECONDS; second++) {
+            for (int principal = 0; principal < PRINCIPALS; principal++) {
+                String user = "user" + principal;
+                if (cache.getIfValid(user).isEmpty()) {
+                    lookups[second]++;
+                    cache.put(user, "KAFKA-READ_GRP", VALIDITY);
+                }
+            }
+            clock.advance(Duration.ofSeconds(1));
+        }
+        return lookups;
+    }
+
+    private static long peak(long[] lookups, int from, int to) {
+        return Arrays.stream(lookups, from, to).max().orElse(0);
+    }
+
+    private static Duration validity(InMemoryCache cache, String key) {
+        return cache.entry(key).validity();
+    }
+}
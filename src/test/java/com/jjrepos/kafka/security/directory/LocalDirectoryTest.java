@@ -0,0 +1,75 @@
+package com.jjrepos.kafka.security.directory;
+
+import com.jjrepos.kafka.security.ldap.LdapConfig;
+import com.jjrepos.kafka.security.ldap.LdapProperty;
+import com.jjrepos.kafka.security.utils.PasswordHashes;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnitPlatform.class)
+public class LocalDirectoryTest {
+
+    private final Directory ldap = Mockito.mock(Directory.class);
+
+    @Test
+    public void local_principals_should_never_reach_the_directory() {
+        var directory = new LocalDirectory(LocalPrincipals.of(configs()), ldap);
+        assertTrue(directory.authenticate("kafka_broker", "broker-secret"));
+        assertTrue(directory.authenticate("Kafka_Broker", "broker-secret"));
+        assertFalse(directory.authenticate("kafka_broker", "wrong"));
+        assertEquals(Set.of("KAFKA-ADMIN_GRP"), directory.groupsForUser("kafka_broker"));
+        assertEquals(Set.of("KAFKA-ADMIN_GRP"), directory.membershipForUser("kafka_broker").groups());
+        assertNull(directory.entryVersion("kafka_broker"));
+        verifyNoInteractions(ldap);
+    }
+
+    @Test
+    public void other_principals_should_go_to_the_directory() {
+        when(ldap.authenticate("kafka_user", "secret?")).thenReturn(true);
+        when(ldap.groupsForUser("kafka_user")).thenReturn(Set.of("KAFKA-READ_GRP"));
+        var directory = new LocalDirectory(LocalPrincipals.of(configs()), ldap);
+        assertTrue(directory.authenticate("kafka_user", "secret?"));
+        assertEquals(Set.of("KAFKA-READ_GRP"), directory.groupsForUser("kafka_user"));
+        directory.close();
+        verify(ldap).close();
+    }
+
+    @Test
+    public void should_reject_clear_text_or_missing_passwords() {
+        var configs = configs();
+        configs.put("ldap.local.principal.kafka_broker.password", "broker-secret");
+        var e = assertThrows(IllegalArgumentException.class, () -> LocalPrincipals.of(configs));
+        assertTrue(e.getMessage().contains("ldap.local.principal.kafka_broker.password"));
+        configs.remove("ldap.local.principal.kafka_broker.password");
+        assertThrows(IllegalArgumentException.class, () -> LocalPrincipals.of(configs));
+    }
+
+    @Test
+    public void factory_should_answer_local_principals_locally() {
+        var configs = configs();
+        var config = LdapConfig.builder("ldap://localhost", "dc=bah,dc=com", "OU=Service Accounts").options(configs).build();
+        assertEquals(1, config.localPrincipals().size());
+        Directory directory = Directories.create(config);
+        assertTrue(directory instanceof LocalDirectory);
+        assertTrue(directory.authenticate("kafka_broker", "broker-secret"));
+        directory.close();
+        assertTrue(LocalPrincipals.of(Map.of()).isEmpty());
+    }
+
+    private static Map<String, Object> configs() {
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(LdapProperty.LOCAL_PRINCIPALS.config, "kafka_broker");
+        configs.put("ldap.local.principal.kafka_broker.password", PasswordHashes.hash("SSHA256", "broker-secret"));
+        configs.put("ldap.local.principal.kafka_broker.groups", "Kafka-admin_grp");
+        return configs;
+    }
+}
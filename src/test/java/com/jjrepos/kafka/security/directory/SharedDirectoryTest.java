@@ -0,0 +1,71 @@
+package com.jjrepos.kafka.security.directory;
+
+import com.jjrepos.kafka.security.ldap.LdapConfig;
+import com.jjrepos.kafka.security.ldap.LdapProperty;
+import com.jjrepos.kafka.security.ldap.authenticator.LdapAuthenticateCallbackHandler;
+import com.jjrepos.kafka.security.ldap.authorizer.LdapAuthorizer;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@RunWith(JUnitPlatform.class)
+public class SharedDirectoryTest {
+
+    @Test
+    public void equal_configs_should_share_one_directory_until_every_lease_is_closed() {
+        int before = Directories.sharedCount();
+        var first = Directories.shared(new LdapConfig("ldap://localhost:389", "dc=bah,dc=com", "OU=Service Accounts", "kafka_admin", "secret"));
+        var second = Directories.shared(new LdapConfig("LDAP://LocalHost:389 ", "DC=bah,DC=com", "ou=service accounts", "Kafka_Admin", "secret"));
+        assertNotSame(first, second);
+        assertEquals(before + 1, Directories.sharedCount());
+
+        first.close();
+        first.close();
+        assertEquals(before + 1, Directories.sharedCount(), "closing one lease twice must not release the other");
+        second.close();
+        assertEquals(before, Directories.sharedCount());
+    }
+
+    @Test
+    public void different_configs_should_not_share() {
+        int before = Directories.sharedCount();
+        var admin = Directories.shared(new LdapConfig("ldap://localhost:389", "dc=bah,dc=com", "OU=Service Accounts", "kafka_admin", "secret"));
+        var other = Directories.shared(new LdapConfig("ldap://localhost:389", "dc=bah,dc=com", "OU=Service Accounts", "kafka_other", "secret"));
+        assertEquals(before + 2, Directories.sharedCount());
+        admin.close();
+        other.close();
+        assertEquals(before, Directories.sharedCount());
+    }
+
+    @Test
+    public void authentication_handlers_and_authorizer_should_share_one_directory() {
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(LdapProperty.URL.config, "ldap://localhost:389");
+        configs.put(LdapProperty.BASE_DN.config, "dc=bah,dc=com");
+        configs.put(LdapProperty.SEARCH_BASE.config, "OU=Service Accounts");
+        configs.put(LdapProperty.USER.config, "kafka_admin");
+        configs.put(LdapProperty.PASSWORD.config, "secret");
+        configs.put(LdapProperty.CACHE_VALIDITY_MILLIS.config, "60000");
+        int before = Directories.sharedCount();
+
+        var plaintext = new LdapAuthenticateCallbackHandler();
+        var ssl = new LdapAuthenticateCallbackHandler();
+        var authorizer = new LdapAuthorizer();
+        plaintext.configure(configs, "PLAIN", List.of());
+        ssl.configure(configs, "PLAIN", List.of());
+        authorizer.configure(configs);
+        assertEquals(before + 1, Directories.sharedCount());
+
+        plaintext.close();
+        authorizer.close();
+        assertEquals(before + 1, Directories.sharedCount());
+        ssl.close();
+        assertEquals(before, Directories.sharedCount());
+    }
+}
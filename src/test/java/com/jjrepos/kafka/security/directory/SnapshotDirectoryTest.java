@@ -0,0 +1,157 @@
+package com.jjrepos.kafka.security.directory;
+
+import com.jjrepos.kafka.security.ldap.LdapConfig;
+import com.jjrepos.kafka.security.ldap.LdapProperty;
+import com.jjrepos.kafka.security.utils.PasswordHashes;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnitPlatform.class)
+public class SnapshotDirectoryTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void should_read_groups_from_the_ldif_used_for_the_embedded_ldap_server() throws URISyntaxException {
+        var snapshot = new SnapshotDirectory(Path.of(getClass().getResource("/ldap/kafka-users.ldif").toURI()), false);
+        assertEquals(Set.of("KAFKA-WRITE_GRP", "KAFKA-READ_GRP", "SERVICE ACCOUNTS"), snapshot.groupsForUser("kafka_user"));
+        assertEquals(Set.of("KAFKA-WRITE_GRP", "KAFKA-READ_GRP", "SERVICE ACCOUNTS"), snapshot.groupsForUser("Kafka_User"));
+        assertTrue(snapshot.groupsForUser("kafka_no_user").isEmpty());
+        assertFalse(snapshot.authenticate("kafka_user", "secret?"), "clear text passwords are never accepted");
+    }
+
+    @Test
+    public void should_read_ldif_users_groups_and_salted_passwords() throws IOException {
+        Path file = write("users.ldif",
+                "version: 1\n" +
+                "# a user\n" +
+                "dn: cn=alice,ou=Service Accounts,dc=bah,dc=com\n" +
+                "cn: alice\n" +
+                "userPassword: " + PasswordHashes.hash("SSHA256", "wonderland") + "\n" +
+                "memberOf: cn=Kafka-read_grp,OU=AdminGroups,\n" +
+                " dc=bah,dc=com\n" +
+                "\n" +
+                "dn: cn=bob,ou=Service Accounts,dc=bah,dc=com\n" +
+                "cn: bob\n" +
+                "userPassword:: " + java.util.Base64.getEncoder().encodeToString(PasswordHashes.hash("SSHA512", "builder").getBytes()) + "\n" +
+                "\n" +
+                "dn: cn=Kafka-write_grp,ou=AdminGroups,dc=bah,dc=com\n" +
+                "objectClass: groupOfNames\n" +
+                "cn: Kafka-write_grp\n" +
+                "member: cn=alice,ou=Service Accounts,dc=bah,dc=com\n" +
+                "member: cn=bob,ou=Service Accounts,dc=bah,dc=com\n");
+        var snapshot = new SnapshotDirectory(file, false);
+
+        assertEquals(Set.of("KAFKA-READ_GRP", "KAFKA-WRITE_GRP"), snapshot.groupsForUser("alice"));
+        assertEquals(Set.of("KAFKA-WRITE_GRP"), snapshot.groupsForUser("bob"));
+        assertTrue(snapshot.authenticate("alice", "wonderland"));
+        assertFalse(snapshot.authenticate("alice", "builder"));
+        assertTrue(snapshot.authenticate("BOB", "builder"));
+        assertFalse(snapshot.authenticate("carol", "anything"));
+    }
+
+    @Test
+    public void should_read_json_and_share_identical_group_sets() throws IOException {
+        Path file = write("users.json", "{\"users\": {\n" +
+                "  \"alice\": {\"password\": \"" + PasswordHashes.hash("SSHA", "wonderland") + "\", \"groups\": [\"Kafka-read_grp\"]},\n" +
+                "  \"bob\": {\"groups\": [\"cn=Kafka-read_grp,ou=AdminGroups,dc=bah,dc=com\"]},\n" +
+                "  \"carol\\u0021\": {\"groups\": [\"KAFKA-WRITE_GRP\", \"KAFKA-READ_GRP\"], \"uid\": 42, \"active\": true, \"note\": null}\n" +
+                "}}");
+        var snapshot = new SnapshotDirectory(file, false);
+
+        assertTrue(snapshot.authenticate("alice", "wonderland"));
+        assertEquals(Set.of("KAFKA-READ_GRP"), snapshot.groupsForUser("bob"));
+        assertSame(snapshot.groupsForUser("alice"), snapshot.groupsForUser("bob"));
+        assertEquals(Set.of("KAFKA-READ_GRP", "KAFKA-WRITE_GRP"), snapshot.groupsForUser("carol!"));
+        assertTrue(snapshot.hasCredentials("alice"));
+        assertFalse(snapshot.hasCredentials("bob"));
+    }
+
+    @Test
+    public void should_reject_malformed_json() {
+        assertThrows(IllegalArgumentException.class, () -> SnapshotReader.json("{\"users\": {\"alice\": }"));
+        assertThrows(IllegalArgumentException.class, () -> SnapshotReader.json("{\"users\": []}"));
+        assertThrows(IllegalArgumentException.class, () -> SnapshotReader.json("{\"users\": {}} trailing"));
+    }
+
+    @Test
+    public void should_keep_previous_snapshot_when_reload_fails() throws IOException {
+        Path file = write("users.json", "{\"users\": {\"alice\": {\"groups\": [\"KAFKA-READ_GRP\"]}}}");
+        var snapshot = new SnapshotDirectory(file, false);
+        Files.writeString(file, "{\"users\": {\"alice\": ");
+
+        assertFalse(snapshot.reload());
+        assertEquals(Set.of("KAFKA-READ_GRP"), snapshot.groupsForUser("alice"));
+    }
+
+    @Test
+    public void should_reload_when_the_file_is_replaced() throws IOException, InterruptedException {
+        Path file = write("users.json", "{\"users\": {\"alice\": {\"groups\": [\"KAFKA-READ_GRP\"]}}}");
+        try (var snapshot = new SnapshotDirectory(file)) {
+            Path next = write("users.json.tmp", "{\"users\": {\"alice\": {\"groups\": [\"KAFKA-ADMIN_GRP\"]}}}");
+            Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!snapshot.groupsForUser("alice").contains("KAFKA-ADMIN_GRP") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(Set.of("KAFKA-ADMIN_GRP"), snapshot.groupsForUser("alice"));
+        }
+    }
+
+    @Test
+    public void tiered_directory_should_answer_known_users_from_the_snapshot_and_others_from_the_fallback() throws IOException {
+        Path file = write("users.json", "{\"users\": {\n" +
+                "  \"alice\": {\"password\": \"" + PasswordHashes.hash("SSHA256", "wonderland") + "\", \"groups\": [\"KAFKA-READ_GRP\"]},\n" +
+                "  \"bob\": {\"groups\": [\"KAFKA-WRITE_GRP\"]}\n" +
+                "}}");
+        Directory ldap = Mockito.mock(Directory.class);
+        when(ldap.groupsForUser("carol")).thenReturn(Set.of("KAFKA-ADMIN_GRP"));
+        when(ldap.authenticate("bob", "builder")).thenReturn(true);
+        var tiered = new TieredDirectory(new SnapshotDirectory(file, false), ldap);
+
+        assertEquals(Set.of("KAFKA-READ_GRP"), tiered.groupsForUser("alice"));
+        assertEquals(Set.of("KAFKA-ADMIN_GRP"), tiered.groupsForUser("carol"));
+        assertTrue(tiered.authenticate("alice", "wonderland"));
+        assertTrue(tiered.authenticate("bob", "builder"), "users without a hash authenticate against the fallback");
+        verify(ldap, never()).groupsForUser("alice");
+        verify(ldap, never()).authenticate(eq("alice"), anyString());
+        tiered.close();
+        verify(ldap).close();
+    }
+
+    @Test
+    public void directories_should_create_the_configured_mode() throws IOException {
+        Path file = write("users.json", "{\"users\": {}}");
+        var config = LdapConfig.builder("", "", "")
+                .options(Map.of(LdapProperty.DIRECTORY_MODE.config, "snapshot",
+                        LdapProperty.DIRECTORY_SNAPSHOT_PATH.config, file.toString()))
+                .build();
+        try (var created = Directories.create(config)) {
+            assertTrue(created instanceof SnapshotDirectory);
+        }
+        assertThrows(IllegalArgumentException.class, () -> LdapConfig.builder("", "", "")
+                .options(Map.of(LdapProperty.DIRECTORY_MODE.config, "tiered")));
+        assertThrows(IllegalArgumentException.class, () -> LdapConfig.builder("", "", "")
+                .options(Map.of(LdapProperty.DIRECTORY_MODE.config, "files")));
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.writeString(directory.resolve(name), content);
+    }
+}
@@ -0,0 +1,130 @@
+package com.jjrepos.kafka.security.jfr;
+
+import com.jjrepos.kafka.security.cache.Cache;
+import com.jjrepos.kafka.security.ldap.LdapConfig;
+import com.jjrepos.kafka.security.ldap.LdapConnector;
+import com.jjrepos.kafka.security.ldap.LdapException;
+import com.jjrepos.kafka.security.ldap.LdapProperty;
+import com.jjrepos.kafka.security.ldap.authorizer.LdapAuthorizer;
+import com.jjrepos.kafka.security.ldap.concurrency.AdaptiveConcurrencyLimiter;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.kafka.common.acl.AclOperation;
+import org.apache.kafka.common.resource.PatternType;
+import org.apache.kafka.common.resource.ResourcePattern;
+import org.apache.kafka.common.resource.ResourceType;
+import org.apache.kafka.common.security.auth.KafkaPrincipal;
+import org.apache.kafka.server.authorizer.Action;
+import org.apache.kafka.server.authorizer.AuthorizableRequestContext;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.zapodot.junit.ldap.EmbeddedLdapRule;
+import org.zapodot.junit.ldap.EmbeddedLdapRuleBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+public class FlightRecorderEventsTest {
+    private static final String BASE_DN = "dc=bah,dc=com";
+    private static final String SEARCH_BASE = "OU=Service Accounts";
+
+    @ClassRule
+    public static EmbeddedLdapRule LDAP_RULE = EmbeddedLdapRuleBuilder.newInstance()
+            .usingDomainDsn(BASE_DN)
+            .importingLdifs("ldap/kafka-users.ldif")
+            .build();
+
+    @Test
+    public void recording_should_contain_ldap_cache_and_authorization_events() throws Exception {
+        final String url = "ldap://localhost:" + LDAP_RULE.embeddedServerPort();
+        final Cache cache = Cache.inMemory();
+        final LdapConnector connector = new LdapConnector(new LdapConfig(url, BASE_DN, SEARCH_BASE, "kafka_admin", "admin#secret"));
+        final LdapAuthorizer authorizer = new LdapAuthorizer(config -> connector, cache);
+        authorizer.configure(Map.of(
+                LdapProperty.URL.config, url,
+                LdapProperty.BASE_DN.config, BASE_DN,
+                LdapProperty.SEARCH_BASE.config, SEARCH_BASE,
+                LdapProperty.USER.config, "kafka_admin",
+                LdapProperty.PASSWORD.config, "admin#secret",
+                LdapProperty.CACHE_VALIDITY_MILLIS.config, "60000",
+                LdapProperty.AUDIT_ENABLED.config, "false"));
+        final AuthorizableRequestContext ctx = Mockito.mock(AuthorizableRequestContext.class);
+        when(ctx.principal()).thenReturn(new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "kafka_user"));
+        final ResourcePattern topic = new ResourcePattern(ResourceType.TOPIC, "orders", PatternType.LITERAL);
+        final List<Action> actions = List.of(
+                new Action(AclOperation.READ, topic, 1, true, true),
+                new Action(AclOperation.DELETE, topic, 1, true, true));
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, Duration.ofMillis(20));
+
+        final List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            List.of(LdapBindEvent.class, LdapGroupSearchEvent.class, LdapPermitWaitEvent.class, CacheHitEvent.class,
+                    CacheMissEvent.class, CacheEvictEvent.class, AuthorizeEvent.class)
+                    .forEach(type -> recording.enable(type).withoutThreshold());
+            recording.start();
+
+            assertTrue(connector.authenticate("kafka_user", "secret?"));
+            assertFalse(connector.authenticate("kafka_user", "wrong"));
+            authorizer.authorize(ctx, actions);
+            authorizer.authorize(ctx, actions);
+            cache.invalidate("kafka_user");
+            assertThrows(LdapException.class, () -> limiter.execute(() -> limiter.execute(() -> null)));
+
+            recording.stop();
+            final Path file = Files.createTempFile("ldap-authorizer", ".jfr");
+            try {
+                recording.dump(file);
+                events = RecordingFile.readAllEvents(file);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        } finally {
+            authorizer.close();
+        }
+
+        final Map<String, List<RecordedEvent>> byType = events.stream()
+                .filter(event -> event.getEventType().getName().startsWith("com.jjrepos.kafka.security."))
+                .collect(Collectors.groupingBy(event -> event.getEventType().getName().substring("com.jjrepos.kafka.security.".length())));
+
+        final List<RecordedEvent> binds = byType.get("LdapBind");
+        assertEquals(2, binds.size());
+        assertTrue(binds.get(0).getBoolean("authenticated"));
+        assertFalse(binds.get(1).getBoolean("authenticated"));
+        assertEquals("kafka_user", binds.get(0).getString("user"));
+        assertFalse(binds.get(0).getDuration().isNegative());
+
+        final RecordedEvent search = byType.get("LdapGroupSearch").get(0);
+        assertEquals("kafka_user", search.getString("user"));
+        assertEquals(3, search.getInt("groups"));
+
+        assertEquals(1, byType.get("CacheMiss").size());
+        assertFalse(byType.get("CacheMiss").get(0).getBoolean("stale"));
+        assertEquals("kafka_user", byType.get("CacheHit").get(0).getString("key"));
+        // other caches of this JVM may reclaim expired entries meanwhile
+        assertTrue(byType.get("CacheEvict").stream()
+                .anyMatch(event -> CacheEvictEvent.INVALIDATED.equals(event.getString("cause"))));
+
+        final List<RecordedEvent> authorizations = byType.get("Authorize");
+        assertEquals(2, authorizations.size());
+        assertFalse(authorizations.get(0).getBoolean("cached"));
+        assertTrue(authorizations.get(1).getBoolean("cached"));
+        assertEquals(2, authorizations.get(1).getInt("actions"));
+        assertEquals(1, authorizations.get(1).getInt("denied"));
+        assertTrue(authorizations.get(0).getDuration().compareTo(search.getDuration()) >= 0,
+                "a cache miss includes the group search");
+
+        final RecordedEvent wait = byType.get("LdapPermitWait").get(0);
+        assertFalse(wait.getBoolean("acquired"));
+        assertEquals(1, wait.getInt("limit"));
+        assertTrue(wait.getDuration().toMillis() >= 15);
+    }
+}
@@ -1,6 +1,9 @@
 package com.jjrepos.kafka.security.ldap;
 
 import com.jjrepos.kafka.security.ldap.authorizer.Groups;
+import com.jjrepos.kafka.security.ldap.authorizer.Membership;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
 import org.junit.ClassRule;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -8,10 +11,18 @@ import org.slf4j.LoggerFactory;
 import org.zapodot.junit.ldap.EmbeddedLdapRule;
 import org.zapodot.junit.ldap.EmbeddedLdapRuleBuilder;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import static org.junit.jupiter.api.Assertions.assertFalse;
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class LdapConnectorTest {
 
@@ -23,7 +34,7 @@ public class LdapConnectorTest {
     @ClassRule
     public static EmbeddedLdapRule LDAP_RULE = EmbeddedLdapRuleBuilder.newInstance()
             .usingDomainDsn(BASE_DN)
-            .importingLdifs("ldap/kafka-users.ldif")
+            .importingLdifs("ldap/kafka-users.ldif", "ldap/kafka-people.ldif")
             .build();
     private final LdapConfig ldapConnSpec =
             new LdapConfig("ldap://localhost:" + LDAP_RULE.embeddedServerPort(), BASE_DN, "OU=Service Accounts", BIND_USER, PASSWORD);
@@ -84,6 +95,81 @@ public class LdapConnectorTest {
         assertTrue(groups.isEmpty());
     }
 
+    @Test
+    public void should_return_the_same_groups_when_searching() {
+        final LdapConnector searching = new LdapConnector(LdapConfig.builder("ldap://localhost:" + LDAP_RULE.embeddedServerPort(), BASE_DN, "OU=Service Accounts")
+                .bindUser(BIND_USER, PASSWORD)
+                .groupLookup(GroupLookup.SEARCH)
+                .build());
+        for (String user : List.of("kafka_user", "kafka_super_user", "kafka_broker", "unknown_user")) {
+            assertEquals(ldapConnector.groupsForUser(user), searching.groupsForUser(user), user);
+        }
+    }
+
+    @Test
+    public void should_not_let_user_names_widen_the_search_filter() {
+        final LdapConnector searching = new LdapConnector(LdapConfig.builder("ldap://localhost:" + LDAP_RULE.embeddedServerPort(), BASE_DN, "OU=Service Accounts")
+                .bindUser(BIND_USER, PASSWORD)
+                .groupLookup(GroupLookup.SEARCH)
+                .build());
+        assertTrue(searching.groupsForUser("*").isEmpty());
+        assertTrue(searching.groupsForUser("kafka_*").isEmpty());
+        assertTrue(searching.groupsForUser("x)(cn=*").isEmpty());
+        assertTrue(ldapConnector.groupsForUser("*").isEmpty());
+    }
+
+    @Test
+    public void should_find_users_in_any_search_base() {
+        for (GroupLookup lookup : GroupLookup.values()) {
+            final LdapConnector connector = new LdapConnector(LdapConfig.builder("ldap://localhost:" + LDAP_RULE.embeddedServerPort(), BASE_DN,
+                    "OU=Service Accounts; OU=People")
+                    .bindUser(BIND_USER, PASSWORD)
+                    .groupLookup(lookup)
+                    .build());
+            try {
+                assertEquals(Set.of(Groups.READ.name), connector.groupsForUser("jane_doe"), lookup.name());
+                assertTrue(connector.groupsForUser("kafka_user").contains(Groups.WRITE.name), lookup.name());
+                assertTrue(connector.groupsForUser("unknown_user").isEmpty(), lookup.name());
+                assertTrue(connector.authenticate("jane_doe", "jane#secret"), lookup.name());
+                assertTrue(connector.authenticate("kafka_user", "secret?"), lookup.name());
+                assertFalse(connector.authenticate("jane_doe", "secret?"), lookup.name());
+                assertFalse(connector.authenticate("unknown_user", "secret?"), lookup.name());
+                assertNotNull(connector.entryVersion("jane_doe"), lookup.name());
+                final List<Membership> read = new ArrayList<>();
+                assertTrue(connector.authenticate("jane_doe", "jane#secret", read::add), lookup.name());
+                assertEquals(Set.of(Groups.READ.name), read.get(0).groups(), lookup.name());
+            } finally {
+                connector.close();
+            }
+        }
+    }
+
+    @Test
+    public void should_read_the_same_memberships_in_batches() {
+        final List<String> users = List.of("kafka_user", "kafka_super_user", "kafka_broker", "jane_doe", "unknown_user", "*");
+        for (GroupLookup lookup : GroupLookup.values()) {
+            final LdapConnector connector = new LdapConnector(LdapConfig.builder("ldap://localhost:" + LDAP_RULE.embeddedServerPort(), BASE_DN,
+                    "OU=Service Accounts; OU=People")
+                    .bindUser(BIND_USER, PASSWORD)
+                    .groupLookup(lookup)
+                    .groupBatchSize(2)
+                    .build());
+            try {
+                final Map<String, Membership> batched = new HashMap<>();
+                connector.membershipsForUsers(users, batched::put);
+                assertEquals(users.size(), batched.size(), lookup.name());
+                for (String user : users) {
+                    final Membership single = connector.membershipForUser(user);
+                    assertEquals(single.groups(), batched.get(user).groups(), lookup + " " + user);
+                    assertEquals(single.version(), batched.get(user).version(), lookup + " " + user);
+                }
+                assertEquals(Set.of(Groups.READ.name), batched.get("jane_doe").groups(), lookup.name());
+            } finally {
+                connector.close();
+            }
+        }
+    }
+
     @Test
     public void should_return_no_groups_for_invalid_bind_user() {
         final LdapConfig ldapConnSpec =
@@ -93,4 +179,59 @@ public class LdapConnectorTest {
         Set<String> groups = ldapConnector.groupsForUser("unknown_user");
         assertTrue(groups.isEmpty());
     }
+
+    @Test
+    public void should_authenticate_and_search_when_hedging_across_replicas() throws Exception {
+        final String url = "ldap://localhost:" + LDAP_RULE.embeddedServerPort();
+        final LdapConfig hedged = LdapConfig.builder(url, BASE_DN, "OU=Service Accounts")
+                .bindUser(BIND_USER, PASSWORD)
+                .replicas(List.of("ldap://127.0.0.1:" + LDAP_RULE.embeddedServerPort()))
+                .hedging(true, 50, 100, Duration.ofMillis(1))
+                .build();
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName hedging = new ObjectName("com.jjrepos.kafka.security:type=Hedging,*");
+        final Set<ObjectName> before = server.queryNames(hedging, null);
+        final LdapConnector connector = new LdapConnector(hedged);
+        try {
+            final Set<ObjectName> registered = new HashSet<>(server.queryNames(hedging, null));
+            registered.removeAll(before);
+            assertEquals(1, registered.size());
+            final ObjectName metrics = registered.iterator().next();
+            for (int i = 0; i < 100; i++) {
+                assertTrue(connector.authenticate("kafka_user", "secret?"));
+                assertFalse(connector.authenticate("kafka_user", "notasecret?"));
+            }
+            assertEquals(0L, server.getAttribute(metrics, "Requests"), "binds should never be hedged");
+            for (int i = 0; i < 100; i++) {
+                assertTrue(connector.groupsForUser("kafka_user").contains(Groups.READ.name));
+            }
+            assertEquals(100L, server.getAttribute(metrics, "Requests"));
+        } finally {
+            connector.close();
+        }
+    }
+
+    @Test
+    public void entry_version_should_match_version_read_with_groups_until_entry_changes() throws Exception {
+        Membership membership = ldapConnector.membershipForUser("kafka_user");
+        assertTrue(membership.groups().contains(Groups.READ.name));
+        assertNotNull(membership.version());
+        assertEquals(membership.version(), ldapConnector.entryVersion("kafka_user"));
+
+        Thread.sleep(10);
+        LDAP_RULE.ldapConnection().modify("CN=kafka_user,OU=Service Accounts," + BASE_DN,
+                new Modification(ModificationType.REPLACE, "description", "changed"));
+        assertNotEquals(membership.version(), ldapConnector.entryVersion("kafka_user"));
+        assertNull(ldapConnector.entryVersion("unknown_user"));
+    }
+
+    @Test
+    public void authenticate_should_read_own_groups_on_the_bind_connection() {
+        List<Membership> read = new ArrayList<>();
+        assertTrue(ldapConnector.authenticate("kafka_super_user", "super!secret", read::add));
+        assertEquals(1, read.size());
+        assertTrue(read.get(0).groups().contains(Groups.SUPER_USER.name));
+        assertFalse(ldapConnector.authenticate("kafka_super_user", "wrong", read::add));
+        assertEquals(1, read.size());
+    }
 }
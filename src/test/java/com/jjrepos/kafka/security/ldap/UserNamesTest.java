@@ -0,0 +1,59 @@
+package com.jjrepos.kafka.security.ldap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@RunWith(JUnitPlatform.class)
+public class UserNamesTest {
+
+    private static UserNames names(String searchBase, int cacheSize) {
+        return new UserNames(LdapConfig.builder("ldap://localhost", "dc=bah,dc=com", searchBase).searchBaseCacheSize(cacheSize).build());
+    }
+
+    @Test
+    public void should_build_names_from_the_templates() {
+        final UserNames names = names("OU=Service Accounts;OU=People", 16);
+        assertEquals(2, names.bases());
+        assertEquals("CN=kafka_user,OU=Service Accounts,dc=bah,dc=com", names.dn("kafka_user", 0));
+        assertEquals("CN=jane\\,doe,OU=People,dc=bah,dc=com", names.dn("jane,doe", 1));
+        assertEquals("CN=kafka_user,OU=People", names.entry("kafka_user", 1));
+        assertEquals("(CN=\\2a)", UserNames.filter("*"));
+    }
+
+    @Test
+    public void should_know_the_only_search_base() {
+        final UserNames names = names("OU=Service Accounts", 16);
+        assertEquals(0, names.learnedBase("anyone"));
+        names.forget("anyone");
+        assertEquals(0, names.learnedBase("anyone"));
+    }
+
+    @Test
+    public void should_learn_and_forget_search_bases() {
+        final UserNames names = names("OU=Service Accounts;OU=People", 16);
+        assertEquals(UserNames.UNKNOWN, names.learnedBase("jane_doe"));
+        names.learn("jane_doe", 1);
+        assertEquals(1, names.learnedBase("JANE_DOE"));
+        names.forget("Jane_Doe");
+        assertEquals(UserNames.UNKNOWN, names.learnedBase("jane_doe"));
+    }
+
+    @Test
+    public void should_stay_bounded() {
+        final UserNames names = names("OU=Service Accounts;OU=People", 4);
+        for (int i = 0; i < 100; i++) {
+            names.learn("user_" + i, 1);
+        }
+        int learned = 0;
+        for (int i = 0; i < 100; i++) {
+            if (names.learnedBase("user_" + i) != UserNames.UNKNOWN) learned++;
+        }
+        assertTrue(learned > 0 && learned <= 4, "learned " + learned);
+        final UserNames uncached = names("OU=Service Accounts;OU=People", 0);
+        uncached.learn("jane_doe", 1);
+        assertEquals(UserNames.UNKNOWN, uncached.learnedBase("jane_doe"));
+    }
+}
@@ -1,6 +1,12 @@
 package com.jjrepos.kafka.security.ldap.authenticator;
 
+import com.jjrepos.kafka.security.cache.AuthCache;
+import com.jjrepos.kafka.security.cache.LoginCache;
 import com.jjrepos.kafka.security.ldap.LdapProperty;
+import com.jjrepos.kafka.security.ldap.authorizer.Groups;
+import com.jjrepos.kafka.security.ldap.authorizer.LdapAuthorizer;
+import com.jjrepos.kafka.security.ldap.authorizer.Membership;
+import com.jjrepos.kafka.security.ldap.authorizer.PermissionProfile;
 import org.apache.kafka.common.security.auth.AuthenticateCallbackHandler;
 import org.apache.kafka.common.security.plain.PlainAuthenticateCallback;
 import org.junit.jupiter.api.Test;
@@ -17,8 +23,13 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 
 @RunWith(JUnitPlatform.class)
@@ -78,6 +89,98 @@ public class LdapAuthenticateCallbackHandlerTest {
         destroyAuthenticateCallbackHandler(handler);
     }
 
+    @Test
+    public void should_cache_groups_read_while_authenticating() throws UnsupportedCallbackException {
+        var configs = kafkaConfig();
+        configs.put(LdapProperty.CACHE_VALIDITY_MILLIS.config, "60000");
+        var handler = configureAuthenticateCallbackHandler(configs, "PLAIN");
+        when(authenticator.authenticate(eq("Primed_User"), eq(PASSWORD), any())).thenAnswer(invocation -> {
+            Consumer<Membership> groupsRead = invocation.getArgument(2);
+            groupsRead.accept(new Membership(Set.of(Groups.READ.name), null));
+            return true;
+        });
+        var passwordCallBack = new PlainAuthenticateCallback(PASSWORD.toCharArray());
+        handler.handle(new Callback[]{new NameCallback("prompt", "Primed_User"), passwordCallBack});
+        assertTrue(passwordCallBack.authenticated());
+        Optional<PermissionProfile> primed = AuthCache.INSTANCE.getIfValid("primed_user");
+        assertEquals(Optional.of(PermissionProfile.of(Set.of(Groups.READ.name))), primed);
+        AuthCache.INSTANCE.invalidate("primed_user");
+        destroyAuthenticateCallbackHandler(handler);
+    }
+
+    @Test
+    public void should_not_authenticate_primed_users_without_their_password() throws UnsupportedCallbackException {
+        var configs = kafkaConfig();
+        configs.put(LdapProperty.CACHE_VALIDITY_MILLIS.config, "60000");
+        var handler = configureAuthenticateCallbackHandler(configs, "PLAIN");
+        when(authenticator.authenticate(eq("primed_login"), eq(PASSWORD), any())).thenAnswer(invocation -> {
+            Consumer<Membership> groupsRead = invocation.getArgument(2);
+            groupsRead.accept(new Membership(Set.of(Groups.READ.name), null));
+            return true;
+        });
+        assertTrue(login(handler, "primed_login", PASSWORD));
+        assertTrue(AuthCache.INSTANCE.isValid("primed_login"));
+        assertFalse(login(handler, "primed_login", "wrong"));
+        Mockito.verify(authenticator).authenticate(eq("primed_login"), eq("wrong"), any());
+        AuthCache.INSTANCE.invalidate("primed_login");
+        LoginCache.INSTANCE.invalidate("primed_login");
+        destroyAuthenticateCallbackHandler(handler);
+    }
+
+    @Test
+    public void should_authenticate_a_returning_user_only_with_the_same_password() throws UnsupportedCallbackException {
+        var configs = kafkaConfig();
+        configs.put(LdapProperty.CACHE_VALIDITY_MILLIS.config, "60000");
+        var handler = configureAuthenticateCallbackHandler(configs, "PLAIN");
+        when(authenticator.authenticate(eq("returning_user"), eq(PASSWORD), any())).thenReturn(true);
+        assertTrue(login(handler, "returning_user", PASSWORD));
+        assertTrue(login(handler, "returning_user", PASSWORD));
+        Mockito.verify(authenticator, Mockito.times(1)).authenticate(eq("returning_user"), eq(PASSWORD), any());
+        assertFalse(login(handler, "returning_user", "wrong"));
+        LoginCache.INSTANCE.invalidate("returning_user");
+        destroyAuthenticateCallbackHandler(handler);
+    }
+
+    @Test
+    public void should_remember_logins_of_mixed_case_usernames_case_insensitively() throws UnsupportedCallbackException {
+        var configs = kafkaConfig();
+        configs.put(LdapProperty.CACHE_VALIDITY_MILLIS.config, "60000");
+        var handler = configureAuthenticateCallbackHandler(configs, "PLAIN");
+        when(authenticator.authenticate(eq("Mixed_Case"), eq(PASSWORD), any())).thenReturn(true);
+        assertTrue(login(handler, "Mixed_Case", PASSWORD));
+        assertTrue(login(handler, "Mixed_Case", PASSWORD));
+        assertTrue(login(handler, "mixed_case", PASSWORD));
+        Mockito.verify(authenticator, Mockito.times(1)).authenticate(eq("Mixed_Case"), eq(PASSWORD), any());
+        assertFalse(login(handler, "mixed_case", "wrong"));
+        assertFalse(login(handler, "MIXED_CASE", "wrong"));
+        LoginCache.INSTANCE.invalidate("mixed_case");
+        destroyAuthenticateCallbackHandler(handler);
+    }
+
+    @Test
+    public void should_not_authenticate_warmed_up_principals_without_their_password() throws Exception {
+        var configs = kafkaConfig();
+        configs.put(LdapProperty.CACHE_VALIDITY_MILLIS.config, "60000");
+        configs.put(LdapProperty.CACHE_WARMUP_PRINCIPALS.config, "warm_broker, warm_missing");
+        configs.put(LdapProperty.USER.config, "kafka_test");
+        configs.put(LdapProperty.PASSWORD.config, "password");
+        var authorizer = new LdapAuthorizer(spec -> user -> "warm_broker".equals(user) ? Set.of(Groups.ADMIN.name) : Set.of());
+        authorizer.configure(configs);
+        authorizer.start(null);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (AuthCache.INSTANCE.get("warm_missing") == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(AuthCache.INSTANCE.isValid("warm_broker"));
+        var handler = configureAuthenticateCallbackHandler(configs, "PLAIN");
+        assertFalse(login(handler, "warm_broker", "wrong"));
+        assertFalse(login(handler, "warm_missing", "wrong"));
+        authorizer.close();
+        AuthCache.INSTANCE.invalidate("warm_broker");
+        AuthCache.INSTANCE.invalidate("warm_missing");
+        destroyAuthenticateCallbackHandler(handler);
+    }
+
     @Test
     public void should_fail_to_authenticate_unknown_user() {
         var handler = configureAuthenticateCallbackHandler();
@@ -114,6 +217,12 @@ public class LdapAuthenticateCallbackHandlerTest {
         destroyAuthenticateCallbackHandler(handler);
     }
 
+    private static boolean login(LdapAuthenticateCallbackHandler handler, String username, String password) throws UnsupportedCallbackException {
+        var passwordCallBack = new PlainAuthenticateCallback(password.toCharArray());
+        handler.handle(new Callback[]{new NameCallback("prompt", username), passwordCallBack});
+        return passwordCallBack.authenticated();
+    }
+
     private LdapAuthenticateCallbackHandler configureAuthenticateCallbackHandler(final Map<String, ?> configs, final String saslMechanism) {
         final LdapAuthenticateCallbackHandler callbackHandler = new LdapAuthenticateCallbackHandler((spec) -> authenticator);
         callbackHandler.close();
@@ -1,8 +1,11 @@
 package com.jjrepos.kafka.security.ldap.authorizer;
 
+import com.jjrepos.kafka.security.cache.Cache;
+import com.jjrepos.kafka.security.ldap.LdapConfig;
 import com.jjrepos.kafka.security.ldap.LdapConnector;
 import com.jjrepos.kafka.security.ldap.LdapProperty;
 import org.apache.kafka.common.acl.AclOperation;
+import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.common.resource.PatternType;
 import org.apache.kafka.common.resource.ResourcePattern;
 import org.apache.kafka.common.resource.ResourceType;
@@ -19,6 +22,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -276,6 +282,148 @@ public class AuthorizerTest {
         results.forEach(result -> assertEquals(AuthorizationResult.ALLOWED, result));
     }
 
+    @Test
+    public void start_should_warm_up_configured_principals() throws InterruptedException {
+        Cache cache = Cache.inMemory();
+        Map<String, Object> config = kafkaConfig();
+        config.put(LdapProperty.CACHE_WARMUP_PRINCIPALS.config, "Kafka_Broker, kafka_admin_user");
+        LdapAuthorizer warmAuthorizer = new LdapAuthorizer(spec -> user -> ADMIN_GROUP, cache);
+        warmAuthorizer.configure(config);
+        warmAuthorizer.start(null);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.get("kafka_admin_user") == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(cache.getIfValid("kafka_broker").isPresent());
+        assertTrue(cache.getIfValid("kafka_admin_user").isPresent());
+        warmAuthorizer.close();
+    }
+
+    @Test
+    public void start_should_read_warm_up_principals_in_one_batch() throws InterruptedException {
+        var batches = new AtomicInteger();
+        GroupsBuilder directory = new GroupsBuilder() {
+            @Override
+            public Set<String> groupsForUser(String user) {
+                throw new AssertionError("warm up should not read users one at a time");
+            }
+
+            @Override
+            public void membershipsForUsers(Collection<String> users, BiConsumer<String, Membership> memberships) {
+                batches.incrementAndGet();
+                users.forEach(user -> memberships.accept(user, new Membership(ADMIN_GROUP, null)));
+            }
+        };
+        Cache cache = Cache.inMemory();
+        Map<String, Object> config = kafkaConfig();
+        config.put(LdapProperty.CACHE_WARMUP_PRINCIPALS.config, "Kafka_Broker, kafka_admin_user, kafka_broker");
+        LdapAuthorizer warmAuthorizer = new LdapAuthorizer(spec -> directory, cache);
+        warmAuthorizer.configure(config);
+        warmAuthorizer.start(null);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.get("kafka_admin_user") == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, batches.get());
+        assertTrue(cache.getIfValid("kafka_broker").isPresent());
+        assertTrue(cache.getIfValid("kafka_admin_user").isPresent());
+        warmAuthorizer.close();
+    }
+
+    @Test
+    public void expired_groups_should_be_extended_while_entry_version_is_unchanged() throws InterruptedException {
+        var searches = new AtomicInteger();
+        var version = new AtomicReference<>("1");
+        GroupsBuilder directory = new GroupsBuilder() {
+            @Override
+            public Set<String> groupsForUser(String user) {
+                searches.incrementAndGet();
+                return RW_GROUP;
+            }
+
+            @Override
+            public Membership membershipForUser(String user) {
+                return new Membership(groupsForUser(user), version.get());
+            }
+
+            @Override
+            public String entryVersion(String user) {
+                return version.get();
+            }
+        };
+        Map<String, Object> config = kafkaConfig();
+        config.put(LdapProperty.CACHE_VALIDITY_MILLIS.config, "200");
+        config.put(LdapProperty.CACHE_REVALIDATE_MAX.config, "2");
+        LdapAuthorizer revalidating = new LdapAuthorizer(spec -> directory, Cache.inMemory());
+        revalidating.configure(config);
+        setupForTopicRead();
+        when(principal.getName()).thenReturn("kafka_user");
+        when(ctx.principal()).thenReturn(principal);
+        List<Action> actions = List.of(READ_TOPIC);
+
+        assertEquals(List.of(AuthorizationResult.ALLOWED), revalidating.authorize(ctx, actions));
+        assertEquals(1, searches.get());
+        Thread.sleep(250);
+        assertEquals(List.of(AuthorizationResult.ALLOWED), revalidating.authorize(ctx, actions));
+        assertEquals(1, searches.get(), "unchanged entry should not be searched again");
+        version.set("2");
+        Thread.sleep(250);
+        assertEquals(List.of(AuthorizationResult.ALLOWED), revalidating.authorize(ctx, actions));
+        assertEquals(2, searches.get(), "changed entry should be searched again");
+        revalidating.close();
+    }
+
+    @Test
+    public void should_keep_cache_and_swap_directory_when_reconfigured() {
+        Cache cache = Cache.inMemory();
+        Map<String, GroupsBuilder> directories = new HashMap<>();
+        AtomicInteger closed = new AtomicInteger();
+        List<LdapConfig> specs = new ArrayList<>();
+        GroupsBuilderFactory factory = spec -> directories.computeIfAbsent(spec.bindUserPassword(), password -> {
+            specs.add(spec);
+            return new GroupsBuilder() {
+                @Override
+                public Set<String> groupsForUser(String user) {
+                    return password.equals("password") ? READ_GROUP : WRITE_GROUP;
+                }
+
+                @Override
+                public void close() {
+                    closed.incrementAndGet();
+                }
+            };
+        });
+        LdapAuthorizer reconfigurable = new LdapAuthorizer(factory, cache);
+        Map<String, Object> config = kafkaConfig();
+        reconfigurable.configure(config);
+        assertTrue(reconfigurable.reconfigurableConfigs().containsAll(
+                Set.of(LdapProperty.PASSWORD.config, LdapProperty.CACHE_VALIDITY_MILLIS.config, LdapProperty.REPLICA_URLS.config)));
+        setupForTopicRead();
+        when(principal.getName()).thenReturn("kafka_reader");
+        when(ctx.principal()).thenReturn(principal);
+        assertEquals(List.of(AuthorizationResult.ALLOWED), reconfigurable.authorize(ctx, List.of(READ_TOPIC)));
+
+        final String searchBase = (String) config.get(LdapProperty.SEARCH_BASE.config);
+        config.put(LdapProperty.PASSWORD.config, "rotated");
+        config.put(LdapProperty.CACHE_VALIDITY_MILLIS.config, "60000");
+        config.put(LdapProperty.SEARCH_BASE.config, "OU=Elsewhere");
+        reconfigurable.validateReconfiguration(config);
+        reconfigurable.reconfigure(config);
+        assertEquals(1, closed.get(), "the replaced directory should be closed");
+        assertEquals(2, specs.size());
+        assertEquals(List.of(searchBase), specs.get(1).searchBases(), "the search base should need a restart");
+        assertEquals(List.of(AuthorizationResult.ALLOWED), reconfigurable.authorize(ctx, List.of(READ_TOPIC)),
+                "the cached groups should survive reconfiguration");
+        cache.invalidate("kafka_reader");
+        assertEquals(List.of(AuthorizationResult.DENIED), reconfigurable.authorize(ctx, List.of(READ_TOPIC)),
+                "new lookups should go to the new directory");
+
+        config.put(LdapProperty.CACHE_VALIDITY_MILLIS.config, "soon");
+        assertThrows(ConfigException.class, () -> reconfigurable.validateReconfiguration(config));
+        reconfigurable.close();
+        assertEquals(2, closed.get());
+    }
+
     @Test
     public void should_accept_valid_config() {
         configureLdapAuthorizer(kafkaConfig()).close();
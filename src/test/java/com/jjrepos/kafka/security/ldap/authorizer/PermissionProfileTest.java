@@ -0,0 +1,81 @@
+package com.jjrepos.kafka.security.ldap.authorizer;
+
+import com.jjrepos.kafka.security.cache.Cache;
+import org.apache.kafka.common.acl.AclOperation;
+import org.apache.kafka.common.resource.ResourceType;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.openjdk.jol.info.GraphLayout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@RunWith(JUnitPlatform.class)
+public class PermissionProfileTest {
+    private static final Logger LOG = LoggerFactory.getLogger(PermissionProfileTest.class);
+
+    private static final int PRINCIPALS = 50_000;
+
+    @Test
+    public void same_groups_should_share_one_profile() {
+        PermissionProfile first = PermissionProfile.of(new HashSet<>(Arrays.asList(Groups.READ.name, Groups.WRITE.name)));
+        PermissionProfile second = PermissionProfile.of(Arrays.asList(Groups.WRITE.name, "Service Accounts", Groups.READ.name));
+        assertSame(first, second);
+        assertSame(first, PermissionProfile.ofGroups(EnumSet.of(Groups.READ, Groups.WRITE)));
+        assertEquals(Set.of(Groups.READ.name, Groups.WRITE.name), first.groupNames());
+    }
+
+    @Test
+    public void profile_without_kafka_groups_should_be_empty() {
+        assertSame(PermissionProfile.NONE, PermissionProfile.of(Collections.singleton("Service Accounts")));
+        assertTrue(PermissionProfile.NONE.isEmpty());
+    }
+
+    @Test
+    public void profile_should_allow_exactly_what_its_group_actions_allow() {
+        for (int mask = 0; mask < 1 << Groups.values().length; mask++) {
+            EnumSet<Groups> groups = EnumSet.noneOf(Groups.class);
+            for (Groups group : Groups.values()) {
+                if ((mask & 1 << group.ordinal()) != 0) groups.add(group);
+            }
+            PermissionProfile profile = PermissionProfile.ofGroups(groups);
+            for (ResourceType resourceType : ResourceType.values()) {
+                for (AclOperation operation : AclOperation.values()) {
+                    boolean expected = groups.stream()
+                            .flatMap(group -> group.groupActions.stream())
+                            .filter(ga -> ga.resourceType() == ResourceType.ANY || ga.resourceType() == resourceType)
+                            .anyMatch(ga -> ga.operation() == AclOperation.ALL || ga.operation() == AclOperation.ANY
+                                    || ga.operation() == operation);
+                    assertEquals(expected, profile.allows(resourceType, operation),
+                            groups + " " + resourceType + " " + operation);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void cached_principal_should_cost_a_few_dozen_bytes() {
+        List<PermissionProfile> profiles = Arrays.asList(
+                PermissionProfile.ofGroups(EnumSet.of(Groups.READ)),
+                PermissionProfile.ofGroups(EnumSet.of(Groups.WRITE)),
+                PermissionProfile.ofGroups(EnumSet.of(Groups.READ, Groups.WRITE)),
+                PermissionProfile.ofGroups(EnumSet.of(Groups.SUPER_USER)));
+        Cache cache = Cache.inMemory();
+        String[] users = new String[PRINCIPALS];
+        for (int i = 0; i < PRINCIPALS; i++) {
+            users[i] = "service_account_" + i;
+            cache.put(users[i], profiles.get(i % profiles.size()), Duration.ofHours(1));
+        }
+        GraphLayout entries = GraphLayout.parseInstance(cache)
+                .subtract(GraphLayout.parseInstance((Object[]) users))
+                .subtract(GraphLayout.parseInstance(profiles.toArray()));
+        long bytesPerPrincipal = entries.totalSize() / PRINCIPALS;
+        LOG.info("Cache footprint excluding usernames: {} bytes per principal\n{}", bytesPerPrincipal, entries.toFootprint());
+        assertTrue(bytesPerPrincipal < 100, "expected a few dozen bytes per principal, was " + bytesPerPrincipal);
+    }
+}
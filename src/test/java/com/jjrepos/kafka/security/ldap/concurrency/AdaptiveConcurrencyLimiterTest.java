@@ -0,0 +1,197 @@
+package com.jjrepos.kafka.security.ldap.concurrency;
+
+import com.jjrepos.kafka.security.ldap.LdapException;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import javax.naming.CommunicationException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@RunWith(JUnitPlatform.class)
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(2);
+
+    @Test
+    public void limit_should_grow_while_latency_stays_at_baseline() {
+        var limiter = new AdaptiveConcurrencyLimiter(10, 1, 100, Duration.ofMillis(10));
+        for (int i = 0; i < 50; i++) {
+            saturate(limiter);
+            drain(limiter, FAST);
+        }
+        assertTrue(limiter.getLimit() > 10, "limit should grow, was " + limiter.getLimit());
+        assertTrue(limiter.getLimit() <= 100);
+    }
+
+    @Test
+    public void limit_should_shrink_when_latency_inflates() {
+        var limiter = new AdaptiveConcurrencyLimiter(50, 1, 100, Duration.ofMillis(10));
+        saturate(limiter);
+        drain(limiter, FAST);
+        for (int i = 0; i < 50; i++) {
+            saturate(limiter);
+            drain(limiter, FAST * 10);
+        }
+        assertTrue(limiter.getLimit() < 50, "limit should shrink, was " + limiter.getLimit());
+        assertTrue(limiter.getLimit() >= 1);
+    }
+
+    @Test
+    public void limit_should_back_off_on_dropped_requests() {
+        var limiter = new AdaptiveConcurrencyLimiter(20, 5, 100, Duration.ofMillis(10));
+        for (int i = 0; i < 100; i++) {
+            assertThrows(CommunicationException.class, () -> limiter.execute(() -> {
+                throw new CommunicationException("connection reset");
+            }));
+        }
+        assertEquals(5, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void acquire_should_reject_after_timeout_when_limit_is_reached() {
+        var limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, Duration.ofMillis(20));
+        limiter.acquire();
+        assertThrows(LdapException.class, limiter::acquire);
+        assertEquals(1, limiter.getRejected());
+        limiter.release(FAST, false);
+        limiter.acquire();
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    public void interrupted_waiter_should_not_keep_a_permit_granted_to_it() throws InterruptedException {
+        var limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, Duration.ofSeconds(10));
+        for (int i = 0; i < 200; i++) {
+            limiter.acquire();
+            var waiter = new Thread(() -> {
+                try {
+                    limiter.acquire();
+                } catch (LdapException e) {
+                    return;
+                }
+                limiter.release(FAST, false);
+            });
+            waiter.start();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (limiter.getQueueDepth() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            // the permit is granted while the waiter wakes up interrupted
+            waiter.interrupt();
+            limiter.release(FAST, false);
+            waiter.join(5000);
+            assertEquals(0, limiter.getInFlight(), "iteration " + i);
+        }
+    }
+
+    @Test
+    public void queue_depth_should_report_waiting_callers() throws InterruptedException {
+        var limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, Duration.ofSeconds(10));
+        limiter.acquire();
+        var acquired = new CountDownLatch(1);
+        var waiter = new Thread(() -> {
+            limiter.acquire();
+            acquired.countDown();
+        });
+        waiter.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (limiter.getQueueDepth() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, limiter.getQueueDepth());
+        limiter.release(FAST, false);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(0, limiter.getQueueDepth());
+    }
+
+    @Test
+    public void waiting_logins_should_get_permits_before_background_work() throws InterruptedException {
+        var limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, Duration.ofSeconds(10));
+        limiter.acquire();
+        var order = new ConcurrentLinkedQueue<LdapPriority>();
+        var background = waiter(limiter, LdapPriority.BACKGROUND, order);
+        awaitQueueDepth(limiter, 1);
+        var authorization = waiter(limiter, LdapPriority.AUTHORIZATION, order);
+        awaitQueueDepth(limiter, 2);
+        var authentication = waiter(limiter, LdapPriority.AUTHENTICATION, order);
+        awaitQueueDepth(limiter, 3);
+        for (int i = 0; i < 3; i++) {
+            limiter.release(FAST, false);
+            awaitQueueDepth(limiter, 2 - i);
+            while (order.size() == i) Thread.sleep(1);
+        }
+        for (Thread waiter : List.of(background, authorization, authentication)) {
+            waiter.join(5000);
+        }
+        assertEquals(List.of(LdapPriority.AUTHENTICATION, LdapPriority.AUTHORIZATION, LdapPriority.BACKGROUND), List.copyOf(order));
+    }
+
+    @Test
+    public void background_work_should_leave_permits_for_the_others() {
+        var limiter = new AdaptiveConcurrencyLimiter(8, 8, 8, Duration.ofMillis(20));
+        for (int i = 0; i < 6; i++) {
+            limiter.acquire(LdapPriority.BACKGROUND);
+        }
+        assertThrows(LdapException.class, () -> limiter.acquire(LdapPriority.BACKGROUND));
+        limiter.acquire(LdapPriority.AUTHENTICATION);
+        limiter.acquire(LdapPriority.AUTHORIZATION);
+        assertEquals(8, limiter.getInFlight());
+    }
+
+    @Test
+    public void long_waiting_background_work_should_not_starve() throws InterruptedException {
+        var limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, Duration.ofMillis(1500));
+        limiter.acquire();
+        var order = new ConcurrentLinkedQueue<LdapPriority>();
+        var background = waiter(limiter, LdapPriority.BACKGROUND, order);
+        awaitQueueDepth(limiter, 1);
+        // two thirds of the acquire timeout raise it to the top priority
+        Thread.sleep(1100);
+        var authentication = waiter(limiter, LdapPriority.AUTHENTICATION, order);
+        awaitQueueDepth(limiter, 2);
+        limiter.release(FAST, false);
+        background.join(5000);
+        assertEquals(List.of(LdapPriority.BACKGROUND), List.copyOf(order));
+        limiter.release(FAST, false);
+        authentication.join(5000);
+    }
+
+    private static Thread waiter(AdaptiveConcurrencyLimiter limiter, LdapPriority priority, Queue<LdapPriority> order) {
+        var waiter = new Thread(() -> {
+            limiter.acquire(priority);
+            order.add(priority);
+        });
+        waiter.start();
+        return waiter;
+    }
+
+    private static void awaitQueueDepth(AdaptiveConcurrencyLimiter limiter, int depth) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (limiter.getQueueDepth() != depth && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(depth, limiter.getQueueDepth());
+    }
+
+    private static void saturate(AdaptiveConcurrencyLimiter limiter) {
+        int limit = limiter.getLimit();
+        for (int i = 0; i < limit; i++) {
+            limiter.acquire();
+        }
+    }
+
+    private static void drain(AdaptiveConcurrencyLimiter limiter, long rttNanos) {
+        while (limiter.getInFlight() > 0) {
+            limiter.release(rttNanos, false);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.jjrepos.kafka.security.ldap.concurrency;
+
+import com.jjrepos.kafka.security.ldap.LdapOperation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import javax.naming.NamingException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@RunWith(JUnitPlatform.class)
+public class LdapExecutorTest {
+
+    private final LdapExecutor executor = LdapExecutor.create("ldap-test", true);
+
+    @AfterEach
+    public void close() {
+        executor.close();
+    }
+
+    @Test
+    public void virtual_threads_should_only_be_used_when_the_runtime_supports_them() {
+        assertEquals(LdapThreads.supportsVirtualThreads(), executor.virtualThreads());
+        try (LdapExecutor platform = LdapExecutor.create("ldap-platform", false)) {
+            assertFalse(platform.virtualThreads());
+        }
+    }
+
+    @Test
+    public void submit_should_carry_the_priority_of_the_submitting_thread() throws NamingException {
+        try (LdapPriority.Scope ignored = LdapPriority.BACKGROUND.enter()) {
+            assertEquals(LdapPriority.BACKGROUND, LdapExecutor.await(executor.submit(LdapPriority::current)));
+        }
+        assertEquals(LdapPriority.AUTHORIZATION, LdapPriority.current());
+        assertEquals(LdapPriority.AUTHORIZATION, LdapExecutor.await(executor.submit(LdapPriority::current)));
+    }
+
+    @Test
+    public void invoke_all_should_return_results_in_order() throws NamingException {
+        List<LdapOperation<String>> operations = Arrays.asList(
+                () -> {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+                    return "slow";
+                },
+                () -> "fast");
+        assertEquals(Arrays.asList("slow", "fast"), executor.invokeAll(operations));
+    }
+
+    @Test
+    public void invoke_all_should_fail_fast_and_cancel_remaining_operations() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        List<LdapOperation<String>> operations = Arrays.asList(
+                () -> {
+                    started.countDown();
+                    try {
+                        Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                    return "never";
+                },
+                () -> {
+                    while (started.getCount() > 0) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                    }
+                    throw new NamingException("search failed");
+                });
+        NamingException e = assertThrows(NamingException.class, () -> executor.invokeAll(operations));
+        assertEquals("search failed", e.getMessage());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,132 @@
+package com.jjrepos.kafka.security.ldap.concurrency;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import javax.naming.AuthenticationException;
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@RunWith(JUnitPlatform.class)
+public class RequestHedgerTest {
+
+    private static final String PRIMARY = "ldap://primary";
+    private static final String REPLICA = "ldap://replica";
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(300);
+
+    private final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 100, Duration.ofSeconds(5));
+    private final LdapExecutor executor = LdapExecutor.create("hedging-test", false);
+
+    @AfterEach
+    public void close() {
+        executor.close();
+    }
+
+    @Test
+    public void should_not_hedge_before_latencies_are_known() throws NamingException {
+        var hedger = new RequestHedger(List.of(PRIMARY, REPLICA), 95, 10, Duration.ofMillis(5), limiter, executor);
+        assertEquals(-1, hedger.getHedgeDelayMillis());
+        Thread caller = Thread.currentThread();
+        assertEquals(PRIMARY, hedger.execute(url -> {
+            assertSame(caller, Thread.currentThread(), "the primary should run inline until a hedge delay is known");
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+            return url;
+        }));
+        assertEquals(0, hedger.getHedges());
+        assertEquals(1, hedger.getRequests());
+    }
+
+    @Test
+    public void slow_primary_should_be_hedged_to_replica() throws NamingException {
+        var hedger = warmedUp(10);
+        assertEquals(REPLICA, hedger.execute(url -> {
+            if (PRIMARY.equals(url)) LockSupport.parkNanos(SLOW);
+            return url;
+        }));
+        assertEquals(1, hedger.getHedges());
+        assertEquals(1, hedger.getHedgeWins());
+        awaitLatencySaved(hedger);
+    }
+
+    @Test
+    public void hedges_should_be_capped_by_budget() throws NamingException {
+        var hedger = warmedUp(0);
+        for (int i = 0; i < 12; i++) {
+            hedger.execute(url -> {
+                if (PRIMARY.equals(url)) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(30));
+                return url;
+            });
+        }
+        assertEquals(10, hedger.getHedges(), "only the initial burst allowance may be spent");
+        assertEquals(2, hedger.getBudgetExhausted());
+    }
+
+    @Test
+    public void unreachable_replica_should_not_win() throws NamingException {
+        var hedger = warmedUp(10);
+        assertEquals(PRIMARY, hedger.execute(url -> {
+            if (REPLICA.equals(url)) throw new CommunicationException("connection refused");
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+            return url;
+        }));
+        assertEquals(1, hedger.getHedges());
+        assertEquals(0, hedger.getHedgeWins());
+    }
+
+    @Test
+    public void failed_authentication_from_replica_should_win() {
+        var hedger = warmedUp(10);
+        assertThrows(AuthenticationException.class, () -> hedger.execute(url -> {
+            if (REPLICA.equals(url)) throw new AuthenticationException("invalid credentials");
+            LockSupport.parkNanos(SLOW);
+            return url;
+        }));
+    }
+
+    @Test
+    public void waiting_for_a_permit_should_not_count_as_latency() throws Exception {
+        var single = new AdaptiveConcurrencyLimiter(1, 1, 1, Duration.ofSeconds(5));
+        var hedger = new RequestHedger(List.of(PRIMARY, REPLICA), 99, 10, Duration.ofMillis(1), single, executor);
+        var holder = executor.submit(() -> single.execute(() -> {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(200));
+            return null;
+        }));
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+        for (int i = 0; i < 64; i++) {
+            hedger.execute(url -> url);
+        }
+        holder.get();
+        assertTrue(hedger.getHedgeDelayMillis() >= 1 && hedger.getHedgeDelayMillis() < 50, "delay " + hedger.getHedgeDelayMillis());
+    }
+
+    private RequestHedger warmedUp(int budgetPercent) {
+        var hedger = new RequestHedger(List.of(PRIMARY, REPLICA), 95, budgetPercent, Duration.ofMillis(5), limiter, executor);
+        long deadline = System.currentTimeMillis() + 5000;
+        try {
+            while (hedger.getHedgeDelayMillis() < 0 && System.currentTimeMillis() < deadline) {
+                hedger.execute(url -> url);
+            }
+        } catch (final NamingException e) {
+            fail(e);
+        }
+        assertTrue(hedger.getHedgeDelayMillis() >= 5 && hedger.getHedgeDelayMillis() < 100, "delay " + hedger.getHedgeDelayMillis());
+        assertEquals(0, hedger.getHedges());
+        return hedger;
+    }
+
+    private static void awaitLatencySaved(RequestHedger hedger) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (hedger.getLatencySavedMillis() == 0 && System.currentTimeMillis() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        assertTrue(hedger.getLatencySavedMillis() > 0);
+    }
+}
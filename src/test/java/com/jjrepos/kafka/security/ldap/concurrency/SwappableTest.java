@@ -0,0 +1,63 @@
+package com.jjrepos.kafka.security.ldap.concurrency;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@RunWith(JUnitPlatform.class)
+public class SwappableTest {
+
+    private static final class Resource implements AutoCloseable {
+        final String name;
+        final AtomicInteger closed = new AtomicInteger();
+
+        Resource(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void close() {
+            closed.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void swap_should_close_an_idle_instance_at_once() {
+        var first = new Resource("first");
+        var second = new Resource("second");
+        var swappable = new Swappable<>(first);
+        swappable.swap(second);
+        assertEquals(1, first.closed.get());
+        try (var lease = swappable.acquire()) {
+            assertSame(second, lease.get());
+        }
+        assertEquals(0, second.closed.get());
+        swappable.close();
+        assertEquals(1, second.closed.get());
+    }
+
+    @Test
+    public void swap_should_close_a_leased_instance_after_its_last_lease() {
+        var first = new Resource("first");
+        var swappable = new Swappable<>(first);
+        var inFlight = swappable.acquire();
+        var alsoInFlight = swappable.acquire();
+        swappable.swap(new Resource("second"));
+        assertEquals("second", swappable.acquire().get().name);
+        inFlight.close();
+        assertEquals(0, first.closed.get(), "still leased");
+        alsoInFlight.close();
+        assertEquals(1, first.closed.get());
+    }
+
+    @Test
+    public void acquire_should_fail_once_closed() {
+        var swappable = new Swappable<>(new Resource("only"));
+        swappable.close();
+        assertThrows(IllegalStateException.class, swappable::acquire);
+    }
+}
@@ -0,0 +1,65 @@
+package com.jjrepos.kafka.security.ldap.concurrency;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@RunWith(JUnitPlatform.class)
+public class TokenBucketRateLimiterTest {
+
+    private final AtomicLong now = new AtomicLong(System.currentTimeMillis());
+    private final TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(5, 10, now::get);
+
+    @Test
+    public void should_allow_burst_then_reject() {
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire("noisy"));
+        }
+        assertFalse(limiter.tryAcquire("noisy"));
+    }
+
+    @Test
+    public void should_not_limit_other_keys() {
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire("noisy");
+        }
+        assertFalse(limiter.tryAcquire("noisy"));
+        assertTrue(limiter.tryAcquire("quiet"));
+    }
+
+    @Test
+    public void should_refill_at_configured_rate() {
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire("noisy");
+        }
+        now.addAndGet(200);
+        assertTrue(limiter.tryAcquire("noisy"));
+        assertFalse(limiter.tryAcquire("noisy"));
+        now.addAndGet(1000);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire("noisy"));
+        }
+        assertFalse(limiter.tryAcquire("noisy"));
+    }
+
+    @Test
+    public void should_evict_idle_buckets() {
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire("user" + i);
+        }
+        assertEquals(100, limiter.trackedKeys());
+        now.addAndGet(TimeUnit.MINUTES.toMillis(2));
+        limiter.tryAcquire("active");
+        assertEquals(1, limiter.trackedKeys());
+    }
+
+    @Test
+    public void should_not_allow_burst_above_packed_capacity() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucketRateLimiter(1, TokenBucketRateLimiter.MAX_BURST + 1));
+    }
+}
@@ -0,0 +1,63 @@
+package com.jjrepos.kafka.security.ldap.nio;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@RunWith(JUnitPlatform.class)
+public class BerCodecTest {
+
+    @Test
+    public void should_read_what_was_written() {
+        final String longValue = "x".repeat(300);
+        final byte[] encoded = new BerWriter()
+                .begin(BerReader.SEQUENCE)
+                .integer(BerReader.INTEGER, 70000)
+                .integer(BerReader.INTEGER, -1)
+                .string(BerReader.OCTET_STRING, longValue)
+                .begin(BerReader.SET)
+                .string(BerReader.OCTET_STRING, "memberOf")
+                .end()
+                .end()
+                .toByteArray();
+        final ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        assertEquals(encoded.length, BerReader.elementLength(buffer, 0, encoded.length));
+
+        final BerReader reader = new BerReader().reset(buffer, 0, encoded.length);
+        final int end = reader.expect(BerReader.SEQUENCE) + reader.position();
+        assertEquals(encoded.length, end);
+        assertEquals(70000, reader.readInt(reader.expect(BerReader.INTEGER)));
+        assertEquals(-1, reader.readInt(reader.expect(BerReader.INTEGER)));
+        assertEquals(longValue, reader.readString(reader.expect(BerReader.OCTET_STRING)));
+        reader.expect(BerReader.SET);
+        assertTrue(reader.skipIfEqualsIgnoreCase(reader.expect(BerReader.OCTET_STRING), LdapMessages.ascii("memberof")));
+        assertFalse(reader.hasRemaining(end));
+    }
+
+    @Test
+    public void should_wait_for_complete_elements() {
+        final byte[] encoded = new BerWriter().string(BerReader.OCTET_STRING, "y".repeat(200)).toByteArray();
+        final ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        assertEquals(-1, BerReader.elementLength(buffer, 0, 1));
+        assertEquals(-1, BerReader.elementLength(buffer, 0, 2));
+        assertEquals(encoded.length, BerReader.elementLength(buffer, 0, 3));
+    }
+
+    @Test
+    public void should_reject_truncated_elements() {
+        final byte[] encoded = new BerWriter().string(BerReader.OCTET_STRING, "value").toByteArray();
+        final BerReader reader = new BerReader().reset(ByteBuffer.wrap(encoded), 0, encoded.length - 1);
+        final int length = reader.expect(BerReader.OCTET_STRING);
+        assertThrows(IllegalStateException.class, () -> reader.readString(length));
+    }
+
+    @Test
+    public void should_reject_lengths_that_overflow() {
+        final ByteBuffer buffer = ByteBuffer.wrap(new byte[]{0x30, (byte) 0x84, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xfe});
+        assertThrows(IllegalStateException.class, () -> BerReader.elementLength(buffer, 0, 6));
+    }
+}
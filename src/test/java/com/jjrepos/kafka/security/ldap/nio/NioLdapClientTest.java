@@ -0,0 +1,281 @@
+package com.jjrepos.kafka.security.ldap.nio;
+
+import com.jjrepos.kafka.security.ldap.GroupLookup;
+import com.jjrepos.kafka.security.ldap.LdapConfig;
+import com.jjrepos.kafka.security.ldap.LdapConnector;
+import com.jjrepos.kafka.security.ldap.LdapException;
+import com.jjrepos.kafka.security.ldap.LdapProperty;
+import com.jjrepos.kafka.security.ldap.authorizer.Groups;
+import com.jjrepos.kafka.security.ldap.authorizer.Membership;
+import org.junit.After;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.zapodot.junit.ldap.EmbeddedLdapRule;
+import org.zapodot.junit.ldap.EmbeddedLdapRuleBuilder;
+
+import javax.naming.CommunicationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NioLdapClientTest {
+
+    private static final String BASE_DN = "dc=bah,dc=com";
+    private static final String SEARCH_BASE = "OU=Service Accounts";
+    @ClassRule
+    public static EmbeddedLdapRule LDAP_RULE = EmbeddedLdapRuleBuilder.newInstance()
+            .usingDomainDsn(BASE_DN)
+            .importingLdifs("ldap/kafka-users.ldif", "ldap/kafka-people.ldif")
+            .build();
+
+    private final LdapConfig config = LdapConfig.builder("ldap://localhost:" + LDAP_RULE.embeddedServerPort(), BASE_DN, SEARCH_BASE)
+            .bindUser("kafka_admin", "admin#secret")
+            .nioClient(true, 2, 4, Duration.ofSeconds(5))
+            .nioPlaintext(true)
+            .build();
+    private final NioLdapClient client = new NioLdapClient(config);
+
+    @After
+    public void close() {
+        client.close();
+    }
+
+    @Test
+    public void should_authenticate_users() {
+        assertTrue(client.authenticate("kafka_user", "secret?"));
+        assertTrue(client.authenticate("kafka_admin", "admin#secret"));
+        assertFalse(client.authenticate("kafka_user", "notasecret?"));
+        assertFalse(client.authenticate("kafka_no_user", "greatsecret?"));
+        assertTrue(client.authenticate("kafka_user", "secret?"), "a failed bind should leave the connection usable");
+    }
+
+    @Test
+    public void should_answer_like_the_jndi_client() {
+        final LdapConnector jndi = new LdapConnector(config);
+        try {
+            for (String user : List.of("kafka_user", "kafka_admin", "kafka_super_user", "kafka_broker", "unknown_user")) {
+                final Membership expected = jndi.membershipForUser(user);
+                final Membership actual = client.membershipForUser(user);
+                assertEquals(expected.groups(), actual.groups(), user);
+                assertEquals(expected.version(), actual.version(), user);
+                assertEquals(jndi.entryVersion(user), client.entryVersion(user), user);
+            }
+        } finally {
+            jndi.close();
+        }
+    }
+
+    @Test
+    public void should_pipeline_concurrent_searches_and_logins() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(32);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                final Callable<Boolean> call = i % 5 == 0
+                        ? () -> client.authenticate("kafka_super_user", "super!secret")
+                        : () -> client.groupsForUser("kafka_user").equals(Set.of(Groups.READ.name, Groups.WRITE.name, "SERVICE ACCOUNTS"));
+                results.add(executor.submit(call));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void authenticate_should_read_own_groups_on_the_bind_connection() {
+        final List<Membership> read = new ArrayList<>();
+        assertTrue(client.authenticate("kafka_super_user", "super!secret", read::add));
+        assertEquals(1, read.size());
+        assertTrue(read.get(0).groups().contains(Groups.SUPER_USER.name));
+        assertFalse(client.authenticate("kafka_super_user", "wrong", read::add));
+        assertEquals(1, read.size());
+    }
+
+    @Test
+    public void should_return_no_groups_for_invalid_bind_user() {
+        final NioLdapClient unknown = new NioLdapClient(LdapConfig.builder(config.url(), BASE_DN, SEARCH_BASE)
+                .bindUser("unknown_user", "PASSWORD")
+                .nioClient(true, 1, 1, Duration.ofSeconds(5))
+                .nioPlaintext(true)
+                .build());
+        try {
+            assertTrue(unknown.groupsForUser("kafka_user").isEmpty());
+        } finally {
+            unknown.close();
+        }
+    }
+
+    @Test
+    public void should_find_users_in_any_search_base() {
+        for (GroupLookup lookup : GroupLookup.values()) {
+            final NioLdapClient multiple = new NioLdapClient(LdapConfig.builder(config.url().replace("/" + BASE_DN, ""), BASE_DN,
+                    SEARCH_BASE + ";OU=People")
+                    .bindUser("kafka_admin", "admin#secret")
+                    .groupLookup(lookup)
+                    .nioClient(true, 1, 1, Duration.ofSeconds(5))
+                    .nioPlaintext(true)
+                    .build());
+            try {
+                assertEquals(Set.of(Groups.READ.name), multiple.groupsForUser("jane_doe"), lookup.name());
+                assertTrue(multiple.groupsForUser("kafka_user").contains(Groups.WRITE.name), lookup.name());
+                assertTrue(multiple.groupsForUser("unknown_user").isEmpty(), lookup.name());
+                assertTrue(multiple.authenticate("jane_doe", "jane#secret"), lookup.name());
+                assertFalse(multiple.authenticate("jane_doe", "secret?"), lookup.name());
+                assertFalse(multiple.authenticate("unknown_user", "secret?"), lookup.name());
+                assertNotNull(multiple.entryVersion("jane_doe"), lookup.name());
+            } finally {
+                multiple.close();
+            }
+        }
+    }
+
+    @Test
+    public void should_read_memberships_in_batches_like_the_jndi_client() {
+        final List<String> users = List.of("kafka_user", "kafka_super_user", "kafka_broker", "jane_doe", "unknown_user", "*");
+        for (GroupLookup lookup : GroupLookup.values()) {
+            final LdapConfig batching = LdapConfig.builder(config.url().replace("/" + BASE_DN, ""), BASE_DN, SEARCH_BASE + ";OU=People")
+                    .bindUser("kafka_admin", "admin#secret")
+                    .groupLookup(lookup)
+                    .groupBatchSize(2)
+                    .nioClient(true, 1, 1, Duration.ofSeconds(5))
+                    .nioPlaintext(true)
+                    .build();
+            final NioLdapClient nio = new NioLdapClient(batching);
+            final LdapConnector jndi = new LdapConnector(batching);
+            try {
+                final Map<String, Membership> expected = new HashMap<>();
+                final Map<String, Membership> actual = new HashMap<>();
+                jndi.membershipsForUsers(users, expected::put);
+                nio.membershipsForUsers(users, actual::put);
+                assertEquals(users.size(), actual.size(), lookup.name());
+                for (String user : users) {
+                    assertEquals(expected.get(user).groups(), actual.get(user).groups(), lookup + " " + user);
+                    assertEquals(expected.get(user).version(), actual.get(user).version(), lookup + " " + user);
+                }
+                assertEquals(Set.of(Groups.READ.name), actual.get("jane_doe").groups(), lookup.name());
+            } finally {
+                nio.close();
+                jndi.close();
+            }
+        }
+    }
+
+    @Test
+    public void should_reject_urls_it_cannot_serve() {
+        assertThrows(IllegalArgumentException.class, () -> new NioLdapClient(LdapConfig.builder("ldaps://localhost:636", BASE_DN, SEARCH_BASE)
+                .nioClient(true, 1, 1, Duration.ofSeconds(1))
+                .nioPlaintext(true)
+                .build()));
+    }
+
+    @Test
+    public void should_refuse_plain_ldap_without_an_opt_in() {
+        final IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> new NioLdapClient(
+                LdapConfig.builder(config.url(), BASE_DN, SEARCH_BASE)
+                        .bindUser("kafka_admin", "admin#secret")
+                        .nioClient(true, 1, 1, Duration.ofSeconds(1))
+                        .build()));
+        assertTrue(e.getMessage().contains(LdapProperty.NIO_PLAINTEXT.config), e.getMessage());
+    }
+
+    @Test
+    public void should_fail_the_connection_on_oversized_responses() throws Exception {
+        final byte[][] headers = {
+                {0x30, (byte) 0x84, 0x01, 0x40, 0x00, 0x00},
+                {0x30, (byte) 0x84, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff}};
+        for (byte[] header : headers) {
+            try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                final Thread directory = new Thread(() -> {
+                    try (Socket socket = server.accept()) {
+                        socket.getInputStream().read(new byte[1024]);
+                        socket.getOutputStream().write(header);
+                        socket.getOutputStream().flush();
+                        socket.getInputStream().read(new byte[1024]);
+                    } catch (final IOException e) {
+                        // the client hung up
+                    }
+                });
+                directory.start();
+                final NioLdapConnection connection = NioLdapConnection.open(
+                        new InetSocketAddress(server.getInetAddress(), server.getLocalPort()), Duration.ofSeconds(1));
+                try {
+                    assertThrows(CommunicationException.class,
+                            () -> connection.readEntry(BASE_DN, NioLdapConnection.VERSION_ATTRIBUTES, Duration.ofSeconds(5)));
+                    assertFalse(connection.isOpen());
+                    assertEquals(0, connection.outstanding());
+                } finally {
+                    connection.close();
+                }
+                directory.join(5000);
+            }
+        }
+    }
+
+    @Test
+    public void should_not_reuse_a_bind_connection_after_a_timeout() throws Exception {
+        // with a single search base logins need no search, the first connection is the bind connection and never
+        // reaches the directory
+        final AtomicInteger accepted = new AtomicInteger();
+        try (ServerSocket proxy = new ServerSocket(0, 8, InetAddress.getLoopbackAddress())) {
+            final Thread acceptor = new Thread(() -> {
+                while (!proxy.isClosed()) {
+                    try {
+                        final Socket client = proxy.accept();
+                        final Socket directory = new Socket(InetAddress.getLoopbackAddress(), LDAP_RULE.embeddedServerPort());
+                        final boolean stalled = accepted.incrementAndGet() == 1;
+                        pump(client.getInputStream(), stalled ? OutputStream.nullOutputStream() : directory.getOutputStream());
+                        pump(directory.getInputStream(), client.getOutputStream());
+                    } catch (final IOException e) {
+                        // the proxy was closed
+                    }
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+            final NioLdapClient proxied = new NioLdapClient(LdapConfig.builder("ldap://localhost:" + proxy.getLocalPort(), BASE_DN, SEARCH_BASE)
+                    .bindUser("kafka_admin", "admin#secret")
+                    .nioClient(true, 1, 1, Duration.ofMillis(500))
+                    .nioPlaintext(true)
+                    .build());
+            try {
+                assertThrows(LdapException.class, () -> proxied.authenticate("kafka_user", "secret?"));
+                assertTrue(proxied.authenticate("kafka_user", "secret?"), "a timed out bind connection should be replaced");
+                assertEquals(2, accepted.get());
+            } finally {
+                proxied.close();
+            }
+        }
+    }
+
+    private static void pump(InputStream in, OutputStream out) {
+        final Thread pump = new Thread(() -> {
+            try {
+                in.transferTo(out);
+            } catch (final IOException e) {
+                // either side hung up
+            }
+        });
+        pump.setDaemon(true);
+        pump.start();
+    }
+}
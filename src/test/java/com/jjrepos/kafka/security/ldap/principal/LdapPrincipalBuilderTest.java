@@ -0,0 +1,147 @@
+package com.jjrepos.kafka.security.ldap.principal;
+
+import com.jjrepos.kafka.security.cache.Cache;
+import com.jjrepos.kafka.security.ldap.LdapProperty;
+import com.jjrepos.kafka.security.ldap.authorizer.Groups;
+import com.jjrepos.kafka.security.ldap.authorizer.LdapAuthorizer;
+import com.jjrepos.kafka.security.ldap.authorizer.PermissionProfile;
+import org.apache.kafka.common.acl.AclOperation;
+import org.apache.kafka.common.resource.PatternType;
+import org.apache.kafka.common.resource.ResourcePattern;
+import org.apache.kafka.common.resource.ResourceType;
+import org.apache.kafka.common.security.auth.AuthenticationContext;
+import org.apache.kafka.common.security.auth.KafkaPrincipal;
+import org.apache.kafka.common.security.auth.PlaintextAuthenticationContext;
+import org.apache.kafka.common.security.auth.SaslAuthenticationContext;
+import org.apache.kafka.common.security.auth.SecurityProtocol;
+import org.apache.kafka.common.security.auth.SslAuthenticationContext;
+import org.apache.kafka.server.authorizer.Action;
+import org.apache.kafka.server.authorizer.AuthorizableRequestContext;
+import org.apache.kafka.server.authorizer.AuthorizationResult;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+
+import javax.net.ssl.SSLSession;
+import javax.security.auth.x500.X500Principal;
+import javax.security.sasl.SaslServer;
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@RunWith(JUnitPlatform.class)
+public class LdapPrincipalBuilderTest {
+
+    private static final PermissionProfile READ = PermissionProfile.of(Set.of(Groups.READ.name));
+    private static final Action READ_TOPIC = new Action(AclOperation.READ,
+            new ResourcePattern(ResourceType.TOPIC, "orders", PatternType.LITERAL), 1, true, true);
+
+    private final Cache cache = Cache.inMemory();
+    private final LdapPrincipalBuilder builder = new LdapPrincipalBuilder(cache);
+
+    @Test
+    public void should_attach_cached_profile_to_sasl_principal() {
+        cache.put("kafka_user", READ, Duration.ofMinutes(1));
+        var principal = (LdapPrincipal) builder.build(sasl("Kafka_User"));
+        assertEquals("Kafka_User", principal.getName());
+        assertEquals(KafkaPrincipal.USER_TYPE, principal.getPrincipalType());
+        assertEquals("kafka_user", principal.user());
+        assertSame(READ, principal.profile(cache.generation(), System.currentTimeMillis()));
+    }
+
+    @Test
+    public void profile_should_go_stale_with_the_cache() {
+        cache.put("kafka_user", READ, Duration.ofMinutes(1));
+        var principal = (LdapPrincipal) builder.build(sasl("kafka_user"));
+        long now = System.currentTimeMillis();
+        assertNull(principal.profile(cache.generation(), now + Duration.ofMinutes(2).toMillis()), "expired");
+        cache.invalidate("kafka_user");
+        assertNull(principal.profile(cache.generation(), now), "invalidated");
+        assertNull(((LdapPrincipal) builder.build(sasl("kafka_user"))).profile(cache.generation(), now), "not cached");
+    }
+
+    @Test
+    public void authorizer_should_use_attached_profile_and_fall_back_to_cache() {
+        var searches = new AtomicInteger();
+        var authorizer = new LdapAuthorizer(spec -> user -> {
+            searches.incrementAndGet();
+            return Set.of(Groups.READ.name);
+        }, cache);
+        authorizer.configure(configs());
+        cache.put("kafka_user", READ, Duration.ofMinutes(1));
+        var principal = (LdapPrincipal) builder.build(sasl("kafka_user"));
+        var ctx = Mockito.mock(AuthorizableRequestContext.class);
+        when(ctx.principal()).thenReturn(principal);
+
+        assertEquals(List.of(AuthorizationResult.ALLOWED), authorizer.authorize(ctx, List.of(READ_TOPIC)));
+        cache.invalidate("kafka_user");
+        assertEquals(List.of(AuthorizationResult.ALLOWED), authorizer.authorize(ctx, List.of(READ_TOPIC)));
+        assertEquals(1, searches.get(), "stale profile should be resolved again");
+        assertEquals(List.of(AuthorizationResult.ALLOWED), authorizer.authorize(ctx, List.of(READ_TOPIC)));
+        assertNotNull(principal.profile(cache.generation(), System.currentTimeMillis()), "resolved profile should be attached again");
+        assertEquals(1, searches.get());
+        authorizer.close();
+    }
+
+    @Test
+    public void other_connections_and_serialization_should_use_kafka_principals() {
+        AuthenticationContext plaintext = new PlaintextAuthenticationContext(InetAddress.getLoopbackAddress(), "PLAINTEXT");
+        assertEquals(KafkaPrincipal.ANONYMOUS, builder.build(plaintext));
+        var principal = builder.build(sasl("kafka_user"));
+        KafkaPrincipal forwarded = builder.deserialize(builder.serialize(principal));
+        assertEquals(new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "kafka_user"), forwarded);
+    }
+
+    @Test
+    public void ssl_principals_should_follow_the_broker_mapping_rules() throws Exception {
+        var session = Mockito.mock(SSLSession.class);
+        when(session.getPeerPrincipal()).thenReturn(new X500Principal("CN=kafka_client,OU=Apps,O=Bah"));
+        var ssl = new SslAuthenticationContext(session, InetAddress.getLoopbackAddress(), "SSL");
+        assertEquals(new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "CN=kafka_client,OU=Apps,O=Bah"), builder.build(ssl));
+        builder.configure(Map.of("ssl.principal.mapping.rules", "RULE:^CN=(.*?),OU=.*$/$1/,DEFAULT"));
+        assertEquals(new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "kafka_client"), builder.build(ssl));
+    }
+
+    @Test
+    public void other_sasl_mechanisms_should_get_kafka_principals() {
+        cache.put("kafka_user", READ, Duration.ofMinutes(1));
+        builder.configure(Map.of("sasl.kerberos.principal.to.local.rules", List.of("RULE:[2:$1@$0](.*@EXAMPLE.COM)s/@.*//", "DEFAULT")));
+        var kerberos = builder.build(sasl("GSSAPI", "kafka_user/broker1.example.com@EXAMPLE.COM"));
+        assertFalse(kerberos instanceof LdapPrincipal);
+        assertEquals(new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "kafka_user"), kerberos);
+        var scram = builder.build(sasl("SCRAM-SHA-256", "kafka_user"));
+        assertFalse(scram instanceof LdapPrincipal);
+        assertEquals(new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "kafka_user"), scram);
+        assertTrue(builder.build(sasl("kafka_user")) instanceof LdapPrincipal);
+    }
+
+    private static SaslAuthenticationContext sasl(String username) {
+        return sasl("PLAIN", username);
+    }
+
+    private static SaslAuthenticationContext sasl(String mechanism, String username) {
+        var server = Mockito.mock(SaslServer.class);
+        when(server.getMechanismName()).thenReturn(mechanism);
+        when(server.getAuthorizationID()).thenReturn(username);
+        return new SaslAuthenticationContext(server, SecurityProtocol.SASL_PLAINTEXT, InetAddress.getLoopbackAddress(), "SASL_PLAINTEXT");
+    }
+
+    private static Map<String, Object> configs() {
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(LdapProperty.URL.config, "localhost");
+        configs.put(LdapProperty.BASE_DN.config, "dc=bah,dc=com");
+        configs.put(LdapProperty.SEARCH_BASE.config, "OU=Service Accounts");
+        configs.put(LdapProperty.USER.config, "kafka_test");
+        configs.put(LdapProperty.PASSWORD.config, "password");
+        configs.put(LdapProperty.CACHE_VALIDITY_MILLIS.config, "60000");
+        return configs;
+    }
+}
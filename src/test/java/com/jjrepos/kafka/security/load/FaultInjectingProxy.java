@@ -0,0 +1,170 @@
+package com.jjrepos.kafka.security.load;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * TCP proxy in front of the embedded directory that delays answers, drops connections and limits bandwidth, so
+ * that the plugins can be run against a directory that is slow, unreliable or far away. Faults can be changed
+ * while connections are open and apply to the next chunk of data forwarded.
+ */
+final class FaultInjectingProxy implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(FaultInjectingProxy.class);
+
+    private final InetSocketAddress upstream;
+    private final ServerSocket server;
+    private final ExecutorService pumps = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "fault-injecting-proxy");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    /** Time at which the link is free again, shared by all connections so the bandwidth limit is the total. */
+    private final AtomicLong linkFreeAtNanos = new AtomicLong();
+
+    private volatile long latencyNanos;
+    private volatile double dropProbability;
+    private volatile long bytesPerSecond;
+
+    FaultInjectingProxy(String upstreamHost, int upstreamPort) throws IOException {
+        this.upstream = new InetSocketAddress(upstreamHost, upstreamPort);
+        this.server = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        final Thread acceptor = new Thread(this::accept, "fault-injecting-proxy-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String url() {
+        return "ldap://localhost:" + server.getLocalPort();
+    }
+
+    /**
+     * Delays every chunk the directory sends back, so each answer takes at least this long.
+     */
+    FaultInjectingProxy latency(Duration latency) {
+        this.latencyNanos = latency.toNanos();
+        return this;
+    }
+
+    /**
+     * Closes a connection, both ends, with this probability whenever a chunk of data is about to be forwarded.
+     */
+    FaultInjectingProxy dropProbability(double probability) {
+        this.dropProbability = probability;
+        return this;
+    }
+
+    /**
+     * Limits the bytes forwarded per second over all connections and both directions, 0 for no limit.
+     */
+    FaultInjectingProxy bandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    FaultInjectingProxy heal() {
+        latencyNanos = 0;
+        dropProbability = 0;
+        bytesPerSecond = 0;
+        return this;
+    }
+
+    long connections() {
+        return connections.get();
+    }
+
+    long dropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        open.forEach(FaultInjectingProxy::closeQuietly);
+        pumps.shutdownNow();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                final Socket client = server.accept();
+                final Socket directory = new Socket(upstream.getAddress(), upstream.getPort());
+                client.setTcpNoDelay(true);
+                directory.setTcpNoDelay(true);
+                open.add(client);
+                open.add(directory);
+                connections.incrementAndGet();
+                pumps.execute(() -> pump(client, directory, false));
+                pumps.execute(() -> pump(directory, client, true));
+            } catch (final IOException e) {
+                if (!server.isClosed()) LOG.warn("Proxy could not accept a connection", e);
+            }
+        }
+    }
+
+    private void pump(Socket from, Socket to, boolean answers) {
+        final byte[] buffer = new byte[8192];
+        try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                if (dropProbability > 0 && ThreadLocalRandom.current().nextDouble() < dropProbability) {
+                    dropped.incrementAndGet();
+                    break;
+                }
+                if (answers && latencyNanos > 0) sleep(latencyNanos);
+                throttle(read);
+                out.write(buffer, 0, read);
+                out.flush();
+            }
+        } catch (final IOException ignored) {
+            // the other pump or a drop closed the connection
+        } finally {
+            open.remove(from);
+            open.remove(to);
+            closeQuietly(from);
+            closeQuietly(to);
+        }
+    }
+
+    private void throttle(int bytes) {
+        final long limit = bytesPerSecond;
+        if (limit <= 0) return;
+        final long transfer = bytes * 1_000_000_000L / limit;
+        final long now = System.nanoTime();
+        final long done = linkFreeAtNanos.accumulateAndGet(now, (free, at) -> Math.max(free, at) + transfer);
+        sleep(done - now);
+    }
+
+    private static void sleep(long nanos) {
+        final long until = System.nanoTime() + nanos;
+        for (long left = nanos; left > 0; left = until - System.nanoTime()) {
+            LockSupport.parkNanos(left);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (final IOException ignored) {
+            // already closed
+        }
+    }
+}
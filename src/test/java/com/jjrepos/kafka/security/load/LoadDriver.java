@@ -0,0 +1,75 @@
+package com.jjrepos.kafka.security.load;
+
+import com.jjrepos.kafka.security.ldap.LdapException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a call from many threads at once: every caller waits until all callers are started, then makes its calls
+ * back to back, so the plugin sees the burst a broker sees when its clients reconnect after a restart.
+ */
+final class LoadDriver {
+    private static final Logger LOG = LoggerFactory.getLogger(LoadDriver.class);
+
+    @FunctionalInterface
+    interface Call {
+        /**
+         * @return whether the call was granted, e.g. the login succeeded or the action was allowed
+         */
+        boolean call(int caller, int iteration) throws Exception;
+    }
+
+    private LoadDriver() {
+    }
+
+    static LoadReport run(String scenario, int callers, int callsPerCaller, Duration timeout, Call call)
+            throws InterruptedException {
+        final long[] latencies = new long[callers * callsPerCaller];
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong shed = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final CountDownLatch ready = new CountDownLatch(callers);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(callers);
+        for (int c = 0; c < callers; c++) {
+            final int caller = c;
+            final Thread thread = new Thread(() -> {
+                ready.countDown();
+                try {
+                    start.await();
+                    for (int i = 0; i < callsPerCaller; i++) {
+                        final long began = System.nanoTime();
+                        try {
+                            if (!call.call(caller, i)) failed.incrementAndGet();
+                        } catch (final LdapException e) {
+                            if (shed.getAndIncrement() == 0) LOG.info("{}: first call shed: {}", scenario, e.getMessage());
+                        } catch (final Exception e) {
+                            if (errors.getAndIncrement() == 0) LOG.warn("{}: first error", scenario, e);
+                        }
+                        latencies[caller * callsPerCaller + i] = System.nanoTime() - began;
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, scenario + "-" + caller);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        ready.await();
+        final long began = System.nanoTime();
+        start.countDown();
+        if (!done.await(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException(scenario + ": " + done.getCount() + " callers did not finish within " + timeout);
+        }
+        final LoadReport report = new LoadReport(scenario, callers, latencies, failed.get(), shed.get(), errors.get(), System.nanoTime() - began);
+        LOG.info("{}", report);
+        return report;
+    }
+}
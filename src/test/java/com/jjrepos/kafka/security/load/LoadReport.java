@@ -0,0 +1,102 @@
+package com.jjrepos.kafka.security.load;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Outcome of one load scenario. Reports are appended as CSV rows with a fixed set of columns, so that the rows of
+ * two runs, e.g. before and after a change, can be compared side by side.
+ */
+final class LoadReport {
+    static final String CSV_HEADER = "timestamp,scenario,callers,calls,succeeded,failed,shed,errors,elapsed_ms,"
+            + "throughput_per_s,p50_ms,p90_ms,p99_ms,p999_ms,max_ms";
+
+    private final String scenario;
+    private final int callers;
+    private final long[] latencies;
+    private final long failed;
+    private final long shed;
+    private final long errors;
+    private final long elapsedNanos;
+
+    LoadReport(String scenario, int callers, long[] latencies, long failed, long shed, long errors, long elapsedNanos) {
+        this.scenario = scenario;
+        this.callers = callers;
+        this.latencies = latencies.clone();
+        Arrays.sort(this.latencies);
+        this.failed = failed;
+        this.shed = shed;
+        this.errors = errors;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    String scenario() {
+        return scenario;
+    }
+
+    long calls() {
+        return latencies.length;
+    }
+
+    long succeeded() {
+        return latencies.length - failed - shed - errors;
+    }
+
+    /** Calls that completed but were refused, e.g. a login rejected because the directory could not be reached. */
+    long failed() {
+        return failed;
+    }
+
+    /** Calls refused with an {@code LdapException}, e.g. because no LDAP permit became free in time. */
+    long shed() {
+        return shed;
+    }
+
+    /** Calls that threw anything else. */
+    long errors() {
+        return errors;
+    }
+
+    double throughputPerSecond() {
+        return latencies.length / (elapsedNanos / 1e9);
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     */
+    double latencyMillis(double percentile) {
+        if (latencies.length == 0) return 0;
+        final int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+        return latencies[Math.max(0, Math.min(latencies.length - 1, index))] / 1e6;
+    }
+
+    String toCsv() {
+        return String.format(Locale.ROOT, "%s,%s,%d,%d,%d,%d,%d,%d,%.1f,%.1f,%.2f,%.2f,%.2f,%.2f,%.2f",
+                Instant.now(), scenario, callers, calls(), succeeded(), failed, shed, errors, elapsedNanos / 1e6,
+                throughputPerSecond(), latencyMillis(50), latencyMillis(90), latencyMillis(99), latencyMillis(99.9),
+                latencyMillis(100));
+    }
+
+    /**
+     * Appends this report to a CSV file, writing the header first when the file is new.
+     */
+    void appendTo(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        final String row = (Files.exists(file) ? "" : CSV_HEADER + System.lineSeparator()) + toCsv() + System.lineSeparator();
+        Files.write(file, row.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s: %d calls from %d callers in %.0fms, %.0f/s, %d failed, %d shed, %d errors,"
+                        + " p50=%.1fms p99=%.1fms p99.9=%.1fms max=%.1fms",
+                scenario, calls(), callers, elapsedNanos / 1e6, throughputPerSecond(), failed, shed, errors,
+                latencyMillis(50), latencyMillis(99), latencyMillis(99.9), latencyMillis(100));
+    }
+}
@@ -0,0 +1,192 @@
+package com.jjrepos.kafka.security.load;
+
+import com.jjrepos.kafka.security.cache.Cache;
+import com.jjrepos.kafka.security.directory.Directories;
+import com.jjrepos.kafka.security.ldap.LdapProperty;
+import com.jjrepos.kafka.security.ldap.authenticator.LdapAuthenticateCallbackHandler;
+import com.jjrepos.kafka.security.ldap.authorizer.LdapAuthorizer;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.LDAPInterface;
+import org.apache.kafka.common.acl.AclOperation;
+import org.apache.kafka.common.resource.PatternType;
+import org.apache.kafka.common.resource.ResourcePattern;
+import org.apache.kafka.common.resource.ResourceType;
+import org.apache.kafka.common.security.auth.KafkaPrincipal;
+import org.apache.kafka.common.security.plain.PlainAuthenticateCallback;
+import org.apache.kafka.server.authorizer.Action;
+import org.apache.kafka.server.authorizer.AuthorizableRequestContext;
+import org.apache.kafka.server.authorizer.AuthorizationResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.zapodot.junit.ldap.EmbeddedLdapRule;
+import org.zapodot.junit.ldap.EmbeddedLdapRuleBuilder;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.NameCallback;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+/**
+ * Drives the authentication handler and the authorizer from many threads against the embedded directory, reached
+ * through a {@link FaultInjectingProxy}. Excluded from the regular build, run with {@code mvn test -Pload}; sizes can
+ * be changed with {@code -Dload.logins}, {@code -Dload.users} and {@code -Dload.latency.millis}. Every scenario
+ * appends a row to {@code target/load-reports/load-report.csv}, or the file given by {@code -Dload.report}.
+ * <p>
+ * Calls the plugin sheds, by failing them with an {@code LdapException} when the directory is unreachable or no
+ * LDAP permit frees up in time, are reported rather than failing the run; a refused login or a denied request
+ * for a valid user, or any other exception, fails it.
+ */
+public class PluginLoadTest {
+
+    private static final String BASE_DN = "dc=bah,dc=com";
+    private static final String SEARCH_BASE = "OU=Service Accounts";
+    private static final String PASSWORD = "load#secret";
+    private static final int LOGINS = Integer.getInteger("load.logins", 5000);
+    private static final int USERS = Integer.getInteger("load.users", 200);
+    private static final Duration LATENCY = Duration.ofMillis(Long.getLong("load.latency.millis", 500));
+    private static final Path REPORT = Path.of(System.getProperty("load.report", "target/load-reports/load-report.csv"));
+    private static final Duration TIMEOUT = Duration.ofMinutes(10);
+    private static final List<Action> PRODUCE = List.of(
+            new Action(AclOperation.WRITE, new ResourcePattern(ResourceType.TOPIC, "load.topic", PatternType.LITERAL), 1, true, true));
+
+    @ClassRule
+    public static EmbeddedLdapRule LDAP_RULE = EmbeddedLdapRuleBuilder.newInstance()
+            .usingDomainDsn(BASE_DN)
+            .importingLdifs("ldap/kafka-users.ldif")
+            .build();
+
+    private FaultInjectingProxy proxy;
+
+    @BeforeClass
+    public static void addUsers() throws LDAPException {
+        final LDAPInterface connection = LDAP_RULE.ldapConnection();
+        for (int i = 0; i < USERS; i++) {
+            connection.add("cn=" + user(i) + ",ou=Service Accounts," + BASE_DN,
+                    new Attribute("objectClass", "top", "person", "organizationalPerson"),
+                    new Attribute("cn", user(i)),
+                    new Attribute("sn", "load"),
+                    new Attribute("userPassword", PASSWORD),
+                    new Attribute("MEMBEROF", "cn=Kafka-write_grp,OU=AdminGroups," + BASE_DN));
+        }
+    }
+
+    @Before
+    public void startProxy() throws IOException {
+        proxy = new FaultInjectingProxy("localhost", LDAP_RULE.embeddedServerPort());
+    }
+
+    @After
+    public void stopProxy() throws IOException {
+        proxy.close();
+    }
+
+    @Test
+    public void login_storm() throws Exception {
+        final LoadReport report = logins("login_storm", LOGINS);
+        assertEquals(0, report.failed() + report.errors(), report.toString());
+        assertTrue(report.succeeded() > 0, report.toString());
+    }
+
+    @Test
+    public void login_slow_directory() throws Exception {
+        proxy.latency(LATENCY);
+        final LoadReport report = logins("login_slow_directory_" + LATENCY.toMillis() + "ms", LOGINS / 10);
+        assertEquals(0, report.failed() + report.errors(), report.toString());
+        assertTrue(report.latencyMillis(50) >= LATENCY.toMillis(), report.toString());
+    }
+
+    @Test
+    public void login_dropped_connections() throws Exception {
+        proxy.dropProbability(0.05);
+        final LoadReport report = logins("login_dropped_connections_5pct", LOGINS / 5);
+        assertTrue(proxy.dropped() > 0, "no connection was dropped");
+        assertEquals(0, report.failed() + report.errors(), report.toString());
+
+        proxy.heal();
+        final LdapAuthenticateCallbackHandler handler = handler();
+        try {
+            assertTrue(login(handler, user(0)), "logins should succeed again once the directory is reachable");
+        } finally {
+            handler.close();
+        }
+    }
+
+    @Test
+    public void login_throttled_bandwidth() throws Exception {
+        proxy.bandwidth(64 * 1024);
+        final LoadReport report = logins("login_throttled_64KBps", LOGINS / 5);
+        assertEquals(0, report.failed() + report.errors(), report.toString());
+    }
+
+    @Test
+    public void authorize_cold_cache_slow_directory() throws Exception {
+        proxy.latency(LATENCY);
+        final LdapAuthorizer authorizer = new LdapAuthorizer(Directories::shared, Cache.inMemory());
+        authorizer.configure(configs(true));
+        final AuthorizableRequestContext[] contexts = new AuthorizableRequestContext[USERS];
+        for (int i = 0; i < USERS; i++) {
+            contexts[i] = Mockito.mock(AuthorizableRequestContext.class);
+            when(contexts[i].principal()).thenReturn(new KafkaPrincipal(KafkaPrincipal.USER_TYPE, user(i)));
+        }
+        try {
+            final LoadReport report = LoadDriver.run("authorize_cold_cache_" + LATENCY.toMillis() + "ms", USERS * 5, 20, TIMEOUT,
+                    (caller, i) -> authorizer.authorize(contexts[caller % USERS], PRODUCE).get(0) == AuthorizationResult.ALLOWED);
+            report.appendTo(REPORT);
+            assertEquals(0, report.failed() + report.errors(), report.toString());
+            assertTrue(report.succeeded() > 0, report.toString());
+        } finally {
+            authorizer.close();
+        }
+    }
+
+    private LoadReport logins(String scenario, int logins) throws Exception {
+        final LdapAuthenticateCallbackHandler handler = handler();
+        try {
+            final LoadReport report = LoadDriver.run(scenario, logins, 1, TIMEOUT, (caller, i) -> login(handler, user(caller % USERS)));
+            report.appendTo(REPORT);
+            return report;
+        } finally {
+            handler.close();
+        }
+    }
+
+    private LdapAuthenticateCallbackHandler handler() {
+        final LdapAuthenticateCallbackHandler handler = new LdapAuthenticateCallbackHandler();
+        handler.configure(configs(false), "PLAIN", List.of());
+        return handler;
+    }
+
+    private static boolean login(LdapAuthenticateCallbackHandler handler, String user) throws Exception {
+        final PlainAuthenticateCallback password = new PlainAuthenticateCallback(PASSWORD.toCharArray());
+        handler.handle(new Callback[]{new NameCallback("username", user), password});
+        return password.authenticated();
+    }
+
+    private Map<String, Object> configs(boolean authorizer) {
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(LdapProperty.URL.config, proxy.url());
+        configs.put(LdapProperty.BASE_DN.config, BASE_DN);
+        configs.put(LdapProperty.SEARCH_BASE.config, SEARCH_BASE);
+        configs.put(LdapProperty.USER.config, "kafka_admin");
+        configs.put(LdapProperty.PASSWORD.config, "admin#secret");
+        configs.put(LdapProperty.AUDIT_ENABLED.config, "false");
+        if (authorizer) configs.put(LdapProperty.CACHE_VALIDITY_MILLIS.config, "60000");
+        return configs;
+    }
+
+    private static String user(int i) {
+        return "load_user_" + i;
+    }
+}
@@ -0,0 +1,193 @@
+package com.jjrepos.kafka.security.trace;
+
+import com.jjrepos.kafka.security.audit.AuditDecision;
+import com.jjrepos.kafka.security.cache.Cache;
+import com.jjrepos.kafka.security.cache.LoginCache;
+import com.jjrepos.kafka.security.ldap.LdapProperty;
+import com.jjrepos.kafka.security.ldap.authenticator.LdapAuthenticateCallbackHandler;
+import com.jjrepos.kafka.security.ldap.authorizer.Groups;
+import com.jjrepos.kafka.security.ldap.authorizer.LdapAuthorizer;
+import org.apache.kafka.common.acl.AclOperation;
+import org.apache.kafka.common.resource.PatternType;
+import org.apache.kafka.common.resource.ResourcePattern;
+import org.apache.kafka.common.resource.ResourceType;
+import org.apache.kafka.common.security.auth.KafkaPrincipal;
+import org.apache.kafka.common.security.plain.PlainAuthenticateCallback;
+import org.apache.kafka.server.authorizer.Action;
+import org.apache.kafka.server.authorizer.AuthorizableRequestContext;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.NameCallback;
+import javax.security.auth.callback.UnsupportedCallbackException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@RunWith(JUnitPlatform.class)
+public class TraceRecorderTest {
+
+    private static final Action READ_ORDERS = action(AclOperation.READ, ResourceType.TOPIC, "orders");
+    private static final Action WRITE_ORDERS = action(AclOperation.WRITE, ResourceType.TOPIC, "orders");
+    private static final Action READ_GROUP = action(AclOperation.READ, ResourceType.GROUP, "orders-consumer");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void trace_should_read_back_anonymized() throws IOException {
+        var out = new ByteArrayOutputStream();
+        var recorder = new TraceRecorder("test", out, 1024);
+        recorder.authentication(AuditDecision.AUTHENTICATION_SUCCESS, "alice");
+        recorder.authorization("alice", List.of(READ_ORDERS, READ_GROUP), 0);
+        recorder.authorization("bob", List.of(WRITE_ORDERS), 1);
+        recorder.close();
+        assertEquals(3, recorder.recorded());
+        assertFalse(out.toString(StandardCharsets.ISO_8859_1).contains("alice"), "names must not be written");
+
+        try (var reader = new TraceReader(new ByteArrayInputStream(out.toByteArray()))) {
+            var login = reader.next();
+            assertEquals(TraceRecord.Kind.AUTHENTICATION, login.kind());
+            assertEquals(AuditDecision.AUTHENTICATION_SUCCESS, login.decision());
+            assertEquals(0, login.principal());
+
+            var consume = reader.next();
+            assertEquals(0, consume.principal());
+            assertEquals(AuditDecision.AUTHORIZATION_ALLOWED, consume.decision());
+            assertEquals(List.of(action(AclOperation.READ, ResourceType.TOPIC, "resource-0"),
+                    action(AclOperation.READ, ResourceType.GROUP, "resource-1")), consume.actions());
+            assertTrue(consume.nanos() >= login.nanos());
+
+            var produce = reader.next();
+            assertEquals(1, produce.principal());
+            assertEquals(1, produce.denied());
+            assertEquals(List.of(action(AclOperation.WRITE, ResourceType.TOPIC, "resource-0")), produce.actions());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void recorder_should_only_remember_ids_of_recent_names() throws IOException {
+        var out = new ByteArrayOutputStream();
+        var recorder = new TraceRecorder("test", out, 1024, 2);
+        for (String principal : List.of("alice", "bob", "alice", "carol", "alice", "bob")) {
+            recorder.authentication(AuditDecision.AUTHENTICATION_SUCCESS, principal);
+        }
+        recorder.close();
+
+        try (var reader = new TraceReader(new ByteArrayInputStream(out.toByteArray()))) {
+            for (int expected : new int[]{0, 1, 0, 2, 0, 3}) {
+                assertEquals(expected, reader.next().principal());
+            }
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void replay_should_report_cache_hits_and_directory_calls() throws IOException {
+        var trace = directory.resolve("captured.trace");
+        var recorder = new TraceRecorder("test", Files.newOutputStream(trace), 1024);
+        recorder.authentication(AuditDecision.AUTHENTICATION_SUCCESS, "alice");
+        recorder.authentication(AuditDecision.AUTHENTICATION_FAILURE, "mallory");
+        for (int i = 0; i < 50; i++) {
+            recorder.authorization("alice", List.of(READ_ORDERS, READ_GROUP), 0);
+            recorder.authorization("bob", List.of(WRITE_ORDERS), 0);
+        }
+        recorder.close();
+
+        var report = new TraceReplay(0, Duration.ZERO, Duration.ofMinutes(1)).replay(trace);
+        assertEquals(100, report.authorizations());
+        assertEquals(2, report.authentications());
+        assertEquals(1, report.searches(), "alice's groups were read with her login, one search for bob");
+        assertEquals(2, report.binds());
+        assertEquals(0.99, report.hitRatio(), 0.001);
+        assertTrue(report.authorizationMicros(99) >= report.authorizationMicros(50));
+        assertTrue(report.toString().contains("hitRatio=0.990"));
+    }
+
+    @Test
+    public void plugins_should_only_trace_when_configured() throws IOException {
+        assertSame(TraceRecorder.disabled(), TraceRecorder.shared(Map.of()));
+        var recorder = TraceRecorder.shared(Map.of("ldap.trace.dir", directory.toString()));
+        recorder.authorization("alice", List.of(READ_ORDERS), 0);
+        recorder.close();
+        try (var files = Files.list(directory)) {
+            assertEquals(1, files.filter(file -> file.getFileName().toString().startsWith("ldap-")).count());
+        }
+    }
+
+    @Test
+    public void plugins_of_a_broker_should_record_one_trace_with_one_id_space() throws IOException {
+        var configs = Map.of("ldap.trace.dir", directory.toString());
+        var authorizer = new LdapAuthorizer(spec -> user -> Set.of(Groups.READ.name), Cache.inMemory());
+        var plainListener = new LdapAuthenticateCallbackHandler(spec -> (user, password) -> !"wrong".equals(password));
+        var otherListener = new LdapAuthenticateCallbackHandler(spec -> (user, password) -> !"wrong".equals(password));
+        var pluginConfigs = new HashMap<String, Object>(configs);
+        pluginConfigs.put(LdapProperty.URL.config, "localhost");
+        pluginConfigs.put(LdapProperty.BASE_DN.config, "dc=bah,dc=com");
+        pluginConfigs.put(LdapProperty.SEARCH_BASE.config, "OU=Service Accounts");
+        pluginConfigs.put(LdapProperty.USER.config, "kafka_test");
+        pluginConfigs.put(LdapProperty.PASSWORD.config, "password");
+        pluginConfigs.put(LdapProperty.CACHE_VALIDITY_MILLIS.config, "60000");
+        authorizer.configure(pluginConfigs);
+        plainListener.configure(pluginConfigs, "PLAIN", List.of());
+        otherListener.configure(pluginConfigs, "PLAIN", List.of());
+
+        login(plainListener, "Bob", "wrong");
+        login(otherListener, "alice", "secret");
+        var ctx = Mockito.mock(AuthorizableRequestContext.class);
+        when(ctx.principal()).thenReturn(new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "alice"));
+        authorizer.authorize(ctx, List.of(READ_ORDERS));
+        plainListener.close();
+        otherListener.close();
+        authorizer.close();
+        LoginCache.INSTANCE.invalidate("alice");
+
+        final List<Path> traces;
+        try (var files = Files.list(directory)) {
+            traces = files.collect(Collectors.toList());
+        }
+        assertEquals(1, traces.size(), "one trace for the broker");
+        try (var reader = new TraceReader(traces.get(0))) {
+            assertEquals(0, reader.next().principal());
+            var login = reader.next();
+            var authorization = reader.next();
+            assertEquals(TraceRecord.Kind.AUTHENTICATION, login.kind());
+            assertEquals(TraceRecord.Kind.AUTHORIZATION, authorization.kind());
+            assertEquals(1, login.principal());
+            assertEquals(login.principal(), authorization.principal(), "one id per user across plugins");
+            assertNull(reader.next());
+        }
+        var report = new TraceReplay(0, Duration.ZERO, Duration.ofMinutes(1)).replay(traces.get(0));
+        assertEquals(2, report.authentications());
+        assertEquals(1, report.authorizations());
+    }
+
+    private static void login(LdapAuthenticateCallbackHandler handler, String username, String password) throws IOException {
+        try {
+            handler.handle(new Callback[]{new NameCallback("prompt", username), new PlainAuthenticateCallback(password.toCharArray())});
+        } catch (UnsupportedCallbackException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static Action action(AclOperation operation, ResourceType type, String name) {
+        return new Action(operation, new ResourcePattern(type, name, PatternType.LITERAL), 1, true, true);
+    }
+}
@@ -0,0 +1,299 @@
+package com.jjrepos.kafka.security.trace;
+
+import com.jjrepos.kafka.security.audit.AuditDecision;
+import com.jjrepos.kafka.security.cache.AuthCache;
+import com.jjrepos.kafka.security.cache.LoginCache;
+import com.jjrepos.kafka.security.directory.Directory;
+import com.jjrepos.kafka.security.ldap.LdapProperty;
+import com.jjrepos.kafka.security.ldap.authenticator.LdapAuthenticateCallbackHandler;
+import com.jjrepos.kafka.security.ldap.authorizer.Groups;
+import com.jjrepos.kafka.security.ldap.authorizer.LdapAuthorizer;
+import com.jjrepos.kafka.security.ldap.authorizer.Membership;
+import org.apache.kafka.common.security.auth.KafkaPrincipal;
+import org.apache.kafka.common.security.auth.SecurityProtocol;
+import org.apache.kafka.common.security.plain.PlainAuthenticateCallback;
+import org.apache.kafka.server.authorizer.AuthorizableRequestContext;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.NameCallback;
+import javax.security.auth.callback.UnsupportedCallbackException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Replays a captured trace into the plugins against an in-memory stand-in for the directory:
+ * <pre>
+ * java ... com.jjrepos.kafka.security.trace.TraceReplay &lt;trace&gt; [speed] [directory latency millis] [cache validity millis]
+ * </pre>
+ * A speed of 1 keeps the original timing, 10 replays ten times faster and 0 as fast as possible. The stand-in
+ * gives every principal a fixed combination of groups and answers after the configured latency.
+ * <p>
+ * The plugins share {@link AuthCache#INSTANCE} as they do in a broker, so groups read while authenticating serve
+ * later authorizations; the replayed principals are removed from it, and from {@link LoginCache}, afterwards.
+ */
+public final class TraceReplay {
+    private static final List<Set<String>> GROUP_SETS = List.of(
+            Set.of(Groups.READ.name), Set.of(Groups.WRITE.name), Set.of(Groups.READ.name, Groups.WRITE.name),
+            Set.of(Groups.SUPER_USER.name), Set.of(Groups.ADMIN.name));
+    static final String PASSWORD = "replayed";
+
+    private final double speed;
+    private final StandInDirectory directory;
+    private final Duration cacheValidity;
+
+    public TraceReplay(double speed, Duration directoryLatency, Duration cacheValidity) {
+        this.speed = speed;
+        this.directory = new StandInDirectory(directoryLatency.toNanos());
+        this.cacheValidity = cacheValidity;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: TraceReplay <trace> [speed] [directory latency millis] [cache validity millis]");
+            System.exit(2);
+        }
+        final TraceReplay replay = new TraceReplay(args.length > 1 ? Double.parseDouble(args[1]) : 0,
+                Duration.ofMillis(args.length > 2 ? Long.parseLong(args[2]) : 0),
+                Duration.ofMillis(args.length > 3 ? Long.parseLong(args[3]) : 60_000));
+        System.out.println(replay.replay(Path.of(args[0])));
+    }
+
+    public Report replay(Path trace) throws IOException {
+        final LdapAuthorizer authorizer = new LdapAuthorizer(spec -> directory);
+        final LdapAuthenticateCallbackHandler handler = new LdapAuthenticateCallbackHandler(spec -> directory);
+        final Map<String, Object> configs = configs();
+        authorizer.configure(configs);
+        handler.configure(configs, "PLAIN", List.of());
+        final Report report = new Report();
+        final Set<String> principals = new HashSet<>();
+        try (TraceReader reader = new TraceReader(trace)) {
+            final long start = System.nanoTime();
+            TraceRecord record;
+            while ((record = reader.next()) != null) {
+                if (speed > 0) {
+                    final long due = start + (long) (record.nanos() / speed);
+                    for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                principals.add("principal-" + record.principal());
+                final long searches = directory.searches.get();
+                final long began = System.nanoTime();
+                if (record.kind() == TraceRecord.Kind.AUTHORIZATION) {
+                    authorizer.authorize(new ReplayContext("principal-" + record.principal()), record.actions());
+                    report.authorization(System.nanoTime() - began, directory.searches.get() == searches);
+                } else {
+                    authenticate(handler, record);
+                    report.authentication(System.nanoTime() - began);
+                }
+            }
+            report.elapsedNanos = System.nanoTime() - start;
+        } finally {
+            authorizer.close();
+            handler.close();
+            for (String principal : principals) {
+                AuthCache.INSTANCE.invalidate(principal);
+                LoginCache.INSTANCE.invalidate(principal);
+            }
+        }
+        report.searches = directory.searches.get();
+        report.binds = directory.binds.get();
+        return report;
+    }
+
+    private static void authenticate(LdapAuthenticateCallbackHandler handler, TraceRecord record) {
+        final String password = record.decision() == AuditDecision.AUTHENTICATION_FAILURE ? "wrong" : PASSWORD;
+        try {
+            handler.handle(new Callback[]{new NameCallback("prompt", "principal-" + record.principal()),
+                    new PlainAuthenticateCallback(password.toCharArray())});
+        } catch (final UnsupportedCallbackException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Map<String, Object> configs() {
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(LdapProperty.URL.config, "ldap://stand-in");
+        configs.put(LdapProperty.BASE_DN.config, "dc=replay");
+        configs.put(LdapProperty.SEARCH_BASE.config, "ou=users");
+        configs.put(LdapProperty.USER.config, "replay");
+        configs.put(LdapProperty.PASSWORD.config, "replay");
+        configs.put(LdapProperty.CACHE_VALIDITY_MILLIS.config, String.valueOf(cacheValidity.toMillis()));
+        configs.put(LdapProperty.AUDIT_ENABLED.config, "false");
+        return configs;
+    }
+
+    public static final class Report {
+        private long[] authorizations = new long[1024];
+        private int authorizationCount;
+        private long authentications;
+        private long authenticationNanos;
+        private long hits;
+        private long elapsedNanos;
+        private long searches;
+        private long binds;
+
+        private void authorization(long nanos, boolean hit) {
+            if (authorizationCount == authorizations.length) {
+                authorizations = Arrays.copyOf(authorizations, authorizationCount * 2);
+            }
+            authorizations[authorizationCount++] = nanos;
+            if (hit) hits++;
+        }
+
+        private void authentication(long nanos) {
+            authentications++;
+            authenticationNanos += nanos;
+        }
+
+        public int authorizations() {
+            return authorizationCount;
+        }
+
+        public long authentications() {
+            return authentications;
+        }
+
+        public double hitRatio() {
+            return authorizationCount == 0 ? 0 : (double) hits / authorizationCount;
+        }
+
+        public long searches() {
+            return searches;
+        }
+
+        public long binds() {
+            return binds;
+        }
+
+        public double throughputPerSecond() {
+            return (authorizationCount + authentications) / (elapsedNanos / 1e9);
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         */
+        public double authorizationMicros(double percentile) {
+            if (authorizationCount == 0) return 0;
+            final long[] sorted = Arrays.copyOf(authorizations, authorizationCount);
+            Arrays.sort(sorted);
+            final int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile / 100 * sorted.length) - 1);
+            return sorted[Math.max(0, index)] / 1e3;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("authorizations=%d authentications=%d elapsed=%.1fms throughput=%.0f/s"
+                            + " p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus hitRatio=%.3f searches=%d binds=%d",
+                    authorizationCount, authentications, elapsedNanos / 1e6, throughputPerSecond(),
+                    authorizationMicros(50), authorizationMicros(99), authorizationMicros(99.9), authorizationMicros(100),
+                    hitRatio(), searches, binds);
+        }
+    }
+
+    /**
+     * Gives principal {@code principal-n} the n-th of a few group combinations, counting calls as LDAP would see them.
+     */
+    private static final class StandInDirectory implements Directory {
+        private final long latencyNanos;
+        private final AtomicLong searches = new AtomicLong();
+        private final AtomicLong binds = new AtomicLong();
+
+        StandInDirectory(long latencyNanos) {
+            this.latencyNanos = latencyNanos;
+        }
+
+        @Override
+        public boolean authenticate(String username, String password) {
+            binds.incrementAndGet();
+            pause();
+            return PASSWORD.equals(password);
+        }
+
+        /**
+         * Reads the groups along with the bind, as the LDAP connectors do.
+         */
+        @Override
+        public boolean authenticate(String username, String password, Consumer<Membership> groupsRead) {
+            final boolean authenticated = authenticate(username, password);
+            if (authenticated) groupsRead.accept(new Membership(groups(username), null));
+            return authenticated;
+        }
+
+        @Override
+        public Set<String> groupsForUser(String user) {
+            searches.incrementAndGet();
+            pause();
+            return groups(user);
+        }
+
+        private static Set<String> groups(String user) {
+            final int id = Integer.parseInt(user.substring(user.lastIndexOf('-') + 1));
+            return GROUP_SETS.get(id % GROUP_SETS.size());
+        }
+
+        private void pause() {
+            if (latencyNanos > 0) LockSupport.parkNanos(latencyNanos);
+        }
+    }
+
+    private static final class ReplayContext implements AuthorizableRequestContext {
+        private final KafkaPrincipal principal;
+
+        ReplayContext(String name) {
+            this.principal = new KafkaPrincipal(KafkaPrincipal.USER_TYPE, name);
+        }
+
+        @Override
+        public String listenerName() {
+            return "SASL_PLAINTEXT";
+        }
+
+        @Override
+        public SecurityProtocol securityProtocol() {
+            return SecurityProtocol.SASL_PLAINTEXT;
+        }
+
+        @Override
+        public KafkaPrincipal principal() {
+            return principal;
+        }
+
+        @Override
+        public InetAddress clientAddress() {
+            return InetAddress.getLoopbackAddress();
+        }
+
+        @Override
+        public int requestType() {
+            return 0;
+        }
+
+        @Override
+        public int requestVersion() {
+            return 0;
+        }
+
+        @Override
+        public String clientId() {
+            return "replay";
+        }
+
+        @Override
+        public int correlationId() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.jjrepos.kafka.security.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@RunWith(JUnitPlatform.class)
+public class PasswordHashesTest {
+
+    @Test
+    public void should_match_salted_hashes_of_every_scheme() {
+        for (String scheme : new String[]{"SSHA", "SSHA256", "SSHA512", "ssha256"}) {
+            String hash = PasswordHashes.hash(scheme, "secret?");
+            assertTrue(hash.startsWith("{" + scheme.toUpperCase() + "}"));
+            assertTrue(PasswordHashes.matches(hash, "secret?"), scheme);
+            assertFalse(PasswordHashes.matches(hash, "secret!"), scheme);
+        }
+    }
+
+    @Test
+    public void should_salt_every_hash() {
+        assertNotEquals(PasswordHashes.hash("SSHA256", "secret?"), PasswordHashes.hash("SSHA256", "secret?"));
+    }
+
+    @Test
+    public void should_match_hashes_created_elsewhere() {
+        // base64(sha1("secret" + "tGmW1234") + "tGmW1234"), the layout slappasswd produces
+        assertTrue(PasswordHashes.matches("{SSHA}9RpDargcnFZChaoeftAiwtlw8Yl0R21XMTIzNA==", "secret"));
+    }
+
+    @Test
+    public void should_never_match_clear_text_unknown_or_malformed_values() {
+        assertFalse(PasswordHashes.matches("secret", "secret"));
+        assertFalse(PasswordHashes.matches("{CLEAR}secret", "secret"));
+        assertFalse(PasswordHashes.matches("{SSHA}not base64!", "secret"));
+        assertFalse(PasswordHashes.matches("{SSHA}c2hvcnQ=", "secret"));
+        assertFalse(PasswordHashes.matches(null, "secret"));
+        assertThrows(IllegalArgumentException.class, () -> PasswordHashes.hash("MD5", "secret"));
+    }
+}